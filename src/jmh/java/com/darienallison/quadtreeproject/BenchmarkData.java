@@ -0,0 +1,85 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic rectangle sets for the benchmarks, packed as x, y, length, width quadruples
+ * inside the box -1000..1000 on both axes.
+ */
+public final class BenchmarkData {
+    static final double EXTENT = 1000;
+
+    /**
+     * How rectangle origins are spread over the box.
+     */
+    public enum Distribution {
+        /** Origins uniformly distributed. */
+        UNIFORM,
+        /** Origins in 20 tight clusters (standard deviation 5), which makes leaf splits cascade deep. */
+        CLUSTERED,
+        /**
+         * Every origin used by five rectangles. Five is a leaf's capacity: a sixth rectangle
+         * at an identical origin can never be split apart, so more are not generated.
+         */
+        DUPLICATES
+    }
+
+    private BenchmarkData() {
+    }
+
+    static double[] entries(Distribution distribution, int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] entries = new double[count * 4];
+        double[] centres = new double[40];
+        for (int i = 0; i < centres.length; i++) {
+            centres[i] = random.nextDouble(-EXTENT * 0.9, EXTENT * 0.9);
+        }
+        for (int i = 0; i < count; i++) {
+            double x, y;
+            switch (distribution) {
+                case CLUSTERED -> {
+                    int cluster = random.nextInt(centres.length / 2) * 2;
+                    x = clamp(centres[cluster] + 10 * gaussian(random));
+                    y = clamp(centres[cluster + 1] + 10 * gaussian(random));
+                }
+                case DUPLICATES -> {
+                    if (i % 5 != 0) {
+                        x = entries[(i - 1) * 4];
+                        y = entries[(i - 1) * 4 + 1];
+                    } else {
+                        x = random.nextDouble(-EXTENT, EXTENT);
+                        y = random.nextDouble(-EXTENT, EXTENT);
+                    }
+                }
+                default -> {
+                    x = random.nextDouble(-EXTENT, EXTENT);
+                    y = random.nextDouble(-EXTENT, EXTENT);
+                }
+            }
+            entries[i * 4] = x;
+            entries[i * 4 + 1] = y;
+            entries[i * 4 + 2] = random.nextDouble(0, 2);
+            entries[i * 4 + 3] = random.nextDouble(0, 2);
+        }
+        return entries;
+    }
+
+    static Quadtree emptyTree() {
+        return new Quadtree(-EXTENT, EXTENT, -EXTENT, EXTENT);
+    }
+
+    static Quadtree loadedTree(double[] entries) {
+        Quadtree tree = emptyTree();
+        tree.bulkLoad(entries, entries.length / 4);
+        return tree;
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Sum of three uniforms, close enough to normal: mean 0, standard deviation 0.5
+        return random.nextDouble() + random.nextDouble() + random.nextDouble() - 1.5;
+    }
+
+    private static double clamp(double v) {
+        return Math.max(-EXTENT, Math.min(EXTENT, v));
+    }
+}
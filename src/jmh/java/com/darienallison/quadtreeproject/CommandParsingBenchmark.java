@@ -0,0 +1,148 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast command text is turned into calls, without touching a tree: the
+ * {@link CommandReader} used by Main, and the Scanner and split loop it replaced as a
+ * reference point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandParsingBenchmark {
+
+    @Param({"100000"})
+    int lines;
+
+    byte[] commands;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String x = String.format("%.2f", random.nextDouble(-1000, 1000));
+            String y = String.format("%.2f", random.nextDouble(-1000, 1000));
+            switch (random.nextInt(4)) {
+                case 0 -> text.append("Insert ").append(x).append(' ').append(y).append(" 1.50 2.25\n");
+                case 1 -> text.append("Find ").append(x).append(' ').append(y).append('\n');
+                case 2 -> text.append("Delete ").append(x).append(' ').append(y).append('\n');
+                default -> text.append("Update ").append(x).append(' ').append(y).append(" 3.00 0.75\n");
+            }
+        }
+        commands = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void commandReader(Blackhole blackhole) throws IOException {
+        CommandReader reader = new CommandReader(Channels.newChannel(new ByteArrayInputStream(commands)));
+        reader.run(new CommandHandler() {
+            @Override
+            public void insert(double x, double y, double length, double width) {
+                blackhole.consume(x + y + length + width);
+            }
+
+            @Override
+            public void find(double x, double y) {
+                blackhole.consume(x + y);
+            }
+
+            @Override
+            public void query(double xMin, double yMin, double xMax, double yMax) {
+                blackhole.consume(xMin + yMin + xMax + yMax);
+            }
+
+            @Override
+            public void count(double xMin, double yMin, double xMax, double yMax) {
+                blackhole.consume(xMin + yMin + xMax + yMax);
+            }
+
+            @Override
+            public void heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+                blackhole.consume(xMin + yMin + xMax + yMax + cellsX + cellsY);
+            }
+
+            @Override
+            public void nearest(double x, double y, int k) {
+                blackhole.consume(x + y + k);
+            }
+
+            @Override
+            public void delete(double x, double y) {
+                blackhole.consume(x + y);
+            }
+
+            @Override
+            public void update(double x, double y, double length, double width) {
+                blackhole.consume(x + y + length + width);
+            }
+
+            @Override
+            public void move(double x, double y, double newX, double newY, double length, double width) {
+                blackhole.consume(x + y + newX + newY + length + width);
+            }
+
+            @Override
+            public void dump() {
+            }
+
+            @Override
+            public void save(String path) {
+                blackhole.consume(path);
+            }
+
+            @Override
+            public void stats() {
+            }
+
+            @Override
+            public void join(String path) {
+                blackhole.consume(path);
+            }
+
+            @Override
+            public void reject(CommandReader.Command command, String message) {
+                blackhole.consume(message);
+            }
+        });
+    }
+
+    @Benchmark
+    public void scannerAndSplit(Blackhole blackhole) {
+        try (Scanner scanner = new Scanner(new ByteArrayInputStream(commands), StandardCharsets.UTF_8)) {
+            while (scanner.hasNextLine()) {
+                String[] command = scanner.nextLine().trim().split("\\s+");
+                double sum = 0;
+                for (int i = 1; i < command.length; i++) {
+                    sum += Double.parseDouble(command[i]);
+                }
+                blackhole.consume(command[0]);
+                blackhole.consume(sum);
+            }
+        }
+    }
+}
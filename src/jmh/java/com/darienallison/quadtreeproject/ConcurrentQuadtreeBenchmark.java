@@ -0,0 +1,86 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookup throughput on a ConcurrentQuadtree while one writer thread keeps deleting
+ * and re-inserting entries. Change the number of reader threads to see how reads scale across
+ * cores, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ConcurrentQuadtreeBenchmark -tg 1,1
+ * java -jar target/benchmarks.jar ConcurrentQuadtreeBenchmark -tg 8,1
+ * </pre>
+ *
+ * With stripesPerAxis = 1 the whole tree sits behind a single lock, which is the baseline the
+ * striped layout is compared against.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentQuadtreeBenchmark {
+
+    @Param({"1", "8"})
+    int stripesPerAxis;
+
+    @Param({"100000"})
+    int size;
+
+    ConcurrentQuadtree tree;
+    double[] xs, ys;
+
+    @Setup(Level.Trial)
+    public void build() {
+        SplittableRandom random = new SplittableRandom(42);
+        tree = new ConcurrentQuadtree(-50, 50, -50, 50, stripesPerAxis);
+        xs = new double[size];
+        ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = random.nextDouble(-50, 50);
+            ys[i] = random.nextDouble(-50, 50);
+            // Zero-sized entries: a delete at the origin removes exactly this entry
+            tree.insert(xs[i], ys[i], 0, 0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(4)
+    public Quadtree.Rectangle find(Cursor cursor) {
+        int i = cursor.random.nextInt(size);
+        return tree.find(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void deleteAndReinsert(Cursor cursor) {
+        int i = cursor.random.nextInt(size);
+        tree.delete(xs[i], ys[i]);
+        tree.insert(xs[i], ys[i], 0, 0);
+    }
+}
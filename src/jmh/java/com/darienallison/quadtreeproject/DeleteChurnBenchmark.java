@@ -0,0 +1,64 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a delete followed by re-inserting what was deleted, which keeps the tree at a
+ * steady size while leaves repeatedly collapse and split. Entries have no area, so a delete
+ * at an origin removes exactly the entries stored there.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeleteChurnBenchmark {
+
+    @Param({"UNIFORM", "CLUSTERED", "DUPLICATES"})
+    BenchmarkData.Distribution distribution;
+
+    @Param({"100000"})
+    int size;
+
+    Quadtree tree;
+    double[] entries;
+    SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void build() {
+        entries = BenchmarkData.entries(distribution, size, 42);
+        for (int i = 0; i < entries.length; i += 4) {
+            entries[i + 2] = 0;
+            entries[i + 3] = 0;
+        }
+        tree = BenchmarkData.loadedTree(entries);
+        random = new SplittableRandom(7);
+    }
+
+    @Benchmark
+    public Quadtree deleteAndReinsert() {
+        // Duplicate origins come in groups of five, so the whole group goes and comes back
+        int group = distribution == BenchmarkData.Distribution.DUPLICATES ? 5 : 1;
+        int first = random.nextInt(size / group) * group * 4;
+        tree.delete(entries[first], entries[first + 1]);
+        for (int i = first; i < first + group * 4; i += 4) {
+            tree.insert(entries[i], entries[i + 1], 0, 0);
+        }
+        return tree;
+    }
+}
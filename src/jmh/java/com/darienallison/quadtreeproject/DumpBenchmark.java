@@ -0,0 +1,49 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures dumping a whole tree as text, formatting included, into a writer that discards it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DumpBenchmark {
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean compact;
+
+    Quadtree tree;
+
+    @Setup(Level.Trial)
+    public void build() {
+        tree = BenchmarkData.loadedTree(BenchmarkData.entries(BenchmarkData.Distribution.UNIFORM, size, 42));
+    }
+
+    @Benchmark
+    public void dump() {
+        TextResultSink sink = new TextResultSink(Writer.nullWriter(), compact);
+        tree.dump(sink);
+        sink.flush();
+    }
+}
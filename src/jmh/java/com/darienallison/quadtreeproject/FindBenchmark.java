@@ -0,0 +1,70 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of a single point lookup as the tree grows, both at the origin of a
+ * stored rectangle (always a hit) and at a random point (mostly a miss).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FindBenchmark {
+    // Lookups cycle through this many precomputed points
+    private static final int POINTS = 1 << 16;
+
+    @Param({"UNIFORM", "CLUSTERED", "DUPLICATES"})
+    BenchmarkData.Distribution distribution;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    Quadtree tree;
+    double[] storedPoints, randomPoints;
+    int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        double[] entries = BenchmarkData.entries(distribution, size, 42);
+        tree = BenchmarkData.loadedTree(entries);
+        SplittableRandom random = new SplittableRandom(7);
+        storedPoints = new double[POINTS * 2];
+        randomPoints = new double[POINTS * 2];
+        for (int i = 0; i < POINTS; i++) {
+            int entry = random.nextInt(size) * 4;
+            storedPoints[i * 2] = entries[entry];
+            storedPoints[i * 2 + 1] = entries[entry + 1];
+            randomPoints[i * 2] = random.nextDouble(-BenchmarkData.EXTENT, BenchmarkData.EXTENT);
+            randomPoints[i * 2 + 1] = random.nextDouble(-BenchmarkData.EXTENT, BenchmarkData.EXTENT);
+        }
+    }
+
+    @Benchmark
+    public Quadtree.Rectangle findStored() {
+        int i = (next++ & (POINTS - 1)) * 2;
+        return tree.find(storedPoints[i], storedPoints[i + 1]);
+    }
+
+    @Benchmark
+    public Quadtree.Rectangle findRandom() {
+        int i = (next++ & (POINTS - 1)) * 2;
+        return tree.find(randomPoints[i], randomPoints[i + 1]);
+    }
+}
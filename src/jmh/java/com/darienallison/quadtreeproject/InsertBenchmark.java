@@ -0,0 +1,56 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to build a tree of the given size, one insert at a time (so every
+ * leaf split and split cascade is included) and with a single bulk load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    @Param({"UNIFORM", "CLUSTERED", "DUPLICATES"})
+    BenchmarkData.Distribution distribution;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    double[] entries;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        entries = BenchmarkData.entries(distribution, size, 42);
+    }
+
+    @Benchmark
+    public Quadtree insert() {
+        Quadtree tree = BenchmarkData.emptyTree();
+        for (int i = 0; i < entries.length; i += 4) {
+            tree.insert(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public Quadtree bulkLoad() {
+        return BenchmarkData.loadedTree(entries);
+    }
+}
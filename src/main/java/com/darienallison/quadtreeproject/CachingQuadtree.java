@@ -0,0 +1,320 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A result cache in front of another {@link SpatialIndex}. The plane is divided into square
+ * cells of a fixed size, and the cache keeps, for each recently used cell, the rectangles
+ * of the index that reach into it. A find is answered from the cell holding the point and
+ * a small window query from the cells it covers, so repeated lookups in the same area do
+ * not descend the index again. Larger windows, counts, heatmaps, nearest-neighbour
+ * searches and joins go straight to the index.
+ *
+ * <p>At most a fixed number of cells is kept; when another is needed the least recently
+ * used one is dropped. Changes invalidate precisely: an insert, delete, update or move drops
+ * only the cells that the rectangles it changed reach into, before and after the change,
+ * and a bulk load drops them all. Hits, misses, evictions and invalidations are counted
+ * so the cell size and capacity can be tuned.</p>
+ *
+ * <p>Find reports the same rectangle as the index, so update and move act on the rectangle
+ * find reports: a point inside a single cached rectangle is answered from its cell, and a
+ * point where several rectangles overlap is passed on to the index, which decides among
+ * them. Changes must go through this cache, not to the index directly. Like the engines
+ * it wraps, this class is not thread-safe.</p>
+ */
+public final class CachingQuadtree implements SpatialIndex {
+    // Windows covering more cells than this bypass the cache
+    private static final int MAX_QUERY_CELLS = 16;
+    // Cell indexes beyond this magnitude are not exact, so such points bypass the cache
+    private static final double MAX_CELL = 0x1p52;
+
+    private final SpatialIndex index;
+    private final double cellSize;
+    // Cells are filled from a window padded by this much, so a rectangle on a cell
+    // boundary is listed whichever way the division rounds
+    private final double padding;
+    private final int capacity;
+    private final LinkedHashMap<Cell, double[]> cells;
+    private long hits, misses, evictions, invalidations;
+
+    /**
+     * Creates a cache in front of an index.
+     *
+     * @param index the index answering whatever the cache does not hold
+     * @param cellSize the side of a cache cell
+     * @param capacity the maximum number of cells kept
+     * @throws IllegalArgumentException if cellSize is not positive and finite or capacity is not positive
+     */
+    public CachingQuadtree(SpatialIndex index, double cellSize, int capacity) {
+        if (!(cellSize > 0) || !Double.isFinite(cellSize) || capacity < 1) {
+            throw new IllegalArgumentException("Cell size and capacity must be positive: " + cellSize + ", " + capacity);
+        }
+        this.index = index;
+        this.cellSize = cellSize;
+        this.padding = cellSize * 1e-9;
+        this.capacity = capacity;
+        this.cells = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Cell, double[]> eldest) {
+                if (size() > CachingQuadtree.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the index behind the cache.
+     *
+     * @return the wrapped index
+     */
+    public SpatialIndex index() {
+        return index;
+    }
+
+    /** Returns the number of cell lookups answered from the cache. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Returns the number of cell lookups that had to fill the cell from the index. */
+    public long misses() {
+        return misses;
+    }
+
+    /** Returns the number of cells dropped to make room for others. */
+    public long evictions() {
+        return evictions;
+    }
+
+    /** Returns the number of cells dropped because a rectangle reaching into them changed. */
+    public long invalidations() {
+        return invalidations;
+    }
+
+    /** Returns the number of cells currently cached. */
+    public int cachedCells() {
+        return cells.size();
+    }
+
+    /** Returns the maximum number of cells kept. */
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void insert(double x, double y, double length, double width) {
+        index.insert(x, y, length, width);
+        invalidate(x, y, length, width);
+    }
+
+    /**
+     * Loads a batch into the index and empties the cache.
+     */
+    @Override
+    public void bulkLoad(double[] entries, int count) {
+        index.bulkLoad(entries, count);
+        invalidations += cells.size();
+        cells.clear();
+    }
+
+    /**
+     * Answers from the cell holding the point when at most one cached rectangle contains
+     * it, and asks the index when several do, since the cell lists them in query order
+     * rather than in the order the index's find would choose.
+     */
+    @Override
+    public Quadtree.Rectangle find(double x, double y) {
+        long cx = cell(x), cy = cell(y);
+        if (cx == Long.MIN_VALUE || cy == Long.MIN_VALUE) {
+            return index.find(x, y);
+        }
+        double[] entries = entries(cx, cy);
+        int match = -1;
+        for (int i = 0; i < entries.length; i += 4) {
+            if (x >= entries[i] && x <= entries[i] + entries[i + 2] && y >= entries[i + 1] && y <= entries[i + 1] + entries[i + 3]) {
+                if (match >= 0) {
+                    return index.find(x, y);
+                }
+                match = i;
+            }
+        }
+        return match < 0 ? null : new Quadtree.Rectangle(entries[match], entries[match + 1], entries[match + 2], entries[match + 3]);
+    }
+
+    /**
+     * Deletes through the index, first dropping the cells of every rectangle that contains
+     * the point, which the index is asked for.
+     */
+    @Override
+    public void delete(double x, double y) {
+        index.query(x, y, x, y, this::invalidate);
+        index.delete(x, y);
+    }
+
+    @Override
+    public boolean update(double x, double y, double length, double width) {
+        Quadtree.Rectangle rect = index.find(x, y);
+        if (rect == null) {
+            return false;
+        }
+        invalidate(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+        invalidate(rect.getX(), rect.getY(), length, width);
+        return index.update(x, y, length, width);
+    }
+
+    @Override
+    public boolean move(double x, double y, double newX, double newY) {
+        Quadtree.checkCoordinates(newX, newY);
+        Quadtree.Rectangle rect = index.find(x, y);
+        if (rect == null) {
+            return false;
+        }
+        invalidate(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+        invalidate(newX, newY, rect.getLength(), rect.getWidth());
+        return index.move(x, y, newX, newY);
+    }
+
+    @Override
+    public boolean move(double x, double y, double newX, double newY, double length, double width) {
+        Quadtree.checkCoordinates(newX, newY);
+        Quadtree.Rectangle rect = index.find(x, y);
+        if (rect == null) {
+            return false;
+        }
+        invalidate(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+        invalidate(newX, newY, length, width);
+        return index.move(x, y, newX, newY, length, width);
+    }
+
+    /**
+     * Answers a window covering a few cells from the cache, reporting each rectangle from
+     * the cell holding the lower-left corner of its overlap with the window, so every
+     * rectangle is reported once. Other windows go to the index.
+     */
+    @Override
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        long cxMin = cell(xMin), cxMax = cell(xMax), cyMin = cell(yMin), cyMax = cell(yMax);
+        // An inverted window goes to the index too, which decides what it matches
+        if (!(xMin <= xMax && yMin <= yMax) || cxMin == Long.MIN_VALUE || cxMax == Long.MIN_VALUE
+                || cyMin == Long.MIN_VALUE || cyMax == Long.MIN_VALUE
+                || (double) (cxMax - cxMin + 1) * (cyMax - cyMin + 1) > MAX_QUERY_CELLS) {
+            index.query(xMin, yMin, xMax, yMax, visitor);
+            return;
+        }
+        for (long cy = cyMin; cy <= cyMax; cy++) {
+            for (long cx = cxMin; cx <= cxMax; cx++) {
+                double[] entries = entries(cx, cy);
+                for (int i = 0; i < entries.length; i += 4) {
+                    double x = entries[i], y = entries[i + 1], length = entries[i + 2], width = entries[i + 3];
+                    if (x <= xMax && x + length >= xMin && y <= yMax && y + width >= yMin
+                            && cell(Math.max(Math.min(x, x + length), xMin)) == cx
+                            && cell(Math.max(Math.min(y, y + width), yMin)) == cy) {
+                        visitor.visit(x, y, length, width);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public long count(double xMin, double yMin, double xMax, double yMax) {
+        return index.count(xMin, yMin, xMax, yMax);
+    }
+
+    @Override
+    public long[] heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+        return index.heatmap(xMin, yMin, xMax, yMax, cellsX, cellsY);
+    }
+
+    @Override
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        return index.nearest(x, y, k);
+    }
+
+    @Override
+    public void spatialJoin(SpatialIndex other, RectanglePairVisitor visitor) {
+        SpatialIndex unwrapped = other instanceof CachingQuadtree cached ? cached.index : other;
+        index.spatialJoin(unwrapped, visitor);
+    }
+
+    @Override
+    public void dump(ResultSink sink) {
+        index.dump(sink);
+    }
+
+    @Override
+    public void save(Path path) throws IOException {
+        index.save(path);
+    }
+
+    // The cell index of a coordinate, or Long.MIN_VALUE if the point cannot be cached
+    private long cell(double coordinate) {
+        double cell = Math.floor(coordinate / cellSize);
+        return Math.abs(cell) < MAX_CELL ? (long) cell : Long.MIN_VALUE;
+    }
+
+    // The rectangles reaching into a cell, filling it from the index on a miss
+    private double[] entries(long cx, long cy) {
+        Cell key = new Cell(cx, cy);
+        double[] entries = cells.get(key);
+        if (entries != null) {
+            hits++;
+            return entries;
+        }
+        misses++;
+        EntryBuffer found = new EntryBuffer();
+        index.query(cx * cellSize - padding, cy * cellSize - padding, (cx + 1) * cellSize + padding,
+                (cy + 1) * cellSize + padding, found);
+        entries = Arrays.copyOf(found.entries(), found.count() * 4);
+        cells.put(key, entries);
+        return entries;
+    }
+
+    // Drops every cached cell the rectangle reaches into. A rectangle spanning more cells
+    // than are cached is checked against the cached cells instead of cell by cell.
+    private void invalidate(double x, double y, double length, double width) {
+        if (cells.isEmpty()) {
+            return;
+        }
+        double rxMin = Math.min(x, x + length), rxMax = Math.max(x, x + length);
+        double ryMin = Math.min(y, y + width), ryMax = Math.max(y, y + width);
+        long cxMin = cell(rxMin - padding), cxMax = cell(rxMax + padding);
+        long cyMin = cell(ryMin - padding), cyMax = cell(ryMax + padding);
+        boolean bounded = cxMin != Long.MIN_VALUE && cxMax != Long.MIN_VALUE && cyMin != Long.MIN_VALUE && cyMax != Long.MIN_VALUE;
+        if (bounded && (double) (cxMax - cxMin + 1) * (cyMax - cyMin + 1) <= cells.size()) {
+            for (long cy = cyMin; cy <= cyMax; cy++) {
+                for (long cx = cxMin; cx <= cxMax; cx++) {
+                    if (reaches(cx, cy, rxMin, ryMin, rxMax, ryMax) && cells.remove(new Cell(cx, cy)) != null) {
+                        invalidations++;
+                    }
+                }
+            }
+            return;
+        }
+        for (Iterator<Cell> it = cells.keySet().iterator(); it.hasNext(); ) {
+            Cell cell = it.next();
+            if (reaches(cell.x, cell.y, rxMin, ryMin, rxMax, ryMax)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    // Whether a rectangle reaches into the padded window a cell is filled from
+    private boolean reaches(long cx, long cy, double rxMin, double ryMin, double rxMax, double ryMax) {
+        return rxMin <= (cx + 1) * cellSize + padding && rxMax >= cx * cellSize - padding
+                && ryMin <= (cy + 1) * cellSize + padding && ryMax >= cy * cellSize - padding;
+    }
+
+    private record Cell(long x, long y) {
+    }
+}
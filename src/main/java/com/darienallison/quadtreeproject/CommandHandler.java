@@ -0,0 +1,59 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * Receives the commands a {@link CommandReader} parses, one call per line, with every
+ * argument already converted to a number.
+ */
+interface CommandHandler {
+
+    void insert(double x, double y, double length, double width);
+
+    void find(double x, double y);
+
+    void query(double xMin, double yMin, double xMax, double yMax);
+
+    void count(double xMin, double yMin, double xMax, double yMax);
+
+    /** Called only with positive cell counts. */
+    void heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY);
+
+    /** Called only with a positive k. */
+    void nearest(double x, double y, int k);
+
+    void delete(double x, double y);
+
+    void update(double x, double y, double length, double width);
+
+    /** Called for an Update line with six numbers, which moves the rectangle as well. */
+    void move(double x, double y, double newX, double newY, double length, double width);
+
+    void dump();
+
+    void save(String path);
+
+    void stats();
+
+    /**
+     * Called for a Join line, which joins the index with itself or, given a path, with the
+     * tree saved in that snapshot.
+     *
+     * @param path the snapshot to join with, or null to join the index with itself
+     */
+    void join(String path);
+
+    /**
+     * Called before the reader waits for more input, once every complete line read so far
+     * has been dispatched. A handler answering a live connection completes its pending
+     * work and sends its responses here.
+     */
+    default void idle() {
+    }
+
+    /**
+     * Called instead of the command's method when a line cannot be executed.
+     *
+     * @param command the command the line names, or {@link CommandReader.Command#UNKNOWN}
+     * @param message the message to report, in the form the command-line interface prints
+     */
+    void reject(CommandReader.Command command, String message);
+}
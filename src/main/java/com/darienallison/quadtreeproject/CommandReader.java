@@ -0,0 +1,416 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams a command file through one reusable buffer and dispatches each line to a
+ * {@link CommandHandler}. Lines are split into tokens and numbers are parsed straight
+ * from the bytes, so well-formed lines allocate nothing; a String is only built for the
+ * text of an error message or for a number in a form the fast path does not handle.
+ *
+ * <p>Lines end at \n, \r or \r\n and are read the way the original Scanner-based loop
+ * read them: surrounding whitespace is trimmed, blank lines are skipped, tokens are
+ * separated by runs of whitespace, extra tokens are ignored, and numbers accept
+ * everything {@link Double#parseDouble(String)} and {@link Integer#parseInt(String)}
+ * accept.</p>
+ *
+ * <p>A line longer than {@value #MAX_LINE_LENGTH} bytes is rejected without being read into
+ * memory; reading goes on after its end. The buffer therefore never grows past about twice
+ * that, whatever the input.</p>
+ */
+final class CommandReader implements Closeable {
+
+    /**
+     * The commands of the command-file language, with their arity and usage message.
+     */
+    enum Command {
+        INSERT("Insert", 4, "Error: Insert requires four parameters (x, y, length, width)."),
+        FIND("Find", 2, "Error: Find requires two parameters (x, y)."),
+        QUERY("Query", 4, "Error: Query requires four parameters (xMin, yMin, xMax, yMax)."),
+        COUNT("Count", 4, "Error: Count requires four parameters (xMin, yMin, xMax, yMax)."),
+        HEATMAP("Heatmap", 6, "Error: Heatmap requires six parameters (xMin, yMin, xMax, yMax, cellsX, cellsY)."),
+        NEAREST("Nearest", 3, "Error: Nearest requires three parameters (x, y, k)."),
+        DELETE("Delete", 2, "Error: Delete requires two parameters (x, y)."),
+        UPDATE("Update", 4, "Error: Update requires four parameters (x, y, length, width)."),
+        DUMP("Dump", 0, null),
+        SAVE("Save", 1, "Error: Save requires one parameter (path)."),
+        STATS("Stats", 0, null),
+        JOIN("Join", 0, null),
+        UNKNOWN(null, 0, null);
+
+        private final byte[] keyword;
+        private final int parameters;
+        private final String usage;
+
+        Command(String keyword, int parameters, String usage) {
+            this.keyword = keyword == null ? null : keyword.getBytes(StandardCharsets.US_ASCII);
+            this.parameters = parameters;
+            this.usage = usage;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    /** The longest line, in bytes without its line ending, that is read and executed. */
+    static final int MAX_LINE_LENGTH = 1 << 20;
+
+    // Tokens past this many on a line are counted but not located; no command reads them
+    private static final int MAX_TOKENS = 8;
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ReadableByteChannel channel;
+    private final int maxLineLength;
+    private ByteBuffer buffer;
+    private byte[] bytes;
+
+    // The current line: its trimmed bounds and the bounds of its first tokens
+    private int lineStart, lineEnd;
+    private int tokenCount;
+    private final int[] tokenStart = new int[MAX_TOKENS];
+    private final int[] tokenEnd = new int[MAX_TOKENS];
+
+    /**
+     * Creates a reader over the given channel.
+     *
+     * @param channel the source of the commands, read to its end by {@link #run(CommandHandler)}
+     */
+    CommandReader(ReadableByteChannel channel) {
+        this(channel, 1 << 16);
+    }
+
+    CommandReader(ReadableByteChannel channel, int bufferSize) {
+        this(channel, bufferSize, MAX_LINE_LENGTH);
+    }
+
+    CommandReader(ReadableByteChannel channel, int bufferSize, int maxLineLength) {
+        this.channel = channel;
+        this.maxLineLength = maxLineLength;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.bytes = buffer.array();
+    }
+
+    /**
+     * Opens a reader over the file at the given path.
+     *
+     * @param path the command file
+     * @return a reader that must be closed after use
+     * @throws IOException if the file cannot be opened
+     */
+    static CommandReader open(Path path) throws IOException {
+        return new CommandReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Reads every remaining line and dispatches it to the handler. A failure to parse or
+     * execute a line is reported through {@link CommandHandler#reject} and does not stop
+     * the remaining lines from being read.
+     *
+     * @param handler the receiver of the commands
+     * @throws IOException if reading the channel fails
+     */
+    void run(CommandHandler handler) throws IOException {
+        // The buffer is kept in "filled" mode: bytes [0, position) are unread input
+        buffer.clear();
+        boolean eof = false;
+        // Set after a line ending in \r, so that the \n of a \r\n pair does not end a second line
+        boolean skipLineFeed = false;
+        // Set while the rest of an over-long line is passed over
+        boolean skipLine = false;
+        int start = 0;
+        while (true) {
+            int limit = buffer.position();
+            if (skipLineFeed && start < limit) {
+                skipLineFeed = false;
+                if (bytes[start] == '\n') {
+                    start++;
+                    continue;
+                }
+            }
+            int end = start;
+            while (end < limit && bytes[end] != '\n' && bytes[end] != '\r') {
+                end++;
+            }
+            if (end < limit) {
+                if (!skipLine) {
+                    dispatch(handler, start, end);
+                }
+                skipLine = false;
+                skipLineFeed = bytes[end] == '\r';
+                start = end + 1;
+            } else if (eof) {
+                if (start < limit && !skipLine) {
+                    dispatch(handler, start, limit);
+                }
+                return;
+            } else {
+                if (!skipLine && limit - start > maxLineLength) {
+                    rejectLongLine(handler);
+                    skipLine = true;
+                }
+                if (skipLine) {
+                    start = limit;
+                }
+                handler.idle();
+                eof = refill(start);
+                start = 0;
+            }
+        }
+    }
+
+    // Moves the unread bytes from start to the front of the buffer and reads more after
+    // them, growing the buffer when a single line fills it; run skips a line before it
+    // outgrows maxLineLength. Returns true at end of input.
+    private boolean refill(int start) throws IOException {
+        int remaining = buffer.position() - start;
+        System.arraycopy(bytes, start, bytes, 0, remaining);
+        buffer.position(remaining);
+        if (remaining == bytes.length) {
+            buffer = ByteBuffer.allocate(bytes.length * 2).put(bytes);
+            bytes = buffer.array();
+        }
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        return read < 0;
+    }
+
+    private void rejectLongLine(CommandHandler handler) {
+        handler.reject(Command.UNKNOWN, "Error: line longer than " + maxLineLength + " bytes skipped.");
+    }
+
+    private void dispatch(CommandHandler handler, int start, int end) {
+        if (end - start > maxLineLength) {
+            rejectLongLine(handler);
+            return;
+        }
+        // Trim the way String.trim does, then split on the characters \s matches
+        while (start < end && (bytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        lineStart = start;
+        lineEnd = end;
+        tokenCount = 0;
+        int i = start;
+        while (i < end) {
+            int tokenBegin = i;
+            while (i < end && !isSeparator(bytes[i])) {
+                i++;
+            }
+            if (tokenCount < MAX_TOKENS) {
+                tokenStart[tokenCount] = tokenBegin;
+                tokenEnd[tokenCount] = i;
+            }
+            tokenCount++;
+            while (i < end && isSeparator(bytes[i])) {
+                i++;
+            }
+        }
+
+        Command command = command();
+        if (command == Command.UNKNOWN) {
+            handler.reject(command, "Unknown command: " + token(0));
+            return;
+        }
+        if (tokenCount <= command.parameters) {
+            handler.reject(command, command.usage);
+            return;
+        }
+        try {
+            switch (command) {
+                case INSERT -> handler.insert(number(1), number(2), number(3), number(4));
+                case FIND -> handler.find(number(1), number(2));
+                case QUERY -> handler.query(number(1), number(2), number(3), number(4));
+                case COUNT -> handler.count(number(1), number(2), number(3), number(4));
+                case HEATMAP -> {
+                    int cellsX = integer(5), cellsY = integer(6);
+                    if (cellsX < 1 || cellsY < 1) {
+                        handler.reject(command, "Error: Heatmap requires positive cell counts.");
+                    } else {
+                        handler.heatmap(number(1), number(2), number(3), number(4), cellsX, cellsY);
+                    }
+                }
+                case NEAREST -> {
+                    int k = integer(3);
+                    if (k < 1) {
+                        handler.reject(command, "Error: Nearest requires a positive count k.");
+                    } else {
+                        handler.nearest(number(1), number(2), k);
+                    }
+                }
+                case DELETE -> handler.delete(number(1), number(2));
+                case UPDATE -> {
+                    if (tokenCount > 6) {
+                        handler.move(number(1), number(2), number(3), number(4), number(5), number(6));
+                    } else {
+                        handler.update(number(1), number(2), number(3), number(4));
+                    }
+                }
+                case DUMP -> handler.dump();
+                case SAVE -> handler.save(token(1));
+                case STATS -> handler.stats();
+                case JOIN -> handler.join(tokenCount > 1 ? token(1) : null);
+                default -> throw new AssertionError(command);
+            }
+        } catch (NumberFormatException e) {
+            handler.reject(command, "Invalid number format in command: " + line());
+        } catch (IllegalArgumentException e) {
+            handler.reject(command, "Error: " + e.getMessage() + " in command: " + line());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            handler.reject(command, "Missing arguments in command: " + line());
+        }
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private Command command() {
+        int start = tokenStart[0];
+        int length = tokenEnd[0] - start;
+        for (Command command : COMMANDS) {
+            byte[] keyword = command.keyword;
+            if (keyword != null && keyword.length == length
+                    && Arrays.equals(bytes, start, start + length, keyword, 0, length)) {
+                return command;
+            }
+        }
+        return Command.UNKNOWN;
+    }
+
+    /**
+     * Returns the text of a token of the line being dispatched. Meant for building messages;
+     * it allocates a String on every call.
+     *
+     * @param index the token index, 0 being the command name
+     * @return the token's text
+     */
+    String token(int index) {
+        return new String(bytes, tokenStart[index], tokenEnd[index] - tokenStart[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the trimmed text of the line being dispatched.
+     *
+     * @return the line's text
+     */
+    String line() {
+        return new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    // Parses a token as Double.parseDouble would. Plain decimals with at most 15 significant
+    // digits and a small exponent are converted with a single exact multiply or divide, which
+    // rounds correctly; anything else goes through Double.parseDouble itself.
+    private double number(int index) {
+        int i = tokenStart[index];
+        int end = tokenEnd[index];
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean anyDigit = false;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+            anyDigit = true;
+            if (mantissa != 0 || bytes[i] != '0') {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                significant++;
+            }
+            i++;
+        }
+        if (i < end && bytes[i] == '.') {
+            i++;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || bytes[i] != '0') {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    significant++;
+                }
+                scale--;
+                i++;
+            }
+        }
+        if (anyDigit && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentDigits = 0;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && exponentDigits < 4) {
+                exponent = exponent * 10 + (bytes[i] - '0');
+                exponentDigits++;
+                i++;
+            }
+            if (exponentDigits == 0) {
+                anyDigit = false;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (!anyDigit || i != end || significant > 15) {
+            return Double.parseDouble(token(index));
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return Double.parseDouble(token(index));
+        }
+        return negative ? -value : value;
+    }
+
+    // Parses a token as Integer.parseInt would, falling back to it for long or unusual input
+    private int integer(int index) {
+        int i = tokenStart[index];
+        int end = tokenEnd[index];
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(token(index));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return Integer.parseInt(token(index));
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
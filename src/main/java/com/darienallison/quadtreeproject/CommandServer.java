@@ -0,0 +1,336 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the command-file language over a socket, so one index stays loaded and warm across
+ * many batches instead of a JVM being started for every command file. Each connection is a
+ * command file of its own: the client writes lines, and the server answers them in the same
+ * output format as the command-line interface, on the same connection.
+ *
+ * <p>Commands are pipelined: the server executes every complete line it has received and
+ * sends the results of all of them together whenever it runs out of input, so a client may
+ * write a whole batch before reading any answer, or one line at a time. A client that closes
+ * its side of the connection gets the remaining results, and with the count output format
+ * the summary, before the server closes the connection too.</p>
+ *
+ * <p>Every connection runs on a thread of its own, a virtual thread where the runtime offers
+ * them. The engines are not thread-safe, so connections take turns on the index: a connection
+ * holds it while it executes the lines of one read and releases it before sending the results
+ * and waiting for more. Results are collected in memory until then, however large, so a client
+ * that is slow to read holds up only its own connection.</p>
+ *
+ * <p>Any local process that can connect may send commands, so the server limits what a
+ * connection reaches beyond the index: TCP servers only bind to loopback addresses, Save and
+ * Join only accept relative paths that stay inside the directory the server runs in, and the
+ * reader skips lines longer than {@link CommandReader#MAX_LINE_LENGTH} bytes. Symbolic links
+ * inside that directory are followed; the directory should not hold links to files the
+ * clients must not write.</p>
+ */
+final class CommandServer implements Closeable {
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final SpatialIndex index;
+    private final String output;
+    private final Path statsFile;
+    private final long statsInterval;
+    private final ReentrantLock indexLock = new ReentrantLock();
+    private final ExecutorService connections = connectionExecutor();
+
+    private CommandServer(ServerSocketChannel server, Path socketFile, SpatialIndex index, String output,
+                          Path statsFile, long statsInterval) {
+        this.server = server;
+        this.socketFile = socketFile;
+        this.index = index;
+        this.output = output;
+        this.statsFile = statsFile;
+        this.statsInterval = statsInterval;
+    }
+
+    /**
+     * Opens a server on a local address.
+     *
+     * @param address {@code port} or {@code host:port} for TCP, where the host defaults to
+     *                localhost and must be a loopback address, and port 0 picks a free port,
+     *                or {@code unix:path} for a Unix-domain socket created at that path
+     * @param index the index every connection works on
+     * @param output the output format: text, compact or count
+     * @param statsFile the file the Stats report is periodically written to, or null
+     * @param statsInterval the nanoseconds between writes of the statistics file
+     * @return the server, not yet accepting connections
+     * @throws IllegalArgumentException if the port is not a number or the host is not a
+     *         loopback address
+     * @throws IOException if the address cannot be bound
+     */
+    static CommandServer open(String address, SpatialIndex index, String output, Path statsFile, long statsInterval)
+            throws IOException {
+        if (address.startsWith("unix:")) {
+            Path path = Path.of(address.substring("unix:".length()));
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                server.bind(UnixDomainSocketAddress.of(path));
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            return new CommandServer(server, path, index, output, statsFile, statsInterval);
+        }
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? "localhost" : address.substring(0, colon);
+        InetSocketAddress socketAddress = new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1)));
+        if (socketAddress.isUnresolved() || !socketAddress.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("Not a loopback address: " + host);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(socketAddress);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new CommandServer(server, null, index, output, statsFile, statsInterval);
+    }
+
+    /**
+     * Returns the address the server is bound to, with the actual port if 0 was requested.
+     *
+     * @return the local address
+     * @throws IOException if the server is closed
+     */
+    SocketAddress address() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Accepts connections and serves each on its own thread until the server is closed.
+     *
+     * @throws IOException if accepting a connection fails
+     */
+    void serve() throws IOException {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            connections.execute(() -> handle(channel));
+        }
+    }
+
+    /**
+     * Stops accepting connections and removes the socket file of a Unix-domain server.
+     * Connections already open are served to their end.
+     *
+     * @throws IOException if the socket file cannot be removed
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdown();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (CommandReader reader = new CommandReader(channel)) {
+            CharArrayWriter pending = new CharArrayWriter(1 << 16);
+            TextResultSink text = new TextResultSink(pending, output.equals("compact"));
+            CountingResultSink counts = output.equals("count") ? new CountingResultSink(text) : null;
+            ResultSink sink = counts != null ? counts : text;
+            Connection connection = new Connection(
+                    new Main.CommandProcessor(index, reader, sink, statsFile, statsInterval, false), sink,
+                    pending, channel);
+            try {
+                reader.run(connection);
+                connection.idle();
+                if (counts != null) {
+                    counts.summarize();
+                    connection.idle();
+                }
+            } finally {
+                connection.release();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // The client is gone, so there is no one left to report to
+        }
+    }
+
+    // Whether a path sent by a client names a file inside the directory the server runs in
+    private static boolean confined(String path) {
+        try {
+            Path normalized = Path.of(path).normalize();
+            return normalized.getRoot() == null && !normalized.startsWith("..") && !normalized.toString().isEmpty();
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    // Virtual threads are still a preview API in the release this project is compiled for,
+    // so they are looked up when the server starts; without them each connection gets a
+    // platform thread
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Passes one connection's commands to its processor, taking the index for the lines of
+    // one read and handing it back when the reader runs out of input. Results collect in
+    // pending and only go to the client once the index is handed back, since writing to the
+    // socket can block for as long as the client does not read.
+    private final class Connection implements CommandHandler {
+        private final Main.CommandProcessor processor;
+        private final ResultSink sink;
+        private final CharArrayWriter pending;
+        private final SocketChannel client;
+        private boolean locked;
+
+        Connection(Main.CommandProcessor processor, ResultSink sink, CharArrayWriter pending, SocketChannel client) {
+            this.processor = processor;
+            this.sink = sink;
+            this.pending = pending;
+            this.client = client;
+        }
+
+        private CommandHandler acquire() {
+            if (!locked) {
+                indexLock.lock();
+                locked = true;
+            }
+            return processor;
+        }
+
+        void release() {
+            if (locked) {
+                locked = false;
+                indexLock.unlock();
+            }
+        }
+
+        @Override
+        public void idle() {
+            if (locked) {
+                try {
+                    processor.completeRuns();
+                } finally {
+                    release();
+                }
+            }
+            sink.flush();
+            // Encoded here and written to the channel itself: a Writer over the channel holds a
+            // monitor while the write blocks, which pins a virtual thread to its carrier
+            ByteBuffer results = StandardCharsets.UTF_8.encode(CharBuffer.wrap(pending.toCharArray()));
+            pending.reset();
+            try {
+                while (results.hasRemaining()) {
+                    client.write(results);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void insert(double x, double y, double length, double width) {
+            acquire().insert(x, y, length, width);
+        }
+
+        @Override
+        public void find(double x, double y) {
+            acquire().find(x, y);
+        }
+
+        @Override
+        public void query(double xMin, double yMin, double xMax, double yMax) {
+            acquire().query(xMin, yMin, xMax, yMax);
+        }
+
+        @Override
+        public void count(double xMin, double yMin, double xMax, double yMax) {
+            acquire().count(xMin, yMin, xMax, yMax);
+        }
+
+        @Override
+        public void heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+            acquire().heatmap(xMin, yMin, xMax, yMax, cellsX, cellsY);
+        }
+
+        @Override
+        public void nearest(double x, double y, int k) {
+            acquire().nearest(x, y, k);
+        }
+
+        @Override
+        public void delete(double x, double y) {
+            acquire().delete(x, y);
+        }
+
+        @Override
+        public void update(double x, double y, double length, double width) {
+            acquire().update(x, y, length, width);
+        }
+
+        @Override
+        public void move(double x, double y, double newX, double newY, double length, double width) {
+            acquire().move(x, y, newX, newY, length, width);
+        }
+
+        @Override
+        public void dump() {
+            acquire().dump();
+        }
+
+        @Override
+        public void save(String path) {
+            if (confined(path)) {
+                acquire().save(path);
+            } else {
+                acquire().reject(CommandReader.Command.SAVE, "Error: Save over a connection requires a relative path "
+                        + "inside the server's directory: " + path);
+            }
+        }
+
+        @Override
+        public void stats() {
+            acquire().stats();
+        }
+
+        @Override
+        public void join(String path) {
+            if (path == null || confined(path)) {
+                acquire().join(path);
+            } else {
+                acquire().reject(CommandReader.Command.JOIN, "Error: Join over a connection requires a relative path "
+                        + "inside the server's directory: " + path);
+            }
+        }
+
+        @Override
+        public void reject(CommandReader.Command command, String message) {
+            acquire().reject(command, message);
+        }
+    }
+}
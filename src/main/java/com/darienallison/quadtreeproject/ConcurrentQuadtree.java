@@ -0,0 +1,327 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The ConcurrentQuadtree class is a thread-safe quadtree for many concurrent readers
+ * alongside ongoing updates. The world is divided into a fixed grid of stripes, each
+ * holding its own {@link Quadtree} behind its own lock. Readers share a stripe's read
+ * lock, and a writer locks only the stripe that owns the rectangle's origin, so writes
+ * in one region never block reads or writes elsewhere.
+ *
+ * <p>A rectangle is stored in the stripe containing its origin but may reach into
+ * neighbouring stripes. Lookups therefore also consult every stripe within the largest
+ * length and width stored so far of the query, which in practice is only the stripes
+ * next to a boundary. Each operation locks one stripe at a time, so an operation that
+ * spans several stripes is not atomic as a whole. Origins outside the grid belong to
+ * the nearest edge stripe, whose tree grows to hold them.</p>
+ */
+public final class ConcurrentQuadtree {
+
+    private final double xMin, xMax, yMin, yMax;
+    private final int stripesPerAxis;
+    private final Stripe[] stripes;
+
+    // Largest length and width ever stored, as double bits; for non-negative doubles
+    // the bit patterns order the same way as the values
+    private final AtomicLong maxLength = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong maxWidth = new AtomicLong(Double.doubleToLongBits(0));
+
+    /**
+     * Creates an empty concurrent quadtree over -50..50 on both axes, split into 8 x 8 stripes.
+     */
+    public ConcurrentQuadtree() {
+        this(-50, 50, -50, 50, 8);
+    }
+
+    /**
+     * Creates an empty concurrent quadtree over the given bounds.
+     *
+     * @param xMin the minimum x-coordinate of the striped area
+     * @param xMax the maximum x-coordinate of the striped area
+     * @param yMin the minimum y-coordinate of the striped area
+     * @param yMax the maximum y-coordinate of the striped area
+     * @param stripesPerAxis the number of stripes along each axis; 1 gives a single tree behind one lock
+     * @throws IllegalArgumentException if the bounds enclose no area or stripesPerAxis is not positive
+     */
+    public ConcurrentQuadtree(double xMin, double xMax, double yMin, double yMax, int stripesPerAxis) {
+        if (stripesPerAxis < 1) {
+            throw new IllegalArgumentException("stripesPerAxis must be positive: " + stripesPerAxis);
+        }
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.stripesPerAxis = stripesPerAxis;
+        this.stripes = new Stripe[stripesPerAxis * stripesPerAxis];
+        double xStep = (xMax - xMin) / stripesPerAxis;
+        double yStep = (yMax - yMin) / stripesPerAxis;
+        for (int row = 0; row < stripesPerAxis; row++) {
+            for (int column = 0; column < stripesPerAxis; column++) {
+                stripes[row * stripesPerAxis + column] = new Stripe(new Quadtree(
+                        xMin + column * xStep, column == stripesPerAxis - 1 ? xMax : xMin + (column + 1) * xStep,
+                        yMin + row * yStep, row == stripesPerAxis - 1 ? yMax : yMin + (row + 1) * yStep),
+                        column, row);
+            }
+        }
+    }
+
+    /**
+     * Inserts a new rectangle, locking only the stripe that owns its origin.
+     *
+     * @param x the x-coordinate of the rectangle
+     * @param y the y-coordinate of the rectangle
+     * @param length the length of the rectangle
+     * @param width the width of the rectangle
+     */
+    public void insert(double x, double y, double length, double width) {
+        Quadtree.checkCoordinates(x, y);
+        // Publish the reach before the rectangle itself so readers never under-search
+        raise(maxLength, length);
+        raise(maxWidth, width);
+        Stripe stripe = stripes[column(x) + row(y) * stripesPerAxis];
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.tree.insert(x, y, length, width);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds a rectangle containing the specified coordinates. The stripe containing the
+     * point is searched first. The rectangle returned is a copy, unaffected by later changes.
+     *
+     * @param x the x-coordinate to look up
+     * @param y the y-coordinate to look up
+     * @return a rectangle containing (x, y), or null if there is none
+     */
+    public Quadtree.Rectangle find(double x, double y) {
+        Stripe own = stripes[column(x) + row(y) * stripesPerAxis];
+        Quadtree.Rectangle found = find(own, x, y);
+        if (found != null) {
+            return found;
+        }
+        int fromColumn = column(x - reach(maxLength)), fromRow = row(y - reach(maxWidth));
+        for (int row = fromRow; row <= own.row; row++) {
+            for (int column = fromColumn; column <= own.column; column++) {
+                Stripe stripe = stripes[row * stripesPerAxis + column];
+                if (stripe != own && (found = find(stripe, x, y)) != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The stripe's tree copies the rectangle it finds, so the copy is taken while the read
+    // lock is still held and a later update under the write lock cannot reach it
+    private static Quadtree.Rectangle find(Stripe stripe, double x, double y) {
+        long stamp = stripe.lock.readLock();
+        try {
+            return stripe.tree.find(x, y);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Deletes every rectangle containing the specified coordinates. Each stripe that could
+     * hold such a rectangle is locked and cleaned in turn.
+     *
+     * @param x the x-coordinate of the rectangles to delete
+     * @param y the y-coordinate of the rectangles to delete
+     */
+    public void delete(double x, double y) {
+        int fromColumn = column(x - reach(maxLength)), toColumn = column(x);
+        int fromRow = row(y - reach(maxWidth)), toRow = row(y);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                Stripe stripe = stripes[row * stripesPerAxis + column];
+                long stamp = stripe.lock.writeLock();
+                try {
+                    stripe.tree.delete(x, y);
+                } finally {
+                    stripe.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the dimensions of a rectangle containing the specified coordinates, searching
+     * the stripes in the same order as {@link #find(double, double)}.
+     *
+     * @param x the x-coordinate of the rectangle to update
+     * @param y the y-coordinate of the rectangle to update
+     * @param length the new length of the rectangle
+     * @param width the new width of the rectangle
+     * @return true if a rectangle was updated, false if none contains the point
+     */
+    public boolean update(double x, double y, double length, double width) {
+        raise(maxLength, length);
+        raise(maxWidth, width);
+        Stripe own = stripes[column(x) + row(y) * stripesPerAxis];
+        if (update(own, x, y, length, width)) {
+            return true;
+        }
+        int fromColumn = column(x - reach(maxLength)), fromRow = row(y - reach(maxWidth));
+        for (int row = fromRow; row <= own.row; row++) {
+            for (int column = fromColumn; column <= own.column; column++) {
+                Stripe stripe = stripes[row * stripesPerAxis + column];
+                if (stripe != own && update(stripe, x, y, length, width)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean update(Stripe stripe, double x, double y, double length, double width) {
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.tree.update(x, y, length, width);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax]. The
+     * visitor is called while the read lock of the stripe being searched is held, so it must
+     * not modify this tree.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param visitor called once for each matching rectangle
+     */
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        if (!(xMin <= xMax && yMin <= yMax)) {
+            return;
+        }
+        int fromColumn = column(xMin - reach(maxLength)), toColumn = column(xMax);
+        int fromRow = row(yMin - reach(maxWidth)), toRow = row(yMax);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                Stripe stripe = stripes[row * stripesPerAxis + column];
+                long stamp = stripe.lock.readLock();
+                try {
+                    stripe.tree.query(xMin, yMin, xMax, yMax, visitor);
+                } finally {
+                    stripe.lock.unlockRead(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first. Stripes are
+     * searched in order of their distance to the point, and the search stops at the first
+     * stripe that cannot hold anything closer than the current k-th result.
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        double lengthReach = reach(maxLength), widthReach = reach(maxWidth);
+        double[] lowerBounds = new double[stripes.length];
+        Integer[] order = new Integer[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            lowerBounds[i] = stripes[i].squaredDistance(x, y, lengthReach, widthReach);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> lowerBounds[i]));
+
+        List<Quadtree.Rectangle> best = new ArrayList<>();
+        Comparator<Quadtree.Rectangle> byDistance = Comparator.comparingDouble(rect -> squaredDistance(x, y, rect));
+        for (int i : order) {
+            if (best.size() == k && lowerBounds[i] >= squaredDistance(x, y, best.get(k - 1))) {
+                break;
+            }
+            Stripe stripe = stripes[i];
+            long stamp = stripe.lock.readLock();
+            try {
+                best.addAll(stripe.tree.nearest(x, y, k));
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            best.sort(byDistance);
+            if (best.size() > k) {
+                best.subList(k, best.size()).clear();
+            }
+        }
+        return best;
+    }
+
+    private static double squaredDistance(double x, double y, Quadtree.Rectangle rect) {
+        double dx = Math.max(Math.max(rect.getX() - x, 0), x - (rect.getX() + rect.getLength()));
+        double dy = Math.max(Math.max(rect.getY() - y, 0), y - (rect.getY() + rect.getWidth()));
+        return dx * dx + dy * dy;
+    }
+
+    // Stripe column owning an x-coordinate; origins off the grid belong to the edge column
+    private int column(double x) {
+        return index(x, xMin, xMax);
+    }
+
+    private int row(double y) {
+        return index(y, yMin, yMax);
+    }
+
+    private int index(double v, double min, double max) {
+        double cell = (v - min) / (max - min) * stripesPerAxis;
+        if (!(cell > 0)) {
+            return 0;
+        }
+        return (int) Math.min(cell, stripesPerAxis - 1);
+    }
+
+    private static double reach(AtomicLong bound) {
+        return Double.longBitsToDouble(bound.get());
+    }
+
+    private static void raise(AtomicLong bound, double value) {
+        if (value > 0) {
+            bound.accumulateAndGet(Double.doubleToLongBits(value), Math::max);
+        }
+    }
+
+    private final class Stripe {
+        final StampedLock lock = new StampedLock();
+        final Quadtree tree;
+        final int column, row;
+
+        Stripe(Quadtree tree, int column, int row) {
+            this.tree = tree;
+            this.column = column;
+            this.row = row;
+        }
+
+        // Lower bound on the squared distance from (x, y) to any rectangle stored here. Edge
+        // stripes also own the origins beyond the grid, so their outer sides are unbounded.
+        double squaredDistance(double x, double y, double lengthReach, double widthReach) {
+            double xStep = (xMax - xMin) / stripesPerAxis;
+            double yStep = (yMax - yMin) / stripesPerAxis;
+            double left = column == 0 ? Double.NEGATIVE_INFINITY : xMin + column * xStep;
+            double right = column == stripesPerAxis - 1 ? Double.POSITIVE_INFINITY : xMin + (column + 1) * xStep;
+            double bottom = row == 0 ? Double.NEGATIVE_INFINITY : yMin + row * yStep;
+            double top = row == stripesPerAxis - 1 ? Double.POSITIVE_INFINITY : yMin + (row + 1) * yStep;
+            double dx = Math.max(Math.max(left - x, 0), x - (right + lengthReach));
+            double dy = Math.max(Math.max(bottom - y, 0), y - (top + widthReach));
+            return dx * dx + dy * dy;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * A result sink that only counts results. Messages such as errors are still passed on to
+ * another sink, so problems in the input stay visible, and {@link #summarize()} writes the
+ * totals there as one line.
+ */
+public final class CountingResultSink implements ResultSink {
+    private final ResultSink messages;
+    private long found, notFound, updated, notUpdated, matched, paired;
+
+    /**
+     * Creates a counting sink.
+     *
+     * @param messages the sink receiving messages and the summary
+     */
+    public CountingResultSink(ResultSink messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public void found(double x, double y, Quadtree.Rectangle rect) {
+        if (rect != null) {
+            found++;
+        } else {
+            notFound++;
+        }
+    }
+
+    @Override
+    public void updated(double x, double y, boolean updated) {
+        if (updated) {
+            this.updated++;
+        } else {
+            notUpdated++;
+        }
+    }
+
+    @Override
+    public void matched(double x, double y, double length, double width) {
+        matched++;
+    }
+
+    @Override
+    public void paired(double x1, double y1, double length1, double width1, double x2, double y2, double length2, double width2) {
+        paired++;
+    }
+
+    @Override
+    public void message(String text) {
+        messages.message(text);
+    }
+
+    @Override
+    public void internalNode(int depth) {
+    }
+
+    @Override
+    public void beginLeaf(int depth) {
+    }
+
+    @Override
+    public void leafEntry(double x, double y, double length, double width) {
+    }
+
+    @Override
+    public void endLeaf() {
+    }
+
+    /**
+     * Writes the totals counted so far to the message sink.
+     */
+    public void summarize() {
+        messages.message("Found: " + found + ", not found: " + notFound + ", updated: " + updated
+                + ", not updated: " + notUpdated + ", matched: " + matched + ", pairs: " + paired);
+    }
+
+    @Override
+    public void flush() {
+        messages.flush();
+    }
+}
@@ -0,0 +1,147 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * The counts of a heatmap: a window divided into a grid of equal cells, each counting the
+ * rectangles that intersect it. Cells are closed and share their edges, so a rectangle
+ * touching an edge counts in the cells on both sides, just as a window query on each cell
+ * would report it. As a visitor it counts every rectangle it is handed, which lets a
+ * query over the window fill it.
+ *
+ * <p>Counts are kept row by row from the bottom row up: the cell in column i from the left
+ * and row j from the bottom is at index j * cellsX + i of {@link #counts()}.</p>
+ */
+final class DensityGrid implements RectangleVisitor {
+    private final double xMin, yMin, xMax, yMax;
+    private final int cellsX;
+    // Cell edges from left to right and bottom to top, cellsX + 1 and cellsY + 1 of them
+    private final double[] xEdges, yEdges;
+    private final long[] counts;
+
+    /**
+     * Creates an empty grid over a window. An inverted window, one with xMin greater than
+     * xMax or yMin greater than yMax, intersects nothing and leaves every cell at zero.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param cellsX the number of columns
+     * @param cellsY the number of rows
+     * @throws IllegalArgumentException if the window is not finite or the grid has no cells
+     *                                  or too many to hold
+     */
+    DensityGrid(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+        if (!Double.isFinite(xMin) || !Double.isFinite(yMin) || !Double.isFinite(xMax) || !Double.isFinite(yMax)) {
+            throw new IllegalArgumentException("Heatmap window must be finite");
+        }
+        if (cellsX < 1 || cellsY < 1 || (long) cellsX * cellsY > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Heatmap needs between 1 and " + (Integer.MAX_VALUE - 8)
+                    + " cells: " + cellsX + "x" + cellsY);
+        }
+        this.xMin = xMin;
+        this.yMin = yMin;
+        this.xMax = xMax;
+        this.yMax = yMax;
+        this.cellsX = cellsX;
+        this.xEdges = edges(xMin, xMax, cellsX);
+        this.yEdges = edges(yMin, yMax, cellsY);
+        this.counts = new long[cellsX * cellsY];
+    }
+
+    // Evenly spaced edges from min to max. Interpolating, rather than stepping from min,
+    // keeps both ends exact and cannot overflow however wide the window is; rounding is
+    // clamped so that the edges never decrease.
+    private static double[] edges(double min, double max, int cells) {
+        double[] edges = new double[cells + 1];
+        edges[0] = min;
+        for (int i = 1; i < cells; i++) {
+            double t = (double) i / cells;
+            edges[i] = Math.min(max, Math.max(edges[i - 1], min * (1 - t) + max * t));
+        }
+        edges[cells] = max;
+        return edges;
+    }
+
+    /**
+     * Returns the counts, row by row from the bottom row up.
+     *
+     * @return the backing array of counts
+     */
+    long[] counts() {
+        return counts;
+    }
+
+    @Override
+    public void visit(double x, double y, double length, double width) {
+        if (!(xMin <= xMax && yMin <= yMax)) {
+            return;
+        }
+        // A rectangle reaches every cell from the first whose right edge is not left of x
+        // to the last whose left edge is not right of x + length, as in Rectangle.intersects
+        int iFirst = first(xEdges, x), iLast = last(xEdges, x + length);
+        int jFirst = first(yEdges, y), jLast = last(yEdges, y + width);
+        for (int j = jFirst; j <= jLast; j++) {
+            for (int i = iFirst; i <= iLast; i++) {
+                counts[j * cellsX + i]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the one cell that every rectangle inside a box intersects, if the box lies
+     * inside the window and within a single cell, so that a subtree with that extent can
+     * be counted whole.
+     *
+     * @param bxMin the left edge of the box
+     * @param byMin the bottom edge of the box
+     * @param bxMax the right edge of the box
+     * @param byMax the top edge of the box
+     * @return the index of the cell in {@link #counts()}, or -1 if the box lies outside the
+     *         window or across a cell edge
+     */
+    int cell(double bxMin, double byMin, double bxMax, double byMax) {
+        if (!(bxMin >= xMin && bxMax <= xMax && byMin >= yMin && byMax <= yMax)) {
+            return -1;
+        }
+        int i = first(xEdges, bxMin), j = first(yEdges, byMin);
+        return i == last(xEdges, bxMax) && j == last(yEdges, byMax) ? j * cellsX + i : -1;
+    }
+
+    /**
+     * Adds to the count of one cell.
+     *
+     * @param cell the index of the cell in {@link #counts()}
+     * @param count the number of rectangles to add
+     */
+    void add(int cell, long count) {
+        counts[cell] += count;
+    }
+
+    // The first cell whose upper edge is at or above the coordinate, or the number of cells if none is
+    private static int first(double[] edges, double coordinate) {
+        int low = 0, high = edges.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (edges[mid + 1] >= coordinate) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // The last cell whose lower edge is at or below the coordinate, or -1 if none is
+    private static int last(double[] edges, double coordinate) {
+        int low = -1, high = edges.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (edges[mid] <= coordinate) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
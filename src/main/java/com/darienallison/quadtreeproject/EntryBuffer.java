@@ -0,0 +1,52 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of rectangles packed as x, y, length, width quadruples.
+ * Entry i occupies indices 4i to 4i+3 of {@link #entries()}. As a visitor it
+ * appends every rectangle it is handed, which lets a query fill it without
+ * creating Rectangle objects.
+ */
+final class EntryBuffer implements RectangleVisitor {
+    private double[] entries;
+    private int count;
+
+    EntryBuffer() {
+        this(16);
+    }
+
+    EntryBuffer(int initialCapacity) {
+        entries = new double[Math.max(initialCapacity, 1) * 4];
+    }
+
+    @Override
+    public void visit(double x, double y, double length, double width) {
+        int i = count * 4;
+        if (i == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[i] = x;
+        entries[i + 1] = y;
+        entries[i + 2] = length;
+        entries[i + 3] = width;
+        count++;
+    }
+
+    /**
+     * Returns the backing array; only the first {@code 4 * count()} values are in use.
+     *
+     * @return the packed entries
+     */
+    double[] entries() {
+        return entries;
+    }
+
+    int count() {
+        return count;
+    }
+
+    void clear() {
+        count = 0;
+    }
+}
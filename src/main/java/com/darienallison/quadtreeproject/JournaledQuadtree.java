@@ -0,0 +1,401 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A quadtree whose changes survive a crash. Every insert, delete and update is applied to an
+ * in-memory {@link Quadtree} and appended to a write-ahead journal as a compact binary record.
+ * Records are made durable in groups: they collect in a buffer and one {@code force()} commits
+ * the whole group, either when {@link #commit()} is called or when the group reaches its
+ * configured size. A change is guaranteed to survive a crash once a commit covering it returns.
+ *
+ * <p>After a configurable number of records the tree is checkpointed: it is saved as a
+ * snapshot (see {@link Quadtree#save(Path)}) and the journal starts over empty. Checkpoints
+ * and journals are numbered by generation, so {@code checkpoint-7.qts} holds the tree as of
+ * the start of {@code journal-7.log}. Opening a directory recovers by loading the newest
+ * checkpoint and replaying only its journal. A record cut short by a crash fails its checksum
+ * and is discarded together with anything after it.</p>
+ *
+ * <p>A checkpoint only replaces the previous generation once its file, its rename and the new
+ * journal are all forced to storage, and the previous generation is kept until the next
+ * checkpoint. If the newest checkpoint cannot be read, recovery falls back to the previous
+ * one and replays its complete journal before the newest.</p>
+ *
+ * <p>Journal records are one operation byte, the operation's doubles and a CRC32 of both:</p>
+ * <pre>
+ * INSERT  x, y, length, width
+ * DELETE  x, y
+ * UPDATE  x, y, length, width
+ * </pre>
+ *
+ * <p>Like Quadtree, this class is not thread-safe.</p>
+ */
+public final class JournaledQuadtree implements Closeable {
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+    static final byte UPDATE = 3;
+
+    private static final Pattern CHECKPOINT = Pattern.compile("checkpoint-(\\d+)\\.qts");
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)\\.log");
+    // Operation byte, at most four doubles and the checksum
+    private static final int MAX_RECORD_BYTES = 1 + 4 * 8 + 4;
+    // Windows cannot open a directory as a channel; NTFS journals the directory itself
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private final Path directory;
+    private final int groupSize;
+    private final long checkpointInterval;
+    private final Quadtree tree;
+    private final ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+    private FileChannel journal;
+    private long generation;
+    private int uncommitted;
+    private long sinceCheckpoint;
+
+    private JournaledQuadtree(Path directory, int groupSize, long checkpointInterval, Quadtree tree, long generation,
+                              FileChannel journal, long replayed) {
+        this.directory = directory;
+        this.groupSize = groupSize;
+        this.checkpointInterval = checkpointInterval;
+        this.tree = tree;
+        this.generation = generation;
+        this.journal = journal;
+        this.sinceCheckpoint = replayed;
+    }
+
+    /**
+     * Opens a journaled tree in the given directory with groups of 64 records and a
+     * checkpoint every 100,000 records.
+     *
+     * @param directory the directory holding the checkpoints and journal; created if missing
+     * @return the recovered tree
+     * @throws IOException if the directory or its files cannot be read or written
+     */
+    public static JournaledQuadtree open(Path directory) throws IOException {
+        return open(directory, 64, 100_000);
+    }
+
+    /**
+     * Opens a journaled tree in the given directory, recovering whatever it already holds.
+     *
+     * @param directory the directory holding the checkpoints and journal; created if missing
+     * @param groupSize the number of records committed together by one {@code force()};
+     *                  1 commits every change on its own
+     * @param checkpointInterval the number of records after which a checkpoint is taken
+     * @return the recovered tree
+     * @throws IllegalArgumentException if groupSize or checkpointInterval is not positive
+     * @throws IOException if the directory or its files cannot be read or written
+     */
+    public static JournaledQuadtree open(Path directory, int groupSize, long checkpointInterval) throws IOException {
+        if (groupSize < 1 || checkpointInterval < 1) {
+            throw new IllegalArgumentException("Group size and checkpoint interval must be positive: "
+                    + groupSize + ", " + checkpointInterval);
+        }
+        Files.createDirectories(directory);
+        long[] checkpoints = generations(directory, CHECKPOINT);
+        long generation = checkpoints.length == 0 ? 0 : checkpoints[checkpoints.length - 1];
+        // Load the newest checkpoint that can be read; generation 0 starts from an empty tree
+        Quadtree tree = null;
+        long base = 0;
+        IOException damaged = null;
+        for (int i = checkpoints.length - 1; i >= 0 && tree == null; i--) {
+            long candidate = checkpoints[i];
+            try {
+                tree = Quadtree.load(checkpoint(directory, candidate));
+                base = candidate;
+            } catch (IOException | RuntimeException e) {
+                if (damaged == null) {
+                    damaged = new IOException("Cannot read " + checkpoint(directory, candidate), e);
+                } else {
+                    damaged.addSuppressed(e);
+                }
+            }
+        }
+        if (tree == null) {
+            if (damaged != null && !Files.exists(journal(directory, 0))) {
+                throw damaged;
+            }
+            tree = new Quadtree();
+        }
+        // Each earlier journal was complete when the checkpoint after it was taken, so all of
+        // it must replay to bring the tree up to the newest generation
+        for (long earlier = base; earlier < generation; earlier++) {
+            Path path = journal(directory, earlier);
+            if (!Files.exists(path) || replay(path, tree)[0] != Files.size(path)) {
+                throw new IOException("Cannot recover: " + path + " is missing or damaged", damaged);
+            }
+        }
+
+        Path journalPath = journal(directory, generation);
+        long[] replay = Files.exists(journalPath) ? replay(journalPath, tree) : new long[] {0, 0};
+        FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a torn record left by a crash so new records follow the last intact one
+        journal.truncate(replay[0]);
+        journal.position(replay[0]);
+        journal.force(true);
+        forceDirectory(directory);
+        deleteOlderThan(directory, Math.min(base, generation - 1));
+        return new JournaledQuadtree(directory, groupSize, checkpointInterval, tree, generation, journal, replay[1]);
+    }
+
+    /**
+     * Inserts a rectangle and journals the change.
+     *
+     * @throws IOException if the journal cannot be written
+     * @see Quadtree#insert(double, double, double, double)
+     */
+    public void insert(double x, double y, double length, double width) throws IOException {
+        tree.insert(x, y, length, width);
+        append(INSERT, x, y, length, width);
+    }
+
+    /**
+     * Deletes every rectangle containing the point and journals the change.
+     *
+     * @throws IOException if the journal cannot be written
+     * @see Quadtree#delete(double, double)
+     */
+    public void delete(double x, double y) throws IOException {
+        tree.delete(x, y);
+        append(DELETE, x, y, 0, 0);
+    }
+
+    /**
+     * Resizes the rectangle found at the point and journals the change if there was one.
+     *
+     * @return true if a rectangle containing (x, y) was found and resized
+     * @throws IOException if the journal cannot be written
+     * @see Quadtree#update(double, double, double, double)
+     */
+    public boolean update(double x, double y, double length, double width) throws IOException {
+        boolean updated = tree.update(x, y, length, width);
+        if (updated) {
+            append(UPDATE, x, y, length, width);
+        }
+        return updated;
+    }
+
+    /**
+     * Finds a rectangle at the specified coordinates.
+     *
+     * @see Quadtree#find(double, double)
+     */
+    public Quadtree.Rectangle find(double x, double y) {
+        return tree.find(x, y);
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax].
+     *
+     * @see Quadtree#query(double, double, double, double, RectangleVisitor)
+     */
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        tree.query(xMin, yMin, xMax, yMax, visitor);
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first.
+     *
+     * @see Quadtree#nearest(double, double, int)
+     */
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        return tree.nearest(x, y, k);
+    }
+
+    /**
+     * Reports the structure of the tree to a result sink.
+     *
+     * @see Quadtree#dump(ResultSink)
+     */
+    public void dump(ResultSink sink) {
+        tree.dump(sink);
+    }
+
+    /**
+     * Makes every change so far durable with a single {@code force()} of the journal.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public void commit() throws IOException {
+        if (uncommitted == 0) {
+            return;
+        }
+        writePending();
+        journal.force(false);
+        uncommitted = 0;
+    }
+
+    /**
+     * Commits, saves the tree as the next generation's checkpoint and starts that
+     * generation's empty journal. Once both are durable, the files of the generation before
+     * the previous one are removed.
+     *
+     * @throws IOException if the checkpoint or the new journal cannot be written
+     */
+    public void checkpoint() throws IOException {
+        commit();
+        long next = generation + 1;
+        Path target = checkpoint(directory, next);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        tree.save(temporary);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel nextJournal = FileChannel.open(journal(directory, next), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        nextJournal.force(true);
+        // The rename and the new journal are only durable once the directory is; until then a
+        // crash may come back to the previous generation, so nothing older may go before this
+        forceDirectory(directory);
+        journal.close();
+        journal = nextJournal;
+        generation = next;
+        sinceCheckpoint = 0;
+        deleteOlderThan(directory, next - 1);
+    }
+
+    /**
+     * Commits any pending changes and closes the journal.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            journal.close();
+        }
+    }
+
+    private void append(byte operation, double x, double y, double length, double width) throws IOException {
+        if (pending.remaining() < MAX_RECORD_BYTES) {
+            writePending();
+        }
+        int start = pending.position();
+        pending.put(operation).putDouble(x).putDouble(y);
+        if (operation != DELETE) {
+            pending.putDouble(length).putDouble(width);
+        }
+        crc.reset();
+        crc.update(pending.array(), start, pending.position() - start);
+        pending.putInt((int) crc.getValue());
+        uncommitted++;
+        sinceCheckpoint++;
+        if (sinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        } else if (uncommitted >= groupSize) {
+            commit();
+        }
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            journal.write(pending);
+        }
+        pending.clear();
+    }
+
+    // Applies every intact record of a journal to the tree. Returns the length of the intact
+    // prefix and the number of records in it.
+    private static long[] replay(Path path, Quadtree tree) throws IOException {
+        long valid = 0;
+        long records = 0;
+        byte[] record = new byte[MAX_RECORD_BYTES];
+        ByteBuffer fields = ByteBuffer.wrap(record);
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            while (true) {
+                int operation = in.read();
+                if (operation != INSERT && operation != DELETE && operation != UPDATE) {
+                    break;
+                }
+                int length = 1 + (operation == DELETE ? 2 : 4) * 8;
+                record[0] = (byte) operation;
+                int checksum;
+                try {
+                    in.readFully(record, 1, length - 1);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                double x = fields.getDouble(1), y = fields.getDouble(9);
+                switch (operation) {
+                    case INSERT -> tree.insert(x, y, fields.getDouble(17), fields.getDouble(25));
+                    case DELETE -> tree.delete(x, y);
+                    default -> tree.update(x, y, fields.getDouble(17), fields.getDouble(25));
+                }
+                valid += length + 4;
+                records++;
+            }
+        }
+        return new long[] {valid, records};
+    }
+
+    private static Path checkpoint(Path directory, long generation) {
+        return directory.resolve("checkpoint-" + generation + ".qts");
+    }
+
+    private static Path journal(Path directory, long generation) {
+        return directory.resolve("journal-" + generation + ".log");
+    }
+
+    // Returns the generations of the files matching the pattern, oldest first
+    private static long[] generations(Path directory, Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> pattern.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToLong(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    // Forces the directory's entries, such as a rename or a newly created file, to storage
+    private static void forceDirectory(Path directory) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Removes the checkpoints and journals of earlier generations, and unfinished checkpoints
+    private static void deleteOlderThan(Path directory, long generation) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher checkpoint = CHECKPOINT.matcher(name);
+                Matcher journal = JOURNAL.matcher(name);
+                if ((checkpoint.matches() && Long.parseLong(checkpoint.group(1)) < generation)
+                        || (journal.matches() && Long.parseLong(journal.group(1)) < generation)
+                        || (name.startsWith("checkpoint-") && name.endsWith(".qts.tmp"))) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A linear quadtree: a quadtree without nodes. Each rectangle is keyed by the Z-order
+ * (Morton) code of the grid cell holding its origin, see {@link ZOrder}, and the entries
+ * are kept sorted by key in fixed-size blocks of primitive arrays, like the leaf level of
+ * a B+-tree. Every quadrant at every level of the implicit tree is one contiguous run of
+ * keys, so a lookup is a binary search followed by a scan over adjacent memory, and the
+ * only per-entry overhead is the 8-byte key.
+ *
+ * <p>A window is answered by scanning the key range from its lower-left to its upper-right
+ * cell; whenever the scan leaves the window it jumps to the next key back inside it
+ * ({@link ZOrder#nextInside}) with another binary search. Since rectangles are keyed by
+ * their origin, finds, deletes and queries widen the window down and to the left by the
+ * largest length and width stored so far: a few very large rectangles make every lookup
+ * scan more.</p>
+ *
+ * <p>The key grid covers the current bounds. Inserting a rectangle outside them doubles
+ * the bounds toward it, as the root of a {@link Quadtree} grows, and re-keys every entry.
+ * This class is not thread-safe.</p>
+ */
+public final class LinearQuadtree implements SpatialIndex {
+    // Entries per block; a full block splits into two halves
+    static final int BLOCK_CAPACITY = 256;
+
+    private double xMin, xMax, yMin, yMax;
+    // Block b holds sizes[b] entries in key order: keys[b][i] is the key of entry i, whose
+    // x, y, length and width are entries[b][4i..4i+3]. firstKeys[b] repeats keys[b][0].
+    private long[] firstKeys = new long[16];
+    private long[][] keys = new long[16][];
+    private double[][] entries = new double[16][];
+    private int[] sizes = new int[16];
+    private int blocks;
+    private long size;
+    // Largest length and width ever stored; they bound how far left and down of a point
+    // the origin of a rectangle containing it can lie
+    private double maxLength, maxWidth;
+    // The point findSlot looks for, read by a visitor made once rather than on every lookup
+    private double probeX, probeY;
+    private final SlotVisitor missesProbe = (b, i) -> !contains(entries[b], i, probeX, probeY);
+
+    /**
+     * Creates an empty linear quadtree whose key grid initially covers -50..50 on both axes.
+     */
+    public LinearQuadtree() {
+        this(-50, 50, -50, 50);
+    }
+
+    /**
+     * Creates an empty linear quadtree whose key grid initially covers the given bounds.
+     * The bounds grow automatically when a rectangle is inserted outside them.
+     *
+     * @param xMin the minimum x-coordinate of the grid
+     * @param xMax the maximum x-coordinate of the grid
+     * @param yMin the minimum y-coordinate of the grid
+     * @param yMax the maximum y-coordinate of the grid
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public LinearQuadtree(double xMin, double xMax, double yMin, double yMax) {
+        if (!(xMin < xMax && yMin < yMax) || !Double.isFinite(xMax - xMin) || !Double.isFinite(yMax - yMin)) {
+            throw new IllegalArgumentException("Invalid root bounds: [" + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "]");
+        }
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+    }
+
+    /**
+     * Builds a linear quadtree holding the rectangles of a snapshot written by
+     * {@link Quadtree#save(Path)}, with the key grid covering the saved root bounds.
+     *
+     * @param path the snapshot file
+     * @return the loaded tree
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static LinearQuadtree load(Path path) throws IOException {
+        Snapshot.Reader snapshot = Snapshot.Reader.open(path);
+        int root = snapshot.root();
+        LinearQuadtree tree = new LinearQuadtree(snapshot.bound(root, 0), snapshot.bound(root, 1),
+                snapshot.bound(root, 2), snapshot.bound(root, 3));
+        EntryBuffer saved = new EntryBuffer();
+        MappedQuadtree.open(path).query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, saved);
+        tree.bulkLoad(saved.entries(), saved.count());
+        return tree;
+    }
+
+    /**
+     * Returns the number of rectangles stored.
+     *
+     * @return the rectangle count
+     */
+    public long size() {
+        return size;
+    }
+
+    // Number of blocks in use, for statistics
+    int blockCount() {
+        return blocks;
+    }
+
+    @Override
+    public void insert(double x, double y, double length, double width) {
+        if (growToContain(x, y)) {
+            rebuild(allEntries(), (int) size);
+        }
+        add(ZOrder.key(x, y, xMin, xMax, yMin, yMax), x, y, length, width);
+    }
+
+    /**
+     * Loads a batch of rectangles in one pass: the batch and everything already stored
+     * are sorted together once and packed into full blocks.
+     *
+     * @param entries the packed rectangles; entry i occupies indices 4i to 4i+3
+     * @param count the number of rectangles to read from entries
+     */
+    @Override
+    public void bulkLoad(double[] entries, int count) {
+        if (count == 0) {
+            return;
+        }
+        // Reject the batch before the bounds change, since the stored keys go stale when they do
+        for (int i = 0; i < count * 4; i += 4) {
+            Quadtree.checkCoordinates(entries[i], entries[i + 1]);
+        }
+        for (int i = 0; i < count * 4; i += 4) {
+            growToContain(entries[i], entries[i + 1]);
+        }
+        int existing = (int) size;
+        double[] all = Arrays.copyOf(allEntries(), (existing + count) * 4);
+        System.arraycopy(entries, 0, all, existing * 4, count * 4);
+        rebuild(all, existing + count);
+    }
+
+    @Override
+    public Quadtree.Rectangle find(double x, double y) {
+        long slot = findSlot(x, y);
+        if (slot < 0) {
+            return null;
+        }
+        double[] block = entries[(int) (slot >>> 32)];
+        int i = (int) slot * 4;
+        return new Quadtree.Rectangle(block[i], block[i + 1], block[i + 2], block[i + 3]);
+    }
+
+    @Override
+    public void delete(double x, double y) {
+        // Collect first and remove afterwards, last slot first, so no slot moves before its turn
+        List<int[]> matches = new ArrayList<>();
+        scan(x - maxLength, y - maxWidth, x, y, (b, i) -> {
+            if (contains(entries[b], i, x, y)) {
+                matches.add(new int[] {b, i});
+            }
+            return true;
+        });
+        for (int m = matches.size() - 1; m >= 0; m--) {
+            remove(matches.get(m)[0], matches.get(m)[1]);
+        }
+    }
+
+    @Override
+    public boolean update(double x, double y, double length, double width) {
+        long slot = findSlot(x, y);
+        if (slot < 0) {
+            return false;
+        }
+        double[] block = entries[(int) (slot >>> 32)];
+        int i = (int) slot * 4;
+        block[i + 2] = length;
+        block[i + 3] = width;
+        maxLength = Math.max(maxLength, length);
+        maxWidth = Math.max(maxWidth, width);
+        return true;
+    }
+
+    /**
+     * Moves a rectangle by rewriting its slot when its new key still sorts after the entry
+     * before it and before the entry after it, which holds for most short moves, and by
+     * taking it out and adding it again in key order otherwise.
+     */
+    @Override
+    public boolean move(double x, double y, double newX, double newY, double length, double width) {
+        Quadtree.checkCoordinates(newX, newY);
+        long slot = findSlot(x, y);
+        if (slot < 0) {
+            return false;
+        }
+        int b = (int) (slot >>> 32), i = (int) slot;
+        if (growToContain(newX, newY)) {
+            // Every key is stale, so the entry is rewritten and everything re-keyed
+            setEntry(b, i, newX, newY, length, width);
+            rebuild(allEntries(), (int) size);
+            return true;
+        }
+        long key = ZOrder.key(newX, newY, xMin, xMax, yMin, yMax);
+        int last = sizes[b] - 1;
+        boolean afterPrevious = i > 0 ? keys[b][i - 1] <= key : b == 0 || keys[b - 1][sizes[b - 1] - 1] <= key;
+        boolean beforeNext = i < last ? key < keys[b][i + 1] : b == blocks - 1 || key < firstKeys[b + 1];
+        if (afterPrevious && beforeNext) {
+            keys[b][i] = key;
+            firstKeys[b] = keys[b][0];
+            setEntry(b, i, newX, newY, length, width);
+        } else {
+            remove(b, i);
+            add(key, newX, newY, length, width);
+        }
+        return true;
+    }
+
+    /**
+     * Applies a batch of moves, growing the bounds and re-keying at most once for the
+     * whole batch before the moves run.
+     */
+    @Override
+    public boolean[] moveAll(double[] moves, int count) {
+        for (int i = 0; i < count * 6; i += 6) {
+            Quadtree.checkCoordinates(moves[i + 2], moves[i + 3]);
+        }
+        boolean grown = false;
+        for (int i = 0; i < count * 6; i += 6) {
+            grown |= growToContain(moves[i + 2], moves[i + 3]);
+        }
+        if (grown) {
+            rebuild(allEntries(), (int) size);
+        }
+        return SpatialIndex.super.moveAll(moves, count);
+    }
+
+    @Override
+    public void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+        if (!(qxMin <= qxMax && qyMin <= qyMax)) {
+            return;
+        }
+        scan(qxMin - maxLength, qyMin - maxWidth, qxMax, qyMax, (b, i) -> {
+            double[] block = entries[b];
+            double x = block[i * 4], y = block[i * 4 + 1], length = block[i * 4 + 2], width = block[i * 4 + 3];
+            if (x <= qxMax && x + length >= qxMin && y <= qyMax && y + width >= qyMin) {
+                visitor.visit(x, y, length, width);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first. The search scans
+     * a square window around the point, doubling its size until it holds k rectangles
+     * within its radius.
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive or either coordinate is NaN or
+     *         infinite
+     */
+    @Override
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        Quadtree.checkCoordinates(x, y);
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        // The window covering every stored origin, seen from the point
+        double reach = Math.hypot(Math.max(x - xMin, xMax - x), Math.max(y - yMin, yMax - y));
+        // Start where k rectangles would fall if they were spread evenly
+        double radius = size == 0 ? reach : Math.sqrt((xMax - xMin) * (yMax - yMin) * Math.min(k, size) / size / Math.PI);
+        EntryBuffer candidates = new EntryBuffer();
+        while (true) {
+            double r = radius;
+            candidates.clear();
+            scan(x - r - maxLength, y - r - maxWidth, x + r, y + r, (b, i) -> {
+                double[] block = entries[b];
+                double rx = block[i * 4], ry = block[i * 4 + 1], length = block[i * 4 + 2], width = block[i * 4 + 3];
+                if (Quadtree.squaredDistance(x, y, rx, ry, rx + length, ry + width) <= r * r) {
+                    candidates.visit(rx, ry, length, width);
+                }
+                return true;
+            });
+            if (candidates.count() >= k || !(radius < reach)) {
+                break;
+            }
+            radius = Math.min(radius * 2, reach);
+        }
+        double[] found = candidates.entries();
+        Integer[] order = new Integer[candidates.count()];
+        double[] distances = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            distances[i] = Quadtree.squaredDistance(x, y, found[i * 4], found[i * 4 + 1],
+                    found[i * 4] + found[i * 4 + 2], found[i * 4 + 1] + found[i * 4 + 3]);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+        List<Quadtree.Rectangle> result = new ArrayList<>(Math.min(k, order.length));
+        for (int i = 0; i < order.length && i < k; i++) {
+            int e = order[i] * 4;
+            result.add(new Quadtree.Rectangle(found[e], found[e + 1], found[e + 2], found[e + 3]));
+        }
+        return result;
+    }
+
+    /**
+     * Reports every block as a leaf at depth 0, in key order; an empty tree reports one
+     * empty leaf.
+     *
+     * @param sink the sink receiving the blocks
+     */
+    @Override
+    public void dump(ResultSink sink) {
+        if (blocks == 0) {
+            sink.beginLeaf(0);
+            sink.endLeaf();
+        }
+        for (int b = 0; b < blocks; b++) {
+            sink.beginLeaf(0);
+            double[] block = entries[b];
+            for (int i = 0, end = sizes[b] * 4; i < end; i += 4) {
+                sink.leafEntry(block[i], block[i + 1], block[i + 2], block[i + 3]);
+            }
+            sink.endLeaf();
+        }
+    }
+
+    /**
+     * Writes every rectangle to a snapshot by bulk-loading them into a {@link Quadtree}
+     * over the same bounds and saving that.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        Quadtree tree = new Quadtree(xMin, xMax, yMin, yMax);
+        tree.bulkLoad(allEntries(), (int) size);
+        tree.save(path);
+    }
+
+    // Returns the slot, as scan does, of the first entry in key order containing (x, y), or -1
+    private long findSlot(double x, double y) {
+        probeX = x;
+        probeY = y;
+        return scan(x - maxLength, y - maxWidth, x, y, missesProbe);
+    }
+
+    private static boolean contains(double[] block, int i, double x, double y) {
+        int e = i * 4;
+        return x >= block[e] && x <= block[e] + block[e + 2] && y >= block[e + 1] && y <= block[e + 1] + block[e + 3];
+    }
+
+    // Called for each entry whose origin cell lies in the scanned window; returns false to stop the scan
+    @FunctionalInterface
+    private interface SlotVisitor {
+        boolean visit(int block, int index);
+    }
+
+    // Visits, in key order, every entry whose origin lies in the cells covering the window
+    // of origins [oxMin, oxMax] x [oyMin, oyMax]. Entries just outside the window but in
+    // the same cells are visited too, so visitors test the exact geometry themselves.
+    // Returns the slot of the entry the visitor stopped at as block << 32 | index, or -1 if
+    // the visitor never stopped.
+    private long scan(double oxMin, double oyMin, double oxMax, double oyMax, SlotVisitor visitor) {
+        if (blocks == 0) {
+            return -1;
+        }
+        long cellXMin = ZOrder.cell(oxMin, xMin, xMax), cellXMax = ZOrder.cell(oxMax, xMin, xMax);
+        long cellYMin = ZOrder.cell(oyMin, yMin, yMax), cellYMax = ZOrder.cell(oyMax, yMin, yMax);
+        long min = ZOrder.interleave(cellXMin, cellYMin);
+        long max = ZOrder.interleave(cellXMax, cellYMax);
+        int b = blockFor(min);
+        int i = lowerBound(keys[b], 0, sizes[b], min);
+        while (true) {
+            if (i == sizes[b]) {
+                if (++b == blocks) {
+                    return -1;
+                }
+                i = 0;
+                continue;
+            }
+            long key = keys[b][i];
+            if (key > max) {
+                return -1;
+            }
+            if (ZOrder.inside(key, cellXMin, cellXMax, cellYMin, cellYMax)) {
+                if (!visitor.visit(b, i)) {
+                    return (long) b << 32 | i;
+                }
+                i++;
+            } else {
+                long next = ZOrder.nextInside(key, min, max);
+                if (next > keys[b][sizes[b] - 1]) {
+                    b = blockFor(next);
+                    i = 0;
+                }
+                i = lowerBound(keys[b], i, sizes[b], next);
+            }
+        }
+    }
+
+    // Returns the block where the run of keys at or above key starts: the last block whose
+    // first key is below key, or block 0
+    private int blockFor(long key) {
+        int low = 0, high = blocks - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstKeys[mid] < key) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // First index in keys[from, to) holding a key at or above key
+    private static int lowerBound(long[] keys, int from, int to, long key) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (keys[mid] < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    // Inserts an entry after every entry with the same key, so equal keys keep insertion order
+    private void add(long key, double x, double y, double length, double width) {
+        if (blocks == 0) {
+            openBlock(0);
+        }
+        // The last block whose first key is at or below key, or block 0
+        int b = 0;
+        for (int low = 0, high = blocks - 1; low <= high; ) {
+            int mid = (low + high) >>> 1;
+            if (firstKeys[mid] <= key) {
+                b = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (sizes[b] == BLOCK_CAPACITY) {
+            splitBlock(b);
+            if (key >= firstKeys[b + 1]) {
+                b++;
+            }
+        }
+        long[] blockKeys = keys[b];
+        double[] block = entries[b];
+        int n = sizes[b];
+        int i = n;
+        while (i > 0 && blockKeys[i - 1] > key) {
+            i--;
+        }
+        System.arraycopy(blockKeys, i, blockKeys, i + 1, n - i);
+        System.arraycopy(block, i * 4, block, i * 4 + 4, (n - i) * 4);
+        blockKeys[i] = key;
+        block[i * 4] = x;
+        block[i * 4 + 1] = y;
+        block[i * 4 + 2] = length;
+        block[i * 4 + 3] = width;
+        sizes[b] = n + 1;
+        firstKeys[b] = blockKeys[0];
+        size++;
+        maxLength = Math.max(maxLength, length);
+        maxWidth = Math.max(maxWidth, width);
+    }
+
+    // Rewrites entry i of block b in place; the caller keeps its key in order
+    private void setEntry(int b, int i, double x, double y, double length, double width) {
+        double[] block = entries[b];
+        block[i * 4] = x;
+        block[i * 4 + 1] = y;
+        block[i * 4 + 2] = length;
+        block[i * 4 + 3] = width;
+        maxLength = Math.max(maxLength, length);
+        maxWidth = Math.max(maxWidth, width);
+    }
+
+    private void remove(int b, int i) {
+        int n = sizes[b];
+        System.arraycopy(keys[b], i + 1, keys[b], i, n - i - 1);
+        System.arraycopy(entries[b], i * 4 + 4, entries[b], i * 4, (n - i - 1) * 4);
+        size--;
+        if (--sizes[b] == 0) {
+            closeBlock(b);
+        } else {
+            firstKeys[b] = keys[b][0];
+        }
+    }
+
+    // Inserts an empty block at position b of the directory
+    private void openBlock(int b) {
+        if (blocks == sizes.length) {
+            int capacity = blocks * 2;
+            firstKeys = Arrays.copyOf(firstKeys, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            entries = Arrays.copyOf(entries, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        System.arraycopy(firstKeys, b, firstKeys, b + 1, blocks - b);
+        System.arraycopy(keys, b, keys, b + 1, blocks - b);
+        System.arraycopy(entries, b, entries, b + 1, blocks - b);
+        System.arraycopy(sizes, b, sizes, b + 1, blocks - b);
+        keys[b] = new long[BLOCK_CAPACITY];
+        entries[b] = new double[BLOCK_CAPACITY * 4];
+        sizes[b] = 0;
+        blocks++;
+    }
+
+    private void closeBlock(int b) {
+        System.arraycopy(firstKeys, b + 1, firstKeys, b, blocks - b - 1);
+        System.arraycopy(keys, b + 1, keys, b, blocks - b - 1);
+        System.arraycopy(entries, b + 1, entries, b, blocks - b - 1);
+        System.arraycopy(sizes, b + 1, sizes, b, blocks - b - 1);
+        blocks--;
+        keys[blocks] = null;
+        entries[blocks] = null;
+    }
+
+    // Moves the upper half of a full block into a new block after it
+    private void splitBlock(int b) {
+        openBlock(b + 1);
+        int half = BLOCK_CAPACITY / 2;
+        System.arraycopy(keys[b], half, keys[b + 1], 0, BLOCK_CAPACITY - half);
+        System.arraycopy(entries[b], half * 4, entries[b + 1], 0, (BLOCK_CAPACITY - half) * 4);
+        sizes[b] = half;
+        sizes[b + 1] = BLOCK_CAPACITY - half;
+        firstKeys[b + 1] = keys[b + 1][0];
+    }
+
+    // Every entry in key order, packed as x, y, length, width quadruples
+    private double[] allEntries() {
+        double[] all = new double[(int) size * 4];
+        int offset = 0;
+        for (int b = 0; b < blocks; b++) {
+            System.arraycopy(entries[b], 0, all, offset, sizes[b] * 4);
+            offset += sizes[b] * 4;
+        }
+        return all;
+    }
+
+    // Replaces the contents with the given entries, keyed against the current bounds and
+    // packed into full blocks. Entries with equal keys keep the order they are given in.
+    private void rebuild(double[] all, int count) {
+        long[] sortedKeys = new long[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedKeys[i] = ZOrder.key(all[i * 4], all[i * 4 + 1], xMin, xMax, yMin, yMax);
+            order[i] = i;
+        }
+        ZOrder.sort(sortedKeys, order);
+        while (blocks > 0) {
+            closeBlock(blocks - 1);
+        }
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % BLOCK_CAPACITY == 0) {
+                openBlock(blocks);
+            }
+            int b = blocks - 1, slot = sizes[b]++;
+            int e = order[i] * 4;
+            keys[b][slot] = sortedKeys[i];
+            System.arraycopy(all, e, entries[b], slot * 4, 4);
+            maxLength = Math.max(maxLength, all[e + 2]);
+            maxWidth = Math.max(maxWidth, all[e + 3]);
+            size++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            firstKeys[b] = keys[b][0];
+        }
+    }
+
+    // Doubles the bounds toward (x, y) until the point lies inside them. Returns true if
+    // they changed, in which case every stored key is stale.
+    private boolean growToContain(double x, double y) {
+        Quadtree.checkCoordinates(x, y);
+        boolean grown = false;
+        while (x < xMin || x > xMax || y < yMin || y > yMax) {
+            double xSpan = xMax - xMin;
+            double ySpan = yMax - yMin;
+            if (x < xMin) xMin -= xSpan; else xMax += xSpan;
+            if (y < yMin) yMin -= ySpan; else yMax += ySpan;
+            grown = true;
+        }
+        return grown;
+    }
+}
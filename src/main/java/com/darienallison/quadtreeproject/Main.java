@@ -1,108 +1,660 @@
 package com.darienallison.quadtreeproject;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Main class provides a command-line interface for manipulating a quadtree data structure.
- * It reads commands from a file and executes operations such as inserting, finding, deleting, updating,
- * and dumping rectangles in the quadtree.
+ * It reads commands from a file and executes operations such as inserting, finding, querying, deleting, updating,
+ * and dumping rectangles in the quadtree, as well as nearest-neighbour searches, spatial joins, window counts and heatmaps,
+ * saving snapshots and reporting statistics.
  */
 public class Main {
 
+    // Minimum length of a leading run of Insert lines that is bulk-loaded instead of inserted one by one
+    private static final int BULK_LOAD_THRESHOLD = 1024;
+
+    // Minimum length of a run of consecutive Find lines that is looked up in parallel
+    private static final int FIND_BATCH_THRESHOLD = 1024;
+
+    // Commands processed between checks of whether the statistics file is due
+    private static final int STATS_CHECK_INTERVAL = 1024;
+
     /**
      * The main method reads commands from a file and processes them to perform operations on a quadtree.
      *
-     * @param args the command line arguments, where the first argument should be the path to the command file.
+     * @param args the command line arguments: optional flags followed by the path to the command file.
+     *             {@code --engine=quadtree|offheap|linear|sharded} selects the index: the default pointer-based
+     *             {@link Quadtree}, the same tree stored outside the heap ({@link OffHeapQuadtree}),
+     *             the pointerless {@link LinearQuadtree}, or a {@link ShardedQuadtree} of pointer-based
+     *             trees each with its own worker thread; the options below that shape tree nodes do not
+     *             apply to the linear engine, and {@code --packed} only applies to the pointer-based ones.
+     *             {@code --shards=n[,adaptive]} sets the number of shards of the sharded engine (default
+     *             the number of processors) and optionally lets its first bulk load place the regions.
+     *             {@code --packed} stores leaf entries in primitive arrays instead of Rectangle objects,
+     *             {@code --bounds=xMin,xMax,yMin,yMax} sets the initial root bounds (default -50,50,-50,50), and
+     *             {@code --output=text|compact|count} selects the output format: the default text, the
+     *             compact format of {@link TextResultSink}, or only counts of the results plus any messages.
+     *             {@code --load=snapshot} starts from a tree saved with the Save command instead of an
+     *             empty one; the initial bounds are then taken from the snapshot.
+     *             {@code --capacity=n} and {@code --max-depth=n} set the split policy's leaf capacity
+     *             (default 5) and maximum depth (default 32), and {@code --adaptive} lets the capacity
+     *             grow in dense regions; see {@link SplitPolicy}.
+     *             {@code --cache=cellSize[,cells]} puts a {@link CachingQuadtree} in front of the index that
+     *             keeps the rectangles of up to {@code cells} (default 4096) recently used square cells.
+     *             {@code --stats-file=path} rewrites the file with the report of the Stats command
+     *             every {@code --stats-interval=seconds} (default 10) and once more at the end.
+     *             {@code --serve=address} keeps the index running as a {@link CommandServer} on
+     *             {@code port}, {@code host:port} or {@code unix:path} after the command file, which is
+     *             then optional, has been processed. The host must be a loopback address, and Save
+     *             and Join sent over a connection only reach files inside the working directory.
      */
     public static void main(String[] args) {
-        // Check if a file argument is provided
-        if (args.length == 0) {
+        String path = null;
+        Quadtree.LeafStorage leafStorage = Quadtree.LeafStorage.OBJECTS;
+        double[] bounds = {-50, 50, -50, 50};
+        String output = "text";
+        String snapshot = null;
+        String engine = "quadtree";
+        Path statsFile = null;
+        long statsInterval = 10;
+        int capacity = 5;
+        int maxDepth = 32;
+        boolean adaptive = false;
+        boolean cache = false;
+        double cacheCellSize = 0;
+        int cacheCells = 4096;
+        String serve = null;
+        int shards = Runtime.getRuntime().availableProcessors();
+        boolean adaptiveShards = false;
+        for (String arg : args) {
+            if (arg.equals("--packed")) {
+                leafStorage = Quadtree.LeafStorage.PACKED;
+            } else if (arg.startsWith("--bounds=")) {
+                String[] values = arg.substring("--bounds=".length()).split(",");
+                if (values.length != 4) {
+                    System.out.println("Error: --bounds requires four values (xMin,xMax,yMin,yMax).");
+                    return;
+                }
+                try {
+                    for (int i = 0; i < 4; i++) {
+                        bounds[i] = Double.parseDouble(values[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number format in option: " + arg);
+                    return;
+                }
+            } else if (arg.startsWith("--capacity=") || arg.startsWith("--max-depth=")) {
+                int value;
+                try {
+                    value = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number format in option: " + arg);
+                    return;
+                }
+                if (arg.startsWith("--capacity=")) {
+                    capacity = value;
+                } else {
+                    maxDepth = value;
+                }
+            } else if (arg.equals("--adaptive")) {
+                adaptive = true;
+            } else if (arg.startsWith("--cache=")) {
+                cache = true;
+                String[] values = arg.substring("--cache=".length()).split(",");
+                if (values.length > 2) {
+                    System.out.println("Error: --cache takes a cell size and optionally a number of cells.");
+                    return;
+                }
+                try {
+                    cacheCellSize = Double.parseDouble(values[0]);
+                    if (values.length == 2) {
+                        cacheCells = Integer.parseInt(values[1]);
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number format in option: " + arg);
+                    return;
+                }
+            } else if (arg.startsWith("--serve=")) {
+                serve = arg.substring("--serve=".length());
+            } else if (arg.startsWith("--load=")) {
+                snapshot = arg.substring("--load=".length());
+            } else if (arg.startsWith("--stats-file=")) {
+                statsFile = Path.of(arg.substring("--stats-file=".length()));
+            } else if (arg.startsWith("--stats-interval=")) {
+                try {
+                    statsInterval = Long.parseLong(arg.substring("--stats-interval=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number format in option: " + arg);
+                    return;
+                }
+                if (statsInterval < 1) {
+                    System.out.println("Error: --stats-interval must be at least one second.");
+                    return;
+                }
+            } else if (arg.startsWith("--shards=")) {
+                String[] values = arg.substring("--shards=".length()).split(",");
+                if (values.length > 2 || (values.length == 2 && !values[1].equals("adaptive"))) {
+                    System.out.println("Error: --shards takes a number of shards and optionally adaptive.");
+                    return;
+                }
+                try {
+                    shards = Integer.parseInt(values[0]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number format in option: " + arg);
+                    return;
+                }
+                adaptiveShards = values.length == 2;
+            } else if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+                if (!engine.equals("quadtree") && !engine.equals("offheap") && !engine.equals("linear")
+                        && !engine.equals("sharded")) {
+                    System.out.println("Error: --engine must be quadtree, offheap, linear or sharded.");
+                    return;
+                }
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+                if (!output.equals("text") && !output.equals("compact") && !output.equals("count")) {
+                    System.out.println("Error: --output must be text, compact or count.");
+                    return;
+                }
+            } else {
+                path = arg;
+            }
+        }
+
+        // Check if a file argument is provided; a server may start without one
+        if (path == null && serve == null) {
             System.out.println("Please provide a command file as an argument.");
             return;
         }
 
-        // Print the provided file path to verify it's being passed correctly
-        System.out.println("File path provided: " + args[0]);
+        File commandFile = null;
+        if (path != null) {
+            // Print the provided file path to verify it's being passed correctly
+            System.out.println("File path provided: " + path);
 
-        // Create a File object with the provided path and check if it exists
-        File commandFile = new File(args[0]);
-        if (!commandFile.exists()) {
-            System.out.println("Command file not found at: " + args[0]);
+            // Create a File object with the provided path and check if it exists
+            commandFile = new File(path);
+            if (!commandFile.exists()) {
+                System.out.println("Command file not found at: " + path);
+                return;
+            } else {
+                System.out.println("Command file found. Proceeding with processing...");
+            }
+        }
+
+        // Initialize the spatial index
+        SpatialIndex index;
+        try {
+            SplitPolicy splitPolicy = adaptive ? SplitPolicy.adaptive(capacity, maxDepth) : SplitPolicy.fixed(capacity, maxDepth);
+            if (engine.equals("linear")) {
+                index = snapshot != null ? LinearQuadtree.load(Path.of(snapshot))
+                        : new LinearQuadtree(bounds[0], bounds[1], bounds[2], bounds[3]);
+            } else if (engine.equals("offheap")) {
+                index = snapshot != null ? OffHeapQuadtree.load(Path.of(snapshot), splitPolicy)
+                        : new OffHeapQuadtree(bounds[0], bounds[1], bounds[2], bounds[3], splitPolicy);
+            } else if (engine.equals("sharded")) {
+                index = snapshot != null ? ShardedQuadtree.load(Path.of(snapshot), shards, adaptiveShards, leafStorage, splitPolicy)
+                        : new ShardedQuadtree(bounds[0], bounds[1], bounds[2], bounds[3], shards, adaptiveShards,
+                        leafStorage, splitPolicy);
+            } else {
+                if (snapshot != null) {
+                    index = Quadtree.load(Path.of(snapshot), leafStorage, splitPolicy);
+                } else {
+                    index = new Quadtree(bounds[0], bounds[1], bounds[2], bounds[3], leafStorage, splitPolicy);
+                }
+            }
+            if (cache) {
+                index = new CachingQuadtree(index, cacheCellSize, cacheCells);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: could not load snapshot: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
             return;
-        } else {
-            System.out.println("Command file found. Proceeding with processing...");
         }
 
-        // Initialize the quadtree
-        Quadtree quadtree = new Quadtree();
+        if (commandFile != null) {
+            processFile(commandFile, index, output, statsFile, statsInterval);
+        }
+        if (serve != null) {
+            serve(serve, index, output, statsFile, statsInterval);
+        }
+    }
+
+    /**
+     * Processes a command file against the index, writing the results to standard output.
+     *
+     * @param commandFile the command file.
+     * @param index the index the commands run against.
+     * @param output the output format.
+     * @param statsFile the file the Stats report is periodically written to, or null.
+     * @param statsInterval the seconds between writes of the statistics file.
+     */
+    private static void processFile(File commandFile, SpatialIndex index, String output, Path statsFile,
+                                    long statsInterval) {
+        // All results go through one buffered sink, flushed when processing ends
+        TextResultSink text = TextResultSink.standardOutput(output.equals("compact"));
+        CountingResultSink counts = output.equals("count") ? new CountingResultSink(text) : null;
+        ResultSink sink = counts != null ? counts : text;
 
         // Process the command file
-        try (Scanner scanner = new Scanner(commandFile)) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                
-                // Skip blank lines
-                if (line.isEmpty()) {
-                    continue;
+        try (CommandReader reader = CommandReader.open(commandFile.toPath())) {
+            CommandProcessor processor = new CommandProcessor(index, reader, sink, statsFile,
+                    TimeUnit.SECONDS.toNanos(statsInterval), true);
+            reader.run(processor);
+            processor.finish();
+            if (counts != null) {
+                counts.summarize();
+            }
+        } catch (NoSuchFileException e) {
+            sink.message("Command file not found.");
+        } catch (IOException e) {
+            sink.message("Error reading command file: " + e.getMessage());
+        } finally {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Serves the index on a local address until the process is stopped.
+     *
+     * @param address the address to serve on; see {@link CommandServer#open}.
+     * @param index the index the connections run against.
+     * @param output the output format.
+     * @param statsFile the file the Stats report is periodically written to, or null.
+     * @param statsInterval the seconds between writes of the statistics file.
+     */
+    private static void serve(String address, SpatialIndex index, String output, Path statsFile, long statsInterval) {
+        CommandServer server;
+        try {
+            server = CommandServer.open(address, index, output, statsFile, TimeUnit.SECONDS.toNanos(statsInterval));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: could not serve on " + address + ": " + e.getMessage());
+            return;
+        }
+        // Closing on shutdown removes the socket file of a Unix-domain server
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // The process is exiting anyway
+            }
+        }));
+        try (server) {
+            System.out.println("Serving on " + server.address());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Error: could not serve on " + address + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the collected leading Insert commands to the index. A long run is bulk-loaded
+     * in one pass; a short one is inserted rectangle by rectangle.
+     *
+     * @param index the index receiving the rectangles.
+     * @param inserts the packed rectangles from the leading Insert lines.
+     */
+    private static void loadInserts(SpatialIndex index, EntryBuffer inserts) {
+        double[] entries = inserts.entries();
+        if (inserts.count() >= BULK_LOAD_THRESHOLD) {
+            index.bulkLoad(entries, inserts.count());
+        } else {
+            for (int i = 0; i < inserts.count() * 4; i += 4) {
+                index.insert(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+        }
+        inserts.clear();
+    }
+
+    /**
+     * Describes the index, one line per topic: for a quadtree its shape and operation
+     * metrics, for an off-heap quadtree its shape and reserved memory, for a linear
+     * quadtree its size and block fill, and for a cache the report of the index behind
+     * it followed by the cache counters.
+     *
+     * @param index the index to describe.
+     * @return the lines of the report.
+     */
+    static List<String> statsReport(SpatialIndex index) {
+        if (index instanceof CachingQuadtree cached) {
+            List<String> lines = new ArrayList<>(statsReport(cached.index()));
+            lines.add("Cache: " + cached.cachedCells() + " of " + cached.capacity() + " cells, hits: " + cached.hits()
+                    + ", misses: " + cached.misses() + ", evictions: " + cached.evictions()
+                    + ", invalidations: " + cached.invalidations());
+            return lines;
+        }
+        if (index instanceof LinearQuadtree linear) {
+            return List.of("Entries: " + linear.size() + ", blocks: " + linear.blockCount() + " of "
+                    + LinearQuadtree.BLOCK_CAPACITY + " entries, fill " + String.format("%.1f",
+                    linear.blockCount() == 0 ? 0.0 : 100.0 * linear.size() / ((long) linear.blockCount() * LinearQuadtree.BLOCK_CAPACITY)) + "%");
+        }
+        if (index instanceof ShardedQuadtree sharded) {
+            long[] sizes = sharded.shardSizes();
+            StringBuilder line = new StringBuilder("Entries: ").append(Arrays.stream(sizes).sum()).append(" in ")
+                    .append(sizes.length).append(sharded.isAdaptive() ? " adaptive" : " fixed").append(" shards:");
+            for (long size : sizes) {
+                line.append(' ').append(size);
+            }
+            return List.of(line.toString());
+        }
+        List<String> lines = new ArrayList<>();
+        if (index instanceof OffHeapQuadtree offHeap) {
+            addShape(lines, offHeap.shape());
+            lines.add("Off-heap storage: " + offHeap.reservedBytes() + " bytes reserved");
+            return lines;
+        }
+        Quadtree quadtree = (Quadtree) index;
+        QuadtreeMetrics metrics = quadtree.metrics();
+        addShape(lines, quadtree.shape());
+        lines.add("Splits: " + metrics.splits() + ", merges: " + metrics.merges());
+        for (QuadtreeMetrics.Operation operation : QuadtreeMetrics.Operation.values()) {
+            String name = operation.name();
+            StringBuilder line = new StringBuilder(name.charAt(0) + name.substring(1).toLowerCase())
+                    .append(": ").append(metrics.count(operation)).append(" calls");
+            QuadtreeMetrics.Histogram latency = metrics.latency(operation);
+            if (latency.count() > 0) {
+                line.append(", sampled latency mean ").append(Math.round(latency.mean()))
+                        .append(" ns, p50 ").append(latency.percentile(0.5))
+                        .append(" ns, p99 ").append(latency.percentile(0.99))
+                        .append(" ns, max ").append(latency.max()).append(" ns");
+            }
+            if (operation == QuadtreeMetrics.Operation.FIND && metrics.findNodesVisited().count() > 0) {
+                line.append(", nodes visited mean ").append(String.format("%.2f", metrics.findNodesVisited().mean()))
+                        .append(", max ").append(metrics.findNodesVisited().max());
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    // Adds the node, depth and leaf fill lines of a tree shape to a report
+    private static void addShape(List<String> lines, TreeShape shape) {
+        lines.add("Entries: " + shape.entries() + ", nodes: " + shape.nodes() + " (" + shape.internalNodes()
+                + " internal, " + shape.leaves() + " leaves), depth: max " + shape.maxDepth()
+                + ", average " + String.format("%.2f", shape.averageDepth()));
+        StringBuilder fill = new StringBuilder("Leaf fill: ")
+                .append(String.format("%.1f", shape.fillFactor() * 100)).append("% average; leaves by entries:");
+        for (int entries = 0; entries <= shape.leafCapacity(); entries++) {
+            fill.append(' ').append(entries).append('=').append(shape.leavesHolding(entries));
+        }
+        fill.append(", more=").append(shape.leavesHolding(shape.leafCapacity() + 1))
+                .append("; overflow leaves: ").append(shape.overflowLeaves());
+        lines.add(fill.toString());
+    }
+
+    /**
+     * Executes the commands read from the command file, or from one connection of a
+     * {@link CommandServer}, against the spatial index and reports their results to a sink.
+     * Insert lines at the start of a file are collected and loaded together, and consecutive
+     * Find lines are held back and answered together when the run ends.
+     */
+    static final class CommandProcessor implements CommandHandler {
+        private final SpatialIndex index;
+        private final CommandReader reader;
+        private final ResultSink sink;
+        private final EntryBuffer leadingInserts = new EntryBuffer();
+        private boolean collectingInserts;
+        private final FindBatch pendingFinds = new FindBatch();
+        private long matches;
+        private long pairs;
+        private final Path statsFile;
+        private final long statsInterval;
+        private long nextStats;
+        private int commandsSinceStatsCheck;
+
+        // With collectInserts, a leading run of Insert lines is collected and loaded in one
+        // batch; a server connection, whose index may already be populated, inserts them one by one
+        CommandProcessor(SpatialIndex index, CommandReader reader, ResultSink sink, Path statsFile, long statsInterval,
+                         boolean collectInserts) {
+            this.index = index;
+            this.collectingInserts = collectInserts;
+            this.reader = reader;
+            this.sink = sink;
+            this.statsFile = statsFile;
+            this.statsInterval = statsInterval;
+            this.nextStats = System.nanoTime() + statsInterval;
+        }
+
+        // Ends whichever run of Insert or Find lines the command breaks
+        private void begin(CommandReader.Command command) {
+            if (statsFile != null && ++commandsSinceStatsCheck == STATS_CHECK_INTERVAL) {
+                commandsSinceStatsCheck = 0;
+                if (System.nanoTime() - nextStats >= 0) {
+                    writeStats();
                 }
+            }
+            if (command != CommandReader.Command.FIND) {
+                pendingFinds.flush(index, sink);
+            }
+            if (collectingInserts && command != CommandReader.Command.INSERT) {
+                collectingInserts = false;
+                loadInserts(index, leadingInserts);
+            }
+        }
 
-                String[] command = line.split("\\s+");
-                try {
-                    switch (command[0]) {
-                        case "Insert":
-                            if (command.length < 5) {
-                                System.out.println("Error: Insert requires four parameters (x, y, length, width).");
-                                break;
-                            }
-                            quadtree.insert(
-                                Double.parseDouble(command[1]), 
-                                Double.parseDouble(command[2]),
-                                Double.parseDouble(command[3]), 
-                                Double.parseDouble(command[4])
-                            );
-                            break;
-                        case "Find":
-                            if (command.length < 3) {
-                                System.out.println("Error: Find requires two parameters (x, y).");
-                                break;
-                            }
-                            quadtree.find(Double.parseDouble(command[1]), Double.parseDouble(command[2]));
-                            break;
-                        case "Delete":
-                            if (command.length < 3) {
-                                System.out.println("Error: Delete requires two parameters (x, y).");
-                                break;
-                            }
-                            quadtree.delete(Double.parseDouble(command[1]), Double.parseDouble(command[2]));
-                            break;
-                        case "Update":
-                            if (command.length < 5) {
-                                System.out.println("Error: Update requires four parameters (x, y, length, width).");
-                                break;
-                            }
-                            quadtree.update(
-                                Double.parseDouble(command[1]), 
-                                Double.parseDouble(command[2]),
-                                Double.parseDouble(command[3]), 
-                                Double.parseDouble(command[4])
-                            );
-                            break;
-                        case "Dump":
-                            quadtree.dump();
-                            break;
-                        default:
-                            System.out.println("Unknown command: " + command[0]);
+        // Completes the runs still open at the end of the file
+        void finish() {
+            completeRuns();
+            if (statsFile != null) {
+                writeStats();
+            }
+        }
+
+        // Completes the runs of Insert or Find lines still open, so every command read so far
+        // has taken effect and reported its results
+        void completeRuns() {
+            if (collectingInserts) {
+                loadInserts(index, leadingInserts);
+            }
+            pendingFinds.flush(index, sink);
+        }
+
+        // Replaces the statistics file in one move, so a reader never sees half a report.
+        // Runs of Insert or Find lines still open are not yet reflected in it.
+        private void writeStats() {
+            nextStats = System.nanoTime() + statsInterval;
+            List<String> lines = new ArrayList<>();
+            lines.add("Stats at " + Instant.now());
+            lines.addAll(statsReport(index));
+            Path temporary = statsFile.resolveSibling(statsFile.getFileName() + ".tmp");
+            try {
+                Files.write(temporary, lines);
+                Files.move(temporary, statsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                sink.message("Error: could not write stats: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void insert(double x, double y, double length, double width) {
+            begin(CommandReader.Command.INSERT);
+            if (collectingInserts) {
+                Quadtree.checkCoordinates(x, y);
+                leadingInserts.visit(x, y, length, width);
+            } else {
+                index.insert(x, y, length, width);
+            }
+        }
+
+        @Override
+        public void find(double x, double y) {
+            begin(CommandReader.Command.FIND);
+            pendingFinds.add(x, y);
+        }
+
+        @Override
+        public void query(double xMin, double yMin, double xMax, double yMax) {
+            begin(CommandReader.Command.QUERY);
+            long matchesBefore = matches;
+            index.query(xMin, yMin, xMax, yMax, this::match);
+            if (matches == matchesBefore) {
+                sink.message("Nothing found in window (" + reader.token(1) + ", " + reader.token(2)
+                        + ") - (" + reader.token(3) + ", " + reader.token(4) + ")");
+            }
+        }
+
+        @Override
+        public void count(double xMin, double yMin, double xMax, double yMax) {
+            begin(CommandReader.Command.COUNT);
+            sink.message("Count in window (" + reader.token(1) + ", " + reader.token(2) + ") - ("
+                    + reader.token(3) + ", " + reader.token(4) + "): " + index.count(xMin, yMin, xMax, yMax));
+        }
+
+        // Prints the grid as it would appear on a map, top row first
+        @Override
+        public void heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+            begin(CommandReader.Command.HEATMAP);
+            long[] counts = index.heatmap(xMin, yMin, xMax, yMax, cellsX, cellsY);
+            sink.message("Heatmap of window (" + reader.token(1) + ", " + reader.token(2) + ") - ("
+                    + reader.token(3) + ", " + reader.token(4) + "), " + cellsX + "x" + cellsY + " cells:");
+            StringBuilder row = new StringBuilder();
+            for (int j = cellsY - 1; j >= 0; j--) {
+                row.setLength(0);
+                for (int i = 0; i < cellsX; i++) {
+                    if (i > 0) {
+                        row.append(' ');
                     }
-                } catch (NumberFormatException e) {
-                    System.out.println("Invalid number format in command: " + line);
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    System.out.println("Missing arguments in command: " + line);
+                    row.append(counts[j * cellsX + i]);
+                }
+                sink.message(row.toString());
+            }
+        }
+
+        private void match(double x, double y, double length, double width) {
+            matches++;
+            sink.matched(x, y, length, width);
+        }
+
+        @Override
+        public void nearest(double x, double y, int k) {
+            begin(CommandReader.Command.NEAREST);
+            List<Quadtree.Rectangle> nearest = index.nearest(x, y, k);
+            if (nearest.isEmpty()) {
+                sink.message("Nothing found near (" + reader.token(1) + ", " + reader.token(2) + ")");
+            }
+            for (Quadtree.Rectangle rect : nearest) {
+                sink.matched(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+            }
+        }
+
+        @Override
+        public void delete(double x, double y) {
+            begin(CommandReader.Command.DELETE);
+            index.delete(x, y);
+        }
+
+        @Override
+        public void update(double x, double y, double length, double width) {
+            begin(CommandReader.Command.UPDATE);
+            sink.updated(x, y, index.update(x, y, length, width));
+        }
+
+        @Override
+        public void move(double x, double y, double newX, double newY, double length, double width) {
+            begin(CommandReader.Command.UPDATE);
+            sink.updated(x, y, index.move(x, y, newX, newY, length, width));
+        }
+
+        @Override
+        public void dump() {
+            begin(CommandReader.Command.DUMP);
+            index.dump(sink);
+        }
+
+        @Override
+        public void save(String path) {
+            begin(CommandReader.Command.SAVE);
+            try {
+                index.save(Path.of(path));
+            } catch (IOException e) {
+                sink.message("Error: could not save snapshot: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void stats() {
+            begin(CommandReader.Command.STATS);
+            for (String line : statsReport(index)) {
+                sink.message(line);
+            }
+        }
+
+        @Override
+        public void join(String path) {
+            begin(CommandReader.Command.JOIN);
+            SpatialIndex other;
+            try {
+                other = path == null ? index : Quadtree.load(Path.of(path));
+            } catch (IOException e) {
+                sink.message("Error: could not load snapshot: " + e.getMessage());
+                return;
+            }
+            long pairsBefore = pairs;
+            index.spatialJoin(other, this::pair);
+            if (pairs == pairsBefore) {
+                sink.message("No intersecting rectangles");
+            }
+        }
+
+        private void pair(double x1, double y1, double length1, double width1,
+                          double x2, double y2, double length2, double width2) {
+            pairs++;
+            sink.paired(x1, y1, length1, width1, x2, y2, length2, width2);
+        }
+
+        @Override
+        public void reject(CommandReader.Command command, String message) {
+            begin(command);
+            // A malformed Find line still ends the run, so earlier lookups print first
+            pendingFinds.flush(index, sink);
+            sink.message(message);
+        }
+    }
+
+    /**
+     * The points of a run of consecutive Find lines. Flushing reports the results in line
+     * order; a long run is looked up in parallel, a short one point by point.
+     */
+    private static final class FindBatch {
+        private double[] xs = new double[16];
+        private double[] ys = new double[16];
+        private int count;
+
+        void add(double x, double y) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            count++;
+        }
+
+        void flush(SpatialIndex index, ResultSink sink) {
+            if (count >= FIND_BATCH_THRESHOLD) {
+                Quadtree.Rectangle[] found = index.findAll(Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+                for (int i = 0; i < count; i++) {
+                    sink.found(xs[i], ys[i], found[i]);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    sink.found(xs[i], ys[i], index.find(xs[i], ys[i]));
                 }
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Command file not found.");
+            count = 0;
         }
     }
 }
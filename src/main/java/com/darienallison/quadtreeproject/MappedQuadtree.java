@@ -0,0 +1,180 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A read-only quadtree that answers lookups straight from a snapshot file written by
+ * {@link Quadtree#save(Path)}. The file is memory-mapped and nothing is copied onto the
+ * heap, so opening is immediate whatever the size of the tree, and pages are only read
+ * as lookups touch them. Find and query give exactly the results of the tree that was
+ * saved; nearest gives the same distances, though rectangles at equal distance may come
+ * back in a different order.
+ *
+ * <p>An instance is safe to use from any number of threads. The mapping stays valid until
+ * the instance is garbage collected; a snapshot cannot be larger than 2 GiB.</p>
+ */
+public final class MappedQuadtree {
+    private final Snapshot.Reader snapshot;
+
+    private MappedQuadtree(Snapshot.Reader snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param path the snapshot file
+     * @return a read-only view of the saved tree
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static MappedQuadtree open(Path path) throws IOException {
+        return new MappedQuadtree(Snapshot.Reader.open(path));
+    }
+
+    /**
+     * Returns the number of rectangles in the snapshot.
+     *
+     * @return the rectangle count
+     */
+    public long size() {
+        return snapshot.rectangles();
+    }
+
+    /**
+     * Finds a rectangle at the specified coordinates, searching in the same order as
+     * {@link Quadtree#find(double, double)}.
+     *
+     * @param x the x-coordinate to look up
+     * @param y the y-coordinate to look up
+     * @return a rectangle containing (x, y), or null if there is none
+     */
+    public Quadtree.Rectangle find(double x, double y) {
+        return find(snapshot.root(), x, y);
+    }
+
+    private Quadtree.Rectangle find(int node, double x, double y) {
+        if (snapshot.isLeaf(node)) {
+            for (int i = 0, count = snapshot.count(node); i < count; i++) {
+                double rx = snapshot.entry(node, i, 0), ry = snapshot.entry(node, i, 1);
+                double length = snapshot.entry(node, i, 2), width = snapshot.entry(node, i, 3);
+                if (x >= rx && x <= rx + length && y >= ry && y <= ry + width) {
+                    return new Quadtree.Rectangle(rx, ry, length, width);
+                }
+            }
+            return null;
+        }
+        // The quadrant on the point's path first, then any sibling reaching the point
+        boolean left = x < (snapshot.bound(node, 0) + snapshot.bound(node, 1)) / 2;
+        boolean bottom = y < (snapshot.bound(node, 2) + snapshot.bound(node, 3)) / 2;
+        int path = (bottom ? 2 : 0) + (left ? 0 : 1);
+        int child = snapshot.child(node, path);
+        Quadtree.Rectangle found = snapshot.extentContains(child, x, y) ? find(child, x, y) : null;
+        for (int q = 0; q < 4 && found == null; q++) {
+            child = snapshot.child(node, q);
+            if (q != path && snapshot.extentContains(child, x, y)) {
+                found = find(child, x, y);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax].
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param visitor called once for each matching rectangle
+     */
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        int root = snapshot.root();
+        if (xMin <= xMax && yMin <= yMax && snapshot.extentOverlaps(root, xMin, yMin, xMax, yMax)) {
+            query(root, xMin, yMin, xMax, yMax, visitor);
+        }
+    }
+
+    private void query(int node, double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+        if (snapshot.isLeaf(node)) {
+            for (int i = 0, count = snapshot.count(node); i < count; i++) {
+                double x = snapshot.entry(node, i, 0), y = snapshot.entry(node, i, 1);
+                double length = snapshot.entry(node, i, 2), width = snapshot.entry(node, i, 3);
+                if (x <= qxMax && x + length >= qxMin && y <= qyMax && y + width >= qyMin) {
+                    visitor.visit(x, y, length, width);
+                }
+            }
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            int child = snapshot.child(node, q);
+            if (snapshot.extentOverlaps(child, qxMin, qyMin, qxMax, qyMax)) {
+                query(child, qxMin, qyMin, qxMax, qyMax, visitor);
+            }
+        }
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first, as
+     * {@link Quadtree#nearest(double, double, int)} does.
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        Comparator<Quadtree.Rectangle> byDistance = Comparator.comparingDouble(rect -> distance(x, y, rect));
+        PriorityQueue<double[]> nodes = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry[1]));
+        PriorityQueue<Quadtree.Rectangle> best = new PriorityQueue<>(k, byDistance.reversed());
+        push(nodes, snapshot.root(), x, y);
+        while (!nodes.isEmpty()) {
+            double[] next = nodes.poll();
+            if (best.size() == k && next[1] >= distance(x, y, best.peek())) {
+                break;
+            }
+            int node = (int) next[0];
+            if (!snapshot.isLeaf(node)) {
+                for (int q = 0; q < 4; q++) {
+                    push(nodes, snapshot.child(node, q), x, y);
+                }
+                continue;
+            }
+            for (int i = 0, count = snapshot.count(node); i < count; i++) {
+                Quadtree.Rectangle rect = new Quadtree.Rectangle(snapshot.entry(node, i, 0), snapshot.entry(node, i, 1),
+                        snapshot.entry(node, i, 2), snapshot.entry(node, i, 3));
+                if (best.size() < k) {
+                    best.add(rect);
+                } else if (distance(x, y, rect) < distance(x, y, best.peek())) {
+                    best.poll();
+                    best.add(rect);
+                }
+            }
+        }
+        List<Quadtree.Rectangle> result = new ArrayList<>(best);
+        result.sort(byDistance);
+        return result;
+    }
+
+    // Queues a node by the distance to its extent; empty subtrees are skipped
+    private void push(PriorityQueue<double[]> nodes, int node, double x, double y) {
+        double distance = Quadtree.squaredDistance(x, y, snapshot.extent(node, 0), snapshot.extent(node, 2),
+                snapshot.extent(node, 1), snapshot.extent(node, 3));
+        if (distance != Double.POSITIVE_INFINITY) {
+            nodes.add(new double[] {node, distance});
+        }
+    }
+
+    private static double distance(double x, double y, Quadtree.Rectangle rect) {
+        return Quadtree.squaredDistance(x, y, rect.getX(), rect.getY(),
+                rect.getX() + rect.getLength(), rect.getY() + rect.getWidth());
+    }
+}
@@ -0,0 +1,1143 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A quadtree that keeps its nodes and rectangles outside the Java heap. Node bounds,
+ * extents and child links, and the rectangles of every leaf, are fixed-size records in
+ * direct byte buffers; the heap holds only this handle and the small arrays of pages, so
+ * the collector has nothing to trace however many rectangles the tree holds.
+ *
+ * <p>The tree follows exactly the rules of {@link Quadtree}: the same split policy, the
+ * same growth of the root, the same merges on delete and the same order of entries in a
+ * leaf. It therefore answers every operation, dumps and saves exactly as a {@code Quadtree}
+ * given the same calls would, and reads and writes the same snapshots.</p>
+ *
+ * <p>Storage grows a page at a time and pages are never moved. Records freed by deletes
+ * and merges are reused by later inserts; pages are returned to the system only when the
+ * tree is garbage collected, and count against {@code -XX:MaxDirectMemorySize}. Instances
+ * are not safe for concurrent use.</p>
+ */
+public final class OffHeapQuadtree implements SpatialIndex {
+    private static final int NONE = -1;
+    private static final int INTERNAL = -1;
+
+    // Node record: int entry count of a leaf, or INTERNAL; ints first and last entry chunk
+    // of a leaf; 4 doubles bounds; 4 doubles extent; 4 ints children (top left, top right,
+    // bottom left, bottom right), NONE for an empty quadrant
+    private static final int COUNT = 0;
+    private static final int FIRST = 4;
+    private static final int LAST = 8;
+    private static final int BOUNDS = 16;
+    private static final int EXTENT = 48;
+    private static final int CHILDREN = 80;
+    private static final int NODE_BYTES = 96;
+
+    // Entry chunk record: int next chunk of the same leaf, then CHUNK_ENTRIES entries of
+    // x, y, length, width. Every chunk of a leaf but the last is full.
+    private static final int NEXT = 0;
+    private static final int ENTRIES = 8;
+    private static final int ENTRY_BYTES = 4 * 8;
+    private static final int CHUNK_ENTRIES = 8;
+    private static final int CHUNK_BYTES = ENTRIES + CHUNK_ENTRIES * ENTRY_BYTES;
+
+    private final SplitPolicy splitPolicy;
+    private final RecordStore nodes = new RecordStore(NODE_BYTES);
+    private final RecordStore chunks = new RecordStore(CHUNK_BYTES);
+    private int root;
+    private long size;
+
+    /**
+     * Creates an empty tree whose root initially covers [-50, 50] x [-50, 50].
+     */
+    public OffHeapQuadtree() {
+        this(-50, 50, -50, 50);
+    }
+
+    /**
+     * Creates an empty tree whose root initially covers the given bounds, with the default
+     * split policy. The root grows automatically when a rectangle is inserted outside them.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public OffHeapQuadtree(double xMin, double xMax, double yMin, double yMax) {
+        this(xMin, xMax, yMin, yMax, SplitPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates an empty tree with the given initial root bounds and split policy.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @param splitPolicy decides when the leaves of this tree split
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public OffHeapQuadtree(double xMin, double xMax, double yMin, double yMax, SplitPolicy splitPolicy) {
+        if (!(xMin < xMax && yMin < yMax) || !Double.isFinite(xMax - xMin) || !Double.isFinite(yMax - yMin)) {
+            throw new IllegalArgumentException("Invalid root bounds: [" + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "]");
+        }
+        this.splitPolicy = splitPolicy;
+        this.root = newLeaf(xMin, xMax, yMin, yMax);
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot written by {@link #save(Path)} or {@link Quadtree#save(Path)},
+     * keeping the saved shape.
+     *
+     * @param path the snapshot file
+     * @param splitPolicy decides when the leaves of the rebuilt tree split
+     * @return the rebuilt tree, answering every operation exactly as the saved tree did
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static OffHeapQuadtree load(Path path, SplitPolicy splitPolicy) throws IOException {
+        Snapshot.Reader snapshot = Snapshot.Reader.open(path);
+        int saved = snapshot.root();
+        OffHeapQuadtree tree = new OffHeapQuadtree(snapshot.bound(saved, 0), snapshot.bound(saved, 1),
+                snapshot.bound(saved, 2), snapshot.bound(saved, 3), splitPolicy);
+        tree.release(tree.root);
+        tree.root = tree.read(snapshot, saved);
+        tree.size = snapshot.rectangles();
+        return tree;
+    }
+
+    /**
+     * Returns the number of rectangles in the tree.
+     *
+     * @return the rectangle count
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the direct memory this tree has reserved for nodes and entries, free records
+     * included.
+     *
+     * @return the reserved size in bytes
+     */
+    public long reservedBytes() {
+        return nodes.reservedBytes() + chunks.reservedBytes();
+    }
+
+    /**
+     * Returns the split policy this tree was created with.
+     *
+     * @return the split policy
+     */
+    public SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    /**
+     * Walks the whole tree and reports its shape, as {@link Quadtree#shape()} does.
+     *
+     * @return the current shape of the tree
+     */
+    public TreeShape shape() {
+        TreeShape.Builder shape = new TreeShape.Builder(splitPolicy);
+        dump(root, 0, shape);
+        return shape.build();
+    }
+
+    @Override
+    public void insert(double x, double y, double length, double width) {
+        growToContain(x, y);
+        root = insert(root, x, y, length, width, 0);
+        size++;
+    }
+
+    /**
+     * Loads a batch of rectangles in one pass, building the levels from runs sorted by
+     * Z-order key as {@link Quadtree#bulkLoad(double[], int)} does.
+     *
+     * @param entries the packed rectangles; entry i occupies indices 4i to 4i+3
+     * @param count the number of rectangles to read from entries
+     */
+    @Override
+    public void bulkLoad(double[] entries, int count) {
+        if (count == 0) {
+            return;
+        }
+        // Existing entries go first so that leaves keep their insertion order
+        EntryBuffer existing = new EntryBuffer();
+        query(root, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY, existing);
+        int total = existing.count() + count;
+        double[] all = new double[total * 4];
+        System.arraycopy(existing.entries(), 0, all, 0, existing.count() * 4);
+        System.arraycopy(entries, 0, all, existing.count() * 4, count * 4);
+        for (int i = 0; i < count * 4; i += 4) {
+            growToContain(entries[i], entries[i + 1]);
+        }
+
+        double xMin = bound(root, 0), xMax = bound(root, 1), yMin = bound(root, 2), yMax = bound(root, 3);
+        long[] keys = new long[total];
+        int[] order = new int[total];
+        for (int i = 0; i < total; i++) {
+            keys[i] = ZOrder.key(all[i * 4], all[i * 4 + 1], xMin, xMax, yMin, yMax);
+            order[i] = i;
+        }
+        ZOrder.sort(keys, order);
+        release(root);
+        root = build(all, order, new int[total], 0, total, 0, xMin, xMax, yMin, yMax);
+        size = total;
+    }
+
+    @Override
+    public Quadtree.Rectangle find(double x, double y) {
+        return find(root, x, y);
+    }
+
+    @Override
+    public void delete(double x, double y) {
+        root = delete(root, x, y, 0);
+    }
+
+    @Override
+    public boolean update(double x, double y, double length, double width) {
+        return update(root, x, y, length, width);
+    }
+
+    @Override
+    public boolean move(double x, double y, double newX, double newY) {
+        Quadtree.checkCoordinates(newX, newY);
+        return apply(new Move(x, y, newX, newY, Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Moves a rectangle with the same local reinsertion as
+     * {@link Quadtree#move(double, double, double, double, double, double)}.
+     */
+    @Override
+    public boolean move(double x, double y, double newX, double newY, double length, double width) {
+        Quadtree.checkCoordinates(newX, newY);
+        return apply(new Move(x, y, newX, newY, length, width));
+    }
+
+    /**
+     * Applies a batch of moves after growing the root once to hold every new origin, as
+     * {@link Quadtree#moveAll(double[], int)} does.
+     */
+    @Override
+    public boolean[] moveAll(double[] moves, int count) {
+        for (int i = 0; i < count * 6; i += 6) {
+            Quadtree.checkCoordinates(moves[i + 2], moves[i + 3]);
+        }
+        for (int i = 0; i < count * 6; i += 6) {
+            growToContain(moves[i + 2], moves[i + 3]);
+        }
+        boolean[] moved = new boolean[count];
+        Move move = new Move();
+        for (int i = 0; i < count; i++) {
+            int m = i * 6;
+            move.reset(moves[m], moves[m + 1], moves[m + 2], moves[m + 3], moves[m + 4], moves[m + 5]);
+            moved[i] = apply(move);
+        }
+        return moved;
+    }
+
+    @Override
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        if (xMin <= xMax && yMin <= yMax) {
+            query(root, xMin, yMin, xMax, yMax, visitor);
+        }
+    }
+
+    @Override
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        PriorityQueue<NodeDistance> queue = new PriorityQueue<>(Comparator.comparingDouble(NodeDistance::distance));
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(k, Comparator.comparingDouble(Candidate::distance).reversed());
+        push(queue, candidates, k, root, x, y);
+        while (!queue.isEmpty()) {
+            NodeDistance next = queue.poll();
+            if (candidates.size() == k && next.distance >= candidates.peek().distance) {
+                break;
+            }
+            int node = next.node;
+            if (!isLeaf(node)) {
+                for (int q = 0; q < 4; q++) {
+                    push(queue, candidates, k, child(node, q), x, y);
+                }
+                continue;
+            }
+            for (int i = 0, count = count(node), chunk = first(node); i < count; i++) {
+                if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                    chunk = next(chunk);
+                }
+                double rx = entry(chunk, i, 0), ry = entry(chunk, i, 1);
+                double length = entry(chunk, i, 2), width = entry(chunk, i, 3);
+                double distance = Quadtree.squaredDistance(x, y, rx, ry, rx + length, ry + width);
+                if (candidates.size() < k) {
+                    candidates.add(new Candidate(new Quadtree.Rectangle(rx, ry, length, width), distance));
+                } else if (distance < candidates.peek().distance) {
+                    candidates.poll();
+                    candidates.add(new Candidate(new Quadtree.Rectangle(rx, ry, length, width), distance));
+                }
+            }
+        }
+        List<Quadtree.Rectangle> result = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            result.add(candidate.rect);
+        }
+        result.sort(Comparator.comparingDouble(rect -> Quadtree.squaredDistance(x, y, rect.getX(), rect.getY(),
+                rect.getX() + rect.getLength(), rect.getY() + rect.getWidth())));
+        return result;
+    }
+
+    @Override
+    public void dump(ResultSink sink) {
+        dump(root, 0, sink);
+    }
+
+    /**
+     * Writes the tree to a binary snapshot file in the format of {@link Quadtree#save(Path)},
+     * replacing any existing file.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        try (Snapshot.Writer out = new Snapshot.Writer(path)) {
+            out.finish(write(root, out));
+        }
+    }
+
+    // Inserts into the subtree at node, which sits at the given depth, and returns its new root
+    private int insert(int node, double x, double y, double length, double width, int depth) {
+        if (isLeaf(node)) {
+            if (count(node) < splitPolicy.capacity(depth) || depth >= splitPolicy.maxDepth() || !divisible(node)) {
+                add(node, x, y, length, width);
+                return node;
+            }
+            return insert(split(node), x, y, length, width, depth);
+        }
+        extend(node, x, y, length, width);
+        int quadrant = quadrant(node, x, y);
+        int child = child(node, quadrant);
+        if (child == NONE) {
+            child = newChild(node, quadrant);
+        }
+        setChild(node, quadrant, insert(child, x, y, length, width, depth + 1));
+        return node;
+    }
+
+    // Replaces a full leaf by an internal node holding its entries in new child leaves
+    private int split(int leaf) {
+        int internal = newInternal(bound(leaf, 0), bound(leaf, 1), bound(leaf, 2), bound(leaf, 3));
+        for (int i = 0, count = count(leaf), chunk = first(leaf); i < count; i++) {
+            if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                chunk = next(chunk);
+            }
+            double x = entry(chunk, i, 0), y = entry(chunk, i, 1);
+            int quadrant = quadrant(internal, x, y);
+            int child = child(internal, quadrant);
+            if (child == NONE) {
+                child = newChild(internal, quadrant);
+                setChild(internal, quadrant, child);
+            }
+            add(child, x, y, entry(chunk, i, 2), entry(chunk, i, 3));
+        }
+        include(internal, leaf);
+        release(leaf);
+        return internal;
+    }
+
+    // The quadrant on the point's path first, then any sibling whose extent reaches the point
+    private Quadtree.Rectangle find(int node, double x, double y) {
+        if (isLeaf(node)) {
+            int chunk = first(node);
+            for (int i = 0, count = count(node); i < count; i++) {
+                if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                    chunk = next(chunk);
+                }
+                double rx = entry(chunk, i, 0), ry = entry(chunk, i, 1);
+                double length = entry(chunk, i, 2), width = entry(chunk, i, 3);
+                if (x >= rx && x <= rx + length && y >= ry && y <= ry + width) {
+                    return new Quadtree.Rectangle(rx, ry, length, width);
+                }
+            }
+            return null;
+        }
+        int path = quadrant(node, x, y);
+        Quadtree.Rectangle found = reaches(child(node, path), x, y) ? find(child(node, path), x, y) : null;
+        for (int q = 0; q < 4 && found == null; q++) {
+            if (q != path && reaches(child(node, q), x, y)) {
+                found = find(child(node, q), x, y);
+            }
+        }
+        return found;
+    }
+
+    // Deletes below node and returns the subtree's new root; internal nodes release empty
+    // children and collapse into one leaf once their leaf children fit the capacity
+    private int delete(int node, double x, double y, int depth) {
+        if (isLeaf(node)) {
+            deleteEntries(node, x, y);
+            return node;
+        }
+        for (int q = 0; q < 4; q++) {
+            int child = child(node, q);
+            if (reaches(child, x, y)) {
+                child = delete(child, x, y, depth + 1);
+                if (isLeaf(child) && count(child) == 0) {
+                    release(child);
+                    child = NONE;
+                }
+                setChild(node, q, child);
+            }
+        }
+        return settle(node, depth);
+    }
+
+    // Called on an internal node after entries were taken out below it: collapses it into one
+    // leaf if its children now fit one, otherwise recomputes its extent from the children
+    private int settle(int node, int depth) {
+        int entries = 0;
+        for (int q = 0; q < 4; q++) {
+            int child = child(node, q);
+            entries += child == NONE ? 0 : isLeaf(child) ? count(child) : Integer.MAX_VALUE / 4;
+        }
+        if (entries <= splitPolicy.capacity(depth)) {
+            int merged = newLeaf(bound(node, 0), bound(node, 1), bound(node, 2), bound(node, 3));
+            for (int q = 0; q < 4; q++) {
+                int child = child(node, q);
+                if (child != NONE) {
+                    forEachEntry(child, (cx, cy, length, width) -> add(merged, cx, cy, length, width));
+                    release(child);
+                }
+            }
+            nodes.release(node);
+            return merged;
+        }
+        fitExtent(node);
+        return node;
+    }
+
+    // Recomputes an internal node's extent from its children
+    private void fitExtent(int node) {
+        clearExtent(node);
+        for (int q = 0; q < 4; q++) {
+            include(node, child(node, q));
+        }
+    }
+
+    // Removes a leaf's entries containing (x, y), keeping the others in order, and
+    // releases the chunks no longer needed
+    private void deleteEntries(int leaf, double x, double y) {
+        int count = count(leaf);
+        int kept = 0;
+        clearExtent(leaf);
+        for (int i = 0, chunk = first(leaf), target = chunk; i < count; i++) {
+            if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                chunk = next(chunk);
+            }
+            double rx = entry(chunk, i, 0), ry = entry(chunk, i, 1);
+            double length = entry(chunk, i, 2), width = entry(chunk, i, 3);
+            if (x >= rx && x <= rx + length && y >= ry && y <= ry + width) {
+                continue;
+            }
+            if (kept > 0 && kept % CHUNK_ENTRIES == 0) {
+                target = next(target);
+            }
+            if (kept != i) {
+                setEntry(target, kept, rx, ry, length, width);
+            }
+            extend(leaf, rx, ry, length, width);
+            kept++;
+        }
+        if (kept == count) {
+            return;
+        }
+        size -= count - kept;
+        setCount(leaf, kept);
+        int last = NONE;
+        int chunk = first(leaf);
+        for (int i = 0; i < kept; i += CHUNK_ENTRIES) {
+            last = chunk;
+            chunk = next(chunk);
+        }
+        while (chunk != NONE) {
+            int next = next(chunk);
+            chunks.release(chunk);
+            chunk = next;
+        }
+        if (last == NONE) {
+            setLinks(leaf, NONE, NONE);
+        } else {
+            chunkPage(last).putInt(chunks.offset(last) + NEXT, NONE);
+            setLinks(leaf, first(leaf), last);
+        }
+    }
+
+    // Resizes the rectangle find reports, visiting children in the same order
+    private boolean update(int node, double x, double y, double length, double width) {
+        if (isLeaf(node)) {
+            int chunk = first(node);
+            for (int i = 0, count = count(node); i < count; i++) {
+                if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                    chunk = next(chunk);
+                }
+                double rx = entry(chunk, i, 0), ry = entry(chunk, i, 1);
+                if (x >= rx && x <= rx + entry(chunk, i, 2) && y >= ry && y <= ry + entry(chunk, i, 3)) {
+                    setEntry(chunk, i, rx, ry, length, width);
+                    extend(node, rx, ry, length, width);
+                    return true;
+                }
+            }
+            return false;
+        }
+        int path = quadrant(node, x, y);
+        int updated = reaches(child(node, path), x, y) && update(child(node, path), x, y, length, width)
+                ? child(node, path) : NONE;
+        for (int q = 0; q < 4 && updated == NONE; q++) {
+            int child = child(node, q);
+            if (q != path && reaches(child, x, y) && update(child, x, y, length, width)) {
+                updated = child;
+            }
+        }
+        if (updated == NONE) {
+            return false;
+        }
+        include(node, updated); // the child's extent may have grown with the new dimensions
+        return true;
+    }
+
+    // Runs a move from the root, inserting the rectangle from the root if no node on its
+    // way back up could take it
+    private boolean apply(Move move) {
+        root = move(root, move, 0);
+        if (move.state == Move.PENDING) {
+            growToContain(move.newX, move.newY);
+            root = insert(root, move.newX, move.newY, move.length, move.width, 0);
+            move.state = Move.PLACED;
+        }
+        return move.state == Move.PLACED;
+    }
+
+    // Carries a move through the subtree at node, searching in the same order as find, and
+    // returns the subtree's new root. A rectangle taken out below is inserted here if its
+    // new origin falls in this node's quadrant and handed up otherwise.
+    private int move(int node, Move move, int depth) {
+        if (isLeaf(node)) {
+            moveEntry(node, move);
+            return node;
+        }
+        int path = quadrant(node, move.x, move.y);
+        moveInChild(node, path, move, depth);
+        for (int q = 0; q < 4 && move.state == Move.SEARCHING; q++) {
+            if (q != path) {
+                moveInChild(node, q, move, depth);
+            }
+        }
+        if (move.state == Move.SEARCHING) {
+            return node;
+        }
+        if (move.state == Move.PENDING && !holds(node, move.newX, move.newY)) {
+            return settle(node, depth);
+        }
+        fitExtent(node);
+        if (move.state == Move.PENDING) {
+            move.state = Move.PLACED;
+            return insert(node, move.newX, move.newY, move.length, move.width, depth);
+        }
+        return node;
+    }
+
+    private void moveInChild(int node, int quadrant, Move move, int depth) {
+        int child = child(node, quadrant);
+        if (reaches(child, move.x, move.y)) {
+            child = move(child, move, depth + 1);
+            if (isLeaf(child) && count(child) == 0) {
+                release(child);
+                child = NONE;
+            }
+            setChild(node, quadrant, child);
+        }
+    }
+
+    // Moves the first entry of a leaf containing the point in place if its new origin stays
+    // in the leaf's quadrant, otherwise takes it out and leaves it pending
+    private void moveEntry(int leaf, Move move) {
+        int chunk = first(leaf);
+        int count = count(leaf);
+        int i = 0;
+        for (; i < count; i++) {
+            if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                chunk = next(chunk);
+            }
+            double rx = entry(chunk, i, 0), ry = entry(chunk, i, 1);
+            if (move.x >= rx && move.x <= rx + entry(chunk, i, 2) && move.y >= ry && move.y <= ry + entry(chunk, i, 3)) {
+                break;
+            }
+        }
+        if (i == count) {
+            return;
+        }
+        move.found(entry(chunk, i, 2), entry(chunk, i, 3));
+        if (holds(leaf, move.newX, move.newY)) {
+            setEntry(chunk, i, move.newX, move.newY, move.length, move.width);
+            move.state = Move.PLACED;
+        } else {
+            removeEntry(leaf, chunk, i);
+            move.state = Move.PENDING;
+        }
+        clearExtent(leaf);
+        forEachEntry(leaf, (x, y, length, width) -> extend(leaf, x, y, length, width));
+    }
+
+    // Removes entry i, which lies in the given chunk, shifting the entries after it down one
+    // place, and releases the last chunk if it empties
+    private void removeEntry(int leaf, int chunk, int i) {
+        int count = count(leaf);
+        for (int j = i; j < count - 1; j++) {
+            int from = (j + 1) % CHUNK_ENTRIES == 0 ? next(chunk) : chunk;
+            setEntry(chunk, j, entry(from, j + 1, 0), entry(from, j + 1, 1), entry(from, j + 1, 2), entry(from, j + 1, 3));
+            chunk = from;
+        }
+        setCount(leaf, count - 1);
+        if ((count - 1) % CHUNK_ENTRIES != 0) {
+            return;
+        }
+        chunks.release(last(leaf));
+        if (count == 1) {
+            setLinks(leaf, NONE, NONE);
+            return;
+        }
+        int last = first(leaf);
+        for (int kept = CHUNK_ENTRIES; kept < count - 1; kept += CHUNK_ENTRIES) {
+            last = next(last);
+        }
+        chunkPage(last).putInt(chunks.offset(last) + NEXT, NONE);
+        setLinks(leaf, first(leaf), last);
+    }
+
+    private void query(int node, double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+        if (isLeaf(node)) {
+            int chunk = first(node);
+            for (int i = 0, count = count(node); i < count; i++) {
+                if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                    chunk = next(chunk);
+                }
+                double x = entry(chunk, i, 0), y = entry(chunk, i, 1);
+                double length = entry(chunk, i, 2), width = entry(chunk, i, 3);
+                if (x <= qxMax && x + length >= qxMin && y <= qyMax && y + width >= qyMin) {
+                    visitor.visit(x, y, length, width);
+                }
+            }
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            int child = child(node, q);
+            if (child != NONE && extent(child, 0) <= qxMax && extent(child, 1) >= qxMin
+                    && extent(child, 2) <= qyMax && extent(child, 3) >= qyMin) {
+                query(child, qxMin, qyMin, qxMax, qyMax, visitor);
+            }
+        }
+    }
+
+    // Queues a node by the distance to its extent; empty quadrants and subtrees, and nodes
+    // that cannot beat the current k-th candidate, are skipped
+    private void push(PriorityQueue<NodeDistance> queue, PriorityQueue<Candidate> candidates, int k,
+                      int node, double x, double y) {
+        if (node == NONE) {
+            return;
+        }
+        double distance = Quadtree.squaredDistance(x, y, extent(node, 0), extent(node, 2), extent(node, 1), extent(node, 3));
+        if (distance == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        if (candidates.size() < k || distance < candidates.peek().distance) {
+            queue.add(new NodeDistance(node, distance));
+        }
+    }
+
+    // Empty quadrants are reported as the empty leaves they stand for
+    private void dump(int node, int level, ResultSink sink) {
+        if (node == NONE) {
+            sink.beginLeaf(level);
+            sink.endLeaf();
+        } else if (isLeaf(node)) {
+            sink.beginLeaf(level);
+            forEachEntry(node, sink::leafEntry);
+            sink.endLeaf();
+        } else {
+            sink.internalNode(level);
+            for (int q = 0; q < 4; q++) {
+                dump(child(node, q), level + 1, sink);
+            }
+        }
+    }
+
+    // Writes the subtree at node, children first, and returns the offset of its record
+    private long write(int node, Snapshot.Writer out) throws IOException {
+        if (isLeaf(node)) {
+            int count = count(node);
+            long offset = writeHeader(node, Snapshot.LEAF, count, out);
+            int chunk = first(node);
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                    chunk = next(chunk);
+                }
+                out.entry(entry(chunk, i, 0), entry(chunk, i, 1), entry(chunk, i, 2), entry(chunk, i, 3));
+            }
+            return offset;
+        }
+        double xMid = (bound(node, 0) + bound(node, 1)) / 2;
+        double yMid = (bound(node, 2) + bound(node, 3)) / 2;
+        long[] offsets = new long[4];
+        for (int q = 0; q < 4; q++) {
+            int child = child(node, q);
+            if (child != NONE) {
+                offsets[q] = write(child, out);
+            } else {
+                // An empty quadrant is written as the empty leaf it stands for
+                boolean left = (q & 1) == 0, bottom = q >= 2;
+                offsets[q] = out.node(Snapshot.LEAF, 0, left ? bound(node, 0) : xMid, left ? xMid : bound(node, 1),
+                        bottom ? bound(node, 2) : yMid, bottom ? yMid : bound(node, 3), Double.POSITIVE_INFINITY,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+            }
+        }
+        long offset = writeHeader(node, Snapshot.INTERNAL, 0, out);
+        out.children(offsets[0], offsets[1], offsets[2], offsets[3]);
+        return offset;
+    }
+
+    private long writeHeader(int node, int tag, int count, Snapshot.Writer out) throws IOException {
+        return out.node(tag, count, bound(node, 0), bound(node, 1), bound(node, 2), bound(node, 3),
+                extent(node, 0), extent(node, 1), extent(node, 2), extent(node, 3));
+    }
+
+    // Copies the subtree stored at a snapshot offset, saved extents included; empty leaves
+    // below the root become empty quadrants
+    private int read(Snapshot.Reader snapshot, int saved) {
+        double xMin = snapshot.bound(saved, 0), xMax = snapshot.bound(saved, 1);
+        double yMin = snapshot.bound(saved, 2), yMax = snapshot.bound(saved, 3);
+        int node;
+        if (snapshot.isLeaf(saved)) {
+            node = newLeaf(xMin, xMax, yMin, yMax);
+            for (int i = 0, count = snapshot.count(saved); i < count; i++) {
+                add(node, snapshot.entry(saved, i, 0), snapshot.entry(saved, i, 1),
+                        snapshot.entry(saved, i, 2), snapshot.entry(saved, i, 3));
+            }
+        } else {
+            node = newInternal(xMin, xMax, yMin, yMax);
+            for (int q = 0; q < 4; q++) {
+                int child = snapshot.child(saved, q);
+                if (!snapshot.isLeaf(child) || snapshot.count(child) > 0) {
+                    setChild(node, q, read(snapshot, child));
+                }
+            }
+        }
+        setExtent(node, snapshot.extent(saved, 0), snapshot.extent(saved, 1), snapshot.extent(saved, 2),
+                snapshot.extent(saved, 3));
+        return node;
+    }
+
+    // Builds the subtree for order[from, to) as Quadtree.build does, or NONE for an empty run
+    private int build(double[] entries, int[] order, int[] scratch, int from, int to, int depth,
+                      double xMin, double xMax, double yMin, double yMax) {
+        if (from == to) {
+            return NONE;
+        }
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        if (to - from <= splitPolicy.capacity(depth) || depth >= splitPolicy.maxDepth()
+                || !(xMin < xMid && xMid < xMax && yMin < yMid && yMid < yMax)) {
+            // Within a leaf, restore the order in which the entries were supplied
+            Arrays.sort(order, from, to);
+            int leaf = newLeaf(xMin, xMax, yMin, yMax);
+            for (int i = from; i < to; i++) {
+                int e = order[i] * 4;
+                add(leaf, entries[e], entries[e + 1], entries[e + 2], entries[e + 3]);
+            }
+            return leaf;
+        }
+        int[] starts = new int[5];
+        boolean grouped = true;
+        int previous = 0;
+        for (int i = from; i < to; i++) {
+            int quadrant = zQuadrant(entries, order[i], xMid, yMid);
+            starts[quadrant + 1]++;
+            grouped &= quadrant >= previous;
+            previous = quadrant;
+        }
+        starts[0] = from;
+        for (int q = 1; q <= 4; q++) {
+            starts[q] += starts[q - 1];
+        }
+        if (!grouped) {
+            int[] next = {starts[0], starts[1], starts[2], starts[3]};
+            for (int i = from; i < to; i++) {
+                scratch[next[zQuadrant(entries, order[i], xMid, yMid)]++] = order[i];
+            }
+            System.arraycopy(scratch, from, order, from, to - from);
+        }
+        int bottomLeft = build(entries, order, scratch, starts[0], starts[1], depth + 1, xMin, xMid, yMin, yMid);
+        int bottomRight = build(entries, order, scratch, starts[1], starts[2], depth + 1, xMid, xMax, yMin, yMid);
+        int topLeft = build(entries, order, scratch, starts[2], starts[3], depth + 1, xMin, xMid, yMid, yMax);
+        int topRight = build(entries, order, scratch, starts[3], starts[4], depth + 1, xMid, xMax, yMid, yMax);
+        int internal = newInternal(xMin, xMax, yMin, yMax);
+        int[] children = {topLeft, topRight, bottomLeft, bottomRight};
+        for (int q = 0; q < 4; q++) {
+            setChild(internal, q, children[q]);
+            include(internal, children[q]);
+        }
+        return internal;
+    }
+
+    // Quadrant of entry e in Z-order: 0 bottomLeft, 1 bottomRight, 2 topLeft, 3 topRight
+    private static int zQuadrant(double[] entries, int e, double xMid, double yMid) {
+        return (entries[e * 4] < xMid ? 0 : 1) | (entries[e * 4 + 1] < yMid ? 0 : 2);
+    }
+
+    // Doubles the root toward (x, y) until the point lies inside it, as Quadtree does
+    private void growToContain(double x, double y) {
+        Quadtree.checkCoordinates(x, y);
+        while (x < bound(root, 0) || x > bound(root, 1) || y < bound(root, 2) || y > bound(root, 3)) {
+            boolean growLeft = x < bound(root, 0);
+            boolean growDown = y < bound(root, 2);
+            double xSpan = bound(root, 1) - bound(root, 0);
+            double ySpan = bound(root, 3) - bound(root, 2);
+            double xMin = growLeft ? bound(root, 0) - xSpan : bound(root, 0);
+            double xMax = growLeft ? bound(root, 1) : bound(root, 1) + xSpan;
+            double yMin = growDown ? bound(root, 2) - ySpan : bound(root, 2);
+            double yMax = growDown ? bound(root, 3) : bound(root, 3) + ySpan;
+            if (isLeaf(root)) {
+                setBounds(root, xMin, xMax, yMin, yMax);
+                continue;
+            }
+            int parent = newInternal(xMin, xMax, yMin, yMax);
+            setChild(parent, (growDown ? 0 : 2) + (growLeft ? 1 : 0), root);
+            include(parent, root);
+            root = parent;
+        }
+    }
+
+    // Node records
+
+    private int newLeaf(double xMin, double xMax, double yMin, double yMax) {
+        int node = nodes.allocate();
+        setCount(node, 0);
+        setLinks(node, NONE, NONE);
+        setBounds(node, xMin, xMax, yMin, yMax);
+        clearExtent(node);
+        return node;
+    }
+
+    private int newInternal(double xMin, double xMax, double yMin, double yMax) {
+        int node = nodes.allocate();
+        setCount(node, INTERNAL);
+        setBounds(node, xMin, xMax, yMin, yMax);
+        clearExtent(node);
+        for (int q = 0; q < 4; q++) {
+            setChild(node, q, NONE);
+        }
+        return node;
+    }
+
+    // Creates the empty leaf for one quadrant of an internal node; the caller links it
+    private int newChild(int node, int quadrant) {
+        double xMid = (bound(node, 0) + bound(node, 1)) / 2;
+        double yMid = (bound(node, 2) + bound(node, 3)) / 2;
+        boolean left = (quadrant & 1) == 0, bottom = quadrant >= 2;
+        return newLeaf(left ? bound(node, 0) : xMid, left ? xMid : bound(node, 1),
+                bottom ? bound(node, 2) : yMid, bottom ? yMid : bound(node, 3));
+    }
+
+    // Frees a node record, with the entry chunks of a leaf or the whole subtree of an internal node
+    private void release(int node) {
+        if (isLeaf(node)) {
+            for (int chunk = first(node); chunk != NONE; ) {
+                int next = next(chunk);
+                chunks.release(chunk);
+                chunk = next;
+            }
+        } else {
+            for (int q = 0; q < 4; q++) {
+                if (child(node, q) != NONE) {
+                    release(child(node, q));
+                }
+            }
+        }
+        nodes.release(node);
+    }
+
+    private ByteBuffer nodePage(int node) {
+        return nodes.page(node);
+    }
+
+    private boolean isLeaf(int node) {
+        return nodePage(node).getInt(nodes.offset(node) + COUNT) != INTERNAL;
+    }
+
+    private int count(int node) {
+        return nodePage(node).getInt(nodes.offset(node) + COUNT);
+    }
+
+    private void setCount(int node, int count) {
+        nodePage(node).putInt(nodes.offset(node) + COUNT, count);
+    }
+
+    private int first(int leaf) {
+        return nodePage(leaf).getInt(nodes.offset(leaf) + FIRST);
+    }
+
+    private int last(int leaf) {
+        return nodePage(leaf).getInt(nodes.offset(leaf) + LAST);
+    }
+
+    private void setLinks(int leaf, int first, int last) {
+        ByteBuffer page = nodePage(leaf);
+        int offset = nodes.offset(leaf);
+        page.putInt(offset + FIRST, first);
+        page.putInt(offset + LAST, last);
+    }
+
+    // 0 to 3: xMin, xMax, yMin, yMax
+    private double bound(int node, int index) {
+        return nodePage(node).getDouble(nodes.offset(node) + BOUNDS + index * 8);
+    }
+
+    private void setBounds(int node, double xMin, double xMax, double yMin, double yMax) {
+        ByteBuffer page = nodePage(node);
+        int offset = nodes.offset(node) + BOUNDS;
+        page.putDouble(offset, xMin);
+        page.putDouble(offset + 8, xMax);
+        page.putDouble(offset + 16, yMin);
+        page.putDouble(offset + 24, yMax);
+    }
+
+    // 0 to 3: exMin, exMax, eyMin, eyMax
+    private double extent(int node, int index) {
+        return nodePage(node).getDouble(nodes.offset(node) + EXTENT + index * 8);
+    }
+
+    private void setExtent(int node, double exMin, double exMax, double eyMin, double eyMax) {
+        ByteBuffer page = nodePage(node);
+        int offset = nodes.offset(node) + EXTENT;
+        page.putDouble(offset, exMin);
+        page.putDouble(offset + 8, exMax);
+        page.putDouble(offset + 16, eyMin);
+        page.putDouble(offset + 24, eyMax);
+    }
+
+    private void clearExtent(int node) {
+        setExtent(node, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+    }
+
+    // Grows a node's extent to cover a rectangle, taking its smaller and larger edges so a
+    // negative length or width extends the other way, as Quadtree.Node.extend does
+    private void extend(int node, double x, double y, double length, double width) {
+        setExtent(node, Math.min(extent(node, 0), Math.min(x, x + length)), Math.max(extent(node, 1), Math.max(x, x + length)),
+                Math.min(extent(node, 2), Math.min(y, y + width)), Math.max(extent(node, 3), Math.max(y, y + width)));
+    }
+
+    // Grows a node's extent to cover another node's extent; an empty quadrant covers nothing
+    private void include(int node, int other) {
+        if (other == NONE) {
+            return;
+        }
+        setExtent(node, Math.min(extent(node, 0), extent(other, 0)), Math.max(extent(node, 1), extent(other, 1)),
+                Math.min(extent(node, 2), extent(other, 2)), Math.max(extent(node, 3), extent(other, 3)));
+    }
+
+    // Whether insert would route a rectangle with this origin into the node's quadrant
+    private boolean holds(int node, double x, double y) {
+        return x >= bound(node, 0) && x < bound(node, 1) && y >= bound(node, 2) && y < bound(node, 3);
+    }
+
+    private boolean reaches(int node, double x, double y) {
+        return node != NONE && x >= extent(node, 0) && x <= extent(node, 1) && y >= extent(node, 2) && y <= extent(node, 3);
+    }
+
+    // 0 to 3: top left, top right, bottom left, bottom right
+    private int child(int node, int index) {
+        return nodePage(node).getInt(nodes.offset(node) + CHILDREN + index * 4);
+    }
+
+    private void setChild(int node, int index, int child) {
+        nodePage(node).putInt(nodes.offset(node) + CHILDREN + index * 4, child);
+    }
+
+    // Index of the child whose quadrant a point falls in
+    private int quadrant(int node, double x, double y) {
+        boolean left = x < (bound(node, 0) + bound(node, 1)) / 2;
+        boolean bottom = y < (bound(node, 2) + bound(node, 3)) / 2;
+        return (bottom ? 2 : 0) + (left ? 0 : 1);
+    }
+
+    // A quadrant can only be divided further while its midpoints fall strictly inside it
+    private boolean divisible(int node) {
+        double xMin = bound(node, 0), xMax = bound(node, 1), yMin = bound(node, 2), yMax = bound(node, 3);
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        return xMin < xMid && xMid < xMax && yMin < yMid && yMid < yMax;
+    }
+
+    // Entry chunks
+
+    // Appends an entry to a leaf, starting a new chunk when the last one is full
+    private void add(int leaf, double x, double y, double length, double width) {
+        int count = count(leaf);
+        int chunk = last(leaf);
+        if (count % CHUNK_ENTRIES == 0) {
+            int next = chunks.allocate();
+            chunkPage(next).putInt(chunks.offset(next) + NEXT, NONE);
+            if (chunk == NONE) {
+                setLinks(leaf, next, next);
+            } else {
+                chunkPage(chunk).putInt(chunks.offset(chunk) + NEXT, next);
+                setLinks(leaf, first(leaf), next);
+            }
+            chunk = next;
+        }
+        setEntry(chunk, count, x, y, length, width);
+        setCount(leaf, count + 1);
+        extend(leaf, x, y, length, width);
+    }
+
+    private void forEachEntry(int leaf, RectangleVisitor visitor) {
+        int chunk = first(leaf);
+        for (int i = 0, count = count(leaf); i < count; i++) {
+            if (i > 0 && i % CHUNK_ENTRIES == 0) {
+                chunk = next(chunk);
+            }
+            visitor.visit(entry(chunk, i, 0), entry(chunk, i, 1), entry(chunk, i, 2), entry(chunk, i, 3));
+        }
+    }
+
+    private ByteBuffer chunkPage(int chunk) {
+        return chunks.page(chunk);
+    }
+
+    private int next(int chunk) {
+        return chunkPage(chunk).getInt(chunks.offset(chunk) + NEXT);
+    }
+
+    // 0 to 3: x, y, length, width of leaf entry i, which lies in the given chunk
+    private double entry(int chunk, int i, int field) {
+        return chunkPage(chunk).getDouble(chunks.offset(chunk) + ENTRIES + (i % CHUNK_ENTRIES) * ENTRY_BYTES + field * 8);
+    }
+
+    private void setEntry(int chunk, int i, double x, double y, double length, double width) {
+        ByteBuffer page = chunkPage(chunk);
+        int offset = chunks.offset(chunk) + ENTRIES + (i % CHUNK_ENTRIES) * ENTRY_BYTES;
+        page.putDouble(offset, x);
+        page.putDouble(offset + 8, y);
+        page.putDouble(offset + 16, length);
+        page.putDouble(offset + 24, width);
+    }
+
+    // One move on its way down to the rectangle and back up to the node that places it.
+    // NaN dimensions are taken from the rectangle once it is found.
+    private static final class Move {
+        static final int SEARCHING = 0;
+        static final int PLACED = 1;
+        // Taken out of its leaf and waiting for an ancestor whose quadrant holds the new origin
+        static final int PENDING = 2;
+
+        double x, y, newX, newY, length, width;
+        int state;
+
+        Move() {
+        }
+
+        Move(double x, double y, double newX, double newY, double length, double width) {
+            reset(x, y, newX, newY, length, width);
+        }
+
+        void reset(double x, double y, double newX, double newY, double length, double width) {
+            this.x = x;
+            this.y = y;
+            this.newX = newX;
+            this.newY = newY;
+            this.length = length;
+            this.width = width;
+            state = SEARCHING;
+        }
+
+        void found(double oldLength, double oldWidth) {
+            if (Double.isNaN(length)) {
+                length = oldLength;
+                width = oldWidth;
+            }
+        }
+    }
+
+    private record NodeDistance(int node, double distance) {
+    }
+
+    private record Candidate(Quadtree.Rectangle rect, double distance) {
+    }
+
+    // Fixed-size records in direct buffers of PAGE_RECORDS records each. A record is named
+    // by its index; pages are added as the store grows and never move, and released records
+    // are chained through their first int for reuse.
+    private static final class RecordStore {
+        private static final int PAGE_SHIFT = 12;
+        private static final int PAGE_RECORDS = 1 << PAGE_SHIFT;
+
+        private final int recordBytes;
+        private ByteBuffer[] pages = new ByteBuffer[16];
+        private int pageCount;
+        private int top;
+        private int free = NONE;
+
+        RecordStore(int recordBytes) {
+            this.recordBytes = recordBytes;
+        }
+
+        int allocate() {
+            if (free != NONE) {
+                int record = free;
+                free = page(record).getInt(offset(record));
+                return record;
+            }
+            if (top == pageCount * PAGE_RECORDS) {
+                if (pageCount == Integer.MAX_VALUE >> PAGE_SHIFT) {
+                    throw new IllegalStateException("Off-heap store is full: " + top + " records");
+                }
+                if (pageCount == pages.length) {
+                    pages = Arrays.copyOf(pages, pageCount * 2);
+                }
+                pages[pageCount++] = ByteBuffer.allocateDirect(PAGE_RECORDS * recordBytes).order(ByteOrder.nativeOrder());
+            }
+            return top++;
+        }
+
+        void release(int record) {
+            page(record).putInt(offset(record), free);
+            free = record;
+        }
+
+        ByteBuffer page(int record) {
+            return pages[record >>> PAGE_SHIFT];
+        }
+
+        int offset(int record) {
+            return (record & (PAGE_RECORDS - 1)) * recordBytes;
+        }
+
+        long reservedBytes() {
+            return (long) pageCount * PAGE_RECORDS * recordBytes;
+        }
+    }
+}
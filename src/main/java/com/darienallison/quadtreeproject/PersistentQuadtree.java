@@ -0,0 +1,589 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The PersistentQuadtree class is an immutable quadtree. Every insert, delete and update
+ * returns a new tree that shares all untouched nodes with the previous version, so a write
+ * allocates only the nodes on one root-to-leaf path.
+ *
+ * <p>Because no version ever changes after it is built, any number of threads can read a
+ * published tree without locking. A writer typically keeps the current version in a
+ * volatile field and replaces it after each change; a long-running reader simply holds on
+ * to the version it started with and sees a consistent snapshot for as long as it needs:</p>
+ *
+ * <pre>
+ * volatile PersistentQuadtree current = new PersistentQuadtree();
+ * current = current.insert(10, 10, 5, 5);     // writer
+ * PersistentQuadtree snapshot = current;       // reader pins a version
+ * </pre>
+ *
+ * <p>Rectangles are routed by their origin and every node records the extent of the
+ * rectangles beneath it, exactly as in {@link Quadtree}. The root grows toward inserts
+ * outside its bounds. Leaves split as the tree's {@link SplitPolicy} decides; a leaf at the
+ * policy's maximum depth overflows instead, so rectangles sharing an origin never drive
+ * the path a write copies past that depth.</p>
+ */
+public final class PersistentQuadtree {
+    private static final Quadtree.Rectangle[] NO_ENTRIES = new Quadtree.Rectangle[0];
+
+    private final Node root;
+    private final int size;
+    private final SplitPolicy splitPolicy;
+
+    /**
+     * Creates an empty tree whose root covers -50..50 on both axes, with the default split policy.
+     */
+    public PersistentQuadtree() {
+        this(-50, 50, -50, 50);
+    }
+
+    /**
+     * Creates an empty tree whose root initially covers the given bounds, with the default
+     * split policy.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public PersistentQuadtree(double xMin, double xMax, double yMin, double yMax) {
+        this(xMin, xMax, yMin, yMax, SplitPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates an empty tree whose root initially covers the given bounds.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @param splitPolicy decides when the leaves of this tree and of every later version split
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public PersistentQuadtree(double xMin, double xMax, double yMin, double yMax, SplitPolicy splitPolicy) {
+        if (!(xMin < xMax && yMin < yMax) || !Double.isFinite(xMax - xMin) || !Double.isFinite(yMax - yMin)) {
+            throw new IllegalArgumentException("Invalid root bounds: [" + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "]");
+        }
+        this.root = new Leaf(xMin, xMax, yMin, yMax, NO_ENTRIES);
+        this.size = 0;
+        this.splitPolicy = splitPolicy;
+    }
+
+    private PersistentQuadtree(Node root, int size, SplitPolicy splitPolicy) {
+        this.root = root;
+        this.size = size;
+        this.splitPolicy = splitPolicy;
+    }
+
+    /**
+     * Returns a tree that also holds the given rectangle.
+     *
+     * @param x the x-coordinate of the rectangle
+     * @param y the y-coordinate of the rectangle
+     * @param length the length of the rectangle
+     * @param width the width of the rectangle
+     * @return the new version of the tree
+     */
+    public PersistentQuadtree insert(double x, double y, double length, double width) {
+        Quadtree.checkCoordinates(x, y);
+        Node grown = root;
+        while (!grown.bounds(x, y)) {
+            grown = grow(grown, x, y);
+        }
+        return new PersistentQuadtree(grown.insert(new Quadtree.Rectangle(x, y, length, width), 0, splitPolicy),
+                size + 1, splitPolicy);
+    }
+
+    /**
+     * Returns a tree without any rectangle containing the specified coordinates. Nodes left
+     * holding no more than the split policy's capacity for their depth collapse back into a
+     * single leaf.
+     *
+     * @param x the x-coordinate of the rectangles to delete
+     * @param y the y-coordinate of the rectangles to delete
+     * @return the new version of the tree, or this tree if nothing contained the point
+     */
+    public PersistentQuadtree delete(double x, double y) {
+        Node deleted = root.extentContains(x, y) ? root.delete(x, y, 0, splitPolicy) : root;
+        return deleted == root ? this : new PersistentQuadtree(deleted, deleted.count(), splitPolicy);
+    }
+
+    /**
+     * Returns a tree in which the rectangle {@link #find(double, double)} reports for the
+     * coordinates has the new dimensions.
+     *
+     * @param x the x-coordinate of the rectangle to update
+     * @param y the y-coordinate of the rectangle to update
+     * @param length the new length of the rectangle
+     * @param width the new width of the rectangle
+     * @return the new version of the tree, or this tree if no rectangle contains the point
+     */
+    public PersistentQuadtree update(double x, double y, double length, double width) {
+        Node updated = root.extentContains(x, y) ? root.update(x, y, length, width) : null;
+        return updated == null ? this : new PersistentQuadtree(updated, size, splitPolicy);
+    }
+
+    /**
+     * Finds a rectangle containing the specified coordinates.
+     *
+     * @param x the x-coordinate to look up
+     * @param y the y-coordinate to look up
+     * @return a rectangle containing (x, y), or null if there is none
+     */
+    public Quadtree.Rectangle find(double x, double y) {
+        return root.extentContains(x, y) ? root.find(x, y) : null;
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax].
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param visitor called once for each matching rectangle
+     */
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        if (root.extentOverlaps(xMin, yMin, xMax, yMax)) {
+            root.query(xMin, yMin, xMax, yMax, visitor);
+        }
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first, with the same
+     * best-first search as {@link Quadtree#nearest(double, double, int)}.
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        Comparator<Quadtree.Rectangle> byDistance = Comparator.comparingDouble(rect -> squaredDistance(x, y, rect));
+        PriorityQueue<Node> nodes = new PriorityQueue<>(Comparator.comparingDouble(node -> node.squaredDistance(x, y)));
+        PriorityQueue<Quadtree.Rectangle> best = new PriorityQueue<>(k, byDistance.reversed());
+        nodes.add(root);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.poll();
+            if (node.count() == 0) {
+                continue;
+            }
+            if (best.size() == k && node.squaredDistance(x, y) >= squaredDistance(x, y, best.peek())) {
+                break;
+            }
+            if (node instanceof Internal internal) {
+                nodes.add(internal.topLeft);
+                nodes.add(internal.topRight);
+                nodes.add(internal.bottomLeft);
+                nodes.add(internal.bottomRight);
+            } else {
+                for (Quadtree.Rectangle rect : ((Leaf) node).entries) {
+                    if (best.size() < k) {
+                        best.add(rect);
+                    } else if (squaredDistance(x, y, rect) < squaredDistance(x, y, best.peek())) {
+                        best.poll();
+                        best.add(rect);
+                    }
+                }
+            }
+        }
+        List<Quadtree.Rectangle> result = new ArrayList<>(best);
+        result.sort(byDistance);
+        return result;
+    }
+
+    /**
+     * Returns the number of rectangles in this version of the tree.
+     *
+     * @return the rectangle count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the split policy this tree was created with, which every later version shares.
+     *
+     * @return the split policy
+     */
+    public SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    /**
+     * Walks this version of the tree and reports its shape, as {@link Quadtree#shape()} does.
+     *
+     * @return the shape of this version
+     */
+    public TreeShape shape() {
+        TreeShape.Builder shape = new TreeShape.Builder(splitPolicy);
+        root.dump(0, shape);
+        return shape.build();
+    }
+
+    /**
+     * Prints the structure of this version of the tree in the same format as {@link Quadtree#dump()}.
+     */
+    public void dump() {
+        ResultSink sink = TextResultSink.standardOutput(false);
+        dump(sink);
+        sink.flush();
+    }
+
+    /**
+     * Reports the structure of this version of the tree to a result sink, depth first.
+     *
+     * @param sink the sink receiving the nodes
+     */
+    public void dump(ResultSink sink) {
+        root.dump(0, sink);
+    }
+
+    private static double squaredDistance(double x, double y, Quadtree.Rectangle rect) {
+        double dx = Math.max(Math.max(rect.getX() - x, 0), x - (rect.getX() + rect.getLength()));
+        double dy = Math.max(Math.max(rect.getY() - y, 0), y - (rect.getY() + rect.getWidth()));
+        return dx * dx + dy * dy;
+    }
+
+    // Doubles the root toward (x, y); the old root becomes one quadrant of the new one
+    private static Node grow(Node root, double x, double y) {
+        boolean growLeft = x < root.xMin;
+        boolean growDown = y < root.yMin;
+        double xSpan = root.xMax - root.xMin;
+        double ySpan = root.yMax - root.yMin;
+        double xMin = growLeft ? root.xMin - xSpan : root.xMin;
+        double xMax = growLeft ? root.xMax : root.xMax + xSpan;
+        double yMin = growDown ? root.yMin - ySpan : root.yMin;
+        double yMax = growDown ? root.yMax : root.yMax + ySpan;
+        if (root instanceof Leaf leaf) {
+            return new Leaf(xMin, xMax, yMin, yMax, leaf.entries);
+        }
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        Node topLeft = new Leaf(xMin, xMid, yMid, yMax, NO_ENTRIES);
+        Node topRight = new Leaf(xMid, xMax, yMid, yMax, NO_ENTRIES);
+        Node bottomLeft = new Leaf(xMin, xMid, yMin, yMid, NO_ENTRIES);
+        Node bottomRight = new Leaf(xMid, xMax, yMin, yMid, NO_ENTRIES);
+        if (growLeft && growDown) {
+            topRight = root;
+        } else if (growLeft) {
+            bottomRight = root;
+        } else if (growDown) {
+            topLeft = root;
+        } else {
+            bottomLeft = root;
+        }
+        return new Internal(xMin, xMax, yMin, yMax, topLeft, topRight, bottomLeft, bottomRight);
+    }
+
+    // Builds the subtree at the given depth holding the given entries, splitting while a
+    // quadrant holds more than the policy's capacity for its depth. A leaf at the maximum
+    // depth, or too small to divide, keeps every entry instead and overflows.
+    private static Node build(double xMin, double xMax, double yMin, double yMax, Quadtree.Rectangle[] entries,
+                              int depth, SplitPolicy policy) {
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        boolean divisible = xMin < xMid && xMid < xMax && yMin < yMid && yMid < yMax;
+        if (entries.length <= policy.capacity(depth) || depth >= policy.maxDepth() || !divisible) {
+            return new Leaf(xMin, xMax, yMin, yMax, entries);
+        }
+        List<Quadtree.Rectangle> topLeft = new ArrayList<>(), topRight = new ArrayList<>();
+        List<Quadtree.Rectangle> bottomLeft = new ArrayList<>(), bottomRight = new ArrayList<>();
+        for (Quadtree.Rectangle rect : entries) {
+            if (rect.getX() < xMid) {
+                (rect.getY() < yMid ? bottomLeft : topLeft).add(rect);
+            } else {
+                (rect.getY() < yMid ? bottomRight : topRight).add(rect);
+            }
+        }
+        return new Internal(xMin, xMax, yMin, yMax,
+                build(xMin, xMid, yMid, yMax, topLeft.toArray(NO_ENTRIES), depth + 1, policy),
+                build(xMid, xMax, yMid, yMax, topRight.toArray(NO_ENTRIES), depth + 1, policy),
+                build(xMin, xMid, yMin, yMid, bottomLeft.toArray(NO_ENTRIES), depth + 1, policy),
+                build(xMid, xMax, yMin, yMid, bottomRight.toArray(NO_ENTRIES), depth + 1, policy));
+    }
+
+    // Immutable nodes. Every write builds replacements for the nodes it changes and reuses the rest.
+    // Every field, the extent included, is final, so a published version is safely visible
+    // to readers on any thread.
+    private abstract static class Node {
+        final double xMin, xMax, yMin, yMax;
+        final double exMin, exMax, eyMin, eyMax;
+
+        // The extent is given as exMin, exMax, eyMin, eyMax
+        Node(double xMin, double xMax, double yMin, double yMax, double[] extent) {
+            this.xMin = xMin;
+            this.xMax = xMax;
+            this.yMin = yMin;
+            this.yMax = yMax;
+            this.exMin = extent[0];
+            this.exMax = extent[1];
+            this.eyMin = extent[2];
+            this.eyMax = extent[3];
+        }
+
+        static double[] emptyExtent() {
+            return new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        }
+
+        // Grows an extent to cover a rectangle, both of whose corners it takes in, so that a
+        // rectangle given a negative length or width lies inside the extent as well
+        static void extend(double[] extent, double x, double y, double length, double width) {
+            extent[0] = Math.min(extent[0], Math.min(x, x + length));
+            extent[1] = Math.max(extent[1], Math.max(x, x + length));
+            extent[2] = Math.min(extent[2], Math.min(y, y + width));
+            extent[3] = Math.max(extent[3], Math.max(y, y + width));
+        }
+
+        abstract int count();
+
+        // Inserts into this subtree, which sits at the given depth, and returns its new root
+        abstract Node insert(Quadtree.Rectangle rect, int depth, SplitPolicy policy);
+
+        // Returns this node when nothing was removed
+        abstract Node delete(double x, double y, int depth, SplitPolicy policy);
+
+        // Returns null when no rectangle contains the point
+        abstract Node update(double x, double y, double length, double width);
+
+        abstract Quadtree.Rectangle find(double x, double y);
+
+        abstract void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor);
+
+        abstract void dump(int level, ResultSink sink);
+
+        boolean bounds(double x, double y) {
+            return x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+        }
+
+        boolean extentContains(double x, double y) {
+            return x >= exMin && x <= exMax && y >= eyMin && y <= eyMax;
+        }
+
+        boolean extentOverlaps(double qxMin, double qyMin, double qxMax, double qyMax) {
+            return exMin <= qxMax && exMax >= qxMin && eyMin <= qyMax && eyMax >= qyMin;
+        }
+
+        double squaredDistance(double x, double y) {
+            double dx = Math.max(Math.max(exMin - x, 0), x - exMax);
+            double dy = Math.max(Math.max(eyMin - y, 0), y - eyMax);
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Quadtree.Rectangle[] entries;
+
+        // The array is owned by the leaf from here on and never written again
+        Leaf(double xMin, double xMax, double yMin, double yMax, Quadtree.Rectangle[] entries) {
+            super(xMin, xMax, yMin, yMax, extentOf(entries));
+            this.entries = entries;
+        }
+
+        private static double[] extentOf(Quadtree.Rectangle[] entries) {
+            double[] extent = emptyExtent();
+            for (Quadtree.Rectangle rect : entries) {
+                extend(extent, rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+            }
+            return extent;
+        }
+
+        @Override
+        int count() {
+            return entries.length;
+        }
+
+        @Override
+        Node insert(Quadtree.Rectangle rect, int depth, SplitPolicy policy) {
+            Quadtree.Rectangle[] grown = Arrays.copyOf(entries, entries.length + 1);
+            grown[entries.length] = rect;
+            return build(xMin, xMax, yMin, yMax, grown, depth, policy);
+        }
+
+        @Override
+        Node delete(double x, double y, int depth, SplitPolicy policy) {
+            int kept = 0;
+            Quadtree.Rectangle[] remaining = new Quadtree.Rectangle[entries.length];
+            for (Quadtree.Rectangle rect : entries) {
+                if (!rect.contains(x, y)) {
+                    remaining[kept++] = rect;
+                }
+            }
+            return kept == entries.length ? this : new Leaf(xMin, xMax, yMin, yMax, Arrays.copyOf(remaining, kept));
+        }
+
+        @Override
+        Node update(double x, double y, double length, double width) {
+            for (int i = 0; i < entries.length; i++) {
+                Quadtree.Rectangle rect = entries[i];
+                if (rect.contains(x, y)) {
+                    Quadtree.Rectangle[] changed = entries.clone();
+                    changed[i] = new Quadtree.Rectangle(rect.getX(), rect.getY(), length, width);
+                    return new Leaf(xMin, xMax, yMin, yMax, changed);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Quadtree.Rectangle find(double x, double y) {
+            for (Quadtree.Rectangle rect : entries) {
+                if (rect.contains(x, y)) {
+                    return rect;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+            for (Quadtree.Rectangle rect : entries) {
+                if (rect.intersects(qxMin, qyMin, qxMax, qyMax)) {
+                    visitor.visit(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+                }
+            }
+        }
+
+        @Override
+        void dump(int level, ResultSink sink) {
+            sink.beginLeaf(level);
+            for (Quadtree.Rectangle rect : entries) {
+                sink.leafEntry(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+            }
+            sink.endLeaf();
+        }
+    }
+
+    private static final class Internal extends Node {
+        final Node topLeft, topRight, bottomLeft, bottomRight;
+        final int count;
+
+        Internal(double xMin, double xMax, double yMin, double yMax,
+                 Node topLeft, Node topRight, Node bottomLeft, Node bottomRight) {
+            super(xMin, xMax, yMin, yMax, extentOf(topLeft, topRight, bottomLeft, bottomRight));
+            this.topLeft = topLeft;
+            this.topRight = topRight;
+            this.bottomLeft = bottomLeft;
+            this.bottomRight = bottomRight;
+            this.count = topLeft.count() + topRight.count() + bottomLeft.count() + bottomRight.count();
+        }
+
+        private static double[] extentOf(Node... children) {
+            double[] extent = emptyExtent();
+            for (Node child : children) {
+                extent[0] = Math.min(extent[0], child.exMin);
+                extent[1] = Math.max(extent[1], child.exMax);
+                extent[2] = Math.min(extent[2], child.eyMin);
+                extent[3] = Math.max(extent[3], child.eyMax);
+            }
+            return extent;
+        }
+
+        @Override
+        int count() {
+            return count;
+        }
+
+        // Copies this node with one child replaced
+        private Node with(Node oldChild, Node newChild) {
+            return new Internal(xMin, xMax, yMin, yMax,
+                    topLeft == oldChild ? newChild : topLeft,
+                    topRight == oldChild ? newChild : topRight,
+                    bottomLeft == oldChild ? newChild : bottomLeft,
+                    bottomRight == oldChild ? newChild : bottomRight);
+        }
+
+        private Node quadrant(double x, double y) {
+            if (x < (xMin + xMax) / 2) {
+                return y < (yMin + yMax) / 2 ? bottomLeft : topLeft;
+            } else {
+                return y < (yMin + yMax) / 2 ? bottomRight : topRight;
+            }
+        }
+
+        @Override
+        Node insert(Quadtree.Rectangle rect, int depth, SplitPolicy policy) {
+            Node child = quadrant(rect.getX(), rect.getY());
+            return with(child, child.insert(rect, depth + 1, policy));
+        }
+
+        @Override
+        Node delete(double x, double y, int depth, SplitPolicy policy) {
+            Node tl = topLeft.extentContains(x, y) ? topLeft.delete(x, y, depth + 1, policy) : topLeft;
+            Node tr = topRight.extentContains(x, y) ? topRight.delete(x, y, depth + 1, policy) : topRight;
+            Node bl = bottomLeft.extentContains(x, y) ? bottomLeft.delete(x, y, depth + 1, policy) : bottomLeft;
+            Node br = bottomRight.extentContains(x, y) ? bottomRight.delete(x, y, depth + 1, policy) : bottomRight;
+            if (tl == topLeft && tr == topRight && bl == bottomLeft && br == bottomRight) {
+                return this;
+            }
+            int merged = tl.count() + tr.count() + bl.count() + br.count();
+            if (tl instanceof Leaf l1 && tr instanceof Leaf l2 && bl instanceof Leaf l3 && br instanceof Leaf l4
+                    && merged <= policy.capacity(depth)) {
+                List<Quadtree.Rectangle> entries = new ArrayList<>(merged);
+                entries.addAll(Arrays.asList(l1.entries));
+                entries.addAll(Arrays.asList(l2.entries));
+                entries.addAll(Arrays.asList(l3.entries));
+                entries.addAll(Arrays.asList(l4.entries));
+                return new Leaf(xMin, xMax, yMin, yMax, entries.toArray(NO_ENTRIES));
+            }
+            return new Internal(xMin, xMax, yMin, yMax, tl, tr, bl, br);
+        }
+
+        // Children are tried in the same order as find: the point's quadrant first
+        @Override
+        Node update(double x, double y, double length, double width) {
+            Node path = quadrant(x, y);
+            Node changed = path.extentContains(x, y) ? path.update(x, y, length, width) : null;
+            if (changed != null) {
+                return with(path, changed);
+            }
+            for (Node child : new Node[] {topLeft, topRight, bottomLeft, bottomRight}) {
+                if (child != path && child.extentContains(x, y) && (changed = child.update(x, y, length, width)) != null) {
+                    return with(child, changed);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Quadtree.Rectangle find(double x, double y) {
+            Node path = quadrant(x, y);
+            Quadtree.Rectangle found = path.extentContains(x, y) ? path.find(x, y) : null;
+            for (Node child : new Node[] {topLeft, topRight, bottomLeft, bottomRight}) {
+                if (found == null && child != path && child.extentContains(x, y)) {
+                    found = child.find(x, y);
+                }
+            }
+            return found;
+        }
+
+        @Override
+        void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+            for (Node child : new Node[] {topLeft, topRight, bottomLeft, bottomRight}) {
+                if (child.extentOverlaps(qxMin, qyMin, qxMax, qyMax)) {
+                    child.query(qxMin, qyMin, qxMax, qyMax, visitor);
+                }
+            }
+        }
+
+        @Override
+        void dump(int level, ResultSink sink) {
+            sink.internalNode(level);
+            topLeft.dump(level + 1, sink);
+            topRight.dump(level + 1, sink);
+            bottomLeft.dump(level + 1, sink);
+            bottomRight.dump(level + 1, sink);
+        }
+    }
+}
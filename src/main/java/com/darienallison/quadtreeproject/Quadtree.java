@@ -1,19 +1,98 @@
 package com.darienallison.quadtreeproject;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 
 /**
  * The Quadtree class represents a data structure for spatial partitioning using nodes.
  * It supports operations such as insert, find, delete, update, and dump.
  */
-public class Quadtree {
+public class Quadtree implements SpatialIndex {
+
+    /**
+     * Selects how leaf nodes lay out the rectangles they hold.
+     */
+    public enum LeafStorage {
+        /** Each entry is a separate Rectangle object kept in a list. */
+        OBJECTS,
+        /** Entries are packed into one primitive array, four doubles per rectangle. */
+        PACKED
+    }
 
     private Node root;
+    private final LeafStorage leafStorage;
+    private final SplitPolicy splitPolicy;
+    private final QuadtreeMetrics metrics = new QuadtreeMetrics();
 
     // Define the initial dimensions for the quadtree's root node
     public Quadtree() {
-        this.root = new LeafNode(-50, 50, -50, 50);
+        this(LeafStorage.OBJECTS);
+    }
+
+    /**
+     * Creates an empty quadtree whose leaves use the given storage layout.
+     *
+     * @param leafStorage the layout used by every leaf node of this tree
+     */
+    public Quadtree(LeafStorage leafStorage) {
+        this(-50, 50, -50, 50, leafStorage);
+    }
+
+    /**
+     * Creates an empty quadtree whose root initially covers the given bounds.
+     * The root grows automatically when a rectangle is inserted outside them.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     */
+    public Quadtree(double xMin, double xMax, double yMin, double yMax) {
+        this(xMin, xMax, yMin, yMax, LeafStorage.OBJECTS);
+    }
+
+    /**
+     * Creates an empty quadtree with the given initial root bounds and leaf storage layout.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @param leafStorage the layout used by every leaf node of this tree
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public Quadtree(double xMin, double xMax, double yMin, double yMax, LeafStorage leafStorage) {
+        this(xMin, xMax, yMin, yMax, leafStorage, SplitPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates an empty quadtree with the given initial root bounds, leaf storage layout and
+     * split policy.
+     *
+     * @param xMin the minimum x-coordinate of the initial root
+     * @param xMax the maximum x-coordinate of the initial root
+     * @param yMin the minimum y-coordinate of the initial root
+     * @param yMax the maximum y-coordinate of the initial root
+     * @param leafStorage the layout used by every leaf node of this tree
+     * @param splitPolicy decides when the leaves of this tree split
+     * @throws IllegalArgumentException if the bounds are not finite or enclose no area
+     */
+    public Quadtree(double xMin, double xMax, double yMin, double yMax, LeafStorage leafStorage, SplitPolicy splitPolicy) {
+        if (!(xMin < xMax && yMin < yMax) || !Double.isFinite(xMax - xMin) || !Double.isFinite(yMax - yMin)) {
+            throw new IllegalArgumentException("Invalid root bounds: [" + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "]");
+        }
+        this.leafStorage = leafStorage;
+        this.splitPolicy = splitPolicy;
+        this.root = newLeaf(xMin, xMax, yMin, yMax);
     }
 
     /**
@@ -24,34 +103,163 @@ public class Quadtree {
      * @param length the length of the rectangle
      * @param width the width of the rectangle
      */
+    @Override
     public void insert(double x, double y, double length, double width) {
-        Rectangle rect = new Rectangle(x, y, length, width);
-        root = root.insert(rect); // Update root in case of a split
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.INSERT);
+        long start = timed ? System.nanoTime() : 0;
+        growToContain(x, y);
+        root = root.insert(x, y, length, width, 0); // Update root in case of a split
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.INSERT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Loads a batch of rectangles in one pass. The batch, together with anything already
+     * in the tree, is sorted once by Z-order key and the levels are built directly from
+     * the sorted runs, so no leaf is ever split along the way. The resulting tree has the
+     * same shape and leaf contents as inserting the rectangles one at a time, as long as
+     * they fall inside the current root bounds.
+     *
+     * @param rectangles the rectangles to load
+     */
+    public void bulkLoad(Rectangle[] rectangles) {
+        double[] entries = new double[rectangles.length * 4];
+        for (int i = 0; i < rectangles.length; i++) {
+            Rectangle rect = rectangles[i];
+            entries[i * 4] = rect.x;
+            entries[i * 4 + 1] = rect.y;
+            entries[i * 4 + 2] = rect.length;
+            entries[i * 4 + 3] = rect.width;
+        }
+        bulkLoad(entries, rectangles.length);
+    }
+
+    /**
+     * Loads a stream of rectangles in one pass.
+     *
+     * @param rectangles the rectangles to load
+     * @see #bulkLoad(Rectangle[])
+     */
+    public void bulkLoad(Stream<Rectangle> rectangles) {
+        bulkLoad(rectangles.toArray(Rectangle[]::new));
+    }
+
+    /**
+     * Loads a batch of rectangles packed as x, y, length, width quadruples.
+     *
+     * @param entries the packed rectangles; entry i occupies indices 4i to 4i+3
+     * @param count the number of rectangles to read from entries
+     * @see #bulkLoad(Rectangle[])
+     */
+    @Override
+    public void bulkLoad(double[] entries, int count) {
+        if (count == 0) {
+            return;
+        }
+        metrics.count(QuadtreeMetrics.Operation.INSERT, count);
+        // Existing entries go first so that leaves keep their insertion order
+        EntryBuffer existing = new EntryBuffer();
+        root.query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                existing);
+        int total = existing.count() + count;
+        double[] all = new double[total * 4];
+        System.arraycopy(existing.entries(), 0, all, 0, existing.count() * 4);
+        System.arraycopy(entries, 0, all, existing.count() * 4, count * 4);
+        for (int i = 0; i < count * 4; i += 4) {
+            growToContain(entries[i], entries[i + 1]);
+        }
+
+        long[] keys = new long[total];
+        int[] order = new int[total];
+        for (int i = 0; i < total; i++) {
+            keys[i] = ZOrder.key(all[i * 4], all[i * 4 + 1], root.xMin, root.xMax, root.yMin, root.yMax);
+            order[i] = i;
+        }
+        ZOrder.sort(keys, order);
+        root = build(all, order, new int[total], 0, total, 0, root.xMin, root.xMax, root.yMin, root.yMax);
     }
 
     /**
-     * Finds a rectangle at the specified coordinates in the quadtree.
+     * Finds a rectangle at the specified coordinates in the quadtree. Whatever the leaf
+     * storage, the rectangle returned is a copy that later changes to the tree leave alone,
+     * as are the rectangles of {@link #findAll} and {@link #nearest}.
      *
      * @param x the x-coordinate of the rectangle to find
      * @param y the y-coordinate of the rectangle to find
+     * @return a rectangle containing (x, y), or null if there is none
      */
-    public void find(double x, double y) {
-        Rectangle found = root.find(x, y);
-        if (found != null) {
-            System.out.println(found);
-        } else {
-            System.out.println("Nothing found at (" + x + ", " + y + ")");
+    @Override
+    public Rectangle find(double x, double y) {
+        if (!metrics.sample(QuadtreeMetrics.Operation.FIND)) {
+            return root.find(x, y);
         }
+        long start = System.nanoTime();
+        int[] visited = new int[1];
+        Rectangle found = root.find(x, y, visited);
+        metrics.recordLatency(QuadtreeMetrics.Operation.FIND, System.nanoTime() - start);
+        metrics.recordFindNodesVisited(visited[0]);
+        return found;
+    }
+
+    /**
+     * Looks up a batch of points in parallel on the common fork/join pool. The batch is
+     * split by quadrant and each part is resolved inside its own subtree, recursing while
+     * a part is still large. The tree must not be modified while the lookup runs.
+     *
+     * @param xs the x-coordinates to look up
+     * @param ys the y-coordinates to look up, paired with xs by index
+     * @return for each point, in input order, the rectangle {@link #find(double, double)}
+     *         reports, or null if there is none
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    @Override
+    public Rectangle[] findAll(double[] xs, double[] ys) {
+        return findAll(xs, ys, ForkJoinPool.commonPool());
     }
 
     /**
-     * Deletes a rectangle at the specified coordinates from the quadtree.
+     * Looks up a batch of points in parallel on the given pool.
+     *
+     * @param xs the x-coordinates to look up
+     * @param ys the y-coordinates to look up, paired with xs by index
+     * @param pool the pool running the lookup
+     * @return for each point, in input order, the rectangle {@link #find(double, double)}
+     *         reports, or null if there is none
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @see #findAll(double[], double[])
+     */
+    public Rectangle[] findAll(double[] xs, double[] ys, ForkJoinPool pool) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length: " + xs.length + " and " + ys.length);
+        }
+        metrics.count(QuadtreeMetrics.Operation.FIND, xs.length);
+        Rectangle[] results = new Rectangle[xs.length];
+        int[] points = new int[xs.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i;
+        }
+        pool.invoke(new FindTask(root, xs, ys, results, points, new int[points.length], 0, points.length));
+        return results;
+    }
+
+    /**
+     * Deletes every rectangle containing the specified coordinates from the quadtree.
+     * Leaves left empty are released, and internal nodes left holding no more than a
+     * leaf's capacity collapse back into a single leaf, so the tree shrinks as entries
+     * are removed.
      *
      * @param x the x-coordinate of the rectangle to delete
      * @param y the y-coordinate of the rectangle to delete
      */
+    @Override
     public void delete(double x, double y) {
-        root = root.delete(x, y);
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.DELETE);
+        long start = timed ? System.nanoTime() : 0;
+        root = root.delete(x, y, 0);
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.DELETE, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -61,64 +269,1055 @@ public class Quadtree {
      * @param y the y-coordinate of the rectangle to update
      * @param length the new length of the rectangle
      * @param width the new width of the rectangle
+     * @return true if a rectangle containing (x, y) was found and resized
      */
-    public void update(double x, double y, double length, double width) {
-        Rectangle rect = root.find(x, y);
-        if (rect != null) {
-            rect.setDimensions(length, width);
-            System.out.println("Updated rectangle at (" + x + ", " + y + ")");
+    @Override
+    public boolean update(double x, double y, double length, double width) {
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.UPDATE);
+        long start = timed ? System.nanoTime() : 0;
+        boolean updated = root.update(x, y, length, width);
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.UPDATE, System.nanoTime() - start);
+        }
+        return updated;
+    }
+
+    /**
+     * Moves the rectangle {@link #find(double, double)} reports for (x, y) so that its
+     * bottom-left corner lies at (newX, newY), keeping its dimensions.
+     *
+     * @param x the x-coordinate of a point inside the rectangle to move
+     * @param y the y-coordinate of a point inside the rectangle to move
+     * @param newX the new x-coordinate of the rectangle
+     * @param newY the new y-coordinate of the rectangle
+     * @return true if a rectangle containing (x, y) was found and moved
+     * @throws IllegalArgumentException if newX or newY is NaN or infinite
+     * @see #move(double, double, double, double, double, double)
+     */
+    @Override
+    public boolean move(double x, double y, double newX, double newY) {
+        checkCoordinates(newX, newY);
+        return move(new Move(x, y, newX, newY, Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Moves and resizes the rectangle {@link #find(double, double)} reports for (x, y).
+     * The rectangle stays in its leaf if the new origin still falls in that leaf's
+     * quadrant. Otherwise it is taken out and carried back up only as far as the nearest
+     * ancestor whose quadrant holds the new origin, which inserts it again; the nodes it
+     * left settle as after a delete. Only when no ancestor holds the new origin does the
+     * rectangle go back in from the root, which grows if needed. A move counts as an update
+     * in the metrics.
+     *
+     * @param x the x-coordinate of a point inside the rectangle to move
+     * @param y the y-coordinate of a point inside the rectangle to move
+     * @param newX the new x-coordinate of the rectangle
+     * @param newY the new y-coordinate of the rectangle
+     * @param length the new length of the rectangle
+     * @param width the new width of the rectangle
+     * @return true if a rectangle containing (x, y) was found and moved
+     * @throws IllegalArgumentException if newX or newY is NaN or infinite
+     */
+    @Override
+    public boolean move(double x, double y, double newX, double newY, double length, double width) {
+        checkCoordinates(newX, newY);
+        return move(new Move(x, y, newX, newY, length, width));
+    }
+
+    /**
+     * Applies one tick of moves in order, as {@link #move(double, double, double, double,
+     * double, double)} would one by one. Every new origin is checked before anything moves
+     * and the root grows once to hold them all, so no move of the batch is carried back up
+     * past the root; the moves are counted as updates but not timed.
+     *
+     * @param moves the packed moves; move i occupies indices 6i to 6i+5 as x, y, newX,
+     *              newY, length, width
+     * @param count the number of moves to read from moves
+     * @return for each move, in input order, whether a rectangle was found and moved
+     * @throws IllegalArgumentException if a new origin is NaN or infinite
+     */
+    @Override
+    public boolean[] moveAll(double[] moves, int count) {
+        for (int i = 0; i < count * 6; i += 6) {
+            checkCoordinates(moves[i + 2], moves[i + 3]);
+        }
+        for (int i = 0; i < count * 6; i += 6) {
+            growToContain(moves[i + 2], moves[i + 3]);
+        }
+        metrics.count(QuadtreeMetrics.Operation.UPDATE, count);
+        boolean[] moved = new boolean[count];
+        Move move = new Move();
+        for (int i = 0; i < count; i++) {
+            int m = i * 6;
+            move.reset(moves[m], moves[m + 1], moves[m + 2], moves[m + 3], moves[m + 4], moves[m + 5]);
+            moved[i] = apply(move);
+        }
+        return moved;
+    }
+
+    private boolean move(Move move) {
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.UPDATE);
+        long start = timed ? System.nanoTime() : 0;
+        boolean moved = apply(move);
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.UPDATE, System.nanoTime() - start);
+        }
+        return moved;
+    }
+
+    // Runs a move from the root, inserting the rectangle from the root if no node on its
+    // way back up could take it
+    private boolean apply(Move move) {
+        root = root.move(move, 0);
+        if (move.state == Move.PENDING) {
+            growToContain(move.newX, move.newY);
+            root = root.insert(move.newX, move.newY, move.length, move.width, 0);
+            move.state = Move.PLACED;
+        }
+        return move.state == Move.PLACED;
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax].
+     * Only nodes whose stored rectangles can reach the window are visited, and no
+     * intermediate collections are built.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param visitor called once for each matching rectangle
+     */
+    @Override
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.QUERY);
+        long start = timed ? System.nanoTime() : 0;
+        if (xMin <= xMax && yMin <= yMax) {
+            root.query(xMin, yMin, xMax, yMax, visitor);
+        }
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.QUERY, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds every rectangle that intersects the window [xMin, xMax] x [yMin, yMax]
+     * to the given collection.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param results the collection receiving the matching rectangles
+     */
+    public void query(double xMin, double yMin, double xMax, double yMax, Collection<? super Rectangle> results) {
+        query(xMin, yMin, xMax, yMax, (x, y, length, width) -> results.add(new Rectangle(x, y, length, width)));
+    }
+
+    /**
+     * Counts the rectangles that intersect the window [xMin, xMax] x [yMin, yMax]. Every
+     * node knows how many entries it holds, so the search stops at a subtree whose extent
+     * lies entirely inside the window and counts it whole, just as it skips one entirely
+     * outside. Counts are recorded as queries in the metrics.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @return the number of matching rectangles
+     */
+    @Override
+    public long count(double xMin, double yMin, double xMax, double yMax) {
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.QUERY);
+        long start = timed ? System.nanoTime() : 0;
+        long count = xMin <= xMax && yMin <= yMax ? root.count(xMin, yMin, xMax, yMax) : 0;
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.QUERY, System.nanoTime() - start);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the rectangles that intersect each cell of a grid over the window, as
+     * {@link SpatialIndex#heatmap} describes. A subtree whose extent lies inside a single
+     * cell is added to that cell whole, so only entries near cell edges are visited one
+     * by one. Heatmaps are recorded as queries in the metrics.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param cellsX the number of columns
+     * @param cellsY the number of rows
+     * @return the counts row by row from the bottom row up
+     * @throws IllegalArgumentException if the window is not finite or the grid has no cells
+     *                                  or too many to hold
+     */
+    @Override
+    public long[] heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+        DensityGrid grid = new DensityGrid(xMin, yMin, xMax, yMax, cellsX, cellsY);
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.QUERY);
+        long start = timed ? System.nanoTime() : 0;
+        if (xMin <= xMax && yMin <= yMax) {
+            root.tally(xMin, yMin, xMax, yMax, grid);
+        }
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.QUERY, System.nanoTime() - start);
+        }
+        return grid.counts();
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first. The distance
+     * to a rectangle is measured to its closest edge, so rectangles containing the
+     * point are at distance zero.
+     *
+     * <p>Nodes are expanded best-first in order of the distance from the point to the
+     * box enclosing their rectangles, and the search ends as soon as no unexpanded node
+     * can beat the current k-th candidate.</p>
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive
+     */
+    @Override
+    public List<Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        boolean timed = metrics.sample(QuadtreeMetrics.Operation.NEAREST);
+        long start = timed ? System.nanoTime() : 0;
+        NearestSearch search = new NearestSearch(x, y, k);
+        search.push(root);
+        while (!search.nodes.isEmpty()) {
+            NodeDistance next = search.nodes.poll();
+            if (search.candidates.size() == k && next.distance >= search.candidates.peek().distance) {
+                break;
+            }
+            next.node.expand(search);
+        }
+        List<Rectangle> result = new ArrayList<>(search.candidates.size());
+        for (Candidate candidate : search.candidates) {
+            result.add(candidate.rect);
+        }
+        result.sort(Comparator.comparingDouble(rect -> squaredDistance(x, y, rect.x, rect.y, rect.x + rect.length, rect.y + rect.width)));
+        if (timed) {
+            metrics.recordLatency(QuadtreeMetrics.Operation.NEAREST, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Reports every pair of intersecting rectangles between this tree and another index, or
+     * within this tree when other is this tree. Against another Quadtree both trees are
+     * descended together: a pair of nodes is only entered while the extents of their
+     * rectangles overlap, the larger of two internal nodes is split first, and leaf pairs
+     * compare only the entries reaching the other leaf's extent. Against any other engine
+     * the default plane sweep of {@link SpatialIndex#spatialJoin} is used.
+     *
+     * @param other the index to join with, possibly this tree
+     * @param visitor called once for each intersecting pair, this tree's rectangle first
+     */
+    @Override
+    public void spatialJoin(SpatialIndex other, RectanglePairVisitor visitor) {
+        if (!(other instanceof Quadtree tree)) {
+            SpatialIndex.super.spatialJoin(other, visitor);
+            return;
+        }
+        Join join = new Join(visitor);
+        if (tree == this) {
+            join.self(root);
         } else {
-            System.out.println("Nothing to update at (" + x + ", " + y + ")");
+            join.cross(root, tree.root);
+        }
+    }
+
+    /**
+     * Joins this tree with another Quadtree in parallel on the given pool, reporting the
+     * same pairs as {@link #spatialJoin(SpatialIndex, RectanglePairVisitor)} in no particular
+     * order. The top levels of the descent become separate tasks, so the visitor is called
+     * from several threads at once and must be safe for that. Neither tree may be modified
+     * while the join runs.
+     *
+     * @param other the tree to join with, possibly this tree
+     * @param visitor called once for each intersecting pair, this tree's rectangle first
+     * @param pool the pool running the join
+     */
+    public void spatialJoin(Quadtree other, RectanglePairVisitor visitor, ForkJoinPool pool) {
+        pool.invoke(other == this ? new JoinTask(root, null, true, 0, visitor)
+                : new JoinTask(root, other.root, false, 0, visitor));
+    }
+
+    /**
+     * Writes the tree to a binary snapshot file in one sequential pass, replacing any
+     * existing file. The snapshot keeps the exact shape of the tree and the order of the
+     * rectangles in every leaf; see {@link Snapshot} for the layout.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        try (Snapshot.Writer out = new Snapshot.Writer(path)) {
+            out.finish(root.write(out));
+        }
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot written by {@link #save(Path)}, with object leaves.
+     *
+     * @param path the snapshot file
+     * @return the rebuilt tree, answering every operation exactly as the saved tree did
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static Quadtree load(Path path) throws IOException {
+        return load(path, LeafStorage.OBJECTS);
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot written by {@link #save(Path)}. The file is memory-mapped
+     * and read once; to query a snapshot without building a tree at all, use {@link MappedQuadtree}.
+     *
+     * @param path the snapshot file
+     * @param leafStorage the layout used by every leaf node of the rebuilt tree
+     * @return the rebuilt tree, answering every operation exactly as the saved tree did
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static Quadtree load(Path path, LeafStorage leafStorage) throws IOException {
+        return load(path, leafStorage, SplitPolicy.DEFAULT);
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot written by {@link #save(Path)}, with the given split
+     * policy for what is inserted afterwards. The saved shape is kept as it is, even where
+     * the policy would have split differently.
+     *
+     * @param path the snapshot file
+     * @param leafStorage the layout used by every leaf node of the rebuilt tree
+     * @param splitPolicy decides when the leaves of the rebuilt tree split
+     * @return the rebuilt tree, answering every operation exactly as the saved tree did
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static Quadtree load(Path path, LeafStorage leafStorage, SplitPolicy splitPolicy) throws IOException {
+        Snapshot.Reader snapshot = Snapshot.Reader.open(path);
+        int root = snapshot.root();
+        Quadtree tree = new Quadtree(snapshot.bound(root, 0), snapshot.bound(root, 1),
+                snapshot.bound(root, 2), snapshot.bound(root, 3), leafStorage, splitPolicy);
+        tree.root = tree.read(snapshot, root);
+        return tree;
+    }
+
+    // Rebuilds the subtree stored at a snapshot offset. The saved extents are restored,
+    // since after updates they can be wider than the entries alone would give, but never
+    // narrower than the entries give.
+    private Node read(Snapshot.Reader snapshot, int node) {
+        double xMin = snapshot.bound(node, 0), xMax = snapshot.bound(node, 1);
+        double yMin = snapshot.bound(node, 2), yMax = snapshot.bound(node, 3);
+        Node rebuilt;
+        if (snapshot.isLeaf(node)) {
+            LeafNode leaf = newLeaf(xMin, xMax, yMin, yMax);
+            for (int i = 0, count = snapshot.count(node); i < count; i++) {
+                leaf.add(snapshot.entry(node, i, 0), snapshot.entry(node, i, 1),
+                        snapshot.entry(node, i, 2), snapshot.entry(node, i, 3));
+            }
+            rebuilt = leaf;
+        } else {
+            rebuilt = new InternalNode(xMin, xMax, yMin, yMax,
+                    readChild(snapshot, snapshot.child(node, 0)), readChild(snapshot, snapshot.child(node, 1)),
+                    readChild(snapshot, snapshot.child(node, 2)), readChild(snapshot, snapshot.child(node, 3)));
+        }
+        rebuilt.exMin = Math.min(rebuilt.exMin, snapshot.extent(node, 0));
+        rebuilt.exMax = Math.max(rebuilt.exMax, snapshot.extent(node, 1));
+        rebuilt.eyMin = Math.min(rebuilt.eyMin, snapshot.extent(node, 2));
+        rebuilt.eyMax = Math.max(rebuilt.eyMax, snapshot.extent(node, 3));
+        return rebuilt;
+    }
+
+    // Empty quadrants are saved as empty leaves but kept in memory as absent children
+    private Node readChild(Snapshot.Reader snapshot, int node) {
+        return snapshot.isLeaf(node) && snapshot.count(node) == 0 ? null : read(snapshot, node);
+    }
+
+    /**
+     * Prints the structure of the entire quadtree to standard output.
+     */
+    public void dump() {
+        ResultSink sink = TextResultSink.standardOutput(false);
+        dump(sink);
+        sink.flush();
+    }
+
+    /**
+     * Reports the structure of the entire quadtree to a result sink, depth first.
+     *
+     * @param sink the sink receiving the nodes
+     */
+    @Override
+    public void dump(ResultSink sink) {
+        root.dump(0, sink);
+    }
+
+    /**
+     * Returns the operation counters of this tree. They are always on and cost one counter
+     * increment per call; see {@link QuadtreeMetrics} for what is sampled.
+     *
+     * @return the live metrics of this tree
+     */
+    public QuadtreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Walks the whole tree and reports its shape: node and entry counts, leaf depths and
+     * leaf fill. Unlike {@link #metrics()} this is not free; it visits every node.
+     *
+     * @return the current shape of the tree
+     */
+    public TreeShape shape() {
+        TreeShape.Builder shape = new TreeShape.Builder(splitPolicy);
+        root.dump(0, shape);
+        return shape.build();
+    }
+
+    /**
+     * Returns the leaf layout this tree was created with.
+     *
+     * @return the leaf storage mode
+     */
+    public LeafStorage getLeafStorage() {
+        return leafStorage;
+    }
+
+    /**
+     * Returns the split policy this tree was created with.
+     *
+     * @return the split policy
+     */
+    public SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    // Doubles the root toward (x, y) until the point lies inside it. A leaf root simply
+    // widens; an internal root becomes one quadrant of a new parent, so the existing
+    // subtree is kept as is and only one level is added per doubling. The other three
+    // quadrants of the new parent start out empty, that is absent.
+    private void growToContain(double x, double y) {
+        checkCoordinates(x, y);
+        while (x < root.xMin || x > root.xMax || y < root.yMin || y > root.yMax) {
+            boolean growLeft = x < root.xMin;
+            boolean growDown = y < root.yMin;
+            double xSpan = root.xMax - root.xMin;
+            double ySpan = root.yMax - root.yMin;
+            double xMin = growLeft ? root.xMin - xSpan : root.xMin;
+            double xMax = growLeft ? root.xMax : root.xMax + xSpan;
+            double yMin = growDown ? root.yMin - ySpan : root.yMin;
+            double yMax = growDown ? root.yMax : root.yMax + ySpan;
+            if (root instanceof LeafNode) {
+                root.xMin = xMin;
+                root.xMax = xMax;
+                root.yMin = yMin;
+                root.yMax = yMax;
+                continue;
+            }
+            Node topLeft = null, topRight = null, bottomLeft = null, bottomRight = null;
+            if (growLeft) {
+                if (growDown) topRight = root; else bottomRight = root;
+            } else {
+                if (growDown) topLeft = root; else bottomLeft = root;
+            }
+            root = new InternalNode(xMin, xMax, yMin, yMax, topLeft, topRight, bottomLeft, bottomRight);
+        }
+    }
+
+    /**
+     * Rejects a rectangle origin the tree cannot index.
+     *
+     * @param x the x-coordinate of the origin
+     * @param y the y-coordinate of the origin
+     * @throws IllegalArgumentException if either coordinate is NaN or infinite
+     */
+    static void checkCoordinates(double x, double y) {
+        if (!Double.isFinite(x) || !Double.isFinite(y)) {
+            throw new IllegalArgumentException("Coordinates must be finite: (" + x + ", " + y + ")");
+        }
+    }
+
+    // A quadrant can only be divided further while its midpoints fall strictly inside it
+    private static boolean divisible(double xMin, double xMax, double yMin, double yMax) {
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        return xMin < xMid && xMid < xMax && yMin < yMid && yMid < yMax;
+    }
+
+    // An absent child stands for an empty quadrant and reaches nothing
+    private static boolean reaches(Node child, double x, double y) {
+        return child != null && child.extentContains(x, y);
+    }
+
+    private static boolean reaches(Node child, double qxMin, double qyMin, double qxMax, double qyMax) {
+        return child != null && child.extentOverlaps(qxMin, qyMin, qxMax, qyMax);
+    }
+
+    // An absent child stands for an empty quadrant and holds no entries
+    private static int sizeOf(Node child) {
+        return child == null ? 0 : child.size();
+    }
+
+    // Returns null in place of a leaf left empty, releasing the quadrant
+    private static Node release(Node node) {
+        return node instanceof LeafNode leaf && leaf.size() == 0 ? null : node;
+    }
+
+    // Creates an empty leaf using this tree's storage layout
+    private LeafNode newLeaf(double xMin, double xMax, double yMin, double yMax) {
+        if (leafStorage == LeafStorage.PACKED) {
+            return new PackedLeafNode(xMin, xMax, yMin, yMax);
+        }
+        return new ObjectLeafNode(xMin, xMax, yMin, yMax);
+    }
+
+    // Squared distance from (x, y) to the box [xMin, xMax] x [yMin, yMax]; zero inside it
+    static double squaredDistance(double x, double y, double xMin, double yMin, double xMax, double yMax) {
+        double dx = Math.max(Math.max(xMin - x, 0), x - xMax);
+        double dy = Math.max(Math.max(yMin - y, 0), y - yMax);
+        return dx * dx + dy * dy;
+    }
+
+    private record NodeDistance(Node node, double distance) {
+    }
+
+    private record Candidate(Rectangle rect, double distance) {
+    }
+
+    // One move on its way down to the rectangle and back up to the node that places it.
+    // NaN dimensions are taken from the rectangle once it is found.
+    private static final class Move {
+        static final int SEARCHING = 0;
+        static final int PLACED = 1;
+        // Taken out of its leaf and waiting for an ancestor whose quadrant holds the new origin
+        static final int PENDING = 2;
+
+        double x, y, newX, newY, length, width;
+        int state;
+
+        Move() {
+        }
+
+        Move(double x, double y, double newX, double newY, double length, double width) {
+            reset(x, y, newX, newY, length, width);
+        }
+
+        void reset(double x, double y, double newX, double newY, double length, double width) {
+            this.x = x;
+            this.y = y;
+            this.newX = newX;
+            this.newY = newY;
+            this.length = length;
+            this.width = width;
+            state = SEARCHING;
+        }
+
+        // Fills in the dimensions being kept from the rectangle found
+        void found(double oldLength, double oldWidth) {
+            if (Double.isNaN(length)) {
+                length = oldLength;
+                width = oldWidth;
+            }
         }
     }
 
-    /**
-     * Prints the structure of the entire quadtree.
-     */
-    public void dump() {
-        root.dump(0);
-    }
+    // Resolves the points points[from..to) below one node. Each task owns that range of
+    // points and scratch and the matching slots of results, so tasks never share writes.
+    // ForkJoinTask is Serializable, but tasks never leave the pool that runs them.
+    @SuppressWarnings("serial")
+    private class FindTask extends RecursiveAction {
+        // Parts smaller than this are looked up sequentially
+        private static final int SEQUENTIAL_THRESHOLD = 2048;
+
+        private final Node node;
+        private final double[] xs, ys;
+        private final Rectangle[] results;
+        private final int[] points, scratch;
+        private final int from, to;
+
+        FindTask(Node node, double[] xs, double[] ys, Rectangle[] results, int[] points, int[] scratch, int from, int to) {
+            this.node = node;
+            this.xs = xs;
+            this.ys = ys;
+            this.results = results;
+            this.points = points;
+            this.scratch = scratch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < SEQUENTIAL_THRESHOLD || !(node instanceof InternalNode internal)) {
+                for (int i = from; i < to; i++) {
+                    results[points[i]] = node.find(xs[points[i]], ys[points[i]]);
+                }
+                return;
+            }
+            // Group the points by the quadrant on their path, in the order topLeft, topRight, bottomLeft, bottomRight
+            Node[] children = {internal.topLeft, internal.topRight, internal.bottomLeft, internal.bottomRight};
+            int[] starts = new int[5];
+            for (int i = from; i < to; i++) {
+                starts[childIndex(internal, points[i]) + 1]++;
+            }
+            starts[0] = from;
+            for (int q = 1; q < 5; q++) {
+                starts[q] += starts[q - 1];
+            }
+            int[] next = Arrays.copyOf(starts, 4);
+            for (int i = from; i < to; i++) {
+                scratch[next[childIndex(internal, points[i])]++] = points[i];
+            }
+            System.arraycopy(scratch, from, points, from, to - from);
+
+            List<FindTask> parts = new ArrayList<>(4);
+            for (int q = 0; q < 4; q++) {
+                if (starts[q] < starts[q + 1] && children[q] != null) {
+                    parts.add(new FindTask(children[q], xs, ys, results, points, scratch, starts[q], starts[q + 1]));
+                }
+            }
+            invokeAll(parts);
+            // Points whose own quadrant held no match may still lie in a sibling's rectangle
+            for (int i = from; i < to; i++) {
+                int point = points[i];
+                if (results[point] == null) {
+                    results[point] = internal.findInSiblings(xs[point], ys[point], internal.quadrant(xs[point], ys[point]));
+                }
+            }
+        }
+
+        private int childIndex(InternalNode internal, int point) {
+            boolean left = xs[point] < (internal.xMin + internal.xMax) / 2;
+            boolean bottom = ys[point] < (internal.yMin + internal.yMax) / 2;
+            return (bottom ? 2 : 0) + (left ? 0 : 1);
+        }
+    }
+
+    // State of one nearest() call: unexpanded nodes closest first, and the best k
+    // rectangles so far in a max-heap so the current k-th candidate is at the head
+    private static class NearestSearch {
+        final double x, y;
+        final int k;
+        final PriorityQueue<NodeDistance> nodes = new PriorityQueue<>(Comparator.comparingDouble(NodeDistance::distance));
+        final PriorityQueue<Candidate> candidates;
+
+        NearestSearch(double x, double y, int k) {
+            this.x = x;
+            this.y = y;
+            this.k = k;
+            this.candidates = new PriorityQueue<>(k, Comparator.comparingDouble(Candidate::distance).reversed());
+        }
+
+        void push(Node node) {
+            if (node == null) {
+                return; // empty quadrant
+            }
+            double distance = squaredDistance(x, y, node.exMin, node.eyMin, node.exMax, node.eyMax);
+            if (distance == Double.POSITIVE_INFINITY) {
+                return; // empty subtree
+            }
+            if (candidates.size() < k || distance < candidates.peek().distance) {
+                nodes.add(new NodeDistance(node, distance));
+            }
+        }
+
+        void offer(double rx, double ry, double length, double width) {
+            double distance = squaredDistance(x, y, rx, ry, rx + length, ry + width);
+            if (candidates.size() < k) {
+                candidates.add(new Candidate(new Rectangle(rx, ry, length, width), distance));
+            } else if (distance < candidates.peek().distance) {
+                candidates.poll();
+                candidates.add(new Candidate(new Rectangle(rx, ry, length, width), distance));
+            }
+        }
+    }
+
+    // One sequential join. Leaf entries are gathered into two reused buffers, so a pair of
+    // leaves costs no allocation once the buffers have grown.
+    private static class Join {
+        final RectanglePairVisitor visitor;
+        final EntryBuffer left = new EntryBuffer();
+        final EntryBuffer right = new EntryBuffer();
+
+        Join(RectanglePairVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        // Every pair within one subtree: the pairs within each child, then across children
+        void self(Node node) {
+            if (node == null) {
+                return;
+            }
+            if (node instanceof InternalNode internal) {
+                Node[] children = internal.children();
+                for (int i = 0; i < 4; i++) {
+                    self(children[i]);
+                    for (int j = i + 1; j < 4; j++) {
+                        cross(children[i], children[j]);
+                    }
+                }
+                return;
+            }
+            left.clear();
+            node.query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, left);
+            double[] entries = left.entries();
+            for (int a = 0, end = left.count() * 4; a < end; a += 4) {
+                for (int b = a + 4; b < end; b += 4) {
+                    report(entries, a, entries, b);
+                }
+            }
+        }
+
+        // Every pair with one rectangle below a and the other below b
+        void cross(Node a, Node b) {
+            if (!joinable(a, b)) {
+                return;
+            }
+            if (splitFirst(a, b)) {
+                for (Node child : ((InternalNode) a).children()) {
+                    cross(child, b);
+                }
+            } else if (b instanceof InternalNode internal) {
+                for (Node child : internal.children()) {
+                    cross(a, child);
+                }
+            } else {
+                left.clear();
+                a.query(b.exMin, b.eyMin, b.exMax, b.eyMax, left);
+                right.clear();
+                b.query(a.exMin, a.eyMin, a.exMax, a.eyMax, right);
+                double[] first = left.entries(), second = right.entries();
+                for (int i = 0, end = left.count() * 4; i < end; i += 4) {
+                    for (int j = 0, other = right.count() * 4; j < other; j += 4) {
+                        report(first, i, second, j);
+                    }
+                }
+            }
+        }
+
+        private void report(double[] first, int a, double[] second, int b) {
+            double ax = first[a], ay = first[a + 1], aLength = first[a + 2], aWidth = first[a + 3];
+            double bx = second[b], by = second[b + 1], bLength = second[b + 2], bWidth = second[b + 3];
+            if (ax <= bx + bLength && ax + aLength >= bx && ay <= by + bWidth && ay + aWidth >= by) {
+                visitor.visit(ax, ay, aLength, aWidth, bx, by, bLength, bWidth);
+            }
+        }
+    }
+
+    // Two subtrees can hold an intersecting pair only if both exist and their extents overlap
+    private static boolean joinable(Node a, Node b) {
+        return a != null && b != null && a.extentOverlaps(b.exMin, b.eyMin, b.exMax, b.eyMax);
+    }
+
+    // Whether a join descends into a before b: a must be internal, and is split first when b
+    // is a leaf or covers no more area, so the two sides shrink at a similar pace
+    private static boolean splitFirst(Node a, Node b) {
+        return a instanceof InternalNode && (b instanceof LeafNode
+                || (a.exMax - a.exMin) * (a.eyMax - a.eyMin) >= (b.exMax - b.exMin) * (b.eyMax - b.eyMin));
+    }
+
+    // A join of one pair of subtrees, or of one subtree with itself, that forks the pairs of
+    // children as separate tasks down to PARALLEL_DEPTH and runs sequentially below. Like
+    // FindTask it is never serialized.
+    @SuppressWarnings("serial")
+    private static class JoinTask extends RecursiveAction {
+        // Levels of the descent that fork; each level multiplies the tasks by up to ten
+        private static final int PARALLEL_DEPTH = 3;
+
+        private final Node a, b;
+        private final boolean self;
+        private final int depth;
+        private final RectanglePairVisitor visitor;
+
+        JoinTask(Node a, Node b, boolean self, int depth, RectanglePairVisitor visitor) {
+            this.a = a;
+            this.b = b;
+            this.self = self;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (self ? a == null : !joinable(a, b)) {
+                return;
+            }
+            boolean descend = self ? a instanceof InternalNode : a instanceof InternalNode || b instanceof InternalNode;
+            if (depth == PARALLEL_DEPTH || !descend) {
+                Join join = new Join(visitor);
+                if (self) {
+                    join.self(a);
+                } else {
+                    join.cross(a, b);
+                }
+                return;
+            }
+            List<JoinTask> tasks = new ArrayList<>();
+            if (self) {
+                Node[] children = ((InternalNode) a).children();
+                for (int i = 0; i < 4; i++) {
+                    tasks.add(new JoinTask(children[i], null, true, depth + 1, visitor));
+                    for (int j = i + 1; j < 4; j++) {
+                        tasks.add(new JoinTask(children[i], children[j], false, depth + 1, visitor));
+                    }
+                }
+            } else if (splitFirst(a, b)) {
+                for (Node child : ((InternalNode) a).children()) {
+                    tasks.add(new JoinTask(child, b, false, depth + 1, visitor));
+                }
+            } else {
+                for (Node child : ((InternalNode) b).children()) {
+                    tasks.add(new JoinTask(a, child, false, depth + 1, visitor));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // Builds the subtree for order[from, to) at the given depth, or null for an empty run
+    // below the root. The run arrives sorted by Z-order key, so each quadrant is normally
+    // already contiguous; the exact midpoint test used by InternalNode.insert decides, and
+    // the run is regrouped if quantization disagreed.
+    private Node build(double[] entries, int[] order, int[] scratch, int from, int to, int depth,
+                       double xMin, double xMax, double yMin, double yMax) {
+        if (from == to) {
+            return null;
+        }
+        double xMid = (xMin + xMax) / 2;
+        double yMid = (yMin + yMax) / 2;
+        // Runs the split policy would not split, or that can no longer be separated, stay in one leaf
+        if (to - from <= splitPolicy.capacity(depth) || depth >= splitPolicy.maxDepth()
+                || !divisible(xMin, xMax, yMin, yMax)) {
+            // Within a leaf, restore the order in which the entries were supplied
+            Arrays.sort(order, from, to);
+            LeafNode leaf = newLeaf(xMin, xMax, yMin, yMax);
+            for (int i = from; i < to; i++) {
+                int e = order[i] * 4;
+                leaf.add(entries[e], entries[e + 1], entries[e + 2], entries[e + 3]);
+            }
+            return leaf;
+        }
+        int[] starts = new int[5];
+        boolean grouped = true;
+        int previous = 0;
+        for (int i = from; i < to; i++) {
+            int quadrant = quadrantIndex(entries, order[i], xMid, yMid);
+            starts[quadrant + 1]++;
+            grouped &= quadrant >= previous;
+            previous = quadrant;
+        }
+        starts[0] = from;
+        for (int q = 1; q <= 4; q++) {
+            starts[q] += starts[q - 1];
+        }
+        if (!grouped) {
+            int[] next = {starts[0], starts[1], starts[2], starts[3]};
+            for (int i = from; i < to; i++) {
+                scratch[next[quadrantIndex(entries, order[i], xMid, yMid)]++] = order[i];
+            }
+            System.arraycopy(scratch, from, order, from, to - from);
+        }
+        Node bottomLeft = build(entries, order, scratch, starts[0], starts[1], depth + 1, xMin, xMid, yMin, yMid);
+        Node bottomRight = build(entries, order, scratch, starts[1], starts[2], depth + 1, xMid, xMax, yMin, yMid);
+        Node topLeft = build(entries, order, scratch, starts[2], starts[3], depth + 1, xMin, xMid, yMid, yMax);
+        Node topRight = build(entries, order, scratch, starts[3], starts[4], depth + 1, xMid, xMax, yMid, yMax);
+        return new InternalNode(xMin, xMax, yMin, yMax, topLeft, topRight, bottomLeft, bottomRight);
+    }
+
+    // Quadrant of entry e in Z-order: 0 bottomLeft, 1 bottomRight, 2 topLeft, 3 topRight
+    private static int quadrantIndex(double[] entries, int e, double xMid, double yMid) {
+        return (entries[e * 4] < xMid ? 0 : 1) | (entries[e * 4 + 1] < yMid ? 0 : 2);
+    }
+
+    // Inner classes for Node, LeafNode, and Rectangle.
+    //
+    // Rectangles are routed to a quadrant by their origin, but they may extend past the
+    // quadrant's bounds. Every node therefore also tracks its extent: the bounding box of
+    // all rectangles stored beneath it. Lookups prune on the extent rather than the bounds,
+    // so a rectangle spanning a split line is still found, while a point or window query
+    // only leaves its own path where some stored rectangle actually reaches the query.
+    // Extents grow on insert and update and are recomputed along the path of a delete or move.
+    //
+    // Every node also knows how many entries it holds beneath it, so counts and heatmaps
+    // take a subtree whose extent lies inside the window, or inside one heatmap cell, as a
+    // whole instead of visiting its entries.
+    private abstract class Node {
+        protected double xMin, xMax, yMin, yMax;
+        protected double exMin = Double.POSITIVE_INFINITY, exMax = Double.NEGATIVE_INFINITY;
+        protected double eyMin = Double.POSITIVE_INFINITY, eyMax = Double.NEGATIVE_INFINITY;
+
+        Node(double xMin, double xMax, double yMin, double yMax) {
+            this.xMin = xMin;
+            this.xMax = xMax;
+            this.yMin = yMin;
+            this.yMax = yMax;
+        }
+
+        // Inserts into this subtree, which sits at the given depth, and returns its new root
+        abstract Node insert(double x, double y, double length, double width, int depth);
+
+        // The number of entries in this subtree
+        abstract int size();
+
+        abstract Rectangle find(double x, double y);
+
+        // Finds as find does, adding the number of nodes visited to visited[0]
+        Rectangle find(double x, double y, int[] visited) {
+            visited[0]++;
+            return find(x, y);
+        }
+
+        abstract Node delete(double x, double y, int depth);
+
+        abstract boolean update(double x, double y, double length, double width);
+
+        // Carries a move through this subtree, which sits at the given depth, and returns its new root
+        abstract Node move(Move move, int depth);
+
+        abstract void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor);
+
+        // Counts the entries that intersect the window, taking the whole subtree if its
+        // extent lies inside the window
+        int count(double qxMin, double qyMin, double qxMax, double qyMax) {
+            if (exMin >= qxMin && exMax <= qxMax && eyMin >= qyMin && eyMax <= qyMax) {
+                return size();
+            }
+            return countMatches(qxMin, qyMin, qxMax, qyMax);
+        }
+
+        // Counts the entries that intersect the window one child or entry at a time
+        abstract int countMatches(double qxMin, double qyMin, double qxMax, double qyMax);
+
+        // Adds the entries that intersect the window to the heatmap cells they reach, taking
+        // the whole subtree at once if its extent lies inside a single cell
+        void tally(double qxMin, double qyMin, double qxMax, double qyMax, DensityGrid grid) {
+            int cell = grid.cell(exMin, eyMin, exMax, eyMax);
+            if (cell >= 0) {
+                grid.add(cell, size());
+            } else {
+                tallyMatches(qxMin, qyMin, qxMax, qyMax, grid);
+            }
+        }
+
+        abstract void tallyMatches(double qxMin, double qyMin, double qxMax, double qyMax, DensityGrid grid);
+
+        // Offers this node's entries, or pushes its children, to a nearest-neighbour search
+        abstract void expand(NearestSearch search);
 
-    // Inner classes for Node, LeafNode, and Rectangle
-    private abstract class Node {
-        protected double xMin, xMax, yMin, yMax;
+        abstract void dump(int level, ResultSink sink);
 
-        Node(double xMin, double xMax, double yMin, double yMax) {
-            this.xMin = xMin;
-            this.xMax = xMax;
-            this.yMin = yMin;
-            this.yMax = yMax;
+        // Writes this subtree to a snapshot, children first, and returns this node's offset
+        abstract long write(Snapshot.Writer out) throws IOException;
+
+        // Writes this node's record header
+        long writeHeader(Snapshot.Writer out, int tag, int count) throws IOException {
+            return out.node(tag, count, xMin, xMax, yMin, yMax, exMin, exMax, eyMin, eyMax);
         }
 
-        abstract Node insert(Rectangle rect);
+        // Grows the extent to cover a rectangle, both of whose corners it takes in, so that a
+        // rectangle given a negative length or width lies inside the extent as well
+        void extend(double x, double y, double length, double width) {
+            exMin = Math.min(exMin, Math.min(x, x + length));
+            exMax = Math.max(exMax, Math.max(x, x + length));
+            eyMin = Math.min(eyMin, Math.min(y, y + width));
+            eyMax = Math.max(eyMax, Math.max(y, y + width));
+        }
 
-        abstract Rectangle find(double x, double y);
+        void clearExtent() {
+            exMin = eyMin = Double.POSITIVE_INFINITY;
+            exMax = eyMax = Double.NEGATIVE_INFINITY;
+        }
+
+        // Grows the extent to cover another node's extent; an absent node covers nothing
+        void include(Node other) {
+            if (other == null) {
+                return;
+            }
+            exMin = Math.min(exMin, other.exMin);
+            exMax = Math.max(exMax, other.exMax);
+            eyMin = Math.min(eyMin, other.eyMin);
+            eyMax = Math.max(eyMax, other.eyMax);
+        }
+
+        boolean extentContains(double x, double y) {
+            return x >= exMin && x <= exMax && y >= eyMin && y <= eyMax;
+        }
 
-        abstract Node delete(double x, double y);
+        // Whether insert would route a rectangle with this origin into this node's quadrant
+        boolean holds(double x, double y) {
+            return x >= xMin && x < xMax && y >= yMin && y < yMax;
+        }
 
-        abstract void dump(int level);
+        boolean extentOverlaps(double qxMin, double qyMin, double qxMax, double qyMax) {
+            return exMin <= qxMax && exMax >= qxMin && eyMin <= qyMax && eyMax >= qyMin;
+        }
     }
 
-    private class LeafNode extends Node {
-        private List<Rectangle> rectangles = new ArrayList<>();
-        private static final int MAX_CAPACITY = 5;
+    // A leaf holds up to the split policy's capacity for its depth. A leaf at the maximum
+    // depth, or too small to divide, takes every further entry instead and overflows.
+    private abstract class LeafNode extends Node {
 
         LeafNode(double xMin, double xMax, double yMin, double yMax) {
             super(xMin, xMax, yMin, yMax);
         }
 
         @Override
-        Node insert(Rectangle rect) {
-            if (rectangles.size() < MAX_CAPACITY) {
-                rectangles.add(rect);
+        Node insert(double x, double y, double length, double width, int depth) {
+            if (size() < splitPolicy.capacity(depth) || depth >= splitPolicy.maxDepth()
+                    || !divisible(xMin, xMax, yMin, yMax)) {
+                add(x, y, length, width);
                 return this;
             } else {
-                return split().insert(rect);
+                metrics.split();
+                return split().insert(x, y, length, width, depth);
             }
         }
 
+        abstract void add(double x, double y, double length, double width);
+
+        // Hands every entry to the matching child of a new InternalNode, creating only the
+        // children that receive entries. Capacities do not shrink with depth, so none of
+        // them splits here.
+        abstract InternalNode split();
+
+        // Appends every entry to another leaf of the same storage layout
+        abstract void moveEntriesTo(LeafNode target);
+    }
+
+    private class ObjectLeafNode extends LeafNode {
+        private List<Rectangle> rectangles = new ArrayList<>();
+
+        ObjectLeafNode(double xMin, double xMax, double yMin, double yMax) {
+            super(xMin, xMax, yMin, yMax);
+        }
+
+        @Override
+        int size() {
+            return rectangles.size();
+        }
+
+        @Override
+        void add(double x, double y, double length, double width) {
+            rectangles.add(new Rectangle(x, y, length, width));
+            extend(x, y, length, width);
+        }
+
+        // Hands out a copy, as packed leaves do: the leaf's own Rectangle changes in place
+        // on an update or move
         @Override
         Rectangle find(double x, double y) {
+            Rectangle rect = locate(x, y);
+            return rect == null ? null : new Rectangle(rect.x, rect.y, rect.length, rect.width);
+        }
+
+        private Rectangle locate(double x, double y) {
             for (Rectangle rect : rectangles) {
                 if (rect.contains(x, y)) {
                     return rect;
@@ -128,105 +1327,674 @@ public class Quadtree {
         }
 
         @Override
-        Node delete(double x, double y) {
-            rectangles.removeIf(rect -> rect.contains(x, y));
+        Node delete(double x, double y, int depth) {
+            if (rectangles.removeIf(rect -> rect.contains(x, y))) {
+                clearExtent();
+                for (Rectangle rect : rectangles) {
+                    extend(rect.x, rect.y, rect.length, rect.width);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean update(double x, double y, double length, double width) {
+            Rectangle rect = locate(x, y);
+            if (rect == null) {
+                return false;
+            }
+            rect.setDimensions(length, width);
+            extend(rect.x, rect.y, length, width);
+            return true;
+        }
+
+        // Moves the rectangle in place if its new origin stays in this quadrant, otherwise
+        // takes it out and leaves it pending for an ancestor
+        @Override
+        Node move(Move move, int depth) {
+            int i = 0;
+            while (i < rectangles.size() && !rectangles.get(i).contains(move.x, move.y)) {
+                i++;
+            }
+            if (i == rectangles.size()) {
+                return this;
+            }
+            Rectangle rect = rectangles.get(i);
+            move.found(rect.length, rect.width);
+            if (holds(move.newX, move.newY)) {
+                rect.x = move.newX;
+                rect.y = move.newY;
+                rect.setDimensions(move.length, move.width);
+                move.state = Move.PLACED;
+            } else {
+                rectangles.remove(i);
+                move.state = Move.PENDING;
+            }
+            clearExtent();
+            for (Rectangle kept : rectangles) {
+                extend(kept.x, kept.y, kept.length, kept.width);
+            }
             return this;
         }
 
-        private InternalNode split() {
+        @Override
+        void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+            for (Rectangle rect : rectangles) {
+                if (rect.intersects(qxMin, qyMin, qxMax, qyMax)) {
+                    visitor.visit(rect.x, rect.y, rect.length, rect.width);
+                }
+            }
+        }
+
+        @Override
+        int countMatches(double qxMin, double qyMin, double qxMax, double qyMax) {
+            int count = 0;
+            for (Rectangle rect : rectangles) {
+                if (rect.intersects(qxMin, qyMin, qxMax, qyMax)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        void tallyMatches(double qxMin, double qyMin, double qxMax, double qyMax, DensityGrid grid) {
+            for (Rectangle rect : rectangles) {
+                grid.visit(rect.x, rect.y, rect.length, rect.width);
+            }
+        }
+
+        @Override
+        void expand(NearestSearch search) {
+            for (Rectangle rect : rectangles) {
+                search.offer(rect.x, rect.y, rect.length, rect.width);
+            }
+        }
+
+        @Override
+        InternalNode split() {
             InternalNode newNode = new InternalNode(xMin, xMax, yMin, yMax);
             for (Rectangle rect : rectangles) {
-                newNode.insert(rect);
+                ObjectLeafNode child = (ObjectLeafNode) newNode.leafFor(rect.x, rect.y);
+                child.rectangles.add(rect);
+                child.extend(rect.x, rect.y, rect.length, rect.width);
+            }
+            newNode.include(this);
+            newNode.size = size();
+            return newNode;
+        }
+
+        @Override
+        void moveEntriesTo(LeafNode target) {
+            ((ObjectLeafNode) target).rectangles.addAll(rectangles);
+            target.include(this);
+        }
+
+        @Override
+        void dump(int level, ResultSink sink) {
+            sink.beginLeaf(level);
+            for (Rectangle rect : rectangles) {
+                sink.leafEntry(rect.x, rect.y, rect.length, rect.width);
+            }
+            sink.endLeaf();
+        }
+
+        @Override
+        long write(Snapshot.Writer out) throws IOException {
+            long offset = writeHeader(out, Snapshot.LEAF, rectangles.size());
+            for (Rectangle rect : rectangles) {
+                out.entry(rect.x, rect.y, rect.length, rect.width);
+            }
+            return offset;
+        }
+    }
+
+    // Struct-of-arrays leaf: entry i occupies entries[4i..4i+3] as x, y, length, width.
+    // Rectangle objects are only created when a result leaves the tree.
+    private class PackedLeafNode extends LeafNode {
+        private double[] entries = new double[Math.min(splitPolicy.capacity(0), 8) * 4];
+        private int size;
+
+        PackedLeafNode(double xMin, double xMax, double yMin, double yMax) {
+            super(xMin, xMax, yMin, yMax);
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        void add(double x, double y, double length, double width) {
+            int i = size * 4;
+            if (i == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[i] = x;
+            entries[i + 1] = y;
+            entries[i + 2] = length;
+            entries[i + 3] = width;
+            size++;
+            extend(x, y, length, width);
+        }
+
+        // Returns the slot offset of the first entry containing (x, y), or -1
+        private int indexOf(double x, double y) {
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                if (x >= entries[i] && x <= entries[i] + entries[i + 2]
+                        && y >= entries[i + 1] && y <= entries[i + 1] + entries[i + 3]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Rectangle find(double x, double y) {
+            int i = indexOf(x, y);
+            return i < 0 ? null : new Rectangle(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+
+        @Override
+        Node delete(double x, double y, int depth) {
+            int kept = 0;
+            clearExtent();
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                if (x >= entries[i] && x <= entries[i] + entries[i + 2]
+                        && y >= entries[i + 1] && y <= entries[i + 1] + entries[i + 3]) {
+                    continue;
+                }
+                if (kept != i) {
+                    System.arraycopy(entries, i, entries, kept, 4);
+                }
+                extend(entries[kept], entries[kept + 1], entries[kept + 2], entries[kept + 3]);
+                kept += 4;
+            }
+            size = kept / 4;
+            return this;
+        }
+
+        @Override
+        boolean update(double x, double y, double length, double width) {
+            int i = indexOf(x, y);
+            if (i < 0) {
+                return false;
+            }
+            entries[i + 2] = length;
+            entries[i + 3] = width;
+            extend(entries[i], entries[i + 1], length, width);
+            return true;
+        }
+
+        @Override
+        Node move(Move move, int depth) {
+            int i = indexOf(move.x, move.y);
+            if (i < 0) {
+                return this;
+            }
+            move.found(entries[i + 2], entries[i + 3]);
+            if (holds(move.newX, move.newY)) {
+                entries[i] = move.newX;
+                entries[i + 1] = move.newY;
+                entries[i + 2] = move.length;
+                entries[i + 3] = move.width;
+                move.state = Move.PLACED;
+            } else {
+                System.arraycopy(entries, i + 4, entries, i, size * 4 - i - 4);
+                size--;
+                move.state = Move.PENDING;
+            }
+            clearExtent();
+            for (int e = 0, end = size * 4; e < end; e += 4) {
+                extend(entries[e], entries[e + 1], entries[e + 2], entries[e + 3]);
+            }
+            return this;
+        }
+
+        @Override
+        void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                double x = entries[i], y = entries[i + 1];
+                if (x <= qxMax && x + entries[i + 2] >= qxMin && y <= qyMax && y + entries[i + 3] >= qyMin) {
+                    visitor.visit(x, y, entries[i + 2], entries[i + 3]);
+                }
+            }
+        }
+
+        @Override
+        int countMatches(double qxMin, double qyMin, double qxMax, double qyMax) {
+            int count = 0;
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                double x = entries[i], y = entries[i + 1];
+                if (x <= qxMax && x + entries[i + 2] >= qxMin && y <= qyMax && y + entries[i + 3] >= qyMin) {
+                    count++;
+                }
             }
+            return count;
+        }
+
+        @Override
+        void tallyMatches(double qxMin, double qyMin, double qxMax, double qyMax, DensityGrid grid) {
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                grid.visit(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+        }
+
+        @Override
+        void expand(NearestSearch search) {
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                search.offer(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+        }
+
+        @Override
+        InternalNode split() {
+            InternalNode newNode = new InternalNode(xMin, xMax, yMin, yMax);
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                newNode.leafFor(entries[i], entries[i + 1])
+                        .add(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+            newNode.include(this);
+            newNode.size = size;
             return newNode;
         }
 
         @Override
-        void dump(int level) {
-            for (int i = 0; i < level; i++) System.out.print("\t");
-            System.out.println("LeafNode: " + rectangles);
+        void moveEntriesTo(LeafNode target) {
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                target.add(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+        }
+
+        @Override
+        void dump(int level, ResultSink sink) {
+            sink.beginLeaf(level);
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                sink.leafEntry(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+            sink.endLeaf();
+        }
+
+        @Override
+        long write(Snapshot.Writer out) throws IOException {
+            long offset = writeHeader(out, Snapshot.LEAF, size);
+            for (int i = 0, end = size * 4; i < end; i += 4) {
+                out.entry(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+            return offset;
         }
     }
 
+    // Children are created when a rectangle first lands in their quadrant and released when
+    // they become empty; an absent (null) child stands for an empty quadrant. Dumps and
+    // snapshots still show it as an empty leaf.
     private class InternalNode extends Node {
         private Node topLeft, topRight, bottomLeft, bottomRight;
+        private int size;
 
+        // Creates an internal node with every quadrant empty
         InternalNode(double xMin, double xMax, double yMin, double yMax) {
             super(xMin, xMax, yMin, yMax);
+        }
+
+        InternalNode(double xMin, double xMax, double yMin, double yMax,
+                     Node topLeft, Node topRight, Node bottomLeft, Node bottomRight) {
+            super(xMin, xMax, yMin, yMax);
+            this.topLeft = topLeft;
+            this.topRight = topRight;
+            this.bottomLeft = bottomLeft;
+            this.bottomRight = bottomRight;
+            refit();
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        // The children in snapshot order (top left, top right, bottom left, bottom right), null for empty quadrants
+        Node[] children() {
+            return new Node[] {topLeft, topRight, bottomLeft, bottomRight};
+        }
+
+        // Returns the child whose quadrant a point falls in, or null if that quadrant is empty
+        Node quadrant(double x, double y) {
+            if (x < (xMin + xMax) / 2) {
+                return y < (yMin + yMax) / 2 ? bottomLeft : topLeft;
+            } else {
+                return y < (yMin + yMax) / 2 ? bottomRight : topRight;
+            }
+        }
+
+        // Returns the leaf for a point's quadrant, creating it if the quadrant is empty.
+        // Only used while splitting, when every existing child is a leaf.
+        LeafNode leafFor(double x, double y) {
             double xMid = (xMin + xMax) / 2;
             double yMid = (yMin + yMax) / 2;
-            topLeft = new LeafNode(xMin, xMid, yMid, yMax);
-            topRight = new LeafNode(xMid, xMax, yMid, yMax);
-            bottomLeft = new LeafNode(xMin, xMid, yMin, yMid);
-            bottomRight = new LeafNode(xMid, xMax, yMin, yMid);
+            if (x < xMid) {
+                if (y < yMid) {
+                    return (LeafNode) (bottomLeft != null ? bottomLeft : (bottomLeft = newLeaf(xMin, xMid, yMin, yMid)));
+                }
+                return (LeafNode) (topLeft != null ? topLeft : (topLeft = newLeaf(xMin, xMid, yMid, yMax)));
+            }
+            if (y < yMid) {
+                return (LeafNode) (bottomRight != null ? bottomRight : (bottomRight = newLeaf(xMid, xMax, yMin, yMid)));
+            }
+            return (LeafNode) (topRight != null ? topRight : (topRight = newLeaf(xMid, xMax, yMid, yMax)));
         }
 
         @Override
-        Node insert(Rectangle rect) {
-            if (rect.x < (xMin + xMax) / 2) {
-                if (rect.y < (yMin + yMax) / 2) {
-                    bottomLeft = bottomLeft.insert(rect);
+        Node insert(double x, double y, double length, double width, int depth) {
+            extend(x, y, length, width);
+            size++;
+            double xMid = (xMin + xMax) / 2;
+            double yMid = (yMin + yMax) / 2;
+            if (x < xMid) {
+                if (y < yMid) {
+                    if (bottomLeft == null) bottomLeft = newLeaf(xMin, xMid, yMin, yMid);
+                    bottomLeft = bottomLeft.insert(x, y, length, width, depth + 1);
                 } else {
-                    topLeft = topLeft.insert(rect);
+                    if (topLeft == null) topLeft = newLeaf(xMin, xMid, yMid, yMax);
+                    topLeft = topLeft.insert(x, y, length, width, depth + 1);
                 }
             } else {
-                if (rect.y < (yMin + yMax) / 2) {
-                    bottomRight = bottomRight.insert(rect);
+                if (y < yMid) {
+                    if (bottomRight == null) bottomRight = newLeaf(xMid, xMax, yMin, yMid);
+                    bottomRight = bottomRight.insert(x, y, length, width, depth + 1);
                 } else {
-                    topRight = topRight.insert(rect);
+                    if (topRight == null) topRight = newLeaf(xMid, xMax, yMid, yMax);
+                    topRight = topRight.insert(x, y, length, width, depth + 1);
                 }
             }
             return this;
         }
 
+        // The quadrant on the point's path is searched first; a sibling is only entered
+        // when one of its rectangles reaches across the split line to the point.
         @Override
         Rectangle find(double x, double y) {
-            if (x < (xMin + xMax) / 2) {
-                if (y < (yMin + yMax) / 2) {
-                    return bottomLeft.find(x, y);
-                } else {
-                    return topLeft.find(x, y);
-                }
-            } else {
-                if (y < (yMin + yMax) / 2) {
-                    return bottomRight.find(x, y);
-                } else {
-                    return topRight.find(x, y);
-                }
+            Node path = quadrant(x, y);
+            Rectangle found = reaches(path, x, y) ? path.find(x, y) : null;
+            return found != null ? found : findInSiblings(x, y, path);
+        }
+
+        @Override
+        Rectangle find(double x, double y, int[] visited) {
+            visited[0]++;
+            Node path = quadrant(x, y);
+            Rectangle found = reaches(path, x, y) ? path.find(x, y, visited) : null;
+            if (found == null && topLeft != path && reaches(topLeft, x, y)) found = topLeft.find(x, y, visited);
+            if (found == null && topRight != path && reaches(topRight, x, y)) found = topRight.find(x, y, visited);
+            if (found == null && bottomLeft != path && reaches(bottomLeft, x, y)) found = bottomLeft.find(x, y, visited);
+            if (found == null && bottomRight != path && reaches(bottomRight, x, y)) found = bottomRight.find(x, y, visited);
+            return found;
+        }
+
+        // Searches every child except path whose extent reaches the point
+        Rectangle findInSiblings(double x, double y, Node path) {
+            Rectangle found = null;
+            if (topLeft != path && reaches(topLeft, x, y)) found = topLeft.find(x, y);
+            if (found == null && topRight != path && reaches(topRight, x, y)) found = topRight.find(x, y);
+            if (found == null && bottomLeft != path && reaches(bottomLeft, x, y)) found = bottomLeft.find(x, y);
+            if (found == null && bottomRight != path && reaches(bottomRight, x, y)) found = bottomRight.find(x, y);
+            return found;
+        }
+
+        // Deletes from every child a containing rectangle could be stored in and releases
+        // children left empty, then either collapses into a single leaf or recomputes the
+        // extent from the children
+        @Override
+        Node delete(double x, double y, int depth) {
+            if (reaches(topLeft, x, y)) topLeft = release(topLeft.delete(x, y, depth + 1));
+            if (reaches(topRight, x, y)) topRight = release(topRight.delete(x, y, depth + 1));
+            if (reaches(bottomLeft, x, y)) bottomLeft = release(bottomLeft.delete(x, y, depth + 1));
+            if (reaches(bottomRight, x, y)) bottomRight = release(bottomRight.delete(x, y, depth + 1));
+            return settle(depth);
+        }
+
+        // Called after entries were taken out below: collapses into a single leaf if the
+        // children now fit one, otherwise recomputes the extent and size from the children
+        private Node settle(int depth) {
+            int entries = leafEntries(topLeft) + leafEntries(topRight) + leafEntries(bottomLeft) + leafEntries(bottomRight);
+            if (entries <= splitPolicy.capacity(depth)) {
+                metrics.merge();
+                LeafNode merged = newLeaf(xMin, xMax, yMin, yMax);
+                if (topLeft != null) ((LeafNode) topLeft).moveEntriesTo(merged);
+                if (topRight != null) ((LeafNode) topRight).moveEntriesTo(merged);
+                if (bottomLeft != null) ((LeafNode) bottomLeft).moveEntriesTo(merged);
+                if (bottomRight != null) ((LeafNode) bottomRight).moveEntriesTo(merged);
+                return merged;
+            }
+            refit();
+            return this;
+        }
+
+        private void refit() {
+            clearExtent();
+            include(topLeft);
+            include(topRight);
+            include(bottomLeft);
+            include(bottomRight);
+            size = sizeOf(topLeft) + sizeOf(topRight) + sizeOf(bottomLeft) + sizeOf(bottomRight);
+        }
+
+
+        // Entries held by a child that is a leaf or absent; an internal child counts as
+        // more than any capacity, so it blocks a merge
+        private int leafEntries(Node child) {
+            if (child == null) {
+                return 0;
+            }
+            return child instanceof LeafNode leaf ? leaf.size() : Integer.MAX_VALUE / 4;
+        }
+
+        // Visits children in the same order as find, so the rectangle find reports is the one updated
+        @Override
+        boolean update(double x, double y, double length, double width) {
+            Node path = quadrant(x, y);
+            Node updated = reaches(path, x, y) && path.update(x, y, length, width) ? path : null;
+            if (updated == null && topLeft != path && reaches(topLeft, x, y) && topLeft.update(x, y, length, width)) updated = topLeft;
+            if (updated == null && topRight != path && reaches(topRight, x, y) && topRight.update(x, y, length, width)) updated = topRight;
+            if (updated == null && bottomLeft != path && reaches(bottomLeft, x, y) && bottomLeft.update(x, y, length, width)) updated = bottomLeft;
+            if (updated == null && bottomRight != path && reaches(bottomRight, x, y) && bottomRight.update(x, y, length, width)) updated = bottomRight;
+            if (updated == null) {
+                return false;
             }
+            include(updated); // the child's extent may have grown with the new dimensions
+            return true;
         }
 
+        // Searches the children in the same order as find. A rectangle taken out below is
+        // inserted here if its new origin falls in this quadrant and handed up otherwise.
         @Override
-        Node delete(double x, double y) {
-            // Call delete on appropriate quadrant
+        Node move(Move move, int depth) {
+            double x = move.x, y = move.y;
+            Node path = quadrant(x, y);
+            if (reaches(path, x, y)) {
+                Node moved = release(path.move(move, depth + 1));
+                if (path == topLeft) topLeft = moved;
+                else if (path == topRight) topRight = moved;
+                else if (path == bottomLeft) bottomLeft = moved;
+                else bottomRight = moved;
+            }
+            if (move.state == Move.SEARCHING && topLeft != path && reaches(topLeft, x, y)) topLeft = release(topLeft.move(move, depth + 1));
+            if (move.state == Move.SEARCHING && topRight != path && reaches(topRight, x, y)) topRight = release(topRight.move(move, depth + 1));
+            if (move.state == Move.SEARCHING && bottomLeft != path && reaches(bottomLeft, x, y)) bottomLeft = release(bottomLeft.move(move, depth + 1));
+            if (move.state == Move.SEARCHING && bottomRight != path && reaches(bottomRight, x, y)) bottomRight = release(bottomRight.move(move, depth + 1));
+            if (move.state == Move.SEARCHING) {
+                return this;
+            }
+            if (move.state == Move.PENDING && !holds(move.newX, move.newY)) {
+                return settle(depth);
+            }
+            // The extent is refitted since the rectangle's old position may have been its edge
+            refit();
+            if (move.state == Move.PENDING) {
+                move.state = Move.PLACED;
+                return insert(move.newX, move.newY, move.length, move.width, depth);
+            }
             return this;
         }
 
         @Override
-        void dump(int level) {
-            for (int i = 0; i < level; i++) System.out.print("\t");
-            System.out.println("InternalNode");
-            topLeft.dump(level + 1);
-            topRight.dump(level + 1);
-            bottomLeft.dump(level + 1);
-            bottomRight.dump(level + 1);
+        void query(double qxMin, double qyMin, double qxMax, double qyMax, RectangleVisitor visitor) {
+            if (reaches(topLeft, qxMin, qyMin, qxMax, qyMax)) topLeft.query(qxMin, qyMin, qxMax, qyMax, visitor);
+            if (reaches(topRight, qxMin, qyMin, qxMax, qyMax)) topRight.query(qxMin, qyMin, qxMax, qyMax, visitor);
+            if (reaches(bottomLeft, qxMin, qyMin, qxMax, qyMax)) bottomLeft.query(qxMin, qyMin, qxMax, qyMax, visitor);
+            if (reaches(bottomRight, qxMin, qyMin, qxMax, qyMax)) bottomRight.query(qxMin, qyMin, qxMax, qyMax, visitor);
+        }
+
+        @Override
+        int countMatches(double qxMin, double qyMin, double qxMax, double qyMax) {
+            int count = 0;
+            if (reaches(topLeft, qxMin, qyMin, qxMax, qyMax)) count += topLeft.count(qxMin, qyMin, qxMax, qyMax);
+            if (reaches(topRight, qxMin, qyMin, qxMax, qyMax)) count += topRight.count(qxMin, qyMin, qxMax, qyMax);
+            if (reaches(bottomLeft, qxMin, qyMin, qxMax, qyMax)) count += bottomLeft.count(qxMin, qyMin, qxMax, qyMax);
+            if (reaches(bottomRight, qxMin, qyMin, qxMax, qyMax)) count += bottomRight.count(qxMin, qyMin, qxMax, qyMax);
+            return count;
+        }
+
+        @Override
+        void tallyMatches(double qxMin, double qyMin, double qxMax, double qyMax, DensityGrid grid) {
+            if (reaches(topLeft, qxMin, qyMin, qxMax, qyMax)) topLeft.tally(qxMin, qyMin, qxMax, qyMax, grid);
+            if (reaches(topRight, qxMin, qyMin, qxMax, qyMax)) topRight.tally(qxMin, qyMin, qxMax, qyMax, grid);
+            if (reaches(bottomLeft, qxMin, qyMin, qxMax, qyMax)) bottomLeft.tally(qxMin, qyMin, qxMax, qyMax, grid);
+            if (reaches(bottomRight, qxMin, qyMin, qxMax, qyMax)) bottomRight.tally(qxMin, qyMin, qxMax, qyMax, grid);
+        }
+
+        @Override
+        void expand(NearestSearch search) {
+            search.push(topLeft);
+            search.push(topRight);
+            search.push(bottomLeft);
+            search.push(bottomRight);
+        }
+
+        @Override
+        void dump(int level, ResultSink sink) {
+            sink.internalNode(level);
+            dumpChild(topLeft, level + 1, sink);
+            dumpChild(topRight, level + 1, sink);
+            dumpChild(bottomLeft, level + 1, sink);
+            dumpChild(bottomRight, level + 1, sink);
+        }
+
+        private void dumpChild(Node child, int level, ResultSink sink) {
+            if (child != null) {
+                child.dump(level, sink);
+            } else {
+                sink.beginLeaf(level);
+                sink.endLeaf();
+            }
+        }
+
+        @Override
+        long write(Snapshot.Writer out) throws IOException {
+            double xMid = (xMin + xMax) / 2;
+            double yMid = (yMin + yMax) / 2;
+            long topLeftOffset = writeChild(out, topLeft, xMin, xMid, yMid, yMax);
+            long topRightOffset = writeChild(out, topRight, xMid, xMax, yMid, yMax);
+            long bottomLeftOffset = writeChild(out, bottomLeft, xMin, xMid, yMin, yMid);
+            long bottomRightOffset = writeChild(out, bottomRight, xMid, xMax, yMin, yMid);
+            long offset = writeHeader(out, Snapshot.INTERNAL, 0);
+            out.children(topLeftOffset, topRightOffset, bottomLeftOffset, bottomRightOffset);
+            return offset;
+        }
+
+        // An absent child is written as the empty leaf it stands for
+        private long writeChild(Snapshot.Writer out, Node child, double cxMin, double cxMax, double cyMin, double cyMax)
+                throws IOException {
+            if (child != null) {
+                return child.write(out);
+            }
+            return out.node(Snapshot.LEAF, 0, cxMin, cxMax, cyMin, cyMax, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
         }
     }
 
-    private static class Rectangle {
+    /**
+     * An axis-aligned rectangle defined by its bottom-left corner (x, y), its length
+     * along the x-axis and its width along the y-axis.
+     */
+    public static final class Rectangle {
         private double x, y, length, width;
 
-        Rectangle(double x, double y, double length, double width) {
+        /**
+         * Constructs a Rectangle with specified origin coordinates, length, and width.
+         *
+         * @param x the x-coordinate of the bottom-left corner of the rectangle.
+         * @param y the y-coordinate of the bottom-left corner of the rectangle.
+         * @param length the length of the rectangle along the x-axis.
+         * @param width the width of the rectangle along the y-axis.
+         */
+        public Rectangle(double x, double y, double length, double width) {
             this.x = x;
             this.y = y;
             this.length = length;
             this.width = width;
         }
 
-        boolean contains(double px, double py) {
+        /**
+         * Gets the x-coordinate of the rectangle's bottom-left corner.
+         *
+         * @return the x-coordinate.
+         */
+        public double getX() {
+            return x;
+        }
+
+        /**
+         * Gets the y-coordinate of the rectangle's bottom-left corner.
+         *
+         * @return the y-coordinate.
+         */
+        public double getY() {
+            return y;
+        }
+
+        /**
+         * Gets the length of the rectangle.
+         *
+         * @return the length of the rectangle.
+         */
+        public double getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the width of the rectangle.
+         *
+         * @return the width of the rectangle.
+         */
+        public double getWidth() {
+            return width;
+        }
+
+        /**
+         * Checks if a point specified by (px, py) is contained within this rectangle.
+         *
+         * @param px the x-coordinate of the point to check.
+         * @param py the y-coordinate of the point to check.
+         * @return true if the point (px, py) is within the rectangle, false otherwise.
+         */
+        public boolean contains(double px, double py) {
             return (px >= x && px <= x + length && py >= y && py <= y + width);
         }
 
+        /**
+         * Checks if this rectangle shares at least one point with the window
+         * [qxMin, qxMax] x [qyMin, qyMax].
+         *
+         * @param qxMin the left edge of the window.
+         * @param qyMin the bottom edge of the window.
+         * @param qxMax the right edge of the window.
+         * @param qyMax the top edge of the window.
+         * @return true if the rectangle and the window intersect, false otherwise.
+         */
+        public boolean intersects(double qxMin, double qyMin, double qxMax, double qyMax) {
+            return x <= qxMax && x + length >= qxMin && y <= qyMax && y + width >= qyMin;
+        }
+
         void setDimensions(double length, double width) {
             this.length = length;
             this.width = width;
@@ -234,9 +2002,7 @@ public class Quadtree {
 
         @Override
         public String toString() {
-            return String.format("Rectangle at (%.2f, %.2f): %.2fx%.2f", x, y, length, width);
+            return TextResultSink.appendRectangle(new StringBuilder(48), x, y, length, width).toString();
         }
     }
 }
-
-
@@ -0,0 +1,226 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation counters kept by a {@link Quadtree} while it runs. Every operation is counted;
+ * latency and, for lookups, the number of nodes visited are measured on one call in
+ * {@value #SAMPLE_INTERVAL} of each kind, so the cost on the other calls is a single
+ * uncontended {@link LongAdder} increment. All counters may be read at any time from any
+ * thread.
+ */
+public final class QuadtreeMetrics {
+
+    /**
+     * The operations that are counted and timed.
+     */
+    public enum Operation {
+        INSERT, FIND, QUERY, NEAREST, DELETE, UPDATE
+    }
+
+    /** One call in this many of each operation is timed. */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LongAdder[] counts = new LongAdder[OPERATIONS.length];
+    private final Histogram[] latencies = new Histogram[OPERATIONS.length];
+    // Plain ints: a lost increment under concurrent lookups only shifts which call is sampled
+    private final int[] ticks = new int[OPERATIONS.length];
+    private final Histogram findNodesVisited = new Histogram();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+
+    QuadtreeMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            counts[i] = new LongAdder();
+            latencies[i] = new Histogram();
+        }
+    }
+
+    // Counts one call and reports whether it is to be timed
+    boolean sample(Operation operation) {
+        int i = operation.ordinal();
+        counts[i].increment();
+        return (++ticks[i] & (SAMPLE_INTERVAL - 1)) == 0;
+    }
+
+    // Counts calls that are answered together and not timed individually
+    void count(Operation operation, long calls) {
+        counts[operation.ordinal()].add(calls);
+    }
+
+    void recordLatency(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    void recordFindNodesVisited(int nodes) {
+        findNodesVisited.record(nodes);
+    }
+
+    void split() {
+        splits.increment();
+    }
+
+    void merge() {
+        merges.increment();
+    }
+
+    /**
+     * Returns the number of calls of an operation so far. Points looked up by
+     * {@link Quadtree#findAll} count as finds and rectangles bulk-loaded count as inserts.
+     *
+     * @param operation the operation
+     * @return the call count
+     */
+    public long count(Operation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+
+    /**
+     * Returns the latencies, in nanoseconds, of the sampled calls of an operation.
+     *
+     * @param operation the operation
+     * @return the latency histogram
+     */
+    public Histogram latency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * Returns the number of nodes each sampled find visited, leaves included.
+     *
+     * @return the nodes-visited histogram
+     */
+    public Histogram findNodesVisited() {
+        return findNodesVisited;
+    }
+
+    /**
+     * Returns the number of leaves that have split into an internal node.
+     *
+     * @return the split count
+     */
+    public long splits() {
+        return splits.sum();
+    }
+
+    /**
+     * Returns the number of internal nodes that collapsed back into a leaf after deletes.
+     *
+     * @return the merge count
+     */
+    public long merges() {
+        return merges.sum();
+    }
+
+    /**
+     * Clears every counter and histogram. Calls running at the same time may or may not be
+     * included in the cleared totals.
+     */
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            counts[i].reset();
+            latencies[i].reset();
+        }
+        findNodesVisited.reset();
+        splits.reset();
+        merges.reset();
+    }
+
+    /**
+     * A histogram of non-negative values in power-of-two buckets: bucket 0 holds zero and
+     * bucket i holds values from 2<sup>i-1</sup> up to 2<sup>i</sup> - 1. Percentiles are
+     * therefore reported as the upper end of a bucket, at most twice the true value;
+     * the count, mean and maximum are exact.
+     */
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            value = Math.max(value, 0);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            sum.reset();
+            max.reset();
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return the count
+         */
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * Returns the mean of the recorded values.
+         *
+         * @return the mean, or 0 if nothing was recorded
+         */
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return the maximum, or 0 if nothing was recorded
+         */
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * Returns a value that at least the given fraction of recorded values do not exceed.
+         *
+         * @param fraction the fraction, from 0 to 1; 0.99 gives the 99th percentile
+         * @return the upper end of the bucket holding the percentile, capped at the maximum,
+         *         or 0 if nothing was recorded
+         * @throws IllegalArgumentException if fraction is outside 0 to 1
+         */
+        public long percentile(double fraction) {
+            if (!(fraction >= 0 && fraction <= 1)) {
+                throw new IllegalArgumentException("fraction must be between 0 and 1: " + fraction);
+            }
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (counts[i] > 0 && seen >= rank) {
+                    long upper = i == 0 ? 0 : i == 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, max());
+                }
+            }
+            return 0;
+        }
+    }
+}
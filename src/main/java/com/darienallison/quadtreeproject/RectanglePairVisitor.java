@@ -0,0 +1,25 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * Receives the pairs of intersecting rectangles found by a spatial join, one callback per
+ * pair. Like {@link RectangleVisitor}, the values are passed as primitives so that a join
+ * can run without creating objects for its results.
+ */
+@FunctionalInterface
+public interface RectanglePairVisitor {
+
+    /**
+     * Called once for each pair of intersecting rectangles.
+     *
+     * @param x1 the x-coordinate of the first rectangle's bottom-left corner
+     * @param y1 the y-coordinate of the first rectangle's bottom-left corner
+     * @param length1 the length of the first rectangle along the x-axis
+     * @param width1 the width of the first rectangle along the y-axis
+     * @param x2 the x-coordinate of the second rectangle's bottom-left corner
+     * @param y2 the y-coordinate of the second rectangle's bottom-left corner
+     * @param length2 the length of the second rectangle along the x-axis
+     * @param width2 the width of the second rectangle along the y-axis
+     */
+    void visit(double x1, double y1, double length1, double width1,
+               double x2, double y2, double length2, double width2);
+}
@@ -0,0 +1,20 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * Receives the rectangles matched by a spatial query, one callback per rectangle.
+ * The values are passed as primitives so that a query can run without creating
+ * a Rectangle object for every match.
+ */
+@FunctionalInterface
+public interface RectangleVisitor {
+
+    /**
+     * Called once for each rectangle matched by the query.
+     *
+     * @param x the x-coordinate of the rectangle's bottom-left corner
+     * @param y the y-coordinate of the rectangle's bottom-left corner
+     * @param length the length of the rectangle along the x-axis
+     * @param width the width of the rectangle along the y-axis
+     */
+    void visit(double x, double y, double length, double width);
+}
@@ -0,0 +1,97 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * Receives the results of quadtree operations, keeping what an operation produces separate
+ * from how it is written out. Implementations decide the format, or whether anything is
+ * written at all.
+ *
+ * <p>A tree dump arrives as a depth-first sequence of nodes: {@link #internalNode(int)} for
+ * each internal node, and {@link #beginLeaf(int)}, one {@link #leafEntry} per stored
+ * rectangle and {@link #endLeaf()} for each leaf.</p>
+ */
+public interface ResultSink {
+
+    /**
+     * Reports the outcome of a Find.
+     *
+     * @param x the x-coordinate looked up
+     * @param y the y-coordinate looked up
+     * @param rect the rectangle found, or null if none contains the point
+     */
+    void found(double x, double y, Quadtree.Rectangle rect);
+
+    /**
+     * Reports the outcome of an Update.
+     *
+     * @param x the x-coordinate of the update
+     * @param y the y-coordinate of the update
+     * @param updated whether a rectangle containing the point was resized
+     */
+    void updated(double x, double y, boolean updated);
+
+    /**
+     * Reports one rectangle returned by a window query or nearest-neighbour search.
+     *
+     * @param x the x-coordinate of the rectangle
+     * @param y the y-coordinate of the rectangle
+     * @param length the length of the rectangle
+     * @param width the width of the rectangle
+     */
+    void matched(double x, double y, double length, double width);
+
+    /**
+     * Reports one pair of intersecting rectangles found by a spatial join.
+     *
+     * @param x1 the x-coordinate of the first rectangle
+     * @param y1 the y-coordinate of the first rectangle
+     * @param length1 the length of the first rectangle
+     * @param width1 the width of the first rectangle
+     * @param x2 the x-coordinate of the second rectangle
+     * @param y2 the y-coordinate of the second rectangle
+     * @param length2 the length of the second rectangle
+     * @param width2 the width of the second rectangle
+     */
+    void paired(double x1, double y1, double length1, double width1, double x2, double y2, double length2, double width2);
+
+    /**
+     * Reports a line of free text, such as an error or an empty search result.
+     *
+     * @param text the line, without a line terminator
+     */
+    void message(String text);
+
+    /**
+     * Reports an internal node of a tree dump.
+     *
+     * @param depth the depth of the node, 0 for the root
+     */
+    void internalNode(int depth);
+
+    /**
+     * Starts a leaf of a tree dump; its entries and a call to {@link #endLeaf()} follow.
+     *
+     * @param depth the depth of the leaf, 0 for the root
+     */
+    void beginLeaf(int depth);
+
+    /**
+     * Reports a rectangle stored in the current leaf of a tree dump.
+     *
+     * @param x the x-coordinate of the rectangle
+     * @param y the y-coordinate of the rectangle
+     * @param length the length of the rectangle
+     * @param width the width of the rectangle
+     */
+    void leafEntry(double x, double y, double length, double width);
+
+    /**
+     * Ends the current leaf of a tree dump.
+     */
+    void endLeaf();
+
+    /**
+     * Writes out anything the sink has buffered. The default does nothing.
+     */
+    default void flush() {
+    }
+}
@@ -0,0 +1,718 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A spatial index split into regions, each held by its own {@link Quadtree} that only its
+ * own worker thread touches. Every shard keeps the plain single-threaded code path, and
+ * rectangles bound for different shards are inserted on different cores.
+ *
+ * <p>The world is divided into columns along the x-axis and each column into rows along
+ * the y-axis, one region per shard. Fixed regions divide the initial bounds evenly;
+ * adaptive regions are placed once, at quantiles of the origins of the first batch bulk
+ * loaded into the empty index, so that a skewed data set still spreads evenly. Origins
+ * outside the bounds belong to the nearest edge region.</p>
+ *
+ * <p>Work reaches a shard through a bounded queue that its worker drains in order, and the
+ * caller blocks once a queue is full. Inserts are routed by origin and handed over in
+ * batches. Deletes are handed over without waiting. Operations that return a result wait
+ * for it, and ones that span several shards fan out to all of them at once and merge
+ * what they report. A shard answers only after everything queued before, so results
+ * always reflect every earlier call.</p>
+ *
+ * <p>A rectangle is stored in the shard owning its origin when inserted and stays there,
+ * even if a move takes its origin into another region. Lookups therefore consult every
+ * shard whose stored rectangles may reach the query; the caller tracks a box covering
+ * each shard's rectangles, which grows on insert, update and move and never shrinks.
+ * Where several shards hold a rectangle containing a point, find, update and move take
+ * the one in the shard owning the point first, then the others in shard order.</p>
+ *
+ * <p>Like the engines it is built from, this class must be called from one thread at a
+ * time; the parallelism is inside. Worker threads are daemons, and {@link #close()} stops
+ * them once the work handed to them is done.</p>
+ */
+public final class ShardedQuadtree implements SpatialIndex, AutoCloseable {
+    // Inserts collected for a shard before they are handed to its worker together
+    private static final int INSERT_BATCH = 512;
+
+    // Tasks a shard may have waiting before the caller blocks
+    private static final int QUEUE_CAPACITY = 64;
+
+    // Tells a worker to stop
+    private static final Runnable STOP = () -> { };
+
+    private final double xMin, xMax, yMin, yMax;
+    private final int columns, rows;
+    private final boolean adaptive;
+    private final Quadtree.LeafStorage leafStorage;
+    private final SplitPolicy splitPolicy;
+    private final Shard[] shards;
+    // Region edges: the cuts below which a column or, within a column, a row ends
+    private final double[] xCuts;
+    private final double[][] yCuts;
+    // Whether anything was ever inserted; adaptive regions are only placed before that
+    private boolean loaded;
+    private boolean closed;
+
+    /**
+     * Creates an empty sharded index with fixed regions and the default split policy.
+     *
+     * @param xMin the minimum x-coordinate of the initial bounds
+     * @param xMax the maximum x-coordinate of the initial bounds
+     * @param yMin the minimum y-coordinate of the initial bounds
+     * @param yMax the maximum y-coordinate of the initial bounds
+     * @param shards the number of shards
+     * @throws IllegalArgumentException if the bounds enclose no area or shards is not positive
+     */
+    public ShardedQuadtree(double xMin, double xMax, double yMin, double yMax, int shards) {
+        this(xMin, xMax, yMin, yMax, shards, false, Quadtree.LeafStorage.OBJECTS, SplitPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates an empty sharded index. The shards are laid out as a grid with as many rows
+     * as the largest divisor of the shard count not above its square root.
+     *
+     * @param xMin the minimum x-coordinate of the initial bounds
+     * @param xMax the maximum x-coordinate of the initial bounds
+     * @param yMin the minimum y-coordinate of the initial bounds
+     * @param yMax the maximum y-coordinate of the initial bounds
+     * @param shards the number of shards
+     * @param adaptive whether the first bulk load into the empty index places the regions
+     * @param leafStorage the layout used by the leaf nodes of every shard
+     * @param splitPolicy decides when the leaves of every shard split
+     * @throws IllegalArgumentException if the bounds enclose no area or shards is not positive
+     */
+    public ShardedQuadtree(double xMin, double xMax, double yMin, double yMax, int shards, boolean adaptive,
+                           Quadtree.LeafStorage leafStorage, SplitPolicy splitPolicy) {
+        if (!(xMin < xMax && yMin < yMax) || !Double.isFinite(xMax - xMin) || !Double.isFinite(yMax - yMin)) {
+            throw new IllegalArgumentException("Bounds must enclose a finite, non-empty area: ["
+                    + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "]");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shards);
+        }
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.adaptive = adaptive;
+        this.leafStorage = leafStorage;
+        this.splitPolicy = splitPolicy;
+        int rows = (int) Math.sqrt(shards);
+        while (shards % rows != 0) {
+            rows--;
+        }
+        this.rows = rows;
+        this.columns = shards / rows;
+        this.xCuts = evenCuts(xMin, xMax, columns);
+        this.yCuts = new double[columns][];
+        for (int column = 0; column < columns; column++) {
+            yCuts[column] = evenCuts(yMin, yMax, rows);
+        }
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i);
+        }
+        placeRegions();
+    }
+
+    /**
+     * Rebuilds an index from a snapshot written by {@link #save(Path)} or by any other
+     * engine, starting from the saved root bounds.
+     *
+     * @param path the snapshot file
+     * @param shards the number of shards
+     * @param adaptive whether the regions are placed at quantiles of the saved rectangles
+     * @param leafStorage the layout used by the leaf nodes of every shard
+     * @param splitPolicy decides when the leaves of every shard split
+     * @return the rebuilt index, holding every saved rectangle
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     */
+    public static ShardedQuadtree load(Path path, int shards, boolean adaptive, Quadtree.LeafStorage leafStorage,
+                                       SplitPolicy splitPolicy) throws IOException {
+        Snapshot.Reader snapshot = Snapshot.Reader.open(path);
+        int root = snapshot.root();
+        ShardedQuadtree index = new ShardedQuadtree(snapshot.bound(root, 0), snapshot.bound(root, 1),
+                snapshot.bound(root, 2), snapshot.bound(root, 3), shards, adaptive, leafStorage, splitPolicy);
+        EntryBuffer saved = new EntryBuffer();
+        MappedQuadtree.open(path).query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, saved);
+        index.bulkLoad(saved.entries(), saved.count());
+        return index;
+    }
+
+    /** Returns the number of shards. */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /** Returns whether the regions are placed by the first bulk load rather than fixed. */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns the number of rectangles each shard holds, once everything handed to the
+     * shards has been applied.
+     *
+     * @return the sizes in shard order
+     */
+    public long[] shardSizes() {
+        checkOpen();
+        List<CompletableFuture<Long>> sizes = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            sizes.add(shard.call(tree -> tree.count(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY)));
+        }
+        long[] result = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = await(sizes.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public void insert(double x, double y, double length, double width) {
+        Quadtree.checkCoordinates(x, y);
+        checkOpen();
+        loaded = true;
+        shards[shardOf(x, y)].add(x, y, length, width);
+    }
+
+    /**
+     * Splits the batch by region and bulk loads each part into its shard, all shards at
+     * once. The first batch loaded into an empty index with adaptive regions places the
+     * regions first.
+     */
+    @Override
+    public void bulkLoad(double[] entries, int count) {
+        for (int i = 0; i < count * 4; i += 4) {
+            Quadtree.checkCoordinates(entries[i], entries[i + 1]);
+        }
+        checkOpen();
+        if (count == 0) {
+            return;
+        }
+        if (adaptive && !loaded && count >= shards.length) {
+            placeRegions(entries, count);
+        }
+        loaded = true;
+        EntryBuffer[] parts = new EntryBuffer[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            parts[i] = new EntryBuffer(count / shards.length + 1);
+        }
+        for (int i = 0; i < count * 4; i += 4) {
+            parts[shardOf(entries[i], entries[i + 1])].visit(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            EntryBuffer part = parts[i];
+            if (part.count() == 0) {
+                continue;
+            }
+            double[] packed = part.entries();
+            for (int e = 0; e < part.count() * 4; e += 4) {
+                shards[i].extend(packed[e], packed[e + 1], packed[e + 2], packed[e + 3]);
+            }
+            shards[i].execute(tree -> tree.bulkLoad(packed, part.count()));
+        }
+    }
+
+    @Override
+    public Quadtree.Rectangle find(double x, double y) {
+        Shard[] candidates = candidates(x, y);
+        List<CompletableFuture<Quadtree.Rectangle>> found = new ArrayList<>(candidates.length);
+        for (Shard shard : candidates) {
+            found.add(shard.call(tree -> tree.find(x, y)));
+        }
+        for (CompletableFuture<Quadtree.Rectangle> rect : found) {
+            Quadtree.Rectangle result = await(rect);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a batch of points, each shard looking up at once every point its
+     * rectangles may contain.
+     */
+    @Override
+    public Quadtree.Rectangle[] findAll(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length: " + xs.length + " and " + ys.length);
+        }
+        checkOpen();
+        int[][] points = new int[shards.length][];
+        List<CompletableFuture<Quadtree.Rectangle[]>> found = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            Shard shard = shards[s];
+            int[] mine = new int[xs.length];
+            int count = 0;
+            for (int p = 0; p < xs.length; p++) {
+                if (shard.reaches(xs[p], ys[p])) {
+                    mine[count++] = p;
+                }
+            }
+            points[s] = Arrays.copyOf(mine, count);
+            double[] shardXs = new double[count], shardYs = new double[count];
+            for (int i = 0; i < count; i++) {
+                shardXs[i] = xs[mine[i]];
+                shardYs[i] = ys[mine[i]];
+            }
+            found.add(count == 0 ? null : shard.call(tree -> tree.findAll(shardXs, shardYs)));
+        }
+        Quadtree.Rectangle[][] shardResults = new Quadtree.Rectangle[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            shardResults[s] = found.get(s) == null ? new Quadtree.Rectangle[0] : await(found.get(s));
+        }
+        // The shard owning a point answers first, then the others in shard order, as in find
+        Quadtree.Rectangle[] results = new Quadtree.Rectangle[xs.length];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int s = 0; s < shards.length; s++) {
+                int[] mine = points[s];
+                for (int i = 0; i < mine.length; i++) {
+                    int p = mine[i];
+                    boolean home = shardOf(xs[p], ys[p]) == s;
+                    if (results[p] == null && home == (pass == 0)) {
+                        results[p] = shardResults[s][i];
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Hands the delete to every shard whose rectangles may contain the point, without
+     * waiting for it to be applied.
+     */
+    @Override
+    public void delete(double x, double y) {
+        checkOpen();
+        for (Shard shard : candidates(x, y)) {
+            shard.execute(tree -> tree.delete(x, y));
+        }
+    }
+
+    @Override
+    public boolean update(double x, double y, double length, double width) {
+        for (Shard shard : candidates(x, y)) {
+            // The origin of the resized rectangle, so that the shard's box can cover it
+            double[] origin = await(shard.call(tree -> {
+                Quadtree.Rectangle rect = tree.find(x, y);
+                if (rect == null) {
+                    return null;
+                }
+                double[] found = {rect.getX(), rect.getY()};
+                tree.update(x, y, length, width);
+                return found;
+            }));
+            if (origin != null) {
+                shard.extend(origin[0], origin[1], length, width);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the rectangle within the shard holding it, whichever region the new origin
+     * falls in.
+     */
+    @Override
+    public boolean move(double x, double y, double newX, double newY, double length, double width) {
+        Quadtree.checkCoordinates(newX, newY);
+        for (Shard shard : candidates(x, y)) {
+            if (await(shard.call(tree -> tree.move(x, y, newX, newY, length, width)))) {
+                shard.extend(newX, newY, length, width);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports the matches of every shard the window reaches, shard by shard.
+     */
+    @Override
+    public void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor) {
+        for (EntryBuffer matches : fanOut(xMin, yMin, xMax, yMax, tree -> {
+            EntryBuffer found = new EntryBuffer();
+            tree.query(xMin, yMin, xMax, yMax, found);
+            return found;
+        })) {
+            double[] entries = matches.entries();
+            for (int i = 0; i < matches.count() * 4; i += 4) {
+                visitor.visit(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+            }
+        }
+    }
+
+    @Override
+    public long count(double xMin, double yMin, double xMax, double yMax) {
+        long count = 0;
+        for (long shardCount : fanOut(xMin, yMin, xMax, yMax, tree -> tree.count(xMin, yMin, xMax, yMax))) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public long[] heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+        DensityGrid grid = new DensityGrid(xMin, yMin, xMax, yMax, cellsX, cellsY);
+        for (long[] counts : fanOut(xMin, yMin, xMax, yMax, tree -> tree.heatmap(xMin, yMin, xMax, yMax, cellsX, cellsY))) {
+            for (int cell = 0; cell < counts.length; cell++) {
+                grid.add(cell, counts[cell]);
+            }
+        }
+        return grid.counts();
+    }
+
+    /**
+     * Merges the k nearest rectangles of every shard that holds any, nearest first; ties
+     * keep shard order.
+     */
+    @Override
+    public List<Quadtree.Rectangle> nearest(double x, double y, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        List<Quadtree.Rectangle> merged = new ArrayList<>();
+        for (List<Quadtree.Rectangle> nearest : fanOut(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, tree -> tree.nearest(x, y, k))) {
+            merged.addAll(nearest);
+        }
+        merged.sort(Comparator.comparingDouble(rect -> Quadtree.squaredDistance(x, y, rect.getX(), rect.getY(),
+                rect.getX() + rect.getLength(), rect.getY() + rect.getWidth())));
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    /**
+     * Dumps each shard's tree in shard order, each preceded by a line naming the shard.
+     */
+    @Override
+    public void dump(ResultSink sink) {
+        checkOpen();
+        for (Shard shard : shards) {
+            sink.message("Shard " + shard.index + ":");
+            await(shard.call(tree -> {
+                tree.dump(sink);
+                return null;
+            }));
+        }
+    }
+
+    /**
+     * Writes every rectangle of every shard to one snapshot, as a single tree over the
+     * initial bounds, which any engine can load.
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        EntryBuffer all = new EntryBuffer();
+        query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, all);
+        Quadtree merged = new Quadtree(xMin, xMax, yMin, yMax, leafStorage, splitPolicy);
+        merged.bulkLoad(all.entries(), all.count());
+        merged.save(path);
+    }
+
+    /**
+     * Stops the workers once everything handed to them has been applied. The index cannot
+     * be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+        closed = true;
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (true) {
+                try {
+                    shard.worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The shard whose region holds an origin
+    private int shardOf(double x, double y) {
+        int column = cutsBelow(xCuts, x);
+        return column * rows + cutsBelow(yCuts[column], y);
+    }
+
+    // The number of cuts at or below a coordinate
+    private static int cutsBelow(double[] cuts, double coordinate) {
+        int low = 0, high = cuts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cuts[mid] <= coordinate) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double[] evenCuts(double min, double max, int parts) {
+        double[] cuts = new double[parts - 1];
+        for (int i = 0; i < cuts.length; i++) {
+            cuts[i] = min + (max - min) * (i + 1) / parts;
+        }
+        return cuts;
+    }
+
+    // Places the cuts at quantiles of a batch's origins: the columns split the batch evenly
+    // by x, then each column splits its share evenly by y
+    private void placeRegions(double[] entries, int count) {
+        double[] xs = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = entries[i * 4];
+        }
+        Arrays.sort(xs);
+        for (int c = 0; c < xCuts.length; c++) {
+            xCuts[c] = xs[(int) ((long) count * (c + 1) / columns)];
+        }
+        double[][] columnYs = new double[columns][count];
+        int[] columnCounts = new int[columns];
+        for (int i = 0; i < count; i++) {
+            int column = cutsBelow(xCuts, entries[i * 4]);
+            columnYs[column][columnCounts[column]++] = entries[i * 4 + 1];
+        }
+        for (int column = 0; column < columns; column++) {
+            double[] ys = columnYs[column];
+            int n = columnCounts[column];
+            Arrays.sort(ys, 0, n);
+            for (int r = 0; r < rows - 1; r++) {
+                yCuts[column][r] = n == 0 ? yMin + (yMax - yMin) * (r + 1) / rows : ys[(int) ((long) n * (r + 1) / rows)];
+            }
+        }
+        placeRegions();
+    }
+
+    // Gives every shard an empty tree over its region, clipped to the initial bounds; a
+    // region that lies outside them gets the initial bounds, and grows like any tree.
+    // Only called while no work has been handed to the shards.
+    private void placeRegions() {
+        for (int column = 0; column < columns; column++) {
+            double left = column == 0 ? xMin : Math.max(xMin, xCuts[column - 1]);
+            double right = column == columns - 1 ? xMax : Math.min(xMax, xCuts[column]);
+            if (!(left < right)) {
+                left = xMin;
+                right = xMax;
+            }
+            for (int row = 0; row < rows; row++) {
+                double[] cuts = yCuts[column];
+                double bottom = row == 0 ? yMin : Math.max(yMin, cuts[row - 1]);
+                double top = row == rows - 1 ? yMax : Math.min(yMax, cuts[row]);
+                if (!(bottom < top)) {
+                    bottom = yMin;
+                    top = yMax;
+                }
+                shards[column * rows + row].tree = new Quadtree(left, right, bottom, top, leafStorage, splitPolicy);
+            }
+        }
+    }
+
+    // The shards whose rectangles may contain a point, the one owning the point first
+    private Shard[] candidates(double x, double y) {
+        checkOpen();
+        int home = shardOf(x, y);
+        List<Shard> candidates = new ArrayList<>();
+        if (shards[home].reaches(x, y)) {
+            candidates.add(shards[home]);
+        }
+        for (Shard shard : shards) {
+            if (shard.index != home && shard.reaches(x, y)) {
+                candidates.add(shard);
+            }
+        }
+        return candidates.toArray(new Shard[0]);
+    }
+
+    // Runs a task on every shard whose rectangles may reach the window, all at once, and
+    // returns their results in shard order
+    private <T> List<T> fanOut(double qxMin, double qyMin, double qxMax, double qyMax, Function<Quadtree, T> task) {
+        checkOpen();
+        List<CompletableFuture<T>> pending = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.reaches(qxMin, qyMin, qxMax, qyMax)) {
+                pending.add(shard.call(task));
+            }
+        }
+        List<T> results = new ArrayList<>(pending.size());
+        for (CompletableFuture<T> result : pending) {
+            results.add(await(result));
+        }
+        return results;
+    }
+
+    // Waits for a shard's answer, rethrowing whatever the shard's task threw
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Sharded index is closed");
+        }
+    }
+
+    // One region's tree and the worker that owns it. The queue, the pending inserts and
+    // the box are the caller's side; the tree is only touched by tasks on the worker.
+    private final class Shard {
+        private final int index;
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread worker;
+        // Assigned by the caller while no task is queued; the queue hands it to the worker
+        private Quadtree tree;
+        private volatile Throwable failure;
+        private double[] pending = new double[INSERT_BATCH * 4];
+        private int pendingCount;
+        // Covers every rectangle ever stored in this shard, including negative dimensions
+        private double exMin = Double.POSITIVE_INFINITY, exMax = Double.NEGATIVE_INFINITY;
+        private double eyMin = Double.POSITIVE_INFINITY, eyMax = Double.NEGATIVE_INFINITY;
+
+        Shard(int index) {
+            this.index = index;
+            this.worker = new Thread(this::work, "shard-" + index);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        // Runs tasks in the order they were queued. A failing task that no one waits for
+        // is kept and reported to the caller's next call on this shard.
+        private void work() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == STOP) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+        }
+
+        void add(double x, double y, double length, double width) {
+            extend(x, y, length, width);
+            int i = pendingCount * 4;
+            pending[i] = x;
+            pending[i + 1] = y;
+            pending[i + 2] = length;
+            pending[i + 3] = width;
+            if (++pendingCount == INSERT_BATCH) {
+                handOff();
+            }
+        }
+
+        // Queues the collected inserts as one task
+        private void handOff() {
+            if (pendingCount == 0) {
+                return;
+            }
+            double[] batch = pending;
+            int count = pendingCount;
+            pending = new double[INSERT_BATCH * 4];
+            pendingCount = 0;
+            put(() -> {
+                for (int i = 0; i < count * 4; i += 4) {
+                    tree.insert(batch[i], batch[i + 1], batch[i + 2], batch[i + 3]);
+                }
+            });
+        }
+
+        // Queues a task without waiting for it, after the inserts collected so far
+        void execute(Consumer<Quadtree> task) {
+            handOff();
+            put(() -> task.accept(tree));
+        }
+
+        // Lets the worker stop once the inserts collected so far are applied
+        void stop() {
+            handOff();
+            put(STOP);
+        }
+
+        // Queues a task after the inserts collected so far and returns its future result
+        <T> CompletableFuture<T> call(Function<Quadtree, T> task) {
+            handOff();
+            CompletableFuture<T> result = new CompletableFuture<>();
+            put(() -> {
+                try {
+                    result.complete(task.apply(tree));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        }
+
+        private void put(Runnable task) {
+            Throwable failed = failure;
+            if (failed != null) {
+                throw new IllegalStateException("Shard " + index + " failed", failed);
+            }
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while handing work to shard " + index, e);
+            }
+        }
+
+        void extend(double x, double y, double length, double width) {
+            exMin = Math.min(exMin, Math.min(x, x + length));
+            exMax = Math.max(exMax, Math.max(x, x + length));
+            eyMin = Math.min(eyMin, Math.min(y, y + width));
+            eyMax = Math.max(eyMax, Math.max(y, y + width));
+        }
+
+        boolean reaches(double x, double y) {
+            return x >= exMin && x <= exMax && y >= eyMin && y <= eyMax;
+        }
+
+        boolean reaches(double qxMin, double qyMin, double qxMax, double qyMax) {
+            return exMin <= qxMax && exMax >= qxMin && eyMin <= qyMax && eyMax >= qyMin;
+        }
+    }
+}
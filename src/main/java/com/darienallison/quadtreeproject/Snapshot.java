@@ -0,0 +1,236 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary snapshot format shared by {@link Quadtree#save(Path)}, {@link Quadtree#load(Path)}
+ * and {@link MappedQuadtree}. All values are little-endian and every record starts on an
+ * 8-byte boundary.
+ *
+ * <pre>
+ * header   int magic, int version
+ * nodes    in postorder, so every child precedes its parent:
+ *   leaf      int LEAF, int count, 4 doubles bounds, 4 doubles extent, count * 4 doubles (x, y, length, width)
+ *   internal  int INTERNAL, int 0, 4 doubles bounds, 4 doubles extent,
+ *             4 longs child offsets (top left, top right, bottom left, bottom right)
+ * trailer  long root offset, long rectangle count, int magic, int version
+ * </pre>
+ *
+ * Bounds and extents are stored as xMin, xMax, yMin, yMax. The trailer is written last, so
+ * a file cut short by a failed save is recognised when it is opened.
+ */
+final class Snapshot {
+    static final int MAGIC = 0x31535451; // "QTS1" in file order
+    static final int VERSION = 1;
+    static final int LEAF = 0;
+    static final int INTERNAL = 1;
+
+    static final int HEADER_BYTES = 8;
+    static final int TRAILER_BYTES = 24;
+    // Tag, count, bounds and extent
+    static final int NODE_BYTES = 8 + 8 * 8;
+    static final int ENTRY_BYTES = 4 * 8;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes a snapshot front to back through one buffer. Nodes must be written children first.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+        private long rectangles;
+
+        Writer(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            putInt(MAGIC);
+            putInt(VERSION);
+        }
+
+        /**
+         * Starts a node record and returns its offset. A leaf's entries must follow; an
+         * internal node's child offsets must follow.
+         */
+        long node(int tag, int count, double xMin, double xMax, double yMin, double yMax,
+                  double exMin, double exMax, double eyMin, double eyMax) throws IOException {
+            long offset = position;
+            putInt(tag);
+            putInt(count);
+            putDouble(xMin);
+            putDouble(xMax);
+            putDouble(yMin);
+            putDouble(yMax);
+            putDouble(exMin);
+            putDouble(exMax);
+            putDouble(eyMin);
+            putDouble(eyMax);
+            if (tag == LEAF) {
+                rectangles += count;
+            }
+            return offset;
+        }
+
+        void entry(double x, double y, double length, double width) throws IOException {
+            putDouble(x);
+            putDouble(y);
+            putDouble(length);
+            putDouble(width);
+        }
+
+        void children(long topLeft, long topRight, long bottomLeft, long bottomRight) throws IOException {
+            putLong(topLeft);
+            putLong(topRight);
+            putLong(bottomLeft);
+            putLong(bottomRight);
+        }
+
+        /**
+         * Writes the trailer naming the root and forces the file to storage.
+         */
+        void finish(long root) throws IOException {
+            putLong(root);
+            putLong(rectangles);
+            putInt(MAGIC);
+            putInt(VERSION);
+            drain();
+            channel.force(false);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            position += 8;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read access to a snapshot mapped into memory. Offsets are those written by {@link Writer}.
+     */
+    static final class Reader {
+        private final ByteBuffer map;
+        private final long root;
+        private final long rectangles;
+
+        private Reader(ByteBuffer map, long root, long rectangles) {
+            this.map = map;
+            this.root = root;
+            this.rectangles = rectangles;
+        }
+
+        /**
+         * Maps a snapshot file read-only and checks its header and trailer.
+         *
+         * @throws IOException if the file cannot be read, is not a complete snapshot, or is
+         *         larger than a single mapping can cover (2 GiB)
+         */
+        static Reader open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot too large to map: " + path);
+                }
+                if (size < HEADER_BYTES + TRAILER_BYTES) {
+                    throw new IOException("Not a quadtree snapshot: " + path);
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                int trailer = (int) size - TRAILER_BYTES;
+                long root = map.getLong(trailer);
+                if (map.getInt(0) != MAGIC || map.getInt(trailer + 16) != MAGIC
+                        || root < HEADER_BYTES || root > trailer - NODE_BYTES || (root & 7) != 0) {
+                    throw new IOException("Not a quadtree snapshot: " + path);
+                }
+                if (map.getInt(4) != VERSION || map.getInt(trailer + 20) != VERSION) {
+                    throw new IOException("Unsupported snapshot version " + map.getInt(4) + ": " + path);
+                }
+                return new Reader(map, root, map.getLong(trailer + 8));
+            }
+        }
+
+        int root() {
+            return (int) root;
+        }
+
+        long rectangles() {
+            return rectangles;
+        }
+
+        boolean isLeaf(int node) {
+            return map.getInt(node) == LEAF;
+        }
+
+        int count(int node) {
+            return map.getInt(node + 4);
+        }
+
+        // 0 to 3: xMin, xMax, yMin, yMax
+        double bound(int node, int index) {
+            return map.getDouble(node + 8 + index * 8);
+        }
+
+        // 0 to 3: exMin, exMax, eyMin, eyMax
+        double extent(int node, int index) {
+            return map.getDouble(node + 40 + index * 8);
+        }
+
+        // 0 to 3: top left, top right, bottom left, bottom right
+        int child(int node, int index) {
+            return (int) map.getLong(node + NODE_BYTES + index * 8);
+        }
+
+        // 0 to 3: x, y, length, width of entry i of a leaf
+        double entry(int node, int i, int field) {
+            return map.getDouble(node + NODE_BYTES + i * ENTRY_BYTES + field * 8);
+        }
+
+        boolean extentContains(int node, double x, double y) {
+            return x >= extent(node, 0) && x <= extent(node, 1) && y >= extent(node, 2) && y <= extent(node, 3);
+        }
+
+        boolean extentOverlaps(int node, double qxMin, double qyMin, double qxMax, double qyMax) {
+            return extent(node, 0) <= qxMax && extent(node, 1) >= qxMin
+                    && extent(node, 2) <= qyMax && extent(node, 3) >= qyMin;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The operations the command-line interface runs against a spatial index of rectangles,
+ * implemented by the pointer-based {@link Quadtree} and the pointerless
+ * {@link LinearQuadtree}. Rectangles are stored by their bottom-left corner (x, y),
+ * their length along the x-axis and their width along the y-axis. Both engines answer
+ * with the same sets of rectangles; where several rectangles qualify and only one is
+ * reported, as for find and update, or where results are ordered, as for nearest with
+ * ties, each engine follows its own storage order. The rectangles handed out by find,
+ * findAll and nearest are copies, which later changes to the index leave as they were.
+ */
+public interface SpatialIndex {
+
+    /**
+     * Inserts a new rectangle.
+     *
+     * @param x the x-coordinate of the rectangle
+     * @param y the y-coordinate of the rectangle
+     * @param length the length of the rectangle
+     * @param width the width of the rectangle
+     * @throws IllegalArgumentException if x or y is NaN or infinite
+     */
+    void insert(double x, double y, double length, double width);
+
+    /**
+     * Inserts a batch of rectangles packed as x, y, length, width quadruples. Engines
+     * override this when loading a batch at once is faster than inserting it piece by piece.
+     *
+     * @param entries the packed rectangles; entry i occupies indices 4i to 4i+3
+     * @param count the number of rectangles to read from entries
+     * @throws IllegalArgumentException if a coordinate is NaN or infinite
+     */
+    default void bulkLoad(double[] entries, int count) {
+        for (int i = 0; i < count * 4; i += 4) {
+            insert(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+    }
+
+    /**
+     * Finds a rectangle containing the point (x, y).
+     *
+     * @param x the x-coordinate to look up
+     * @param y the y-coordinate to look up
+     * @return a rectangle containing (x, y), or null if there is none
+     */
+    Quadtree.Rectangle find(double x, double y);
+
+    /**
+     * Looks up a batch of points.
+     *
+     * @param xs the x-coordinates to look up
+     * @param ys the y-coordinates to look up, paired with xs by index
+     * @return for each point, in input order, the rectangle {@link #find(double, double)}
+     *         reports, or null if there is none
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    default Quadtree.Rectangle[] findAll(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length: " + xs.length + " and " + ys.length);
+        }
+        Quadtree.Rectangle[] results = new Quadtree.Rectangle[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            results[i] = find(xs[i], ys[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Deletes every rectangle containing the point (x, y).
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     */
+    void delete(double x, double y);
+
+    /**
+     * Changes the dimensions of the rectangle {@link #find(double, double)} reports for (x, y).
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param length the new length of the rectangle
+     * @param width the new width of the rectangle
+     * @return true if a rectangle containing (x, y) was found and resized
+     */
+    boolean update(double x, double y, double length, double width);
+
+    /**
+     * Moves the rectangle {@link #find(double, double)} reports for (x, y) so that its
+     * bottom-left corner lies at (newX, newY), keeping its dimensions.
+     *
+     * @param x the x-coordinate of a point inside the rectangle to move
+     * @param y the y-coordinate of a point inside the rectangle to move
+     * @param newX the new x-coordinate of the rectangle
+     * @param newY the new y-coordinate of the rectangle
+     * @return true if a rectangle containing (x, y) was found and moved
+     * @throws IllegalArgumentException if newX or newY is NaN or infinite
+     */
+    default boolean move(double x, double y, double newX, double newY) {
+        Quadtree.checkCoordinates(newX, newY);
+        Quadtree.Rectangle rect = find(x, y);
+        return rect != null && move(x, y, newX, newY, rect.getLength(), rect.getWidth());
+    }
+
+    /**
+     * Moves the rectangle {@link #find(double, double)} reports for (x, y) so that its
+     * bottom-left corner lies at (newX, newY) and gives it new dimensions. Unlike a delete
+     * followed by an insert, only that one rectangle is taken out, and engines keep it as
+     * close to where it was stored as the new position allows.
+     *
+     * @param x the x-coordinate of a point inside the rectangle to move
+     * @param y the y-coordinate of a point inside the rectangle to move
+     * @param newX the new x-coordinate of the rectangle
+     * @param newY the new y-coordinate of the rectangle
+     * @param length the new length of the rectangle
+     * @param width the new width of the rectangle
+     * @return true if a rectangle containing (x, y) was found and moved
+     * @throws IllegalArgumentException if newX or newY is NaN or infinite
+     */
+    boolean move(double x, double y, double newX, double newY, double length, double width);
+
+    /**
+     * Applies a batch of moves in order, such as one tick of a simulation. Engines override
+     * this when a batch can share work that separate moves would repeat. Every new origin
+     * is checked before anything moves.
+     *
+     * @param moves the packed moves; move i occupies indices 6i to 6i+5 as x, y, newX,
+     *              newY, length, width
+     * @param count the number of moves to read from moves
+     * @return for each move, in input order, whether a rectangle was found and moved
+     * @throws IllegalArgumentException if a new origin is NaN or infinite
+     */
+    default boolean[] moveAll(double[] moves, int count) {
+        for (int i = 0; i < count * 6; i += 6) {
+            Quadtree.checkCoordinates(moves[i + 2], moves[i + 3]);
+        }
+        boolean[] moved = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int m = i * 6;
+            moved[i] = move(moves[m], moves[m + 1], moves[m + 2], moves[m + 3], moves[m + 4], moves[m + 5]);
+        }
+        return moved;
+    }
+
+    /**
+     * Reports every rectangle that intersects the window [xMin, xMax] x [yMin, yMax].
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param visitor called once for each matching rectangle
+     */
+    void query(double xMin, double yMin, double xMax, double yMax, RectangleVisitor visitor);
+
+    /**
+     * Counts the rectangles that intersect the window [xMin, xMax] x [yMin, yMax], the
+     * ones {@link #query} reports. The default counts the matches of a query; engines that
+     * keep counts per node override it.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @return the number of matching rectangles
+     */
+    default long count(double xMin, double yMin, double xMax, double yMax) {
+        long[] count = new long[1];
+        query(xMin, yMin, xMax, yMax, (x, y, length, width) -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Lays a grid of cellsX by cellsY equal cells over the window [xMin, xMax] x [yMin, yMax]
+     * and counts, for each cell, the rectangles that intersect it, as {@link #count} would
+     * for the cell's window. Cells share their edges, so a rectangle touching an edge is
+     * counted in the cells on both sides. The default counts the matches of one query over
+     * the window; engines that keep counts per node override it.
+     *
+     * @param xMin the left edge of the window
+     * @param yMin the bottom edge of the window
+     * @param xMax the right edge of the window
+     * @param yMax the top edge of the window
+     * @param cellsX the number of columns
+     * @param cellsY the number of rows
+     * @return the counts row by row from the bottom row up: the cell in column i from the
+     *         left and row j from the bottom is at index j * cellsX + i
+     * @throws IllegalArgumentException if the window is not finite or the grid has no cells
+     *                                  or too many to hold
+     */
+    default long[] heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+        DensityGrid grid = new DensityGrid(xMin, yMin, xMax, yMax, cellsX, cellsY);
+        query(xMin, yMin, xMax, yMax, grid);
+        return grid.counts();
+    }
+
+    /**
+     * Finds the k rectangles closest to the point (x, y), nearest first. The distance to
+     * a rectangle is measured to its closest edge.
+     *
+     * @param x the x-coordinate of the query point
+     * @param y the y-coordinate of the query point
+     * @param k the maximum number of rectangles to return
+     * @return up to k rectangles ordered by increasing distance
+     * @throws IllegalArgumentException if k is not positive
+     */
+    List<Quadtree.Rectangle> nearest(double x, double y, int k);
+
+    /**
+     * Reports every pair of intersecting rectangles with one rectangle from this index and
+     * the other from another, this index's rectangle first. When other is this index, every
+     * pair of distinct rectangles that intersect is reported once, in no particular order of
+     * the two. Rectangles that only touch along an edge or at a corner intersect, as in
+     * {@link #query}.
+     *
+     * <p>The default collects the rectangles of both indexes and joins them with a plane
+     * sweep along the x-axis; engines override it when their structure allows better.</p>
+     *
+     * @param other the index to join with, possibly this one
+     * @param visitor called once for each intersecting pair
+     */
+    default void spatialJoin(SpatialIndex other, RectanglePairVisitor visitor) {
+        EntryBuffer mine = new EntryBuffer();
+        query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, mine);
+        if (other == this) {
+            SpatialJoin.self(mine.entries(), mine.count(), visitor);
+            return;
+        }
+        EntryBuffer theirs = new EntryBuffer();
+        other.query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, theirs);
+        SpatialJoin.cross(mine.entries(), mine.count(), theirs.entries(), theirs.count(), visitor);
+    }
+
+    /**
+     * Reports the storage structure of the index to a result sink.
+     *
+     * @param sink the sink receiving the structure
+     */
+    void dump(ResultSink sink);
+
+    /**
+     * Writes every rectangle to a snapshot file that {@link Quadtree#load(Path)} can read.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    void save(Path path) throws IOException;
+}
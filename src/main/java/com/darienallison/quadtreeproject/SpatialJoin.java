@@ -0,0 +1,120 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * A plane-sweep spatial join over packed rectangles, the default of
+ * {@link SpatialIndex#spatialJoin}. The rectangles are sorted by the left end of their
+ * x-range and swept from left to right, so each one is only compared with rectangles whose
+ * x-ranges overlap its own. The sort uses {@link ZOrder#cell} along the x-axis, which keeps
+ * the order of the left ends but may tie close ones; the sweep only relies on that order.
+ */
+final class SpatialJoin {
+
+    private SpatialJoin() {
+    }
+
+    /**
+     * Reports every pair of distinct intersecting rectangles of one set once.
+     *
+     * @param entries the packed rectangles; entry i occupies indices 4i to 4i+3
+     * @param count the number of rectangles
+     * @param visitor receives each pair
+     */
+    static void self(double[] entries, int count, RectanglePairVisitor visitor) {
+        double[] range = xRange(entries, count, null, 0);
+        int[] order = sortByLeft(entries, count, range);
+        for (int i = 0; i < count; i++) {
+            int a = order[i] * 4;
+            long reach = ZOrder.cell(right(entries, a), range[0], range[1]);
+            for (int j = i + 1; j < count && ZOrder.cell(left(entries, order[j] * 4), range[0], range[1]) <= reach; j++) {
+                report(entries, a, entries, order[j] * 4, visitor);
+            }
+        }
+    }
+
+    /**
+     * Reports every intersecting pair of a rectangle from the first set and one from the
+     * second, the first set's rectangle first.
+     *
+     * @param first the packed rectangles of the first set
+     * @param firstCount the number of rectangles in the first set
+     * @param second the packed rectangles of the second set
+     * @param secondCount the number of rectangles in the second set
+     * @param visitor receives each pair
+     */
+    static void cross(double[] first, int firstCount, double[] second, int secondCount, RectanglePairVisitor visitor) {
+        double[] range = xRange(first, firstCount, second, secondCount);
+        int[] firstOrder = sortByLeft(first, firstCount, range);
+        int[] secondOrder = sortByLeft(second, secondCount, range);
+        int i = 0, j = 0;
+        // Whichever set's next rectangle starts further left is compared with the rectangles
+        // of the other set still ahead of the sweep, then passed
+        while (i < firstCount && j < secondCount) {
+            int a = firstOrder[i] * 4, b = secondOrder[j] * 4;
+            long aLeft = ZOrder.cell(left(first, a), range[0], range[1]);
+            long bLeft = ZOrder.cell(left(second, b), range[0], range[1]);
+            if (aLeft <= bLeft) {
+                long reach = ZOrder.cell(right(first, a), range[0], range[1]);
+                for (int k = j; k < secondCount && ZOrder.cell(left(second, secondOrder[k] * 4), range[0], range[1]) <= reach; k++) {
+                    report(first, a, second, secondOrder[k] * 4, visitor);
+                }
+                i++;
+            } else {
+                long reach = ZOrder.cell(right(second, b), range[0], range[1]);
+                for (int k = i; k < firstCount && ZOrder.cell(left(first, firstOrder[k] * 4), range[0], range[1]) <= reach; k++) {
+                    report(first, firstOrder[k] * 4, second, b, visitor);
+                }
+                j++;
+            }
+        }
+    }
+
+    // Reports the pair if the rectangles intersect, as Quadtree.Rectangle.intersects decides
+    private static void report(double[] first, int a, double[] second, int b, RectanglePairVisitor visitor) {
+        double ax = first[a], ay = first[a + 1], aLength = first[a + 2], aWidth = first[a + 3];
+        double bx = second[b], by = second[b + 1], bLength = second[b + 2], bWidth = second[b + 3];
+        if (ax <= bx + bLength && ax + aLength >= bx && ay <= by + bWidth && ay + aWidth >= by) {
+            visitor.visit(ax, ay, aLength, aWidth, bx, by, bLength, bWidth);
+        }
+    }
+
+    // The x-range of a rectangle runs from its smaller to its larger x-edge, so a negative
+    // length still gives a range that covers every rectangle it intersects
+    private static double left(double[] entries, int e) {
+        return Math.min(entries[e], entries[e] + entries[e + 2]);
+    }
+
+    private static double right(double[] entries, int e) {
+        return Math.max(entries[e], entries[e] + entries[e + 2]);
+    }
+
+    // The span of the finite left ends of both sets, which the sort keys are scaled to
+    private static double[] xRange(double[] first, int firstCount, double[] second, int secondCount) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < firstCount; i++) {
+            double left = left(first, i * 4);
+            if (Double.isFinite(left)) {
+                min = Math.min(min, left);
+                max = Math.max(max, left);
+            }
+        }
+        for (int i = 0; i < secondCount; i++) {
+            double left = left(second, i * 4);
+            if (Double.isFinite(left)) {
+                min = Math.min(min, left);
+                max = Math.max(max, left);
+            }
+        }
+        return new double[] {min, max};
+    }
+
+    private static int[] sortByLeft(double[] entries, int count, double[] range) {
+        long[] keys = new long[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ZOrder.cell(left(entries, i * 4), range[0], range[1]);
+            order[i] = i;
+        }
+        ZOrder.sort(keys, order);
+        return order;
+    }
+}
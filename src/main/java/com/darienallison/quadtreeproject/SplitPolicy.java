@@ -0,0 +1,103 @@
+package com.darienallison.quadtreeproject;
+
+/**
+ * Decides when a leaf of a {@link Quadtree} splits. A leaf splits when an insert would take
+ * it past its capacity, unless it already sits at the maximum depth; such a leaf becomes an
+ * overflow leaf and simply keeps growing. The limit is what stops rectangles that share an
+ * origin, or lie closer together than the tree can usefully separate, from splitting leaves
+ * level after level. Depths count from the root at 0, and a root that grows to take in a
+ * far-away rectangle adds a level above everything already in the tree.
+ */
+public interface SplitPolicy {
+
+    /** The policy trees use unless given another: capacity 5, maximum depth 32. */
+    SplitPolicy DEFAULT = fixed(5, 32);
+
+    /**
+     * Returns the number of entries a leaf at the given depth holds before it splits.
+     * Capacities must not decrease with depth, so the children of a split leaf never
+     * need to split themselves straight away.
+     *
+     * @param depth the depth of the leaf
+     * @return the leaf capacity, at least 1
+     */
+    int capacity(int depth);
+
+    /**
+     * Returns the depth at which leaves stop splitting.
+     *
+     * @return the maximum depth, at least 0
+     */
+    int maxDepth();
+
+    /**
+     * Returns a policy with the same capacity at every depth.
+     *
+     * @param capacity the leaf capacity
+     * @param maxDepth the depth at which leaves stop splitting
+     * @return the policy
+     * @throws IllegalArgumentException if capacity is less than 1 or maxDepth is negative
+     */
+    static SplitPolicy fixed(int capacity, int maxDepth) {
+        check(capacity, maxDepth);
+        return new SplitPolicy() {
+            @Override
+            public int capacity(int depth) {
+                return capacity;
+            }
+
+            @Override
+            public int maxDepth() {
+                return maxDepth;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + capacity + ", " + maxDepth + ")";
+            }
+        };
+    }
+
+    /**
+     * Returns a policy whose capacity adapts to the local density. Down to half the
+     * maximum depth leaves hold the given capacity; below that the capacity doubles with
+     * every level, up to 1024 times the base. Only dense regions reach those depths, so
+     * tight clusters end up in a few larger leaves instead of long chains of nearly empty
+     * internal nodes, while sparse regions keep small leaves and short scans.
+     *
+     * @param capacity the capacity of leaves down to half the maximum depth
+     * @param maxDepth the depth at which leaves stop splitting
+     * @return the policy
+     * @throws IllegalArgumentException if capacity is less than 1 or maxDepth is negative
+     */
+    static SplitPolicy adaptive(int capacity, int maxDepth) {
+        check(capacity, maxDepth);
+        int denseDepth = maxDepth / 2;
+        return new SplitPolicy() {
+            @Override
+            public int capacity(int depth) {
+                int doublings = Math.min(Math.max(depth - denseDepth, 0), 10);
+                return (int) Math.min((long) capacity << doublings, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public int maxDepth() {
+                return maxDepth;
+            }
+
+            @Override
+            public String toString() {
+                return "adaptive(" + capacity + ", " + maxDepth + ")";
+            }
+        };
+    }
+
+    private static void check(int capacity, int maxDepth) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Leaf capacity must be positive: " + capacity);
+        }
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Maximum depth must not be negative: " + maxDepth);
+        }
+    }
+}
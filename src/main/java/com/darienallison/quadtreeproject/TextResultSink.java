@@ -0,0 +1,219 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * A result sink that writes one line per result to a Writer, collecting the text in a
+ * large buffer and handing it to the writer in big blocks. Call {@link #flush()} when
+ * done; nothing is guaranteed to reach the writer before then.
+ *
+ * <p>The default format is the one the command-line interface has always printed, for
+ * example {@code Rectangle at (1.00, 2.00): 3.00x4.00} or {@code Nothing found at (1.0, 2.0)}.
+ * The compact format writes a rectangle as its four numbers separated by spaces, a Find or
+ * Update that found nothing as {@code -}, a successful Update as {@code +}, a joined pair as
+ * the eight numbers of its two rectangles, and dump nodes as {@code I} and {@code L}
+ * followed by the leaf's numbers.</p>
+ */
+public final class TextResultSink implements ResultSink {
+    // Buffered text is handed to the writer once it grows past this many characters
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+
+    // %.2f is formatted by hand only where it is known to print plain ASCII digits
+    private static final boolean ASCII_DECIMALS;
+
+    static {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        ASCII_DECIMALS = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+    }
+
+    private final Writer out;
+    private final boolean compact;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 256);
+    private char[] chars = new char[0];
+    private boolean firstEntry;
+
+    /**
+     * Creates a sink writing to the given writer.
+     *
+     * @param out the destination of the text
+     * @param compact whether to use the compact format instead of the default one
+     */
+    public TextResultSink(Writer out, boolean compact) {
+        this.out = out;
+        this.compact = compact;
+    }
+
+    /**
+     * Creates a sink writing to standard output in the encoding System.out uses.
+     *
+     * @param compact whether to use the compact format instead of the default one
+     * @return the sink
+     */
+    public static TextResultSink standardOutput(boolean compact) {
+        return new TextResultSink(new OutputStreamWriter(System.out, System.out.charset()), compact);
+    }
+
+    @Override
+    public void found(double x, double y, Quadtree.Rectangle rect) {
+        if (rect != null) {
+            appendRectangle(rect.getX(), rect.getY(), rect.getLength(), rect.getWidth());
+        } else if (compact) {
+            buffer.append('-');
+        } else {
+            buffer.append("Nothing found at (").append(x).append(", ").append(y).append(')');
+        }
+        endLine();
+    }
+
+    @Override
+    public void updated(double x, double y, boolean updated) {
+        if (compact) {
+            buffer.append(updated ? '+' : '-');
+        } else {
+            buffer.append(updated ? "Updated rectangle at (" : "Nothing to update at (")
+                    .append(x).append(", ").append(y).append(')');
+        }
+        endLine();
+    }
+
+    @Override
+    public void matched(double x, double y, double length, double width) {
+        appendRectangle(x, y, length, width);
+        endLine();
+    }
+
+    @Override
+    public void paired(double x1, double y1, double length1, double width1, double x2, double y2, double length2, double width2) {
+        appendRectangle(x1, y1, length1, width1);
+        buffer.append(compact ? " " : " intersects ");
+        appendRectangle(x2, y2, length2, width2);
+        endLine();
+    }
+
+    @Override
+    public void message(String text) {
+        buffer.append(text);
+        endLine();
+    }
+
+    @Override
+    public void internalNode(int depth) {
+        indent(depth);
+        buffer.append(compact ? "I" : "InternalNode");
+        endLine();
+    }
+
+    @Override
+    public void beginLeaf(int depth) {
+        indent(depth);
+        buffer.append(compact ? "L" : "LeafNode: [");
+        firstEntry = true;
+    }
+
+    @Override
+    public void leafEntry(double x, double y, double length, double width) {
+        if (compact || !firstEntry) {
+            buffer.append(compact ? " " : ", ");
+        }
+        firstEntry = false;
+        appendRectangle(x, y, length, width);
+    }
+
+    @Override
+    public void endLeaf() {
+        if (!compact) {
+            buffer.append(']');
+        }
+        endLine();
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void indent(int depth) {
+        for (int i = 0; i < depth; i++) {
+            buffer.append('\t');
+        }
+    }
+
+    private void appendRectangle(double x, double y, double length, double width) {
+        if (compact) {
+            appendFixed(buffer, x);
+            appendFixed(buffer.append(' '), y);
+            appendFixed(buffer.append(' '), length);
+            appendFixed(buffer.append(' '), width);
+        } else {
+            appendRectangle(buffer, x, y, length, width);
+        }
+    }
+
+    private void endLine() {
+        buffer.append('\n');
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        int length = buffer.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, FLUSH_THRESHOLD + 256)];
+        }
+        buffer.getChars(0, length, chars, 0);
+        buffer.setLength(0);
+        try {
+            out.write(chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a rectangle in the format of {@link Quadtree.Rectangle#toString()}.
+     */
+    static StringBuilder appendRectangle(StringBuilder text, double x, double y, double length, double width) {
+        appendFixed(text.append("Rectangle at ("), x);
+        appendFixed(text.append(", "), y);
+        appendFixed(text.append("): "), length);
+        appendFixed(text.append('x'), width);
+        return text;
+    }
+
+    // Appends exactly what String.format("%.2f", v) produces. That rounds the shortest decimal
+    // form of v half up, so the rounding is only decided here when v * 100 is clearly away
+    // from a half; values close to one, and values too large for a long, use String.format.
+    private static void appendFixed(StringBuilder text, double v) {
+        double magnitude = Math.abs(v);
+        if (ASCII_DECIMALS && magnitude < 1e9) {
+            double scaled = magnitude * 100;
+            double whole = Math.floor(scaled);
+            double fraction = scaled - whole;
+            if (Math.abs(fraction - 0.5) > 8 * Math.ulp(scaled)) {
+                long hundredths = (long) whole + (fraction > 0.5 ? 1 : 0);
+                if (Double.doubleToRawLongBits(v) < 0) {
+                    text.append('-');
+                }
+                int cents = (int) (hundredths % 100);
+                text.append(hundredths / 100).append('.');
+                if (cents < 10) {
+                    text.append('0');
+                }
+                text.append(cents);
+                return;
+            }
+        }
+        text.append(String.format("%.2f", v));
+    }
+}
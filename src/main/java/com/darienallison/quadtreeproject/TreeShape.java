@@ -0,0 +1,214 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.Arrays;
+
+/**
+ * The shape of a quadtree at one moment: how many nodes and entries it holds, how deep its
+ * leaves sit and how full they are. Returned by {@link Quadtree#shape()}, which walks the
+ * whole tree, so it costs about as much as a {@link Quadtree#dump(ResultSink) dump} without
+ * the output.
+ */
+public final class TreeShape {
+    private final long internalNodes, leaves, entries;
+    private final int maxDepth;
+    private final long leafDepthTotal;
+    private final long[] leafFill;
+    private final int capacity;
+    private final long totalCapacity;
+    private final long overflowLeaves;
+
+    private TreeShape(long internalNodes, long leaves, long entries, int maxDepth, long leafDepthTotal,
+                      long[] leafFill, int capacity, long totalCapacity, long overflowLeaves) {
+        this.internalNodes = internalNodes;
+        this.leaves = leaves;
+        this.entries = entries;
+        this.maxDepth = maxDepth;
+        this.leafDepthTotal = leafDepthTotal;
+        this.leafFill = leafFill;
+        this.capacity = capacity;
+        this.totalCapacity = totalCapacity;
+        this.overflowLeaves = overflowLeaves;
+    }
+
+    /**
+     * Returns the total number of nodes.
+     *
+     * @return internal nodes plus leaves
+     */
+    public long nodes() {
+        return internalNodes + leaves;
+    }
+
+    /**
+     * Returns the number of internal nodes.
+     *
+     * @return the internal node count
+     */
+    public long internalNodes() {
+        return internalNodes;
+    }
+
+    /**
+     * Returns the number of leaves, empty ones included. Empty quadrants count as empty
+     * leaves, as they appear in a dump, although the tree does not allocate them.
+     *
+     * @return the leaf count
+     */
+    public long leaves() {
+        return leaves;
+    }
+
+    /**
+     * Returns the number of rectangles stored.
+     *
+     * @return the entry count
+     */
+    public long entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the depth of the deepest leaf; a tree that is a single leaf has depth 0.
+     *
+     * @return the maximum depth
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the mean depth of the leaves.
+     *
+     * @return the average leaf depth
+     */
+    public double averageDepth() {
+        return leaves == 0 ? 0 : (double) leafDepthTotal / leaves;
+    }
+
+    /**
+     * Returns the capacity of a root leaf under the tree's split policy, which is also the
+     * capacity of the shallowest leaves.
+     *
+     * @return the leaf capacity at depth 0
+     */
+    public int leafCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns how many leaves hold exactly the given number of entries. Leaves holding
+     * more than {@link #leafCapacity()} entries, which happens for deeper leaves under an
+     * adaptive split policy and for overflow leaves, are all counted under
+     * {@code leafCapacity() + 1}.
+     *
+     * @param entries the number of entries, from 0 to {@code leafCapacity() + 1}
+     * @return the number of leaves with that many entries
+     * @throws IndexOutOfBoundsException if entries is out of range
+     */
+    public long leavesHolding(int entries) {
+        return leafFill[entries];
+    }
+
+    /**
+     * Returns the number of leaves holding more entries than the split policy's capacity
+     * for their depth: leaves at the maximum depth, or too small to divide, that kept
+     * taking entries instead of splitting.
+     *
+     * @return the overflow leaf count
+     */
+    public long overflowLeaves() {
+        return overflowLeaves;
+    }
+
+    /**
+     * Returns the average leaf fill: the entries stored as a fraction of the total capacity
+     * of all leaves, each at its own depth.
+     *
+     * @return the fill factor, 0 for an empty tree
+     */
+    public double fillFactor() {
+        return totalCapacity == 0 ? 0 : (double) entries / totalCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeShape[nodes=" + nodes() + ", leaves=" + leaves + ", entries=" + entries
+                + ", maxDepth=" + maxDepth + ", leafFill=" + Arrays.toString(leafFill)
+                + ", overflowLeaves=" + overflowLeaves + "]";
+    }
+
+    /**
+     * Collects a shape from the node events of a dump.
+     */
+    static final class Builder implements ResultSink {
+        private final SplitPolicy policy;
+        private final int capacity;
+        private final long[] leafFill;
+        private long internalNodes, leaves, entries;
+        private int maxDepth;
+        private long leafDepthTotal;
+        private long totalCapacity, overflowLeaves;
+        private int leafDepth, leafEntries;
+
+        Builder(SplitPolicy policy) {
+            this.policy = policy;
+            this.capacity = policy.capacity(0);
+            this.leafFill = new long[capacity + 2];
+        }
+
+        @Override
+        public void internalNode(int depth) {
+            internalNodes++;
+        }
+
+        @Override
+        public void beginLeaf(int depth) {
+            leaves++;
+            leafDepthTotal += depth;
+            maxDepth = Math.max(maxDepth, depth);
+            leafDepth = depth;
+            leafEntries = 0;
+        }
+
+        @Override
+        public void leafEntry(double x, double y, double length, double width) {
+            entries++;
+            leafEntries++;
+        }
+
+        @Override
+        public void endLeaf() {
+            leafFill[Math.min(leafEntries, capacity + 1)]++;
+            int leafCapacity = policy.capacity(leafDepth);
+            totalCapacity += leafCapacity;
+            if (leafEntries > leafCapacity) {
+                overflowLeaves++;
+            }
+        }
+
+        @Override
+        public void found(double x, double y, Quadtree.Rectangle rect) {
+        }
+
+        @Override
+        public void updated(double x, double y, boolean updated) {
+        }
+
+        @Override
+        public void matched(double x, double y, double length, double width) {
+        }
+
+        @Override
+        public void paired(double x1, double y1, double length1, double width1, double x2, double y2, double length2, double width2) {
+        }
+
+        @Override
+        public void message(String text) {
+        }
+
+        TreeShape build() {
+            return new TreeShape(internalNodes, leaves, entries, maxDepth, leafDepthTotal, leafFill.clone(), capacity,
+                    totalCapacity, overflowLeaves);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.darienallison.quadtreeproject;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for Z-order (Morton) keys. A key interleaves the bits of a point's x and y
+ * cell indices on a 2^31 x 2^31 grid laid over a bounding box, x in the even bits and
+ * y in the odd bits. Sorting by key therefore lists the quadrants of every grid cell in
+ * the order bottom-left, bottom-right, top-left, top-right, recursively.
+ */
+final class ZOrder {
+
+    /** Number of bits in a cell index along one axis. */
+    static final int BITS = 31;
+
+    private ZOrder() {
+    }
+
+    /**
+     * Returns the index of the grid cell containing v along an axis spanning [min, max].
+     * Values outside the span are clamped to the first or last cell.
+     */
+    static long cell(double v, double min, double max) {
+        double scaled = (v - min) / (max - min) * (1L << BITS);
+        if (!(scaled > 0)) {
+            return 0;
+        }
+        return Math.min((long) scaled, (1L << BITS) - 1);
+    }
+
+    /**
+     * Returns the Z-order key of the point (x, y) within the box [xMin, xMax] x [yMin, yMax].
+     */
+    static long key(double x, double y, double xMin, double xMax, double yMin, double yMax) {
+        return interleave(cell(x, xMin, xMax), cell(y, yMin, yMax));
+    }
+
+    /**
+     * Interleaves two cell indices into a key, x in the even bits and y in the odd bits.
+     */
+    static long interleave(long cellX, long cellY) {
+        return spread(cellX) | (spread(cellY) << 1);
+    }
+
+    // Moves bit i of v to bit 2i
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    // Moves bit 2i of v to bit i, undoing spread
+    private static long compact(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+        return v;
+    }
+
+    /**
+     * Returns whether a key's cell lies in the cell range [cellXMin, cellXMax] x [cellYMin, cellYMax].
+     */
+    static boolean inside(long key, long cellXMin, long cellXMax, long cellYMin, long cellYMax) {
+        long cellX = compact(key);
+        long cellY = compact(key >>> 1);
+        return cellX >= cellXMin && cellX <= cellXMax && cellY >= cellYMin && cellY <= cellYMax;
+    }
+
+    /**
+     * Returns the smallest key greater than key whose cell lies in the cell range spanned
+     * by the keys min and max of its lower-left and upper-right corners (the BIGMIN of
+     * Tropf and Herzog). A scan over sorted keys that meets a key outside the range can jump
+     * straight there instead of stepping through the keys in between. The key must lie
+     * between min and max and outside the range.
+     */
+    static long nextInside(long key, long min, long max) {
+        long next = max;
+        for (int bit = 2 * BITS - 1; bit >= 0; bit--) {
+            long mask = 1L << bit;
+            // The lower bits of the same axis as this bit
+            long lower = (bit % 2 == 0 ? 0x5555555555555555L : 0xAAAAAAAAAAAAAAAAL) & (mask - 1);
+            boolean keyBit = (key & mask) != 0, minBit = (min & mask) != 0, maxBit = (max & mask) != 0;
+            if (!keyBit && !minBit && maxBit) {
+                // The range straddles this bit and the key is in the lower half: the upper
+                // half starts a candidate, and the search goes on in the lower half
+                next = (min | mask) & ~lower;
+                max = (max & ~mask) | lower;
+            } else if (!keyBit && minBit) {
+                // The whole remaining range lies above the key
+                return min;
+            } else if (keyBit && !maxBit) {
+                // The whole remaining range lies below the key
+                return next;
+            } else if (keyBit && !minBit) {
+                // The range straddles this bit and the key is in the upper half
+                min = (min | mask) & ~lower;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Sorts keys in ascending order with a stable LSD radix sort, applying the same
+     * permutation to order.
+     */
+    static void sort(long[] keys, int[] order) {
+        int n = keys.length;
+        long[] keyBuffer = new long[n];
+        int[] orderBuffer = new int[n];
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 2 * BITS; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (long key : keys) {
+                counts[(int) (key >>> shift) & 0xFFFF]++;
+            }
+            for (int i = 0, sum = 0; i < counts.length; i++) {
+                int c = counts[i];
+                counts[i] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int slot = counts[(int) (keys[i] >>> shift) & 0xFFFF]++;
+                keyBuffer[slot] = keys[i];
+                orderBuffer[slot] = order[i];
+            }
+            System.arraycopy(keyBuffer, 0, keys, 0, n);
+            System.arraycopy(orderBuffer, 0, order, 0, n);
+        }
+    }
+}
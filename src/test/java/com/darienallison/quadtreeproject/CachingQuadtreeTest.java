@@ -0,0 +1,124 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CachingQuadtreeTest {
+
+    @Test
+    void findReportsWhatTheIndexReportsWhereRectanglesOverlap() {
+        Quadtree index = new Quadtree();
+        CachingQuadtree cache = new CachingQuadtree(index, 4, 64);
+        for (int i = 0; i < 6; i++) {
+            cache.insert(-30 + i * 5, 30, 1, 1);
+        }
+        cache.insert(-40, -40, 80, 80);
+        cache.insert(1, -2, 1, 1);
+
+        assertEquals(Entries.of(index.find(1.5, -1.5)), Entries.of(cache.find(1.5, -1.5)));
+        assertTrue(cache.move(1.5, -1.5, 20, 20));
+        // The rectangle find reported moved, and the cache shows it where it went
+        assertEquals(Entries.of(index.find(1.5, -1.5)), Entries.of(cache.find(1.5, -1.5)));
+        assertEquals(Entries.of(index.find(20.5, 20.5)), Entries.of(cache.find(20.5, 20.5)));
+        assertEquals(Entries.of(index), Entries.of(cache));
+    }
+
+    @Test
+    void everyChangeInvalidatesTheCellsItReaches() {
+        CachingQuadtree cache = new CachingQuadtree(new Quadtree(), 5, 64);
+        cache.insert(1, 1, 2, 2);
+        cache.insert(-20, -20, 1, 1);
+        // Warm both areas, then check each change is seen through the cache at once
+        assertEquals("[1.0, 1.0, 2.0, 2.0]", Entries.of(cache.find(2, 2)));
+        assertEquals(1, Entries.query(cache, 0, 0, 4, 4).size());
+        assertEquals(List.of(), Entries.query(cache, 10, 10, 14, 14));
+        long hits = cache.hits();
+        assertEquals("[1.0, 1.0, 2.0, 2.0]", Entries.of(cache.find(2, 2)));
+        assertTrue(cache.hits() > hits);
+
+        long invalidations = cache.invalidations();
+        cache.insert(2.5, 2.5, 1, 1);
+        assertTrue(cache.invalidations() > invalidations);
+        assertEquals(2, Entries.query(cache, 0, 0, 4, 4).size());
+
+        assertTrue(cache.update(1.5, 1.5, 0.5, 0.5));
+        assertNull(cache.find(2, 2));
+        assertEquals("[1.0, 1.0, 0.5, 0.5]", Entries.of(cache.find(1.2, 1.2)));
+
+        assertTrue(cache.move(1.2, 1.2, 11, 11));
+        assertNull(cache.find(1.2, 1.2));
+        assertEquals(List.of("[11.0, 11.0, 0.5, 0.5]"), Entries.query(cache, 10, 10, 14, 14));
+
+        assertTrue(cache.move(11.2, 11.2, 12, 12, 1, 1));
+        assertEquals(List.of("[12.0, 12.0, 1.0, 1.0]"), Entries.query(cache, 10, 10, 14, 14));
+        assertNull(cache.find(11.2, 11.2));
+
+        cache.delete(12.5, 12.5);
+        assertEquals(List.of(), Entries.query(cache, 10, 10, 14, 14));
+        assertEquals(List.of("[-20.0, -20.0, 1.0, 1.0]", "[2.5, 2.5, 1.0, 1.0]"), Entries.of(cache));
+
+        cache.bulkLoad(new double[] {13, 13, 1, 1}, 1);
+        assertEquals(List.of("[13.0, 13.0, 1.0, 1.0]"), Entries.query(cache, 10, 10, 14, 14));
+    }
+
+    @Test
+    void rectanglesWithNegativeSizesAreReportedFromTheCellOfTheirLowerCorner() {
+        Quadtree plain = new Quadtree();
+        CachingQuadtree cache = new CachingQuadtree(new Quadtree(), 10, 64);
+        for (double[] rect : new double[][] {{10, 10, -5, -5}, {18, 3, -6, 4}, {-1, -1, -8, 0.5}, {33, 33, 2, 2}}) {
+            plain.insert(rect[0], rect[1], rect[2], rect[3]);
+            cache.insert(rect[0], rect[1], rect[2], rect[3]);
+        }
+        assertTrue(Entries.query(plain, 4, 4, 20, 20).contains("[10.0, 10.0, -5.0, -5.0]"));
+        double[][] windows = {{4, 4, 20, 20}, {0, 0, 10, 10}, {-10, -10, 40, 40}, {5, 2, 19, 12}, {-9.5, -1, 0, 0}, {6, 6, 9, 9}};
+        for (int round = 0; round < 2; round++) {
+            // Once filling the cells and once from them
+            for (double[] window : windows) {
+                assertEquals(Entries.query(plain, window[0], window[1], window[2], window[3]),
+                        Entries.query(cache, window[0], window[1], window[2], window[3]), Arrays.toString(window));
+            }
+        }
+        assertTrue(cache.hits() > 0);
+    }
+
+    @Test
+    void answersLikeAnUncachedTree() {
+        for (long seed = 0; seed < 8; seed++) {
+            Random random = new Random(seed);
+            Quadtree plain = new Quadtree();
+            CachingQuadtree cache = new CachingQuadtree(new Quadtree(), 1 + random.nextInt(8), 1 + random.nextInt(50));
+            for (int op = 0; op < 8000; op++) {
+                double x = random.nextDouble() * 60 - 30, y = random.nextDouble() * 60 - 30;
+                double length = random.nextDouble() * 10, width = random.nextDouble() * 10;
+                double newX = random.nextDouble() * 60 - 30, newY = random.nextDouble() * 60 - 30;
+                String at = "seed " + seed + ", operation " + op;
+                switch (random.nextInt(8)) {
+                    case 0, 1 -> {
+                        plain.insert(x, y, length, width);
+                        cache.insert(x, y, length, width);
+                    }
+                    case 2 -> assertEquals(Entries.of(plain.find(x, y)), Entries.of(cache.find(x, y)), at);
+                    case 3 -> assertEquals(plain.update(x, y, length, width), cache.update(x, y, length, width), at);
+                    case 4 -> assertEquals(plain.move(x, y, newX, newY), cache.move(x, y, newX, newY), at);
+                    case 5 -> assertEquals(plain.move(x, y, newX, newY, length, width),
+                            cache.move(x, y, newX, newY, length, width), at);
+                    case 6 -> {
+                        if (random.nextInt(10) == 0) {
+                            plain.delete(x, y);
+                            cache.delete(x, y);
+                        }
+                    }
+                    default -> assertEquals(Entries.query(plain, x, y, x + 3, y + 3), Entries.query(cache, x, y, x + 3, y + 3), at);
+                }
+            }
+            assertEquals(Entries.of(plain), Entries.of(cache));
+            assertTrue(cache.hits() > 0);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CommandReaderTest {
+
+    // Tokens the fast path takes, tokens it hands to Double.parseDouble, and tokens neither accepts
+    private static final String[] NUMBERS = {
+        "0", "-0", "+0", "0.0", "-0.0", "00012", "1", "-1", "+1.5", ".5", "-.5", "5.", "1.25",
+        "0.1", "0.3", "-12.375", "123456789012345", "1234567890123456", "12345678901234567",
+        "99999999999999999999999", "0.1234567890123456789", "3.141592653589793238",
+        "1e5", "1E5", "1e+5", "1e-5", "-2.5e-3", "1e22", "1e23", "1e-22", "1e-23", "1e308",
+        "1.7976931348623157e308", "1e309", "1e400", "4.9e-324", "1e-400", "1e0000", "1e00001",
+        "0e999999", "12345e-10000", "0x1p3", "1d", "2f", "NaN", "Infinity", "-Infinity",
+        "", ".", "-", "+", "e5", "1e", "1e+", "1e-", ".e1", "1.2.3", "--1", "+-1", "1_000",
+        "1,5", "abc", "1x", "0x", "Inf", "nan", "1e5.5", "1ee5"
+    };
+
+    private static final String[] INTEGERS = {
+        "1", "+7", "007", "0000000001", "999999999", "2147483647", "2147483648", "-2147483648",
+        "0", "-1", "", "+", "-", "1.0", "1e2", "abc", "12345678901"
+    };
+
+    @Test
+    void numbersParseAsDoubleParseDoubleWould() throws IOException {
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (String number : NUMBERS) {
+            String line = "Find " + number + " 0";
+            input.append(line).append('\n');
+            if (number.isEmpty()) {
+                expected.add("reject FIND Error: Find requires two parameters (x, y).");
+                continue;
+            }
+            try {
+                expected.add("find " + Double.parseDouble(number) + " 0.0");
+            } catch (NumberFormatException e) {
+                expected.add("reject FIND Invalid number format in command: " + line);
+            }
+        }
+        assertEquals(expected, read(input.toString(), 1 << 16));
+    }
+
+    @Test
+    void integersParseAsIntegerParseIntWould() throws IOException {
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (String integer : INTEGERS) {
+            String line = "Nearest 0 0 " + integer;
+            input.append(line).append('\n');
+            if (integer.isEmpty()) {
+                expected.add("reject NEAREST Error: Nearest requires three parameters (x, y, k).");
+                continue;
+            }
+            try {
+                int k = Integer.parseInt(integer);
+                expected.add(k < 1 ? "reject NEAREST Error: Nearest requires a positive count k."
+                        : "nearest 0.0 0.0 " + k);
+            } catch (NumberFormatException e) {
+                expected.add("reject NEAREST Invalid number format in command: " + line);
+            }
+        }
+        assertEquals(expected, read(input.toString(), 1 << 16));
+    }
+
+    @Test
+    void linesSplitAcrossReadsParseTheSame() throws IOException {
+        Random random = new Random(11);
+        StringBuilder input = new StringBuilder();
+        String[] endings = {"\n", "\r\n", "\r", "\n\n", " \t\n"};
+        for (int i = 0; i < 500; i++) {
+            input.append(i % 7 == 0 ? "\t " : "").append("Insert");
+            for (int j = 0; j < 4; j++) {
+                input.append(j == 2 ? "\t" : " ").append(NUMBERS[random.nextInt(NUMBERS.length)]);
+            }
+            input.append(endings[random.nextInt(endings.length)]);
+        }
+        input.append("Query -1 -2 3 4e1");
+
+        List<String> whole = read(input.toString(), 1 << 16);
+        assertEquals(501, whole.size());
+        assertEquals("query -1.0 -2.0 3.0 40.0", whole.get(500));
+        for (int bufferSize : new int[] {1, 2, 7, 16, 61}) {
+            assertEquals(whole, read(input.toString(), bufferSize));
+        }
+    }
+
+    @Test
+    void overLongLinesAreSkippedAndReadingGoesOn() throws IOException {
+        String rejected = "reject UNKNOWN Error: line longer than 40 bytes skipped.";
+        String longLine = "Insert 1 2 3 4" + " ".repeat(20) + "5 6 7 8 9 10 11";
+        String input = "Find 1 2\n" + longLine + "\r\nFind 3 4\r" + "x".repeat(500) + "\nFind 5 6\n"
+                + " ".repeat(36) + "Dump\n" + "Stats" + " ".repeat(36) + "\r" + longLine;
+        List<String> expected = List.of("find 1.0 2.0", rejected, "find 3.0 4.0", rejected, "find 5.0 6.0",
+                "dump", rejected, rejected);
+        for (int bufferSize : new int[] {1, 3, 16, 41, 1 << 16}) {
+            try (CommandReader reader = new CommandReader(
+                    Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))), bufferSize, 40)) {
+                Recorder recorder = new Recorder();
+                reader.run(recorder);
+                assertEquals(expected, recorder.events, "buffer of " + bufferSize);
+            }
+        }
+
+        // A line far longer than the limit, arriving in pieces, is passed over as it arrives
+        long length = 64L * CommandReader.MAX_LINE_LENGTH;
+        ReadableByteChannel endless = new ReadableByteChannel() {
+            private long sent;
+
+            @Override
+            public int read(ByteBuffer target) {
+                byte[] tail = "\nFind 7 8".getBytes(StandardCharsets.US_ASCII);
+                if (sent == length + tail.length) {
+                    return -1;
+                }
+                int count = 0;
+                while (target.hasRemaining() && sent < length + tail.length) {
+                    target.put(sent < length ? (byte) '9' : tail[(int) (sent - length)]);
+                    sent++;
+                    count++;
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Recorder recorder = new Recorder();
+        try (CommandReader reader = new CommandReader(endless)) {
+            reader.run(recorder);
+        }
+        assertEquals(List.of("reject UNKNOWN Error: line longer than " + CommandReader.MAX_LINE_LENGTH + " bytes skipped.",
+                "find 7.0 8.0"), recorder.events);
+    }
+
+    private static List<String> read(String input, int bufferSize) throws IOException {
+        Recorder recorder = new Recorder();
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        try (CommandReader reader = new CommandReader(Channels.newChannel(new ByteArrayInputStream(bytes)), bufferSize)) {
+            reader.run(recorder);
+        }
+        return recorder.events;
+    }
+
+    // Writes each call down as a line of text, the numbers as Double.toString and Integer.toString give them
+    private static final class Recorder implements CommandHandler {
+
+        final List<String> events = new ArrayList<>();
+
+        private void record(String name, double... numbers) {
+            StringBuilder event = new StringBuilder(name);
+            for (double number : numbers) {
+                event.append(' ').append(number);
+            }
+            events.add(event.toString());
+        }
+
+        @Override
+        public void insert(double x, double y, double length, double width) {
+            record("insert", x, y, length, width);
+        }
+
+        @Override
+        public void find(double x, double y) {
+            record("find", x, y);
+        }
+
+        @Override
+        public void query(double xMin, double yMin, double xMax, double yMax) {
+            record("query", xMin, yMin, xMax, yMax);
+        }
+
+        @Override
+        public void count(double xMin, double yMin, double xMax, double yMax) {
+            record("count", xMin, yMin, xMax, yMax);
+        }
+
+        @Override
+        public void heatmap(double xMin, double yMin, double xMax, double yMax, int cellsX, int cellsY) {
+            record("heatmap", xMin, yMin, xMax, yMax);
+            events.add(events.remove(events.size() - 1) + " " + cellsX + " " + cellsY);
+        }
+
+        @Override
+        public void nearest(double x, double y, int k) {
+            record("nearest", x, y);
+            events.add(events.remove(events.size() - 1) + " " + k);
+        }
+
+        @Override
+        public void delete(double x, double y) {
+            record("delete", x, y);
+        }
+
+        @Override
+        public void update(double x, double y, double length, double width) {
+            record("update", x, y, length, width);
+        }
+
+        @Override
+        public void move(double x, double y, double newX, double newY, double length, double width) {
+            record("move", x, y, newX, newY, length, width);
+        }
+
+        @Override
+        public void dump() {
+            record("dump");
+        }
+
+        @Override
+        public void save(String path) {
+            events.add("save " + path);
+        }
+
+        @Override
+        public void stats() {
+            record("stats");
+        }
+
+        @Override
+        public void join(String path) {
+            events.add("join " + path);
+        }
+
+        @Override
+        public void reject(CommandReader.Command command, String message) {
+            events.add("reject " + command + " " + message);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class CommandServerTest {
+
+    // Sends the script in pieces of random size, closes the sending side and returns all
+    // the server answered
+    private static String send(SocketAddress address, String script, Random random) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.wrap(script.getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                ByteBuffer piece = out.slice().limit(Math.min(out.remaining(), 1 + random.nextInt(4096)));
+                while (piece.hasRemaining()) {
+                    out.position(out.position() + channel.write(piece));
+                }
+            }
+            channel.shutdownOutput();
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            ByteBuffer in = ByteBuffer.allocate(8192);
+            while (channel.read(in) >= 0) {
+                answer.write(in.array(), 0, in.position());
+                in.clear();
+            }
+            return answer.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    // Runs the script as a connection does, on a tree of its own
+    private static String runAlone(String script, Quadtree tree) throws IOException {
+        StringWriter out = new StringWriter();
+        TextResultSink sink = new TextResultSink(out, true);
+        byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+        try (CommandReader reader = new CommandReader(Channels.newChannel(new ByteArrayInputStream(bytes)))) {
+            Main.CommandProcessor processor = new Main.CommandProcessor(tree, reader, sink, null, 0, false);
+            reader.run(processor);
+            processor.completeRuns();
+        }
+        sink.flush();
+        return out.toString();
+    }
+
+    // Changes and lookups kept to one vertical band of the plane, among rectangles that do
+    // not overlap, so every answer is the same whatever the other clients do meanwhile
+    private static String script(int client, Random random) {
+        double band = -50 + 25 * client;
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            script.append("Insert ").append(band + i % 10 * 2).append(' ').append(-40 + i / 10 * 2).append(' ')
+                    .append(0.5 + random.nextInt(10) / 10.0).append(' ').append(0.5 + random.nextInt(10) / 10.0).append('\n');
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 30; i++) {
+                double x = band + random.nextInt(10) * 2 + 0.25, y = -40 + random.nextInt(6) * 2 + 0.25;
+                script.append(switch (random.nextInt(6)) {
+                    case 0 -> "Delete " + x + " " + y;
+                    case 1 -> "Update " + x + " " + y + " " + (0.5 + random.nextInt(10) / 10.0) + " 0.7";
+                    case 2 -> "Query " + x + " " + y + " " + (x + 0.1) + " " + (y + 0.1);
+                    case 3 -> "Nearest " + x + " " + y + " 1";
+                    default -> "Find " + x + " " + y;
+                }).append('\n');
+            }
+            script.append("Count ").append(band - 1).append(" -50 ").append(band + 20).append(" 50\n");
+            script.append("Find 1\n");
+        }
+        // Skipped without being held in memory, and the lines after it still run
+        script.append("Insert ").append("1".repeat(CommandReader.MAX_LINE_LENGTH)).append('\n');
+        script.append("Count ").append(band - 1).append(" -50 ").append(band + 20).append(" 50");
+        return script.toString();
+    }
+
+    @Test
+    void pipelinedClientsEachGetTheirOwnAnswers() throws Exception {
+        Quadtree index = new Quadtree();
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        try (CommandServer server = CommandServer.open("0", index, "compact", null, 0)) {
+            SocketAddress address = server.address();
+            Future<?> serving = pool.submit(() -> {
+                server.serve();
+                return null;
+            });
+            List<Future<String>> answers = new ArrayList<>();
+            List<String> scripts = new ArrayList<>();
+            for (int client = 0; client < 4; client++) {
+                String script = script(client, new Random(client));
+                scripts.add(script);
+                long seed = 100 + client;
+                answers.add(pool.submit(() -> send(address, script, new Random(seed))));
+            }
+
+            List<String> contents = new ArrayList<>();
+            for (int client = 0; client < 4; client++) {
+                Quadtree alone = new Quadtree();
+                assertEquals(runAlone(scripts.get(client), alone), answers.get(client).get(), "client " + client);
+                contents.addAll(Entries.of(alone));
+            }
+            Collections.sort(contents);
+            assertEquals(contents, Entries.of(index));
+            server.close();
+            serving.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void connectionsOnlyReachFilesInsideTheServersDirectory() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        try (CommandServer server = CommandServer.open("127.0.0.1:0", new Quadtree(), "compact", null, 0)) {
+            pool.submit(() -> {
+                server.serve();
+                return null;
+            });
+            String answer = send(server.address(), "Insert 1 1 1 1\nSave /tmp/escaped.qts\nSave ../escaped.qts\n"
+                    + "Save a/../../escaped.qts\nJoin /tmp/escaped.qts\nJoin ../escaped.qts\nJoin\n", new Random(1));
+            String save = "Error: Save over a connection requires a relative path inside the server's directory: ";
+            String join = "Error: Join over a connection requires a relative path inside the server's directory: ";
+            assertEquals(save + "/tmp/escaped.qts\n" + save + "../escaped.qts\n" + save + "a/../../escaped.qts\n"
+                    + join + "/tmp/escaped.qts\n" + join + "../escaped.qts\nNo intersecting rectangles\n", answer);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Quadtree index = new Quadtree();
+        assertThrows(IllegalArgumentException.class, () -> CommandServer.open("0.0.0.0:0", index, "text", null, 0));
+        assertThrows(IllegalArgumentException.class, () -> CommandServer.open("192.0.2.1:0", index, "text", null, 0));
+    }
+}
@@ -0,0 +1,147 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentQuadtreeTest {
+
+    private static List<String> query(ConcurrentQuadtree tree, double xMin, double yMin, double xMax, double yMax) {
+        List<String> found = new ArrayList<>();
+        tree.query(xMin, yMin, xMax, yMax, (x, y, length, width) -> found.add(Arrays.toString(new double[] {x, y, length, width})));
+        Collections.sort(found);
+        return found;
+    }
+
+    @Test
+    void answersLikeAPlainTree() {
+        Random random = new Random(8);
+        ConcurrentQuadtree concurrent = new ConcurrentQuadtree();
+        Quadtree plain = new Quadtree();
+        // Up to 20 wide over stripes 12.5 wide, and some origins beyond the grid
+        double[] entries = Entries.random(random, 3000, 60, 20);
+        for (int i = 0; i < entries.length; i += 4) {
+            concurrent.insert(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+        Entries.insertAll(plain, entries);
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 120 - 60, y = random.nextDouble() * 120 - 60;
+            double length = random.nextDouble() * 20, width = random.nextDouble() * 20;
+            if (i % 2 == 0) {
+                concurrent.delete(x, y);
+                plain.delete(x, y);
+            } else if (Entries.query(plain, x, y, x, y).size() == 1) {
+                // Where rectangles overlap, either tree may resize another of them
+                assertTrue(concurrent.update(x, y, length, width));
+                assertTrue(plain.update(x, y, length, width));
+            } else {
+                concurrent.insert(x, y, length, width);
+                plain.insert(x, y, length, width);
+            }
+        }
+
+        List<String> all = Entries.of(plain);
+        double infinity = Double.POSITIVE_INFINITY;
+        assertEquals(all, query(concurrent, -infinity, -infinity, infinity, infinity));
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 140 - 70, y = random.nextDouble() * 140 - 70;
+            Quadtree.Rectangle found = concurrent.find(x, y);
+            assertEquals(plain.find(x, y) == null, found == null);
+            if (found != null) {
+                assertTrue(found.contains(x, y) && all.contains(Entries.of(found)));
+            }
+            double size = random.nextDouble() * 15;
+            assertEquals(Entries.query(plain, x, y, x + size, y + size), query(concurrent, x, y, x + size, y + size));
+            int k = 1 + random.nextInt(10);
+            assertEquals(Entries.distances(plain.nearest(x, y, k), x, y), Entries.distances(concurrent.nearest(x, y, k), x, y));
+        }
+    }
+
+    @Test
+    void readersSeeEveryStableRectangleWhileAWriterChangesOthers() throws Exception {
+        // Stable rectangles in the bottom half and changing ones in the top half, both wide
+        // enough to cross stripe edges; the writer's deletes only ever touch the top half
+        ConcurrentQuadtree tree = new ConcurrentQuadtree();
+        Random random = new Random(9);
+        double[] stable = new double[400 * 4];
+        for (int i = 0; i < stable.length; i += 4) {
+            stable[i] = random.nextDouble() * 90 - 50;
+            stable[i + 1] = random.nextDouble() * 30 - 50;
+            stable[i + 2] = 1 + random.nextDouble() * 14;
+            stable[i + 3] = 1 + random.nextDouble() * 14;
+            tree.insert(stable[i], stable[i + 1], stable[i + 2], stable[i + 3]);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<double[]> changing = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<?> writer = pool.submit(() -> {
+                Random writes = new Random(10);
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        if (changing.isEmpty() || writes.nextInt(3) > 0) {
+                            double[] rect = {writes.nextDouble() * 90 - 50, 5 + writes.nextDouble() * 30,
+                                1 + writes.nextDouble() * 14, 1 + writes.nextDouble() * 14};
+                            tree.insert(rect[0], rect[1], rect[2], rect[3]);
+                            changing.add(rect);
+                        } else {
+                            double[] rect = changing.get(writes.nextInt(changing.size()));
+                            double x = rect[0] + rect[2] / 2, y = rect[1] + rect[3] / 2;
+                            tree.delete(x, y);
+                            changing.removeIf(other -> x >= other[0] && x <= other[0] + other[2]
+                                    && y >= other[1] && y <= other[1] + other[3]);
+                        }
+                    }
+                } finally {
+                    writing.set(false);
+                }
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                long seed = r;
+                readers.add(pool.submit(() -> {
+                    Random reads = new Random(seed);
+                    int rounds = 0;
+                    while (writing.get() || rounds < 100) {
+                        int i = reads.nextInt(stable.length / 4) * 4;
+                        double x = stable[i], y = stable[i + 1], length = stable[i + 2], width = stable[i + 3];
+                        String rect = Arrays.toString(new double[] {x, y, length, width});
+                        // Exactly once, however many stripes the window and the rectangle cross
+                        List<String> found = query(tree, x, y, x + length, y + width);
+                        assertEquals(1, Collections.frequency(found, rect), rect);
+                        assertNotNull(tree.find(x + length / 2, y + width / 2), rect);
+                        assertTrue(tree.nearest(x + length / 2, y + width / 2, 1).get(0).contains(x + length / 2, y + width / 2));
+                        // Whatever the writer is doing, the top half only ever holds its rectangles
+                        tree.query(-50, 5, 50, 50, (qx, qy, qLength, qWidth) -> assertTrue(qy >= 5, "stray " + qy));
+                        rounds++;
+                    }
+                }));
+            }
+            writer.get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double[] expected = Arrays.copyOf(stable, stable.length + changing.size() * 4);
+        for (int i = 0; i < changing.size(); i++) {
+            System.arraycopy(changing.get(i), 0, expected, stable.length + i * 4, 4);
+        }
+        double infinity = Double.POSITIVE_INFINITY;
+        assertEquals(Entries.of(expected), query(tree, -infinity, -infinity, infinity, infinity));
+    }
+}
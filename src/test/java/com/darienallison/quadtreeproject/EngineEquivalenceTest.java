@@ -0,0 +1,220 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Runs the same changes on each engine and on a plain {@link Quadtree} and compares every
+ * answer. Where rectangles overlap, engines may report a different one of them from find
+ * and order equal distances differently, so those answers are compared by what they must
+ * agree on.
+ */
+class EngineEquivalenceTest {
+
+    @TempDir
+    Path directory;
+
+    enum Engine {
+        LINEAR {
+            @Override
+            SpatialIndex create() {
+                return new LinearQuadtree();
+            }
+        },
+        OFF_HEAP {
+            @Override
+            SpatialIndex create() {
+                return new OffHeapQuadtree(-50, 50, -50, 50, SplitPolicy.fixed(3, 12));
+            }
+        },
+        SHARDED {
+            @Override
+            SpatialIndex create() {
+                return new ShardedQuadtree(-50, 50, -50, 50, 4);
+            }
+        },
+        SHARDED_ADAPTIVE {
+            @Override
+            SpatialIndex create() {
+                return new ShardedQuadtree(-50, 50, -50, 50, 6, true, Quadtree.LeafStorage.PACKED,
+                        SplitPolicy.adaptive(4, 16));
+            }
+        };
+
+        abstract SpatialIndex create();
+    }
+
+    private static void close(SpatialIndex index) {
+        if (index instanceof ShardedQuadtree sharded) {
+            sharded.close();
+        }
+    }
+
+    // Compares the contents and a run of random lookups
+    private static void assertAgree(Quadtree expected, SpatialIndex actual, Random random, String phase) {
+        List<String> all = Entries.of(expected);
+        assertEquals(all, Entries.of(actual), phase);
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 140 - 70, y = random.nextDouble() * 140 - 70;
+            double size = random.nextDouble() * (i % 4 == 0 ? 50 : 6);
+            String at = phase + " at (" + x + ", " + y + ")";
+
+            assertEquals(Entries.query(expected, x, y, x + size, y + size), Entries.query(actual, x, y, x + size, y + size), at);
+            assertEquals(expected.count(x, y, x + size, y + size), actual.count(x, y, x + size, y + size), at);
+            int cellsX = 1 + random.nextInt(6), cellsY = 1 + random.nextInt(6);
+            assertArrayEquals(expected.heatmap(x, y, x + size, y + size, cellsX, cellsY),
+                    actual.heatmap(x, y, x + size, y + size, cellsX, cellsY), at);
+
+            Quadtree.Rectangle found = actual.find(x, y);
+            assertEquals(expected.find(x, y) == null, found == null, at);
+            if (found != null) {
+                assertTrue(found.contains(x, y) && all.contains(Entries.of(found)), at);
+            }
+
+            int k = 1 + random.nextInt(10);
+            assertEquals(Entries.distances(expected.nearest(x, y, k), x, y), Entries.distances(actual.nearest(x, y, k), x, y), at);
+        }
+    }
+
+    @Test
+    void offHeapSnapshotsMatchPlainTreeSnapshotsByteForByte() throws IOException {
+        Random random = new Random(27);
+        SplitPolicy policy = SplitPolicy.fixed(3, 12);
+        OffHeapQuadtree offHeap = new OffHeapQuadtree(-50, 50, -50, 50, policy);
+        Quadtree plain = new Quadtree(-50, 50, -50, 50, Quadtree.LeafStorage.OBJECTS, policy);
+        // Negative sizes reach the other way from the origin, and the extents saved with each
+        // node have to follow them
+        offHeap.insert(10, 10, -5, -5);
+        plain.insert(10, 10, -5, -5);
+        double[] entries = Entries.random(random, 1500, 60, 6);
+        for (int i = 0; i < entries.length; i += 4) {
+            if (i % 12 == 0) {
+                entries[i + 2] = -entries[i + 2];
+            }
+            if (i % 20 == 0) {
+                entries[i + 3] = -entries[i + 3];
+            }
+        }
+        Entries.insertAll(offHeap, entries);
+        Entries.insertAll(plain, entries);
+        for (int i = 0; i < 200; i++) {
+            double x = random.nextDouble() * 120 - 60, y = random.nextDouble() * 120 - 60;
+            offHeap.delete(x, y);
+            plain.delete(x, y);
+        }
+
+        Path offHeapFile = directory.resolve("off-heap.qts"), plainFile = directory.resolve("plain.qts");
+        offHeap.save(offHeapFile);
+        plain.save(plainFile);
+        assertArrayEquals(Files.readAllBytes(plainFile), Files.readAllBytes(offHeapFile));
+        assertEquals(Entries.query(plain, 4, 4, 20, 20), Entries.query(offHeap, 4, 4, 20, 20));
+        assertEquals(Entries.dump(plain), Entries.dump(OffHeapQuadtree.load(offHeapFile, policy)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void overlappingRectanglesAnswerAsInAPlainTree(Engine engine) {
+        Random random = new Random(25);
+        SpatialIndex index = engine.create();
+        try {
+            Quadtree plain = new Quadtree();
+            // Some origins lie beyond the initial bounds, so every engine has to grow
+            double[] loaded = Entries.random(random, 2500, 60, 6);
+            plain.bulkLoad(loaded, loaded.length / 4);
+            index.bulkLoad(loaded, loaded.length / 4);
+            assertAgree(plain, index, random, "after the bulk load");
+
+            double[] inserted = Entries.random(random, 1000, 55, 3);
+            Entries.insertAll(plain, inserted);
+            Entries.insertAll(index, inserted);
+            assertAgree(plain, index, random, "after inserts");
+
+            for (int i = 0; i < 400; i++) {
+                double x = random.nextDouble() * 120 - 60, y = random.nextDouble() * 120 - 60;
+                plain.delete(x, y);
+                index.delete(x, y);
+            }
+            assertAgree(plain, index, random, "after deletes");
+        } finally {
+            close(index);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void separateRectanglesChangeAsInAPlainTree(Engine engine) {
+        // One rectangle at most per grid cell, so every point lies in one rectangle at most
+        // and find, update and move must all pick the same one as the plain tree
+        Random random = new Random(26);
+        int cells = 48;
+        double spacing = 2.5;
+        double[] loaded = new double[cells * cells / 3 * 4];
+        for (int i = 0; i < loaded.length; i += 4) {
+            int cell = i / 4 * 3 + random.nextInt(3);
+            loaded[i] = (cell % cells) * spacing - 60 + random.nextDouble() * 0.4;
+            loaded[i + 1] = (cell / cells) * spacing - 60 + random.nextDouble() * 0.4;
+            loaded[i + 2] = 0.1 + random.nextDouble() * 1.9;
+            loaded[i + 3] = 0.1 + random.nextDouble() * 1.9;
+        }
+        SpatialIndex index = engine.create();
+        try {
+            Quadtree plain = new Quadtree();
+            plain.bulkLoad(loaded, loaded.length / 4);
+            index.bulkLoad(loaded, loaded.length / 4);
+
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < 300; i++) {
+                    // A point inside whatever its cell holds, and the corner of another cell
+                    double x = (random.nextInt(cells) + 0.2) * spacing - 60;
+                    double y = (random.nextInt(cells) + 0.2) * spacing - 60;
+                    double cornerX = random.nextInt(cells) * spacing - 60, cornerY = random.nextInt(cells) * spacing - 60;
+                    double length = 0.1 + random.nextDouble() * 1.9, width = 0.1 + random.nextDouble() * 1.9;
+                    boolean free = Entries.query(plain, cornerX, cornerY, cornerX + spacing - 0.1, cornerY + spacing - 0.1).isEmpty();
+                    String at = "round " + round + ", change " + i;
+                    switch (random.nextInt(5)) {
+                        case 0 -> assertEquals(plain.update(x, y, length, width), index.update(x, y, length, width), at);
+                        case 1 -> {
+                            if (free) {
+                                assertEquals(plain.move(x, y, cornerX + 0.4, cornerY + 0.4), index.move(x, y, cornerX + 0.4, cornerY + 0.4), at);
+                            }
+                        }
+                        case 2 -> {
+                            if (free) {
+                                assertEquals(plain.move(x, y, cornerX, cornerY, length, width),
+                                        index.move(x, y, cornerX, cornerY, length, width), at);
+                            }
+                        }
+                        case 3 -> {
+                            plain.delete(x, y);
+                            index.delete(x, y);
+                        }
+                        default -> {
+                            if (free) {
+                                plain.insert(cornerX, cornerY, length, width);
+                                index.insert(cornerX, cornerY, length, width);
+                            }
+                        }
+                    }
+                }
+                assertEquals(Entries.of(plain), Entries.of(index), "round " + round);
+                for (int i = 0; i < 500; i++) {
+                    double x = random.nextDouble() * 120 - 60, y = random.nextDouble() * 120 - 60;
+                    assertEquals(Entries.of(plain.find(x, y)), Entries.of(index.find(x, y)));
+                }
+            }
+        } finally {
+            close(index);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.darienallison.quadtreeproject;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Helpers shared by the tests: random rectangles and the exact contents and structure of an
+ * index in a form that compares with assertEquals.
+ */
+final class Entries {
+
+    private Entries() {
+    }
+
+    /**
+     * Returns count random rectangles packed as x, y, length, width quadruples, with origins in
+     * [-span, span] on both axes and dimensions in [0, maxSize).
+     */
+    static double[] random(Random random, int count, double span, double maxSize) {
+        double[] entries = new double[count * 4];
+        for (int i = 0; i < entries.length; i += 4) {
+            entries[i] = (random.nextDouble() * 2 - 1) * span;
+            entries[i + 1] = (random.nextDouble() * 2 - 1) * span;
+            entries[i + 2] = random.nextDouble() * maxSize;
+            entries[i + 3] = random.nextDouble() * maxSize;
+        }
+        return entries;
+    }
+
+    /** Inserts packed rectangles one at a time. */
+    static void insertAll(SpatialIndex index, double[] entries) {
+        for (int i = 0; i < entries.length; i += 4) {
+            index.insert(entries[i], entries[i + 1], entries[i + 2], entries[i + 3]);
+        }
+    }
+
+    /** Returns every rectangle of the index, sorted, each as its exact four numbers. */
+    static List<String> of(SpatialIndex index) {
+        List<String> all = new ArrayList<>();
+        index.query(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY, (x, y, length, width) -> all.add(Arrays.toString(new double[] {x, y, length, width})));
+        Collections.sort(all);
+        return all;
+    }
+
+    /** Returns packed rectangles, sorted, each as its exact four numbers. */
+    static List<String> of(double[] entries) {
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < entries.length; i += 4) {
+            all.add(Arrays.toString(Arrays.copyOfRange(entries, i, i + 4)));
+        }
+        Collections.sort(all);
+        return all;
+    }
+
+    /** Returns the rectangles of the index that intersect a window, sorted. */
+    static List<String> query(SpatialIndex index, double xMin, double yMin, double xMax, double yMax) {
+        List<String> found = new ArrayList<>();
+        index.query(xMin, yMin, xMax, yMax, (x, y, length, width) -> found.add(Arrays.toString(new double[] {x, y, length, width})));
+        Collections.sort(found);
+        return found;
+    }
+
+    /** Returns a rectangle as its exact four numbers, or null. */
+    static String of(Quadtree.Rectangle rect) {
+        return rect == null ? null
+                : Arrays.toString(new double[] {rect.getX(), rect.getY(), rect.getLength(), rect.getWidth()});
+    }
+
+    /** Returns the squared distances from a point to each rectangle, in the order given. */
+    static List<Double> distances(List<Quadtree.Rectangle> rects, double x, double y) {
+        List<Double> distances = new ArrayList<>();
+        for (Quadtree.Rectangle rect : rects) {
+            distances.add(Quadtree.squaredDistance(x, y, rect.getX(), rect.getY(),
+                    rect.getX() + rect.getLength(), rect.getY() + rect.getWidth()));
+        }
+        return distances;
+    }
+
+    /** Returns the compact dump of an index, which shows its nodes and the order of every leaf. */
+    static String dump(SpatialIndex index) {
+        StringWriter out = new StringWriter();
+        TextResultSink sink = new TextResultSink(out, true);
+        index.dump(sink);
+        sink.flush();
+        return out.toString();
+    }
+}
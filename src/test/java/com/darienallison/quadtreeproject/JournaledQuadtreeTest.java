@@ -0,0 +1,190 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournaledQuadtreeTest {
+
+    // An insert record: the operation byte, four doubles and the checksum
+    private static final int INSERT_BYTES = 1 + 4 * 8 + 4;
+
+    @TempDir
+    Path directory;
+
+    // Applies the same random changes to the journaled tree and to a plain tree
+    private static void change(Random random, int count, JournaledQuadtree journaled, Quadtree plain) throws IOException {
+        for (int i = 0; i < count; i++) {
+            double x = random.nextDouble() * 90 - 45, y = random.nextDouble() * 90 - 45;
+            double length = random.nextDouble() * 5, width = random.nextDouble() * 5;
+            switch (random.nextInt(5)) {
+                case 0 -> {
+                    journaled.delete(x, y);
+                    plain.delete(x, y);
+                }
+                case 1 -> assertEquals(plain.update(x, y, length, width), journaled.update(x, y, length, width));
+                default -> {
+                    journaled.insert(x, y, length, width);
+                    plain.insert(x, y, length, width);
+                }
+            }
+        }
+    }
+
+    private static String dump(JournaledQuadtree tree) {
+        StringWriter out = new StringWriter();
+        TextResultSink sink = new TextResultSink(out, true);
+        tree.dump(sink);
+        sink.flush();
+        return out.toString();
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    void reopeningReplaysEveryCommittedChange() throws IOException {
+        Random random = new Random(14);
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 16, 300)) {
+            change(random, 1000, journaled, plain);
+        }
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 16, 300)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+            change(random, 1000, reopened, plain);
+        }
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+        }
+    }
+
+    @Test
+    void aTruncatedTailIsDroppedAndLaterRecordsFollowTheLastIntactOne() throws IOException {
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 1, 1000)) {
+            for (int i = 0; i < 10; i++) {
+                journaled.insert(i * 4 - 20, i * 3 - 15, 2, 1);
+                if (i < 9) {
+                    plain.insert(i * 4 - 20, i * 3 - 15, 2, 1);
+                }
+            }
+        }
+        Path journal = directory.resolve("journal-0.log");
+        assertEquals(10 * INSERT_BYTES, Files.size(journal));
+        // A crash halfway through writing the last record
+        try (FileChannel file = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            file.truncate(10 * INSERT_BYTES - 5);
+        }
+
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 1, 1000)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+            assertEquals(9 * INSERT_BYTES, Files.size(journal));
+            reopened.insert(30, 30, 1, 1);
+            plain.insert(30, 30, 1, 1);
+        }
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 1, 1000)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+        }
+    }
+
+    @Test
+    void aCorruptRecordEndsTheReplay() throws IOException {
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 1, 1000)) {
+            for (int i = 0; i < 6; i++) {
+                journaled.insert(i * 5 - 20, 0, 1, 1);
+                if (i < 3) {
+                    plain.insert(i * 5 - 20, 0, 1, 1);
+                }
+            }
+        }
+        // Flip a bit in a coordinate of the fourth record; the records after it go with it
+        Path journal = directory.resolve("journal-0.log");
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[3 * INSERT_BYTES + 4] ^= 1;
+        Files.write(journal, bytes);
+
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+            assertEquals(3 * INSERT_BYTES, Files.size(journal));
+        }
+    }
+
+    @Test
+    void checkpointsKeepThePreviousGenerationOnly() throws IOException {
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 8, 100)) {
+            for (int i = 0; i < 450; i++) {
+                journaled.insert(i % 90 - 45, i / 10 - 22, 1, 1);
+                plain.insert(i % 90 - 45, i / 10 - 22, 1, 1);
+            }
+        }
+        assertEquals(List.of("checkpoint-3.qts", "checkpoint-4.qts", "journal-3.log", "journal-4.log"), files());
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 8, 100)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+        }
+    }
+
+    @Test
+    void aDamagedCheckpointFallsBackToThePreviousOne() throws IOException {
+        Random random = new Random(16);
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 8, 100)) {
+            change(random, 250, journaled, plain);
+        }
+        assertEquals(List.of("checkpoint-1.qts", "checkpoint-2.qts", "journal-1.log", "journal-2.log"), files());
+        Path newest = directory.resolve("checkpoint-2.qts");
+        try (FileChannel file = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+            file.truncate(file.size() / 2);
+        }
+
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 8, 100)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+            change(random, 30, reopened, plain);
+        }
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 8, 100)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+        }
+    }
+
+    @Test
+    void theFirstCheckpointFallsBackToTheFirstJournal() throws IOException {
+        Random random = new Random(17);
+        Quadtree plain = new Quadtree();
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 8, 100)) {
+            change(random, 160, journaled, plain);
+        }
+        assertEquals(List.of("checkpoint-1.qts", "journal-0.log", "journal-1.log"), files());
+        Files.write(directory.resolve("checkpoint-1.qts"), new byte[] {1, 2, 3});
+
+        try (JournaledQuadtree reopened = JournaledQuadtree.open(directory, 8, 100)) {
+            assertEquals(Entries.dump(plain), dump(reopened));
+        }
+    }
+
+    @Test
+    void recoveryFailsWhenNoCheckpointCanBeRead() throws IOException {
+        try (JournaledQuadtree journaled = JournaledQuadtree.open(directory, 8, 100)) {
+            change(new Random(18), 250, journaled, new Quadtree());
+        }
+        assertEquals(List.of("checkpoint-1.qts", "checkpoint-2.qts", "journal-1.log", "journal-2.log"), files());
+        Files.write(directory.resolve("checkpoint-1.qts"), new byte[] {1, 2, 3});
+        Files.write(directory.resolve("checkpoint-2.qts"), new byte[] {1, 2, 3});
+
+        assertThrows(IOException.class, () -> JournaledQuadtree.open(directory, 8, 100));
+    }
+}
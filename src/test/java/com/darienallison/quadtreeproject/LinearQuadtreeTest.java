@@ -0,0 +1,32 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class LinearQuadtreeTest {
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void nearestRejectsPointsItCannotWidenTowards() {
+        LinearQuadtree tree = new LinearQuadtree();
+        tree.insert(1, 1, 2, 2);
+        tree.insert(-10, -10, 1, 1);
+
+        // A NaN reach never compared as reached, so these used to widen the window forever
+        assertThrows(IllegalArgumentException.class, () -> tree.nearest(Double.NaN, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> tree.nearest(0, Double.NaN, 3));
+        assertThrows(IllegalArgumentException.class, () -> tree.nearest(Double.POSITIVE_INFINITY, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LinearQuadtree().nearest(Double.NaN, Double.NaN, 1));
+
+        // Points far beyond the bounds still widen until every rectangle is within reach
+        assertEquals(List.of("[-10.0, -10.0, 1.0, 1.0]", "[1.0, 1.0, 2.0, 2.0]"),
+                tree.nearest(-1e300, -1e300, 5).stream().map(Entries::of).toList());
+        assertEquals("[1.0, 1.0, 2.0, 2.0]", Entries.of(tree.nearest(1e15, 1e15, 1).get(0)));
+        assertEquals(List.of(), new LinearQuadtree().nearest(3, 3, 2));
+    }
+}
@@ -0,0 +1,154 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PersistentQuadtreeTest {
+
+    private static List<String> query(PersistentQuadtree tree, double xMin, double yMin, double xMax, double yMax) {
+        List<String> found = new ArrayList<>();
+        tree.query(xMin, yMin, xMax, yMax, (x, y, length, width) -> found.add(Arrays.toString(new double[] {x, y, length, width})));
+        Collections.sort(found);
+        return found;
+    }
+
+    private static List<String> all(PersistentQuadtree tree) {
+        double infinity = Double.POSITIVE_INFINITY;
+        return query(tree, -infinity, -infinity, infinity, infinity);
+    }
+
+    @Test
+    void earlierVersionsStayAsTheyWere() {
+        Random random = new Random(9);
+        List<PersistentQuadtree> versions = new ArrayList<>();
+        List<List<String>> contents = new ArrayList<>();
+        PersistentQuadtree tree = new PersistentQuadtree();
+        for (int i = 0; i < 1500; i++) {
+            double x = random.nextDouble() * 120 - 60, y = random.nextDouble() * 120 - 60;
+            tree = switch (i % 5) {
+                case 0 -> tree.delete(x, y);
+                case 1 -> tree.update(x, y, random.nextDouble() * 3, random.nextDouble() * 3);
+                default -> tree.insert(x, y, random.nextDouble() * 3, random.nextDouble() * 3);
+            };
+            if (i % 50 == 0) {
+                versions.add(tree);
+                contents.add(all(tree));
+            }
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(contents.get(i), all(versions.get(i)), "version " + i);
+            assertEquals(contents.get(i).size(), versions.get(i).size());
+        }
+
+        // A change that finds nothing to change hands back the same version
+        assertSame(tree, tree.delete(1000, 1000));
+        assertSame(tree, tree.update(1000, 1000, 1, 1));
+    }
+
+    @Test
+    void aPinnedVersionReadsTheSameWhileOthersAreWritten() {
+        PersistentQuadtree pinned = new PersistentQuadtree().insert(1, 1, 2, 2).insert(-10, -10, 1, 1);
+        PersistentQuadtree later = pinned.update(2, 2, 5, 5).delete(-9.5, -9.5).insert(3, 3, 1, 1);
+
+        assertEquals("[1.0, 1.0, 2.0, 2.0]", Entries.of(pinned.find(2, 2)));
+        assertEquals("[-10.0, -10.0, 1.0, 1.0]", Entries.of(pinned.find(-9.5, -9.5)));
+        assertNull(pinned.find(3.5, 3.5));
+        assertEquals(2, pinned.size());
+        assertEquals(List.of("[1.0, 1.0, 5.0, 5.0]", "[3.0, 3.0, 1.0, 1.0]"), all(later));
+    }
+
+    @Test
+    void deleteCollapsesNodesLeftWithinALeafsCapacity() {
+        List<double[]> cells = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 30; j++) {
+                cells.add(new double[] {i * 3.3 - 49.5, j * 3.3 - 49.5});
+            }
+        }
+        Collections.shuffle(cells, new Random(10));
+        PersistentQuadtree tree = new PersistentQuadtree();
+        for (double[] cell : cells) {
+            tree = tree.insert(cell[0], cell[1], 0.5, 0.5);
+        }
+        int capacity = tree.shape().leafCapacity();
+
+        for (int remaining = cells.size() - 1; remaining >= 0; remaining--) {
+            double[] cell = cells.get(remaining);
+            tree = tree.delete(cell[0] + 0.25, cell[1] + 0.25);
+            TreeShape shape = tree.shape();
+            assertEquals(remaining, shape.entries());
+            assertEquals(remaining, tree.size());
+            if (remaining <= capacity) {
+                assertEquals(0, shape.internalNodes(), "nodes left after " + remaining + " entries remain");
+            }
+        }
+        assertEquals(1, tree.shape().nodes());
+    }
+
+    @Test
+    void sameOriginsOverflowAtTheDepthLimit() {
+        PersistentQuadtree tree = new PersistentQuadtree();
+        for (int i = 1; i <= 2000; i++) {
+            tree = tree.insert(0, 0, i * 0.001, i * 0.001);
+        }
+        TreeShape shape = tree.shape();
+        assertEquals(2000, shape.entries());
+        assertTrue(shape.maxDepth() <= SplitPolicy.DEFAULT.maxDepth(), shape.toString());
+        assertEquals(1, shape.overflowLeaves());
+
+        PersistentQuadtree shallow = new PersistentQuadtree(-50, 50, -50, 50, SplitPolicy.fixed(2, 4));
+        for (int i = 1; i <= 50; i++) {
+            shallow = shallow.insert(3, 3, i * 0.01, i * 0.01).insert(-20 + i * 0.7, 20, 0.1, 0.1);
+        }
+        assertEquals(4, shallow.shape().maxDepth());
+        assertEquals(50, query(shallow, 3, 3, 3, 3).size());
+        assertEquals(50, shallow.delete(3, 3).size());
+    }
+
+    @Test
+    void answersLikeAQuadtree() {
+        Random random = new Random(11);
+        Quadtree plain = new Quadtree();
+        PersistentQuadtree tree = new PersistentQuadtree();
+        for (int i = 0; i < 4000; i++) {
+            double x = random.nextDouble() * 130 - 65, y = random.nextDouble() * 130 - 65;
+            double length = random.nextDouble() * 4, width = random.nextDouble() * 4;
+            if (i % 6 == 0) {
+                plain.delete(x, y);
+                tree = tree.delete(x, y);
+            } else if (i % 6 == 1 && Entries.query(plain, x, y, x, y).size() == 1) {
+                // Only where one rectangle holds the point is the one resized the same
+                assertTrue(plain.update(x, y, length, width));
+                tree = tree.update(x, y, length, width);
+            } else {
+                plain.insert(x, y, length, width);
+                tree = tree.insert(x, y, length, width);
+            }
+        }
+
+        List<String> contents = Entries.of(plain);
+        assertEquals(contents, all(tree));
+        assertEquals(contents.size(), tree.size());
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 140 - 70, y = random.nextDouble() * 140 - 70;
+            Quadtree.Rectangle found = tree.find(x, y);
+            assertEquals(plain.find(x, y) == null, found == null);
+            if (found != null) {
+                assertTrue(found.contains(x, y) && contents.contains(Entries.of(found)));
+            }
+            double size = random.nextDouble() * 12;
+            assertEquals(Entries.query(plain, x, y, x + size, y + size), query(tree, x, y, x + size, y + size));
+            int k = 1 + random.nextInt(10);
+            assertEquals(Entries.distances(plain.nearest(x, y, k), x, y), Entries.distances(tree.nearest(x, y, k), x, y));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class QuadtreeMetricsTest {
+
+    @Test
+    void countsEveryCallAndEverySplitAndMerge() {
+        Quadtree tree = new Quadtree(-50, 50, -50, 50, Quadtree.LeafStorage.OBJECTS, SplitPolicy.fixed(4, 8));
+        QuadtreeMetrics metrics = tree.metrics();
+        // One rectangle per quadrant fits the root; a fifth splits it
+        tree.insert(-40, -40, 1, 1);
+        tree.insert(40, -40, 1, 1);
+        tree.insert(-40, 40, 1, 1);
+        tree.insert(40, 40, 1, 1);
+        assertEquals(0, metrics.splits());
+        tree.insert(-30, -30, 1, 1);
+        assertEquals(1, metrics.splits());
+
+        TreeShape split = tree.shape();
+        assertEquals(1, split.internalNodes());
+        assertEquals(4, split.leaves());
+        assertEquals(5, split.entries());
+        assertEquals(1, split.maxDepth());
+        assertEquals(1.0, split.averageDepth());
+        assertEquals(4, split.leafCapacity());
+        assertEquals(3, split.leavesHolding(1));
+        assertEquals(1, split.leavesHolding(2));
+        assertEquals(5.0 / 16, split.fillFactor());
+        assertEquals(0, split.overflowLeaves());
+
+        // Four entries left fit the root again
+        tree.delete(40.5, 40.5);
+        assertEquals(1, metrics.merges());
+        assertTrue(tree.update(-29.5, -29.5, 2, 2));
+        assertEquals(List.of(), Entries.query(tree, 0, 0, 10, 10));
+        tree.count(-50, -50, 50, 50);
+        assertEquals(2, tree.nearest(0, 0, 2).size());
+        // The sixteenth find of a single leaf is timed and visits that leaf alone
+        for (int i = 0; i < 16; i++) {
+            tree.find(-40 + i * 0.05, -40);
+        }
+        tree.findAll(new double[] {1, 2, 3}, new double[] {1, 2, 3});
+
+        assertEquals(5, metrics.count(QuadtreeMetrics.Operation.INSERT));
+        assertEquals(19, metrics.count(QuadtreeMetrics.Operation.FIND));
+        assertEquals(2, metrics.count(QuadtreeMetrics.Operation.QUERY));
+        assertEquals(1, metrics.count(QuadtreeMetrics.Operation.NEAREST));
+        assertEquals(1, metrics.count(QuadtreeMetrics.Operation.DELETE));
+        assertEquals(1, metrics.count(QuadtreeMetrics.Operation.UPDATE));
+        assertEquals(1, metrics.latency(QuadtreeMetrics.Operation.FIND).count());
+        assertEquals(0, metrics.latency(QuadtreeMetrics.Operation.INSERT).count());
+        assertEquals(1, metrics.findNodesVisited().count());
+        assertEquals(1, metrics.findNodesVisited().max());
+
+        TreeShape merged = tree.shape();
+        assertEquals(1, merged.nodes());
+        assertEquals(0, merged.maxDepth());
+        assertEquals(1, merged.leavesHolding(4));
+        assertEquals(1.0, merged.fillFactor());
+
+        List<String> report = Main.statsReport(tree);
+        assertEquals(9, report.size(), report.toString());
+        assertEquals("Entries: 4, nodes: 1 (0 internal, 1 leaves), depth: max 0, average 0.00", report.get(0));
+        assertEquals("Leaf fill: 100.0% average; leaves by entries: 0=0 1=0 2=0 3=0 4=1, more=0; overflow leaves: 0",
+                report.get(1));
+        assertEquals("Splits: 1, merges: 1", report.get(2));
+        assertEquals("Insert: 5 calls", report.get(3));
+        assertTrue(report.get(4).matches("Find: 19 calls, sampled latency mean \\d+ ns, p50 \\d+ ns, p99 \\d+ ns, "
+                + "max \\d+ ns, nodes visited mean 1\\.00, max 1"), report.get(4));
+        assertEquals(List.of("Query: 2 calls", "Nearest: 1 calls", "Delete: 1 calls", "Update: 1 calls"),
+                report.subList(5, 9));
+
+        metrics.reset();
+        assertEquals(0, metrics.count(QuadtreeMetrics.Operation.FIND));
+        assertEquals(0, metrics.findNodesVisited().count());
+        assertEquals(0, metrics.splits() + metrics.merges());
+        // A bulk load counts each rectangle as an insert
+        tree.bulkLoad(new double[] {1, 1, 1, 1, 2, 2, 1, 1}, 2);
+        assertEquals(2, metrics.count(QuadtreeMetrics.Operation.INSERT));
+    }
+
+    @Test
+    void histogramsReportBucketUpperEnds() {
+        QuadtreeMetrics.Histogram histogram = new QuadtreeMetrics.Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(0, histogram.mean());
+        for (long value : new long[] {0, 1, 2, 3, 100, -5}) {
+            histogram.record(value);
+        }
+        // Negative values count as zero
+        assertEquals(6, histogram.count());
+        assertEquals(106.0 / 6, histogram.mean());
+        assertEquals(100, histogram.max());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(0, histogram.percentile(1.0 / 3));
+        assertEquals(1, histogram.percentile(0.5));
+        assertEquals(3, histogram.percentile(0.8));
+        // The bucket from 64 to 127, capped at the largest value seen
+        assertEquals(100, histogram.percentile(1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(1.5));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(Double.NaN));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+    }
+}
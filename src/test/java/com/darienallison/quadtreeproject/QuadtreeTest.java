@@ -0,0 +1,380 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class QuadtreeTest {
+
+    @Test
+    void packedLeavesAnswerLikeObjectLeaves() {
+        Random random = new Random(1);
+        double[] entries = Entries.random(random, 3000, 50, 4);
+        Quadtree objects = new Quadtree(Quadtree.LeafStorage.OBJECTS);
+        Quadtree packed = new Quadtree(Quadtree.LeafStorage.PACKED);
+        Entries.insertAll(objects, entries);
+        Entries.insertAll(packed, entries);
+
+        assertEquals(Entries.dump(objects), Entries.dump(packed));
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50;
+            assertEquals(Entries.of(objects.find(x, y)), Entries.of(packed.find(x, y)));
+            assertEquals(Entries.query(objects, x, y, x + 5, y + 5), Entries.query(packed, x, y, x + 5, y + 5));
+        }
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50;
+            objects.delete(x, y);
+            packed.delete(x, y);
+            double length = random.nextDouble() * 4, width = random.nextDouble() * 4;
+            assertEquals(objects.update(y, x, length, width), packed.update(y, x, length, width));
+        }
+        assertEquals(Entries.dump(objects), Entries.dump(packed));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void bulkLoadBuildsTheSameTreeAsInsertingOneByOne(Quadtree.LeafStorage storage) {
+        double[] entries = Entries.random(new Random(2), 5000, 50, 3);
+        Quadtree inserted = new Quadtree(storage);
+        Quadtree loaded = new Quadtree(storage);
+        Entries.insertAll(inserted, entries);
+        loaded.bulkLoad(entries, 5000);
+
+        assertEquals(Entries.dump(inserted), Entries.dump(loaded));
+        assertEquals(Entries.of(entries), Entries.of(loaded));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void bulkLoadAddsToWhatTheTreeHolds(Quadtree.LeafStorage storage) {
+        Random random = new Random(3);
+        double[] first = Entries.random(random, 700, 50, 3);
+        // Origins beyond the initial bounds make the root grow
+        double[] second = Entries.random(random, 900, 120, 3);
+        Quadtree tree = new Quadtree(storage);
+        Entries.insertAll(tree, first);
+        tree.bulkLoad(second, second.length / 4);
+
+        double[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        assertEquals(Entries.of(both), Entries.of(tree));
+        for (int i = 0; i < both.length; i += 4) {
+            assertNotNull(tree.find(both[i], both[i + 1]));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void deleteCollapsesNodesLeftWithinALeafsCapacity(Quadtree.LeafStorage storage) {
+        // Small rectangles on a grid, so each delete removes exactly one
+        List<double[]> cells = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 40; j++) {
+                cells.add(new double[] {i * 2.5 - 49.5, j * 2.5 - 49.5});
+            }
+        }
+        Collections.shuffle(cells, new Random(4));
+        Quadtree tree = new Quadtree(storage);
+        for (double[] cell : cells) {
+            tree.insert(cell[0], cell[1], 0.5, 0.5);
+        }
+        int capacity = tree.shape().leafCapacity();
+
+        for (int remaining = cells.size() - 1; remaining >= 0; remaining--) {
+            double[] cell = cells.get(remaining);
+            tree.delete(cell[0] + 0.25, cell[1] + 0.25);
+            assertNull(tree.find(cell[0] + 0.25, cell[1] + 0.25));
+            TreeShape shape = tree.shape();
+            assertEquals(remaining, shape.entries());
+            if (remaining <= capacity) {
+                assertEquals(0, shape.internalNodes(), "nodes left after " + remaining + " entries remain");
+            }
+        }
+        assertEquals(1, tree.shape().nodes());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void deleteKeepsEverythingItDoesNotContain(Quadtree.LeafStorage storage) {
+        Random random = new Random(5);
+        double[] entries = Entries.random(random, 2000, 50, 6);
+        Quadtree tree = new Quadtree(storage);
+        Entries.insertAll(tree, entries);
+        List<double[]> kept = new ArrayList<>();
+        for (int i = 0; i < entries.length; i += 4) {
+            kept.add(Arrays.copyOfRange(entries, i, i + 4));
+        }
+        for (int i = 0; i < 400; i++) {
+            double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50;
+            tree.delete(x, y);
+            kept.removeIf(rect -> x >= rect[0] && x <= rect[0] + rect[2] && y >= rect[1] && y <= rect[1] + rect[3]);
+        }
+        double[] expected = new double[kept.size() * 4];
+        for (int i = 0; i < kept.size(); i++) {
+            System.arraycopy(kept.get(i), 0, expected, i * 4, 4);
+        }
+        assertEquals(Entries.of(expected), Entries.of(tree));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void sameOriginsOverflowAtTheDepthLimit(Quadtree.LeafStorage storage) {
+        Quadtree tree = new Quadtree(-50, 50, -50, 50, storage, SplitPolicy.fixed(2, 4));
+        // Scattered rectangles as well, so the duplicates land in an already split tree
+        double[] scattered = Entries.random(new Random(6), 300, 50, 1);
+        Entries.insertAll(tree, scattered);
+        for (int i = 1; i <= 60; i++) {
+            tree.insert(3, 3, i * 0.01, i * 0.01);
+        }
+
+        TreeShape shape = tree.shape();
+        assertEquals(360, shape.entries());
+        assertEquals(4, shape.maxDepth());
+        assertTrue(shape.overflowLeaves() >= 1, shape.toString());
+        assertEquals(60, Entries.query(tree, 3, 3, 3, 3).size());
+        assertNotNull(tree.find(3.6, 3.6));
+
+        // Only the larger duplicates reach the point; a delete there takes all of them
+        tree.delete(3.305, 3.305);
+        assertEquals(30, Entries.query(tree, 3, 3, 3, 3).size());
+        tree.delete(3, 3);
+        assertNull(tree.find(3, 3));
+        assertEquals(Entries.of(scattered), Entries.of(tree));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void sameOriginsBeyondTheDefaultCapacityStopSplitting(Quadtree.LeafStorage storage) {
+        Quadtree tree = new Quadtree(storage);
+        for (int i = 1; i <= 6; i++) {
+            tree.insert(-7.5, 12.25, i, i);
+        }
+        TreeShape shape = tree.shape();
+        assertEquals(6, shape.entries());
+        assertTrue(shape.maxDepth() <= SplitPolicy.DEFAULT.maxDepth(), shape.toString());
+        assertEquals(6, Entries.query(tree, -7.5, 12.25, -7.5, 12.25).size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void moveCarriesRectanglesAcrossQuadrants(Quadtree.LeafStorage storage) {
+        Random random = new Random(7);
+        // One small rectangle per occupied cell of a grid reaching past the initial bounds
+        int cells = 64;
+        double[][] slots = new double[cells * cells][];
+        List<Integer> occupied = new ArrayList<>();
+        Quadtree tree = new Quadtree(storage);
+        for (int i = 0; i < 600; i++) {
+            int cell = random.nextInt(cells * cells / 4) * 4 + random.nextInt(2);
+            if (slots[cell] == null) {
+                slots[cell] = new double[] {(cell % cells) * 2.5 - 80, (cell / cells) * 2.5 - 80, 1 + i % 3 * 0.25, 1};
+                tree.insert(slots[cell][0], slots[cell][1], slots[cell][2], slots[cell][3]);
+                occupied.add(cell);
+            }
+        }
+
+        for (int i = 0; i < 3000; i++) {
+            int from = occupied.get(random.nextInt(occupied.size()));
+            int to = random.nextInt(cells * cells);
+            if (slots[to] != null) {
+                continue;
+            }
+            double[] rect = slots[from];
+            double newX = (to % cells) * 2.5 - 80, newY = (to / cells) * 2.5 - 80;
+            assertTrue(tree.move(rect[0] + 0.5, rect[1] + 0.5, newX, newY));
+
+            assertNull(tree.find(rect[0] + 0.5, rect[1] + 0.5));
+            slots[to] = new double[] {newX, newY, rect[2], rect[3]};
+            slots[from] = null;
+            occupied.set(occupied.indexOf(from), to);
+            assertEquals(Entries.of(new Quadtree.Rectangle(newX, newY, rect[2], rect[3])), Entries.of(tree.find(newX + 0.5, newY + 0.5)));
+        }
+        assertEquals(false, tree.move(-200, -200, 0, 0));
+
+        double[] expected = new double[occupied.size() * 4];
+        for (int i = 0; i < occupied.size(); i++) {
+            System.arraycopy(slots[occupied.get(i)], 0, expected, i * 4, 4);
+        }
+        assertEquals(Entries.of(expected), Entries.of(tree));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void moveAllMatchesMovingOneByOne(Quadtree.LeafStorage storage) {
+        Random random = new Random(8);
+        double[] entries = Entries.random(random, 2000, 45, 2);
+        Quadtree batched = new Quadtree(storage);
+        Quadtree single = new Quadtree(storage);
+        Entries.insertAll(batched, entries);
+        Entries.insertAll(single, entries);
+
+        // Short hops within the bounds leave both trees the same shape; the last tick reaches
+        // past them, and the batch grows the root once where single moves grow it step by step
+        for (int tick = 0; tick < 6; tick++) {
+            double reach = tick < 5 ? 4 : 90;
+            int count = 400;
+            double[] moves = new double[count * 6];
+            for (int m = 0; m < moves.length; m += 6) {
+                // The points of earlier ticks miss now and then
+                int i = random.nextInt(entries.length / 4) * 4;
+                moves[m] = entries[i] + 0.1;
+                moves[m + 1] = entries[i + 1] + 0.1;
+                moves[m + 2] = entries[i] + (random.nextDouble() * 2 - 1) * reach;
+                moves[m + 3] = entries[i + 1] + (random.nextDouble() * 2 - 1) * reach;
+                moves[m + 4] = random.nextDouble() * 2;
+                moves[m + 5] = random.nextDouble() * 2;
+            }
+            boolean[] moved = batched.moveAll(moves, count);
+            for (int m = 0; m < count; m++) {
+                int at = m * 6;
+                assertEquals(single.move(moves[at], moves[at + 1], moves[at + 2], moves[at + 3], moves[at + 4], moves[at + 5]),
+                        moved[m], "move " + m + " of tick " + tick);
+            }
+            if (tick < 5) {
+                assertEquals(Entries.dump(single), Entries.dump(batched));
+            }
+            assertEquals(Entries.of(single), Entries.of(batched));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void foundRectanglesAreCopies(Quadtree.LeafStorage storage) {
+        Quadtree tree = new Quadtree(storage);
+        tree.insert(1, 2, 3, 4);
+        Quadtree.Rectangle found = tree.find(2, 3);
+        Quadtree.Rectangle batch = tree.findAll(new double[] {2}, new double[] {3})[0];
+        Quadtree.Rectangle nearest = tree.nearest(0, 0, 1).get(0);
+
+        tree.update(2, 3, 5, 6);
+        tree.move(2, 3, -10, -10);
+        for (Quadtree.Rectangle rect : List.of(found, batch, nearest)) {
+            assertEquals("[1.0, 2.0, 3.0, 4.0]", Entries.of(rect));
+        }
+        assertEquals("[-10.0, -10.0, 5.0, 6.0]", Entries.of(tree.find(-9, -9)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void countsAndHeatmapsMatchBruteForceThroughChanges(Quadtree.LeafStorage storage) {
+        Random random = new Random(9);
+        double[] entries = Entries.random(random, 3000, 50, 5);
+        Quadtree tree = new Quadtree(storage);
+        tree.bulkLoad(entries, 1500);
+        Entries.insertAll(tree, Arrays.copyOfRange(entries, 6000, entries.length));
+        List<double[]> held = new ArrayList<>();
+        for (int i = 0; i < entries.length; i += 4) {
+            held.add(Arrays.copyOfRange(entries, i, i + 4));
+        }
+
+        for (int round = 0; round < 300; round++) {
+            double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50;
+            // Windows from a point to wider than the tree; the counts of the nodes must follow
+            // each change
+            double size = round % 50 == 0 ? 200 : random.nextDouble() * (round % 3 == 0 ? 60 : 8);
+            double xMin = x - size / 2, yMin = y - size / 2, xMax = xMin + size, yMax = yMin + size;
+            long expected = held.stream().filter(rect -> rect[0] <= xMax && rect[0] + rect[2] >= xMin
+                    && rect[1] <= yMax && rect[1] + rect[3] >= yMin).count();
+            assertEquals(expected, tree.count(xMin, yMin, xMax, yMax));
+            assertEquals(0, tree.count(xMax, yMin, xMin, yMax));
+
+            int cellsX = 1 + random.nextInt(9), cellsY = 1 + random.nextInt(9);
+            DensityGrid grid = new DensityGrid(xMin, yMin, xMax, yMax, cellsX, cellsY);
+            for (double[] rect : held) {
+                if (rect[0] <= xMax && rect[0] + rect[2] >= xMin && rect[1] <= yMax && rect[1] + rect[3] >= yMin) {
+                    grid.visit(rect[0], rect[1], rect[2], rect[3]);
+                }
+            }
+            assertArrayEquals(grid.counts(), tree.heatmap(xMin, yMin, xMax, yMax, cellsX, cellsY));
+
+            switch (round % 4) {
+                case 0 -> {
+                    tree.delete(x, y);
+                    held.removeIf(rect -> x >= rect[0] && x <= rect[0] + rect[2] && y >= rect[1] && y <= rect[1] + rect[3]);
+                }
+                case 1 -> {
+                    Quadtree.Rectangle found = tree.find(x, y);
+                    double newX = random.nextDouble() * 100 - 50, newY = random.nextDouble() * 100 - 50;
+                    if (tree.move(x, y, newX, newY)) {
+                        double[] rect = first(held, found);
+                        rect[0] = newX;
+                        rect[1] = newY;
+                    }
+                }
+                case 2 -> {
+                    tree.insert(x, y, 2, 2);
+                    held.add(new double[] {x, y, 2, 2});
+                }
+                default -> {
+                    Quadtree.Rectangle found = tree.find(x, y);
+                    if (tree.update(x, y, 1, 1)) {
+                        double[] rect = first(held, found);
+                        rect[2] = 1;
+                        rect[3] = 1;
+                    }
+                }
+            }
+        }
+    }
+
+    // The first held rectangle equal to a found one; equal duplicates are interchangeable
+    private static double[] first(List<double[]> held, Quadtree.Rectangle found) {
+        for (double[] rect : held) {
+            if (rect[0] == found.getX() && rect[1] == found.getY() && rect[2] == found.getLength() && rect[3] == found.getWidth()) {
+                return rect;
+            }
+        }
+        throw new AssertionError("not held: " + Entries.of(found));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void findAllReportsWhatFindReportsForEveryPoint(Quadtree.LeafStorage storage) {
+        Random random = new Random(10);
+        Quadtree tree = new Quadtree(storage);
+        Entries.insertAll(tree, Entries.random(random, 20000, 50, 3));
+        // Far more points than one task looks up on its own, so the batch is split and forked;
+        // some lie outside every rectangle and some repeat
+        int count = 60000;
+        double[] xs = new double[count], ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 9) {
+                xs[i] = xs[i - 1];
+                ys[i] = ys[i - 1];
+            } else {
+                xs[i] = random.nextDouble() * 120 - 60;
+                ys[i] = random.nextDouble() * 120 - 60;
+            }
+        }
+
+        Quadtree.Rectangle[] common = tree.findAll(xs, ys);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Quadtree.Rectangle[] pooled;
+        try {
+            pooled = tree.findAll(xs, ys, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(count, common.length);
+        assertEquals(count, pooled.length);
+        for (int i = 0; i < count; i++) {
+            String expected = Entries.of(tree.find(xs[i], ys[i]));
+            assertEquals(expected, Entries.of(common[i]), "point " + i);
+            assertEquals(expected, Entries.of(pooled[i]), "point " + i);
+        }
+        assertThrows(IllegalArgumentException.class, () -> tree.findAll(new double[2], new double[3]));
+    }
+}
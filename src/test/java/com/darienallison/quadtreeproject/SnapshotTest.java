@@ -0,0 +1,95 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    // A tree with collapsed quadrants and empty leaves, the shapes a snapshot most easily gets wrong
+    private static Quadtree sample(Quadtree.LeafStorage leafStorage, Random random) {
+        Quadtree tree = new Quadtree(leafStorage);
+        Entries.insertAll(tree, Entries.random(random, 4000, 50, 3));
+        for (int i = 0; i < 1500; i++) {
+            tree.delete(random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50);
+        }
+        return tree;
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void loadRebuildsTheSavedTree(Quadtree.LeafStorage leafStorage) throws IOException {
+        Random random = new Random(13);
+        Quadtree tree = sample(leafStorage, random);
+        Path file = directory.resolve("tree.qts");
+        tree.save(file);
+        String saved = Entries.dump(tree);
+        String savedShape = tree.shape().toString();
+        // The loaded tree goes on splitting and collapsing as the saved one would have
+        double[] more = Entries.random(random, 500, 50, 3);
+        Entries.insertAll(tree, more);
+
+        for (Quadtree.LeafStorage loadedStorage : Quadtree.LeafStorage.values()) {
+            Quadtree loaded = Quadtree.load(file, loadedStorage);
+            assertEquals(saved, Entries.dump(loaded));
+            assertEquals(savedShape, loaded.shape().toString());
+            Entries.insertAll(loaded, more);
+            assertEquals(Entries.dump(tree), Entries.dump(loaded));
+        }
+    }
+
+    @Test
+    void emptyTreeRoundTrips() throws IOException {
+        Path file = directory.resolve("empty.qts");
+        Quadtree tree = new Quadtree(-10, 10, -10, 10);
+        tree.save(file);
+
+        assertEquals(Entries.dump(tree), Entries.dump(Quadtree.load(file)));
+        MappedQuadtree mapped = MappedQuadtree.open(file);
+        assertEquals(0, mapped.size());
+        assertEquals(null, mapped.find(0, 0));
+        assertEquals(List.of(), mapped.nearest(0, 0, 3));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void mappedTreeAnswersLikeTheSavedTree(Quadtree.LeafStorage leafStorage) throws IOException {
+        Random random = new Random(17);
+        Quadtree tree = sample(leafStorage, random);
+        Path file = directory.resolve("mapped.qts");
+        tree.save(file);
+        MappedQuadtree mapped = MappedQuadtree.open(file);
+
+        assertEquals(Entries.of(tree).size(), mapped.size());
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 110 - 55, y = random.nextDouble() * 110 - 55;
+            assertEquals(Entries.of(tree.find(x, y)), Entries.of(mapped.find(x, y)));
+
+            double size = random.nextDouble() * 20;
+            assertEquals(Entries.query(tree, x, y, x + size, y + size), query(mapped, x, y, x + size, y + size));
+
+            int k = 1 + random.nextInt(12);
+            assertEquals(Entries.distances(tree.nearest(x, y, k), x, y), Entries.distances(mapped.nearest(x, y, k), x, y));
+        }
+    }
+
+    private static List<String> query(MappedQuadtree mapped, double xMin, double yMin, double xMax, double yMax) {
+        List<String> found = new ArrayList<>();
+        mapped.query(xMin, yMin, xMax, yMax, (x, y, length, width) -> found.add(Arrays.toString(new double[] {x, y, length, width})));
+        Collections.sort(found);
+        return found;
+    }
+}
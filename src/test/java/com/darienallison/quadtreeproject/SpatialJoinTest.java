@@ -0,0 +1,138 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Compares every join with the pairs found by testing each pair of rectangles, counting
+ * repeats, so a pair reported twice or missed fails as much as a wrong one.
+ */
+class SpatialJoinTest {
+
+    // Overlapping random rectangles, with duplicates, rectangles that only touch and some
+    // with negative sizes among them
+    private static double[] rectangles(Random random, int count, double span) {
+        double[] entries = Entries.random(random, count, span, 8);
+        for (int i = 0; i < entries.length; i += 4) {
+            switch (i / 4 % 50) {
+                case 7 -> System.arraycopy(entries, i - 4, entries, i, 4);
+                case 13 -> {
+                    entries[i] = entries[i - 4] + entries[i - 2];
+                    entries[i + 1] = entries[i - 3];
+                }
+                case 29 -> {
+                    entries[i + 2] = -entries[i + 2];
+                    entries[i + 3] = -entries[i + 3];
+                }
+                default -> {
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String pair(double x1, double y1, double length1, double width1,
+                               double x2, double y2, double length2, double width2, boolean self) {
+        String first = Arrays.toString(new double[] {x1, y1, length1, width1});
+        String second = Arrays.toString(new double[] {x2, y2, length2, width2});
+        // A self join may report the two rectangles of a pair either way round
+        return self && first.compareTo(second) > 0 ? second + " " + first : first + " " + second;
+    }
+
+    private static List<String> bruteForce(double[] first, double[] second, boolean self) {
+        List<String> pairs = new ArrayList<>();
+        for (int a = 0; a < first.length; a += 4) {
+            for (int b = self ? a + 4 : 0; b < second.length; b += 4) {
+                double ax = first[a], ay = first[a + 1], aLength = first[a + 2], aWidth = first[a + 3];
+                double bx = second[b], by = second[b + 1], bLength = second[b + 2], bWidth = second[b + 3];
+                if (new Quadtree.Rectangle(ax, ay, aLength, aWidth).intersects(bx, by, bx + bLength, by + bWidth)) {
+                    pairs.add(pair(ax, ay, aLength, aWidth, bx, by, bLength, bWidth, self));
+                }
+            }
+        }
+        Collections.sort(pairs);
+        return pairs;
+    }
+
+    private static List<String> join(SpatialIndex index, SpatialIndex other) {
+        List<String> pairs = new ArrayList<>();
+        index.spatialJoin(other, (x1, y1, length1, width1, x2, y2, length2, width2) ->
+                pairs.add(pair(x1, y1, length1, width1, x2, y2, length2, width2, index == other)));
+        Collections.sort(pairs);
+        return pairs;
+    }
+
+    private static List<String> join(Quadtree tree, Quadtree other, ForkJoinPool pool) {
+        List<String> pairs = Collections.synchronizedList(new ArrayList<>());
+        tree.spatialJoin(other, (x1, y1, length1, width1, x2, y2, length2, width2) ->
+                pairs.add(pair(x1, y1, length1, width1, x2, y2, length2, width2, tree == other)), pool);
+        List<String> sorted = new ArrayList<>(pairs);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @ParameterizedTest
+    @EnumSource(Quadtree.LeafStorage.class)
+    void dualTreeJoinsReportEveryIntersectingPairOnce(Quadtree.LeafStorage storage) {
+        Random random = new Random(20);
+        double[] first = rectangles(random, 2000, 60);
+        double[] second = rectangles(random, 1500, 45);
+        // One tree grown an insert at a time past its bounds, one bulk-loaded, deep enough
+        // that the parallel join forks all its levels
+        Quadtree tree = new Quadtree(-10, 10, -10, 10, storage, SplitPolicy.fixed(4, 32));
+        Entries.insertAll(tree, first);
+        Quadtree other = new Quadtree(storage);
+        other.bulkLoad(second, second.length / 4);
+
+        List<String> self = bruteForce(first, first, true);
+        List<String> cross = bruteForce(first, second, false);
+        assertTrue(self.size() > 1000 && cross.size() > 1000, self.size() + " and " + cross.size() + " pairs");
+        assertEquals(self, join(tree, tree));
+        assertEquals(cross, join(tree, other));
+        assertEquals(bruteForce(second, first, false), join(other, tree));
+        assertEquals(bruteForce(second, second, true), join(other, other));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(self, join(tree, tree, pool));
+            assertEquals(cross, join(tree, other, pool));
+            assertEquals(List.of(), join(new Quadtree(storage), tree, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(List.of(), join(tree, new Quadtree(storage)));
+    }
+
+    @Test
+    void planeSweepReportsEveryIntersectingPairOnce() {
+        Random random = new Random(21);
+        double[] first = rectangles(random, 2000, 60);
+        double[] second = rectangles(random, 1500, 45);
+        LinearQuadtree linear = new LinearQuadtree();
+        linear.bulkLoad(first, first.length / 4);
+        LinearQuadtree otherLinear = new LinearQuadtree();
+        Entries.insertAll(otherLinear, second);
+        Quadtree tree = new Quadtree();
+        Entries.insertAll(tree, second);
+
+        List<String> cross = bruteForce(first, second, false);
+        assertEquals(bruteForce(first, first, true), join(linear, linear));
+        assertEquals(cross, join(linear, otherLinear));
+        // Between a Quadtree and another engine both sides fall back to the sweep
+        assertEquals(cross, join(linear, tree));
+        assertEquals(bruteForce(second, first, false), join(tree, linear));
+        assertEquals(join(tree, tree), join(otherLinear, otherLinear));
+        assertEquals(List.of(), join(linear, new LinearQuadtree()));
+        assertEquals(List.of(), join(new LinearQuadtree(), new LinearQuadtree()));
+    }
+}
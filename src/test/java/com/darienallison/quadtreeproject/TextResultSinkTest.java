@@ -0,0 +1,53 @@
+package com.darienallison.quadtreeproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TextResultSinkTest {
+
+    private static void assertFormattedAsString(double x, double y, double length, double width) {
+        String at = x + ", " + y + ", " + length + ", " + width;
+        assertEquals(String.format("Rectangle at (%.2f, %.2f): %.2fx%.2f", x, y, length, width),
+                TextResultSink.appendRectangle(new StringBuilder(), x, y, length, width).toString(), at);
+
+        StringWriter out = new StringWriter();
+        TextResultSink sink = new TextResultSink(out, true);
+        sink.matched(x, y, length, width);
+        sink.flush();
+        assertEquals(String.format("%.2f %.2f %.2f %.2f", x, y, length, width) + "\n",
+                out.toString(), at);
+    }
+
+    @Test
+    void numbersPrintAsStringFormatPrintsThem() {
+        List<Double> values = new ArrayList<>(List.of(0.0, -0.0, 0.001, -0.001, 0.004999, -0.004999,
+                Double.MIN_VALUE, -Double.MIN_VALUE, 1e-300, 12.0, -12.0, 99.995, 99.994999, 0.125, 0.375, -2.5,
+                1e9, -1e9, 999999999.99, 999999999.994, 999999999.995, 999999999.996, 1e9 + 0.005, 1e12 + 0.125,
+                Math.nextDown(1e9), Math.nextUp(1e9), Long.MAX_VALUE / 100.0, 1e300, Double.MAX_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+        // Every x.xx5 with up to four digits before the point, and the doubles either side of it
+        for (int hundredths = 0; hundredths < 1_000_000; hundredths += 7) {
+            double half = (hundredths + 0.5) / 100;
+            values.add(half);
+            values.add(-half);
+            values.add(Math.nextUp(half));
+            values.add(Math.nextDown(half));
+        }
+        Random random = new Random(12);
+        for (int i = 0; i < 200_000; i++) {
+            double scale = Math.pow(10, random.nextInt(13) - 3);
+            values.add((random.nextDouble() * 2 - 1) * scale);
+            // Numbers typed with three decimals, as commands give them
+            values.add(Double.parseDouble((random.nextInt(2_000_001) - 1_000_000) / 1000.0 + ""));
+        }
+
+        for (int i = 0; i + 3 < values.size(); i += 4) {
+            assertFormattedAsString(values.get(i), values.get(i + 1), values.get(i + 2), values.get(i + 3));
+        }
+    }
+}